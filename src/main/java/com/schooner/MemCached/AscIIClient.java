@@ -33,21 +33,26 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
 import com.whalin.MemCached.ErrorHandler;
-import com.whalin.MemCached.LineInputStream;
 import com.whalin.MemCached.MemCachedClient;
 
 /**
@@ -73,6 +78,16 @@ public class AscIIClient extends MemCachedClient {
 	// flags
 	private boolean sanitizeKeys;
 	private boolean primitiveAsString;
+	// ms an operation may wait for the server, 0 for the socket timeout.
+	private long operationTimeout;
+	// mutations are sent with noreply and their responses are not waited for.
+	private boolean noreply;
+	// noreply commands written on a socket before it is synced.
+	private static final int NOREPLY_SYNC_INTERVAL = 100;
+	private static final String NOREPLY = " noreply";
+	// conflicts and give-ups of update.
+	private final AtomicLong updateRetries = new AtomicLong();
+	private final AtomicLong updateFailures = new AtomicLong();
 	@SuppressWarnings("unused")
 	private boolean compressEnable;
 	@SuppressWarnings("unused")
@@ -131,7 +146,136 @@ public class AscIIClient extends MemCachedClient {
 	}
 
 	public boolean keyExists(String key) {
-		return (this.get(key, null) != null);
+
+		if (key == null) {
+			log.error("null value for key passed to keyExists()");
+			return false;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			log.error("failed to sanitize your key!", e);
+			return false;
+		}
+
+		// get SockIO obj from hash or from key
+		SchoonerSockIO sock = getSock(key, null);
+
+		// return false if unable to get SockIO obj
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, new IOException("no socket to server available"), key);
+			return false;
+		}
+
+		try {
+			// the classic protocol has no read without the value, the value of
+			// a hit is skipped in the socket and not decoded.
+			sock.writeBuf.clear();
+			RequestEncoder.putAscii(sock.writeBuf, "get ");
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			RequestEncoder.putReturn(sock.writeBuf);
+			sock.flush();
+
+			AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+			parser.expectLine();
+			if (parser.lineStartsWith(AscIIResponseParser.VALUE)) {
+				skipValue(parser);
+				return true;
+			}
+			if (!parser.lineEquals(AscIIResponseParser.END) && log.isErrorEnabled()) {
+				log.error(new StringBuffer().append("++++ error checking key: ").append(key).toString());
+				log.error(new StringBuffer().append("++++ server response: ").append(parser.getLine()).toString());
+			}
+		} catch (IOException e) {
+
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, e, key);
+
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while checking key: " + key);
+				log.error(e.getMessage(), e);
+			}
+
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString());
+			}
+
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		}
+
+		return false;
+	}
+
+	public Set<String> keysExist(String[] keys) {
+		return keysExist(keys, "get ", "\r\n", AscIIResponseParser.VALUE);
+	}
+
+	/**
+	 * skip the value and the END after the VALUE line of a get hit.
+	 */
+	private static void skipValue(AscIIResponseParser parser) throws IOException {
+		// skip "VALUE <key> <flags>"
+		parser.skipToken();
+		parser.skipToken();
+		parser.skipToken();
+		parser.skip(parser.nextInt());
+		// Skip "\r\n" after the data block, and "END\r\n"
+		parser.skipLine();
+		parser.skipLine();
+	}
+
+	/**
+	 * pipeline a check command for each key.
+	 * 
+	 * @param command
+	 *            the check command before the key
+	 * @param args
+	 *            the rest of the command after the key
+	 * @param found
+	 *            response line of a key found, VALUE for a get
+	 * @return keys found
+	 */
+	Set<String> keysExist(String[] keys, String command, String args, byte[] found) {
+		Set<String> existing = new HashSet<String>();
+		if (keys == null || keys.length == 0) {
+			log.error("missing keys for keysExist()");
+			return existing;
+		}
+
+		Map<String, List<String>> keysByHost = new HashMap<String, List<String>>();
+		Map<String, List<byte[]>> framesByHost = new HashMap<String, List<byte[]>>();
+		Set<String> missing = new HashSet<String>();
+		for (String key : keys) {
+			if (key == null) {
+				log.error("null key, so skipping");
+				continue;
+			}
+
+			try {
+				String cleanKey = sanitizeKey(key);
+				byte[] frame = new StringBuilder(command).append(cleanKey).append(args).toString()
+						.getBytes(defaultEncoding);
+				addFrame(cleanKey, key, frame, keysByHost, framesByHost, missing);
+				existing.add(key);
+			} catch (UnsupportedEncodingException e) {
+				log.error("failed to sanitize your key!", e);
+			}
+		}
+
+		existing.removeAll(missing);
+		existing.removeAll(sendPipelined(keysByHost, framesByHost, found));
+		return existing;
 	}
 
 	public boolean delete(String key) {
@@ -162,7 +306,7 @@ public class AscIIClient extends MemCachedClient {
 		}
 
 		// get SockIO obj from hash or from key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode, noreply);
 
 		// return false if unable to get SockIO obj
 		if (sock == null) {
@@ -171,32 +315,37 @@ public class AscIIClient extends MemCachedClient {
 			return false;
 		}
 
-		// build command
-		StringBuilder command = new StringBuilder("delete ").append(key);
-		if (expiry != null)
-			command.append(" " + expiry.getTime() / 1000);
-
-		command.append("\r\n");
-
 		try {
-			sock.write(command.toString().getBytes());
+			// build command
+			sock.writeBuf.clear();
+			RequestEncoder.putAscii(sock.writeBuf, "delete ");
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			if (expiry != null) {
+				sock.writeBuf.put(RequestEncoder.SPACE);
+				RequestEncoder.putDecimal(sock.writeBuf, expiry.getTime() / 1000);
+			}
+			if (noreply)
+				RequestEncoder.putAscii(sock.writeBuf, NOREPLY);
+			RequestEncoder.putReturn(sock.writeBuf);
+			sock.flush();
+			if (noreply)
+				return noreplyWritten(sock);
 
 			// if we get appropriate response back, then we return true
 			// get result code
-			SockInputStream sis = new SockInputStream(sock, Integer.MAX_VALUE);
-			String line = sis.getLine();
-			sis.close();
-			if (DELETED.equals(line)) { // successful
+			AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+			parser.readLine();
+			if (parser.lineEquals(AscIIResponseParser.DELETED)) { // successful
 				log.debug(new StringBuffer().append("++++ deletion of key: ").append(key)
 						.append(" from cache was a success").toString());
 				return true;
-			} else if (NOTFOUND.equals(line)) { // key not found
+			} else if (parser.lineEquals(AscIIResponseParser.NOT_FOUND)) { // key not found
 				log.debug(new StringBuffer().append("++++ deletion of key: ").append(key)
 						.append(" from cache failed as the key was not found").toString());
 			} else { // other error information
 				if (log.isErrorEnabled()) {
 					log.error(new StringBuffer().append("++++ error deleting key: ").append(key).toString());
-					log.error(new StringBuffer().append("++++ server response: ").append(line).toString());
+					log.error(new StringBuffer().append("++++ server response: ").append(parser.getLine()).toString());
 				}
 			}
 		} catch (IOException e) {
@@ -288,6 +437,126 @@ public class AscIIClient extends MemCachedClient {
 		return set("cas", key, value, null, null, casUnique, primitiveAsString);
 	}
 
+	public Object update(String key, Mutation mutation, int maxRetries, Date expiry) {
+		return update(key, mutation, maxRetries, expiry, null);
+	}
+
+	public Object update(String key, Mutation mutation, int maxRetries, Date expiry, Integer hashCode) {
+		if (key == null || mutation == null) {
+			log.error("key is null or mutation is null for update()");
+			return null;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, e, key);
+			log.error("failed to sanitize your key!", e);
+			return null;
+		}
+
+		for (int attempt = 0;; attempt++) {
+			// the socket goes back to the pool before a backoff.
+			SchoonerSockIO sock = getSock(key, hashCode);
+
+			if (sock == null) {
+				if (errorHandler != null)
+					errorHandler.handleErrorOnSet(this, new IOException("no socket to server available"), key);
+				return null;
+			}
+
+			boolean conflicted;
+			try {
+				MemcachedItem item;
+				try {
+					item = gets(sock, "gets", key, false);
+				} catch (Exception e) {
+					updateFailed(sock, key, e);
+					sock = null;
+					return null;
+				}
+				// an exception of the mutation goes to the caller, the socket
+				// is left in a clean state.
+				Object value = mutation.apply(item == null ? null : item.value);
+				if (value == null)
+					return null;
+				AscIIResponseParser parser;
+				try {
+					// add if not found, so that a concurrent add conflicts too.
+					sendStore(sock, item == null ? "add" : "cas", key, value, expiry, item == null ? 0L
+							: item.casUnique, primitiveAsString, false);
+					parser = sock.getResponseParser(sock.getSockInputStream());
+					parser.readLine();
+				} catch (IOException e) {
+					updateFailed(sock, key, e);
+					sock = null;
+					return null;
+				}
+				if (parser.lineEquals(AscIIResponseParser.STORED))
+					return value;
+				// a cas conflicts by EXISTS or NOT_FOUND, an add by NOT_STORED.
+				if (item == null)
+					conflicted = parser.lineEquals(AscIIResponseParser.NOT_STORED);
+				else
+					conflicted = parser.lineEquals(AscIIResponseParser.EXISTS)
+							|| parser.lineEquals(AscIIResponseParser.NOT_FOUND);
+				if (!conflicted && log.isErrorEnabled()) {
+					log.error(new StringBuffer().append("++++ error updating key: ").append(key).toString());
+					log.error(new StringBuffer().append("++++ server response: ").append(parser.getLine()).toString());
+				}
+			} finally {
+				if (sock != null) {
+					sock.close();
+					sock = null;
+				}
+			}
+
+			if (!conflicted)
+				return null;
+			if (attempt >= maxRetries) {
+				updateFailures.incrementAndGet();
+				log.warn("++++ update gave up after " + maxRetries + " retries for key: " + key);
+				return null;
+			}
+			if (!backoff(attempt))
+				return null;
+			updateRetries.incrementAndGet();
+			if (log.isDebugEnabled())
+				log.debug("++++ update conflicted, retrying for key: " + key);
+		}
+	}
+
+	/**
+	 * handle an exception on the socket of an update, the socket is closed.
+	 */
+	private void updateFailed(SchoonerSockIO sock, String key, Exception e) {
+		// if we have an errorHandler, use its hook
+		if (errorHandler != null)
+			errorHandler.handleErrorOnSet(this, e, key);
+
+		// exception thrown
+		if (log.isErrorEnabled()) {
+			log.error("++++ exception thrown while updating key: " + key);
+			log.error(e.getMessage(), e);
+		}
+
+		try {
+			sock.sockets.invalidateObject(sock);
+		} catch (Exception e1) {
+			log.error("++++ failed to close socket : " + sock.toString());
+		}
+	}
+
+	public long getUpdateRetries() {
+		return updateRetries.get();
+	}
+
+	public long getUpdateFailures() {
+		return updateFailures.get();
+	}
+
 	public boolean prepend(String key, Object value, Integer hashCode) {
 		return set("prepend", key, value, null, hashCode, 0L, primitiveAsString);
 	}
@@ -312,41 +581,82 @@ public class AscIIClient extends MemCachedClient {
 		return set("replace", key, value, expiry, hashCode, 0L, primitiveAsString);
 	}
 
+	public boolean set(String key, ByteBuffer value) {
+		return setValue("set", key, value, null, 0L, 0L, null);
+	}
+
+	public boolean set(String key, ByteBuffer value, Date expiry) {
+		return setValue("set", key, value, null, 0L, 0L, expiry);
+	}
+
+	public boolean set(String key, FileChannel src, long position, long count) {
+		return setValue("set", key, null, src, position, count, null);
+	}
+
+	public boolean set(String key, FileChannel src, long position, long count, Date expiry) {
+		return setValue("set", key, null, src, position, count, expiry);
+	}
+
+	public boolean add(String key, ByteBuffer value) {
+		return setValue("add", key, value, null, 0L, 0L, null);
+	}
+
+	public boolean add(String key, ByteBuffer value, Date expiry) {
+		return setValue("add", key, value, null, 0L, 0L, expiry);
+	}
+
+	public boolean add(String key, FileChannel src, long position, long count) {
+		return setValue("add", key, null, src, position, count, null);
+	}
+
+	public boolean add(String key, FileChannel src, long position, long count, Date expiry) {
+		return setValue("add", key, null, src, position, count, expiry);
+	}
+
+	public boolean replace(String key, ByteBuffer value) {
+		return setValue("replace", key, value, null, 0L, 0L, null);
+	}
+
+	public boolean replace(String key, ByteBuffer value, Date expiry) {
+		return setValue("replace", key, value, null, 0L, 0L, expiry);
+	}
+
+	public boolean replace(String key, FileChannel src, long position, long count) {
+		return setValue("replace", key, null, src, position, count, null);
+	}
+
+	public boolean replace(String key, FileChannel src, long position, long count, Date expiry) {
+		return setValue("replace", key, null, src, position, count, expiry);
+	}
+
 	/**
-	 * Stores data to cache.
-	 * 
-	 * If data does not already exist for this key on the server, or if the key
-	 * is being<br/>
-	 * deleted, the specified value will not be stored.<br/>
-	 * The server will automatically delete the value when the expiration time
-	 * has been reached.<br/>
-	 * <br/>
-	 * If compression is enabled, and the data is longer than the compression
-	 * threshold<br/>
-	 * the data will be stored in compressed form.<br/>
-	 * <br/>
-	 * As of the current release, all objects stored will use java
-	 * serialization.
+	 * Stores bytes from a buffer or a file region to cache as a byte array.
+	 * The bytes are sent as they are: the buffer with a gathering write, the
+	 * file region with {@link FileChannel#transferTo}, so they are never
+	 * copied into the heap.
 	 * 
 	 * @param cmdname
 	 *            action to take (set, add, replace)
 	 * @param key
 	 *            key to store cache under
 	 * @param value
-	 *            object to cache
+	 *            bytes to store from its position to its limit, or null if
+	 *            they are from the file
+	 * @param src
+	 *            file to store bytes from
+	 * @param position
+	 *            position in the file of the first byte
+	 * @param count
+	 *            bytes to store from the file
 	 * @param expiry
 	 *            expiration
-	 * @param hashCode
-	 *            if not null, then the int hashcode to use
-	 * @param asString
-	 *            if true, then store all primitives as their string value
 	 * @return true/false indicating success
 	 */
-	private boolean set(String cmdname, String key, Object value, Date expiry, Integer hashCode, Long casUnique,
-			boolean asString) {
+	private boolean setValue(String cmdname, String key, ByteBuffer value, FileChannel src, long position,
+			long count, Date expiry) {
 
-		if (cmdname == null || key == null) {
-			log.error("key is null or cmd is null/empty for set()");
+		if (key == null) {
+			log.error("key is null for set()");
 			return false;
 		}
 
@@ -361,13 +671,13 @@ public class AscIIClient extends MemCachedClient {
 			return false;
 		}
 
-		if (value == null) {
+		if (value == null && src == null) {
 			log.error("trying to store a null value to cache");
 			return false;
 		}
 
 		// get SockIO obj
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, null, noreply);
 
 		if (sock == null) {
 			if (errorHandler != null)
@@ -378,63 +688,34 @@ public class AscIIClient extends MemCachedClient {
 		if (expiry == null)
 			expiry = new Date(0);
 
-		// store flags
-		int flags = asString ? MemCachedClient.MARKER_STRING : NativeHandler.getMarkerFlag(value);
-		// construct the command
-		String cmd = new StringBuffer().append(cmdname).append(" ").append(key).append(" ").append(flags).append(" ")
-				.append(expiry.getTime() / 1000).append(" ").toString();
-
 		try {
+			// construct the command
 			sock.writeBuf.clear();
-			sock.writeBuf.put(cmd.getBytes());
-			int offset = sock.writeBuf.position();
-			// write blank bytes size.
-			sock.writeBuf.put(BLAND_DATA_SIZE);
-			if (casUnique != 0)
-				sock.writeBuf.put((" " + casUnique.toString()).getBytes());
-			sock.writeBuf.put(B_RETURN);
-			SockOutputStream output = new SockOutputStream(sock);
-			int valLen = 0;
-			if (flags != MARKER_OTHERS) {
-				byte[] b;
-				if (asString) {
-					b = value.toString().getBytes(defaultEncoding);
-				} else {
-					/*
-					 * Using NativeHandler to serialize the value
-					 */
-					b = NativeHandler.encode(value);
-				}
-				output.write(b);
-				valLen = b.length;
-			} else {
-				/*
-				 * Using default object transcoder to serialize the
-				 * non-primitive values.
-				 */
-				valLen = transCoder.encode(output, value);
-			}
-			sock.writeBuf.put(B_RETURN);
-			// write serialized object
-			byte[] objectSize = new Integer(valLen).toString().getBytes();
-			int oldPosition = sock.writeBuf.position();
-			sock.writeBuf.position(offset);
-			// put real object bytes size
-			sock.writeBuf.put(objectSize);
-			// return to correct position.
-			sock.writeBuf.position(oldPosition);
-
-			// write the buffer to server
-			// now write the data to the cache server
-			sock.flush();
+			RequestEncoder.putAscii(sock.writeBuf, cmdname);
+			sock.writeBuf.put(RequestEncoder.SPACE);
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			sock.writeBuf.put(RequestEncoder.SPACE);
+			RequestEncoder.putDecimal(sock.writeBuf, MARKER_BYTEARR);
+			sock.writeBuf.put(RequestEncoder.SPACE);
+			RequestEncoder.putDecimal(sock.writeBuf, expiry.getTime() / 1000);
+			sock.writeBuf.put(RequestEncoder.SPACE);
+			RequestEncoder.putDecimal(sock.writeBuf, value != null ? value.remaining() : count);
+			if (noreply)
+				RequestEncoder.putAscii(sock.writeBuf, NOREPLY);
+			RequestEncoder.putReturn(sock.writeBuf);
+
+			// send the value as it is, without copying it.
+			if (value != null)
+				sock.flush(new ByteBuffer[] { value.duplicate(), ByteBuffer.wrap(B_RETURN) });
+			else
+				sock.flush(src, position, count, ByteBuffer.wrap(B_RETURN));
+			if (noreply)
+				return noreplyWritten(sock);
+
 			// get result code
-			SockInputStream sis = new SockInputStream(sock, Integer.MAX_VALUE);
-			String line = sis.getLine();
-			sis.close();
-			if (STORED.equals(line)) {
-				/*
-				 * Successfully set here.
-				 */
+			AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+			parser.readLine();
+			if (parser.lineEquals(AscIIResponseParser.STORED)) {
 				return true;
 			}
 		} catch (Exception e) {
@@ -465,26 +746,249 @@ public class AscIIClient extends MemCachedClient {
 		return false;
 	}
 
-	public long addOrIncr(String key) {
-		return addOrIncr(key, 0, null);
-	}
-
-	public long addOrIncr(String key, long inc) {
-		return addOrIncr(key, inc, null);
+	/**
+	 * Stores data to cache.
+	 * 
+	 * If data does not already exist for this key on the server, or if the key
+	 * is being<br/>
+	 * deleted, the specified value will not be stored.<br/>
+	 * The server will automatically delete the value when the expiration time
+	 * has been reached.<br/>
+	 * <br/>
+	 * If compression is enabled, and the data is longer than the compression
+	 * threshold<br/>
+	 * the data will be stored in compressed form.<br/>
+	 * <br/>
+	 * As of the current release, all objects stored will use java
+	 * serialization.
+	 * 
+	 * @param cmdname
+	 *            action to take (set, add, replace)
+	 * @param key
+	 *            key to store cache under
+	 * @param value
+	 *            object to cache
+	 * @param expiry
+	 *            expiration
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @param asString
+	 *            if true, then store all primitives as their string value
+	 * @return true/false indicating success
+	 */
+	private boolean set(String cmdname, String key, Object value, Date expiry, Integer hashCode, Long casUnique,
+			boolean asString) {
+		// cas is always waited for, its result is the point of it.
+		return set(cmdname, key, value, expiry, hashCode, casUnique, asString, noreply && casUnique == 0);
 	}
 
-	public long addOrIncr(String key, long inc, Integer hashCode) {
-		boolean ret = add(key, "" + inc, hashCode);
+	/**
+	 * Stores data to cache, without waiting for the response if noreply.
+	 * 
+	 * @see #set(String, String, Object, Date, Integer, Long, boolean)
+	 * @return true if stored, or the command is sent if noreply
+	 */
+	boolean set(String cmdname, String key, Object value, Date expiry, Integer hashCode, Long casUnique,
+			boolean asString, boolean noreply) {
 
-		if (ret) {
-			return inc;
-		} else {
-			return incrdecr("incr", key, inc, hashCode);
+		if (cmdname == null || key == null) {
+			log.error("key is null or cmd is null/empty for set()");
+			return false;
 		}
-	}
 
-	public long addOrDecr(String key) {
-		return addOrDecr(key, 0, null);
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, e, key);
+			log.error("failed to sanitize your key!", e);
+			return false;
+		}
+
+		if (value == null) {
+			log.error("trying to store a null value to cache");
+			return false;
+		}
+
+		// get SockIO obj
+		SchoonerSockIO sock = getSock(key, hashCode, noreply);
+
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, new IOException("no socket to server available"), key);
+			return false;
+		}
+
+		try {
+			return store(sock, cmdname, key, value, expiry, casUnique, asString, noreply);
+		} catch (Exception e) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, e, key);
+
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while writing bytes to server on set");
+				log.error(e.getMessage(), e);
+			}
+
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString());
+			}
+
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * sends a storage command for key over sock and reads its result.
+	 * 
+	 * @see #set(String, String, Object, Date, Integer, Long, boolean)
+	 * @return true if stored, or the command is sent if noreply
+	 */
+	boolean store(SchoonerSockIO sock, String cmdname, String key, Object value, Date expiry, long casUnique,
+			boolean asString, boolean noreply) throws IOException {
+		sendStore(sock, cmdname, key, value, expiry, casUnique, asString, noreply);
+		if (noreply)
+			return noreplyWritten(sock);
+		// get result code
+		AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+		parser.readLine();
+		return parser.lineEquals(AscIIResponseParser.STORED);
+	}
+
+	/**
+	 * sends a storage command for key over sock, without reading its result.
+	 */
+	private void sendStore(SchoonerSockIO sock, String cmdname, String key, Object value, Date expiry,
+			long casUnique, boolean asString, boolean noreply) throws IOException {
+		if (expiry == null)
+			expiry = new Date(0);
+
+		// store flags
+		int flags = asString ? MemCachedClient.MARKER_STRING : NativeHandler.getMarkerFlag(value);
+
+		// construct the command
+		sock.writeBuf.clear();
+		RequestEncoder.putAscii(sock.writeBuf, cmdname);
+		sock.writeBuf.put(RequestEncoder.SPACE);
+		RequestEncoder.putAscii(sock.writeBuf, key);
+		sock.writeBuf.put(RequestEncoder.SPACE);
+		RequestEncoder.putDecimal(sock.writeBuf, flags);
+		sock.writeBuf.put(RequestEncoder.SPACE);
+		RequestEncoder.putDecimal(sock.writeBuf, expiry.getTime() / 1000);
+		sock.writeBuf.put(RequestEncoder.SPACE);
+		int offset = sock.writeBuf.position();
+		// write blank bytes size.
+		sock.writeBuf.put(BLAND_DATA_SIZE);
+		if (casUnique != 0) {
+			sock.writeBuf.put(RequestEncoder.SPACE);
+			RequestEncoder.putDecimal(sock.writeBuf, casUnique);
+		}
+		if (noreply)
+			RequestEncoder.putAscii(sock.writeBuf, NOREPLY);
+		RequestEncoder.putReturn(sock.writeBuf);
+		sendValue(sock, value, flags, asString, offset);
+	}
+
+	/**
+	 * encode the value after the command line in writeBuf and send them to
+	 * the server, the size of the value is filled in at the offset.
+	 * 
+	 * @param sock
+	 *            socket with the command line in writeBuf
+	 * @param value
+	 *            value to store
+	 * @param flags
+	 *            flags of the value
+	 * @param asString
+	 *            if true, then store all primitives as their string value
+	 * @param offset
+	 *            position of the blank size in writeBuf
+	 */
+	void sendValue(SchoonerSockIO sock, Object value, int flags, boolean asString, int offset) throws IOException {
+		SockOutputStream output = new SockOutputStream(sock);
+		int valLen = 0;
+		ByteBuffer data = null;
+		CharSequence chars = stringValue(value, flags, asString);
+		if (chars != null && sock.ensureWriteCapacity(RequestEncoder.utf8Length(chars))) {
+			// encode the string into the buffer directly.
+			valLen = RequestEncoder.putUtf8(sock.writeBuf, chars);
+		} else if (flags != MARKER_OTHERS) {
+			byte[] b;
+			if (asString) {
+				b = value.toString().getBytes(defaultEncoding);
+			} else {
+				/*
+				 * Using NativeHandler to serialize the value
+				 */
+				b = NativeHandler.encode(value);
+			}
+			if (b.length >= SchoonerSockIO.GATHER_THRESHOLD)
+				data = ByteBuffer.wrap(b);
+			else
+				output.write(b);
+			valLen = b.length;
+		} else {
+			/*
+			 * Using default object transcoder to serialize the non-primitive
+			 * values.
+			 */
+			valLen = transCoder.encode(output, value);
+		}
+		// put real object bytes size
+		RequestEncoder.putDecimal(sock.writeBuf, offset, valLen);
+
+		// write the buffer to server
+		// now write the data to the cache server
+		if (data == null) {
+			output.write(B_RETURN);
+			sock.flush();
+		} else {
+			// send the large value as it is, without copying it.
+			sock.flush(new ByteBuffer[] { data, ByteBuffer.wrap(B_RETURN) });
+		}
+	}
+
+	/**
+	 * get the string to store if the value is stored as UTF-8 string, so that
+	 * it can be encoded into the socket buffer directly.
+	 * 
+	 * @return null if the value is not a string or the encoding is not UTF-8.
+	 */
+	private CharSequence stringValue(Object value, int flags, boolean asString) {
+		if (asString)
+			return "UTF-8".equalsIgnoreCase(defaultEncoding) ? value.toString() : null;
+		if (flags != MARKER_OTHERS && value instanceof CharSequence)
+			return (CharSequence) value;
+		return null;
+	}
+
+	public long addOrIncr(String key) {
+		return addOrIncr(key, 0, null);
+	}
+
+	public long addOrIncr(String key, long inc) {
+		return addOrIncr(key, inc, null);
+	}
+
+	public long addOrIncr(String key, long inc, Integer hashCode) {
+		return addOrIncrdecr("incr", key, inc, hashCode);
+	}
+
+	public long addOrDecr(String key) {
+		return addOrDecr(key, 0, null);
 	}
 
 	public long addOrDecr(String key, long inc) {
@@ -492,12 +996,23 @@ public class AscIIClient extends MemCachedClient {
 	}
 
 	public long addOrDecr(String key, long inc, Integer hashCode) {
-		boolean ret = add(key, "" + inc, hashCode);
-		if (ret) {
+		return addOrIncrdecr("decr", key, inc, hashCode);
+	}
+
+	/**
+	 * Increments/decrements the counter, it is only added if the incr/decr
+	 * finds it missing, so that a counter existing costs one round trip. The
+	 * incr/decr is sent again if another client adds the counter meanwhile.
+	 * 
+	 * @return new value, inc if added, or -1 on error
+	 */
+	long addOrIncrdecr(String cmdname, String key, long inc, Integer hashCode) {
+		long res = incrdecr(cmdname, key, inc, hashCode, false);
+		if (res != -1)
+			return res;
+		if (set("add", key, "" + inc, null, hashCode, 0L, primitiveAsString, false))
 			return inc;
-		} else {
-			return incrdecr("decr", key, inc, hashCode);
-		}
+		return incrdecr(cmdname, key, inc, hashCode, false);
 	}
 
 	public long incr(String key) {
@@ -544,6 +1059,18 @@ public class AscIIClient extends MemCachedClient {
 	 * @return new value or -1 if not exist
 	 */
 	private long incrdecr(String cmdname, String key, long inc, Integer hashCode) {
+		return incrdecr(cmdname, key, inc, hashCode, noreply);
+	}
+
+	/**
+	 * Increments/decrements the value, without waiting for the response if
+	 * noreply.
+	 * 
+	 * @see #incrdecr(String, String, long, Integer)
+	 * @return new value, or -1 if not exist or if noreply, as the new value is
+	 *         not known then
+	 */
+	long incrdecr(String cmdname, String key, long inc, Integer hashCode, boolean noreply) {
 
 		if (key == null) {
 			log.error("null key for incrdecr()");
@@ -561,7 +1088,7 @@ public class AscIIClient extends MemCachedClient {
 		}
 
 		// get SockIO obj for given cache key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode, noreply);
 
 		if (sock == null) {
 			if (errorHandler != null)
@@ -570,23 +1097,33 @@ public class AscIIClient extends MemCachedClient {
 		}
 
 		try {
-			String cmd = new StringBuffer().append(cmdname).append(" ").append(key).append(" ").append(inc)
-					.append("\r\n").toString();
-			sock.write(cmd.getBytes());
+			sock.writeBuf.clear();
+			RequestEncoder.putAscii(sock.writeBuf, cmdname);
+			sock.writeBuf.put(RequestEncoder.SPACE);
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			sock.writeBuf.put(RequestEncoder.SPACE);
+			RequestEncoder.putDecimal(sock.writeBuf, inc);
+			if (noreply)
+				RequestEncoder.putAscii(sock.writeBuf, NOREPLY);
+			RequestEncoder.putReturn(sock.writeBuf);
+			sock.flush();
+			if (noreply) {
+				noreplyWritten(sock);
+				return -1;
+			}
 			// get result code
-			SockInputStream sis = new SockInputStream(sock, Integer.MAX_VALUE);
-			String line = sis.getLine().split("\r\n")[0];
-			sis.close();
-			if (line.matches("\\d+")) {
+			AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+			parser.readLine();
+			if (parser.isNumber()) {
 				// Sucessfully increase.
 				// return sock to pool and return result
-				return Long.parseLong(line);
-			} else if (NOTFOUND.equals(line + "\r\n")) {
+				return parser.nextLong();
+			} else if (parser.lineEquals(AscIIResponseParser.NOT_FOUND)) {
 				log.info(new StringBuffer().append("++++ key not found to incr/decr for key: ").append(key).toString());
 			} else {
 				if (log.isErrorEnabled()) {
 					log.error(new StringBuffer().append("++++ error incr/decr key: ").append(key).toString());
-					log.error(new StringBuffer().append("++++ server response: ").append(line).toString());
+					log.error(new StringBuffer().append("++++ server response: ").append(parser.getLine()).toString());
 				}
 			}
 		} catch (Exception e) {
@@ -634,6 +1171,98 @@ public class AscIIClient extends MemCachedClient {
 		return gets("gets", key, hashCode, false);
 	}
 
+	public Object getAndTouch(String key, Date expiry) {
+		return getAndTouch(key, expiry, null);
+	}
+
+	public Object getAndTouch(String key, Date expiry, Integer hashCode) {
+		return get("gat " + (expiry == null ? 0 : expiry.getTime() / 1000), key, hashCode, false);
+	}
+
+	public MemcachedItem getsAndTouch(String key, Date expiry) {
+		return getsAndTouch(key, expiry, null);
+	}
+
+	public MemcachedItem getsAndTouch(String key, Date expiry, Integer hashCode) {
+		return gets("gats " + (expiry == null ? 0 : expiry.getTime() / 1000), key, hashCode, false);
+	}
+
+	public boolean touch(String key, Date expiry) {
+		return touch(key, expiry, null);
+	}
+
+	public boolean touch(String key, Date expiry, Integer hashCode) {
+
+		if (key == null) {
+			log.error("null value for key passed to touch()");
+			return false;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			log.error("failed to sanitize your key!", e);
+			return false;
+		}
+
+		// get SockIO obj from hash or from key
+		SchoonerSockIO sock = getSock(key, hashCode);
+
+		// return false if unable to get SockIO obj
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, new IOException("no socket to server available"), key);
+			return false;
+		}
+
+		try {
+			sock.writeBuf.clear();
+			RequestEncoder.putAscii(sock.writeBuf, "touch ");
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			sock.writeBuf.put(RequestEncoder.SPACE);
+			RequestEncoder.putDecimal(sock.writeBuf, expiry == null ? 0 : expiry.getTime() / 1000);
+			RequestEncoder.putReturn(sock.writeBuf);
+			sock.flush();
+
+			AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+			parser.readLine();
+			if (parser.lineEquals(AscIIResponseParser.TOUCHED))
+				return true;
+			if (parser.lineEquals(AscIIResponseParser.NOT_FOUND)) {
+				log.debug("++++ touch of key: " + key + " failed as the key was not found");
+			} else if (log.isErrorEnabled()) {
+				log.error(new StringBuffer().append("++++ error touching key: ").append(key).toString());
+				log.error(new StringBuffer().append("++++ server response: ").append(parser.getLine()).toString());
+			}
+		} catch (IOException e) {
+
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, e, key);
+
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while touching key: " + key);
+				log.error(e.getMessage(), e);
+			}
+
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString());
+			}
+
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		}
+
+		return false;
+	}
+
 	/**
 	 * Retrieve a key from the server, using a specific hash.
 	 * 
@@ -669,7 +1298,7 @@ public class AscIIClient extends MemCachedClient {
 	 *            specified hashcode
 	 * @return memcached item with value in it.
 	 */
-	private Object get(String cmd, String key, Integer hashCode, boolean asString) {
+	Object get(String cmd, String key, Integer hashCode, boolean asString) {
 
 		if (key == null) {
 			log.error("key is null for get()");
@@ -684,7 +1313,7 @@ public class AscIIClient extends MemCachedClient {
 		}
 
 		// get SockIO obj using cache key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		if (sock == null) {
 			if (errorHandler != null)
@@ -692,96 +1321,36 @@ public class AscIIClient extends MemCachedClient {
 			return null;
 		}
 
-		String cmdLine = cmd + " " + key;
-
 		try {
 			sock.writeBuf.clear();
-			sock.writeBuf.put(cmdLine.getBytes());
-			sock.writeBuf.put(B_RETURN);
+			RequestEncoder.putAscii(sock.writeBuf, cmd);
+			sock.writeBuf.put(RequestEncoder.SPACE);
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			RequestEncoder.putReturn(sock.writeBuf);
 			// write buffer to server
 			sock.flush();
 
-			int dataSize = 0;
-			int flag = 0;
-
 			// get result code
-			SockInputStream input = new SockInputStream(sock, Integer.MAX_VALUE);
+			SockInputStream input = sock.getSockInputStream();
+			AscIIResponseParser parser = sock.getResponseParser(input);
 			// Then analysis the return metadata from server
 			// including key, flag and data size
-			boolean stop = false;
-			StringBuffer sb = new StringBuffer();
-			int b;
-			int index = 0;
-			while (!stop) {
-				/*
-				 * Critical block to parse the response header.
-				 */
-				b = input.read();
-				if (b == ' ' || b == '\r') {
-					switch (index) {
-					case 0:
-						if (END.startsWith(sb.toString()))
-							return null;
-					case 1:
-						break;
-					case 2:
-						flag = Integer.parseInt(sb.toString());
-						break;
-					case 3:
-						// get the data size
-						dataSize = Integer.parseInt(sb.toString());
-						break;
-					}
-					index++;
-					sb = new StringBuffer();
-					if (b == '\r') {
-						input.read();
-						stop = true;
-					}
-					continue;
-				}
-				sb.append((char) b);
-			}
-
-			Object o = null;
-			input.willRead(dataSize);
-			// we can only take out serialized objects
-			if (dataSize > 0) {
-				if (NativeHandler.isHandled(flag)) {
-					// decoding object
-					byte[] buf = input.getBuffer();
-					if ((flag & F_COMPRESSED) == F_COMPRESSED) {
-						GZIPInputStream gzi = new GZIPInputStream(new ByteArrayInputStream(buf));
-						ByteArrayOutputStream bos = new ByteArrayOutputStream(buf.length);
-						int count;
-						byte[] tmp = new byte[2048];
-						while ((count = gzi.read(tmp)) != -1) {
-							bos.write(tmp, 0, count);
-						}
-						// store uncompressed back to buffer
-						buf = bos.toByteArray();
-						gzi.close();
-					}
-					if (primitiveAsString || asString) {
-						o = new String(buf, defaultEncoding);
-					} else
-						o = NativeHandler.decode(buf, flag);
-				} else if (transCoder != null) {
-					// decode object with default transcoder.
-					InputStream in = input;
-					if ((flag & F_COMPRESSED) == F_COMPRESSED)
-						in = new GZIPInputStream(in);
-					if (classLoader == null)
-						o = transCoder.decode(in);
-					else
-						o = ((ObjectTransCoder) transCoder).decode(in, classLoader);
-				}
-			}
-			input.willRead(Integer.MAX_VALUE);
+			parser.expectLine();
+			if (parser.lineEquals(AscIIResponseParser.END))
+				return null;
+			if (!parser.lineStartsWith(AscIIResponseParser.VALUE))
+				throw new IOException("++++ unexpected response: " + parser.getLine());
+			// skip "VALUE <key>"
+			parser.skipToken();
+			parser.skipToken();
+			int flag = parser.nextInt();
+			int dataSize = parser.nextInt();
+
+			Object o = readValue(input, flag, dataSize, asString);
 			// Skip "\r\n" after each data block for VALUE
-			input.getLine();
+			parser.skipLine();
 			// Skip "END\r\n" after get
-			input.getLine();
+			parser.skipLine();
 			return o;
 		} catch (Exception ce) {
 			// if we have an errorHandler, use its hook
@@ -812,6 +1381,67 @@ public class AscIIClient extends MemCachedClient {
 
 	}
 
+	/**
+	 * read the value of a response off the socket and decode it.
+	 * 
+	 * @param input
+	 *            stream of the socket positioned at the first byte of the
+	 *            value
+	 * @param flag
+	 *            flags of the value
+	 * @param dataSize
+	 *            bytes of the value
+	 * @param asString
+	 *            if true, then return string val
+	 * @return the value, the stream is left after its last byte.
+	 */
+	Object readValue(SockInputStream input, int flag, int dataSize, boolean asString) throws Exception {
+		Object o = null;
+		input.willRead(dataSize);
+		// we can only take out serialized objects
+		if (dataSize > 0) {
+			if (NativeHandler.isHandled(flag)) {
+				// decoding object
+				byte[] buf = input.getBuffer();
+				if ((flag & F_COMPRESSED) == F_COMPRESSED) {
+					GZIPInputStream gzi = new GZIPInputStream(new ByteArrayInputStream(buf));
+					ByteArrayOutputStream bos = new ByteArrayOutputStream(buf.length);
+					int count;
+					byte[] tmp = new byte[2048];
+					while ((count = gzi.read(tmp)) != -1) {
+						bos.write(tmp, 0, count);
+					}
+					// store uncompressed back to buffer
+					buf = bos.toByteArray();
+					gzi.close();
+				}
+				if (primitiveAsString || asString) {
+					o = new String(buf, defaultEncoding);
+				} else
+					o = NativeHandler.decode(buf, flag);
+			} else if (transCoder != null) {
+				// decode object with default transcoder.
+				InputStream in = input;
+				if (flag == MARKER_OTHERS && dataSize <= NativeHandler.COUNTER_LENGTH) {
+					byte[] buf = input.getBuffer();
+					if (isCounter(buf, asString))
+						o = new String(buf, defaultEncoding);
+					in = new ByteArrayInputStream(buf);
+				}
+				if (o == null) {
+					if ((flag & F_COMPRESSED) == F_COMPRESSED)
+						in = new GZIPInputStream(in);
+					if (classLoader == null)
+						o = transCoder.decode(in);
+					else
+						o = ((ObjectTransCoder) transCoder).decode(in, classLoader);
+				}
+			}
+		}
+		input.willRead(Integer.MAX_VALUE);
+		return o;
+	}
+
 	public MemcachedItem gets(String cmd, String key, Integer hashCode, boolean asString) {
 
 		if (key == null) {
@@ -827,7 +1457,7 @@ public class AscIIClient extends MemCachedClient {
 		}
 
 		// get SockIO obj using cache key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		if (sock == null) {
 			if (errorHandler != null)
@@ -835,100 +1465,141 @@ public class AscIIClient extends MemCachedClient {
 			return null;
 		}
 
-		String cmdLine = cmd + " " + key;
-
 		try {
-			sock.writeBuf.clear();
-			sock.writeBuf.put(cmdLine.getBytes());
-			sock.writeBuf.put(B_RETURN);
-			// write buffer to server
-			sock.flush();
-
-			int dataSize = 0;
-			int flag = 0;
-			MemcachedItem item = new MemcachedItem();
+			return gets(sock, cmd, key, asString);
+		} catch (Exception ce) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, ce, key);
 
-			// get result code
-			SockInputStream input = new SockInputStream(sock, Integer.MAX_VALUE);
-			// Then analysis the return metadata from server
-			// including key, flag and data size
-			boolean stop = false;
-			StringBuffer sb = new StringBuffer();
-			int b;
-			int index = 0;
-			while (!stop) {
-				/*
-				 * Critical block to parse the response header.
-				 */
-				b = input.read();
-				if (b == ' ' || b == '\r') {
-					switch (index) {
-					case 0:
-						if (END.startsWith(sb.toString()))
-							return null;
-					case 1:
-						break;
-					case 2:
-						flag = Integer.parseInt(sb.toString());
-						break;
-					case 3:
-						// get the data size
-						dataSize = Integer.parseInt(sb.toString());
-						break;
-					case 4:
-						if (cmd.equals("gets"))
-							item.casUnique = Long.parseLong(sb.toString());
-						break;
-					}
-					index++;
-					sb = new StringBuffer();
-					if (b == '\r') {
-						input.read();
-						stop = true;
-					}
-					continue;
-				}
-				sb.append((char) b);
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while trying to get object from cache for key: " + key);
+				log.error(ce.getMessage(), ce);
 			}
-			Object o = null;
-			input.willRead(dataSize);
-			// we can only take out serialized objects
-			if (dataSize > 0) {
-				if (NativeHandler.isHandled(flag)) {
-					byte[] buf = input.getBuffer();
-					if ((flag & F_COMPRESSED) == F_COMPRESSED) {
-						GZIPInputStream gzi = new GZIPInputStream(new ByteArrayInputStream(buf));
-						ByteArrayOutputStream bos = new ByteArrayOutputStream(buf.length);
-						int count;
-						byte[] tmp = new byte[2048];
-						while ((count = gzi.read(tmp)) != -1) {
-							bos.write(tmp, 0, count);
-						}
-						// store uncompressed back to buffer
-						buf = bos.toByteArray();
-						gzi.close();
-					}
-					if (primitiveAsString || asString) {
-						o = new String(buf, defaultEncoding);
-					} else
-						// decoding object
-						o = NativeHandler.decode(buf, flag);
-				} else if (transCoder != null) {
-					InputStream in = input;
-					if ((flag & F_COMPRESSED) == F_COMPRESSED)
-						in = new GZIPInputStream(in);
-					// decode object with default transcoder.
-					o = transCoder.decode(in);
-				}
+
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString());
+			}
+
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
 			}
-			item.value = o;
+		}
+
+		return null;
+	}
+
+	/**
+	 * sends a gets like command for key over sock and reads the item.
+	 * 
+	 * @return the item, or null if the key is not found
+	 */
+	MemcachedItem gets(SchoonerSockIO sock, String cmd, String key, boolean asString) throws Exception {
+		sock.writeBuf.clear();
+		RequestEncoder.putAscii(sock.writeBuf, cmd);
+		sock.writeBuf.put(RequestEncoder.SPACE);
+		RequestEncoder.putAscii(sock.writeBuf, key);
+		RequestEncoder.putReturn(sock.writeBuf);
+		// write buffer to server
+		sock.flush();
+
+		MemcachedItem item = new MemcachedItem();
+
+		// get result code
+		SockInputStream input = sock.getSockInputStream();
+		AscIIResponseParser parser = sock.getResponseParser(input);
+		// Then analysis the return metadata from server
+		// including key, flag and data size
+		parser.expectLine();
+		if (parser.lineEquals(AscIIResponseParser.END))
+			return null;
+		if (!parser.lineStartsWith(AscIIResponseParser.VALUE))
+			throw new IOException("++++ unexpected response: " + parser.getLine());
+		// skip "VALUE <key>"
+		parser.skipToken();
+		parser.skipToken();
+		int flag = parser.nextInt();
+		int dataSize = parser.nextInt();
+		if (parser.hasNext())
+			item.casUnique = parser.nextLong();
+		item.value = readValue(input, flag, dataSize, asString);
+		// Skip "\r\n" after each data block for VALUE
+		parser.skipLine();
+		// Skip "END\r\n" after get
+		parser.skipLine();
+		return item;
+	}
+
+	public RawItem getRaw(String key) {
+		return getRaw(key, null, null);
+	}
+
+	public RawItem getRaw(String key, ByteBuffer dst) {
+		return getRaw(key, null, dst);
+	}
+
+	public RawItem getRaw(String key, Integer hashCode, ByteBuffer dst) {
+		if (key == null) {
+			log.error("key is null for getRaw()");
+			return null;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, e, key);
+			log.error("failed to sanitize your key!", e);
+			return null;
+		}
+
+		// get SockIO obj using cache key
+		SchoonerSockIO sock = getSock(key, hashCode);
+
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, new IOException("no socket to server available"), key);
+			return null;
+		}
+
+		try {
+			sock.writeBuf.clear();
+			RequestEncoder.putAscii(sock.writeBuf, "gets ");
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			RequestEncoder.putReturn(sock.writeBuf);
+			// write buffer to server
+			sock.flush();
+
+			SockInputStream input = sock.getSockInputStream();
+			AscIIResponseParser parser = sock.getResponseParser(input);
+			parser.expectLine();
+			if (parser.lineEquals(AscIIResponseParser.END))
+				return null;
+			if (!parser.lineStartsWith(AscIIResponseParser.VALUE))
+				throw new IOException("++++ unexpected response: " + parser.getLine());
+			// skip "VALUE <key>"
+			parser.skipToken();
+			parser.skipToken();
+			int flag = parser.nextInt();
+			int dataSize = parser.nextInt();
+			long casUnique = parser.hasNext() ? parser.nextLong() : 0;
+
+			// the value goes to the buffer as it is.
+			input.willRead(dataSize);
+			RawItem item = new RawItem(flag, casUnique, dataSize, input.readValue(dst));
 			input.willRead(Integer.MAX_VALUE);
 			// Skip "\r\n" after each data block for VALUE
-			input.getLine();
+			parser.skipLine();
 			// Skip "END\r\n" after get
-			input.getLine();
+			parser.skipLine();
 			return item;
-
 		} catch (Exception ce) {
 			// if we have an errorHandler, use its hook
 			if (errorHandler != null)
@@ -936,7 +1607,7 @@ public class AscIIClient extends MemCachedClient {
 
 			// exception thrown
 			if (log.isErrorEnabled()) {
-				log.error("++++ exception thrown while trying to get object from cache for key: " + key);
+				log.error("++++ exception thrown while trying to get raw item from cache for key: " + key);
 				log.error(ce.getMessage(), ce);
 			}
 
@@ -957,6 +1628,99 @@ public class AscIIClient extends MemCachedClient {
 		return null;
 	}
 
+	public InputStream getAsStream(String key) {
+		return getAsStream(key, null);
+	}
+
+	public InputStream getAsStream(String key, Integer hashCode) {
+		if (key == null) {
+			log.error("key is null for getAsStream()");
+			return null;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, e, key);
+			log.error("failed to sanitize your key!", e);
+			return null;
+		}
+
+		// get SockIO obj using cache key
+		SchoonerSockIO sock = getSock(key, hashCode);
+
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, new IOException("no socket to server available"), key);
+			return null;
+		}
+
+		ValueInputStream value = null;
+		try {
+			sock.writeBuf.clear();
+			RequestEncoder.putAscii(sock.writeBuf, "get ");
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			RequestEncoder.putReturn(sock.writeBuf);
+			// write buffer to server
+			sock.flush();
+
+			SockInputStream input = sock.getSockInputStream();
+			AscIIResponseParser parser = sock.getResponseParser(input);
+			parser.expectLine();
+			if (parser.lineEquals(AscIIResponseParser.END))
+				return null;
+			if (!parser.lineStartsWith(AscIIResponseParser.VALUE))
+				throw new IOException("++++ unexpected response: " + parser.getLine());
+			// skip "VALUE <key>"
+			parser.skipToken();
+			parser.skipToken();
+			int flag = parser.nextInt();
+			int dataSize = parser.nextInt();
+
+			// the stream owns the socket from now on, it skips "\r\n" after
+			// the data block and "END\r\n" when it's done.
+			value = new ValueInputStream(sock, input, dataSize, 2);
+			sock = null;
+			if ((flag & F_COMPRESSED) == F_COMPRESSED)
+				return new GZIPInputStream(value);
+			return value;
+		} catch (Exception ce) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, ce, key);
+
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while trying to get stream from cache for key: " + key);
+				log.error(ce.getMessage(), ce);
+			}
+
+			if (value != null) {
+				try {
+					value.close();
+				} catch (IOException e1) {
+					log.error("++++ failed to close stream for key: " + key);
+				}
+			} else {
+				try {
+					sock.sockets.invalidateObject(sock);
+				} catch (Exception e1) {
+					log.error("++++ failed to close socket : " + sock.toString());
+				}
+				sock = null;
+			}
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		}
+
+		return null;
+	}
+
 	/**
 	 * set transcoder. TransCoder is used to customize the serialization and
 	 * deserialization.
@@ -1004,190 +1768,999 @@ public class AscIIClient extends MemCachedClient {
 	 */
 	public Object[] getMultiArray(String[] keys, Integer[] hashCodes, boolean asString) {
 
-		Map<String, Object> data = getMulti(keys, hashCodes, asString);
+		Map<String, Object> data = getMulti(keys, hashCodes, asString);
+
+		if (data == null)
+			return null;
+
+		Object[] res = new Object[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			res[i] = data.get(keys[i]);
+		}
+
+		return res;
+	}
+
+	public Map<String, Object> getMulti(String[] keys) {
+		return getMulti(keys, null);
+	}
+
+	public Map<String, Object> getMulti(String[] keys, Integer[] hashCodes) {
+		return getMulti(keys, hashCodes, false);
+	}
+
+	/**
+	 * Retrieve multiple keys from the memcache.
+	 * 
+	 * This is recommended over repeated calls to {@link #get(String) get()},
+	 * since it<br/>
+	 * is more efficient.<br/>
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @param hashCodes
+	 *            if not null, then the Integer array of hashCodes
+	 * @param asString
+	 *            if true then retrieve using String val
+	 * @return a hashmap with entries for each key is found by the server, keys
+	 *         that are not found are not entered into the hashmap, but
+	 *         attempting to retrieve them from the hashmap gives you null.
+	 */
+	public Map<String, Object> getMulti(String[] keys, Integer[] hashCodes, boolean asString) {
+		return getMulti(keys, hashCodes, asString, false, false, null);
+	}
+
+	public Map<String, MemcachedItem> getsMulti(String[] keys) {
+		return getsMulti(keys, null);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Map<String, MemcachedItem> getsMulti(String[] keys, Integer[] hashCodes) {
+		// the loader puts MemcachedItem values only in cas mode.
+		return (Map) getMulti(keys, hashCodes, false, false, true, null);
+	}
+
+	public Map<String, Object> getMultiAndTouch(String[] keys, Date expiry) {
+		return getMultiAndTouch(keys, null, expiry);
+	}
+
+	public Map<String, Object> getMultiAndTouch(String[] keys, Integer[] hashCodes, Date expiry) {
+		return getMulti(keys, hashCodes, false, false, false, expiry == null ? new Date(0) : expiry);
+	}
+
+	public Map<String, RawItem> getMultiRaw(String[] keys) {
+		return getMultiRaw(keys, null);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Map<String, RawItem> getMultiRaw(String[] keys, Integer[] hashCodes) {
+		// the loader puts RawItem values only in raw mode.
+		return (Map) getMulti(keys, hashCodes, false, true, false, null);
+	}
+
+	public MultiGetReport getMultiReport(String[] keys) {
+		return getMultiReport(keys, null);
+	}
+
+	public MultiGetReport getMultiReport(String[] keys, Integer[] hashCodes) {
+		return getMultiReport(keys, hashCodes, false, false, false, null);
+	}
+
+	/**
+	 * @param cas
+	 *            if true, the values are loaded as {@link MemcachedItem} with
+	 *            their cas unique
+	 * @param touch
+	 *            if not null, the expiration the items found are touched with
+	 */
+	private Map<String, Object> getMulti(String[] keys, Integer[] hashCodes, boolean asString, boolean raw,
+			boolean cas, Date touch) {
+		MultiGetReport report = getMultiReport(keys, hashCodes, asString, raw, cas, touch);
+		return report == null ? null : report.getValues();
+	}
+
+	private MultiGetReport getMultiReport(String[] keys, Integer[] hashCodes, boolean asString, boolean raw,
+			boolean cas, Date touch) {
+
+		if (keys == null || keys.length == 0) {
+			log.error("missing keys for getMulti()");
+			return null;
+		}
+
+		Map<String, List<String>> hostKeys = new HashMap<String, List<String>>();
+		Map<String, Integer> hashes = hashCodes == null ? null : new HashMap<String, Integer>();
+		Map<String, Object> ret = new HashMap<String, Object>(keys.length);
+		MultiGetReport report = new MultiGetReport(ret);
+		String[] cleanKeys = new String[keys.length];
+		for (int i = 0; i < keys.length; ++i) {
+			String key = keys[i];
+			if (key == null) {
+				log.error("null key, so skipping");
+				continue;
+			}
+
+			Integer hash = null;
+			if (hashCodes != null && hashCodes.length > i)
+				hash = hashCodes[i];
+
+			cleanKeys[i] = key;
+			try {
+				cleanKeys[i] = sanitizeKey(key);
+			} catch (UnsupportedEncodingException e) {
+				// if we have an errorHandler, use its hook
+				if (errorHandler != null)
+					errorHandler.handleErrorOnGet(this, e, key);
+				log.error("failed to sanitize your key!", e);
+				report.addFailedKey(key);
+				continue;
+			}
+
+			// the host of the key, the sockets are borrowed by the loader
+			String host = pool.routeKey(cleanKeys[i], hash);
+
+			if (host == null) {
+				if (errorHandler != null)
+					errorHandler.handleErrorOnGet(this, new IOException("no socket to server available"), key);
+				report.addFailedKey(key);
+				continue;
+			}
+
+			// store in map and list if not already
+			if (!hostKeys.containsKey(host))
+				hostKeys.put(host, new ArrayList<String>());
+
+			hostKeys.get(host).add(cleanKeys[i]);
+			if (hashes != null && hash != null)
+				hashes.put(cleanKeys[i], hash);
+		}
+
+		log.debug("multi get socket count : " + hostKeys.size());
+
+		// now use new NIO implementation
+		NIOLoader loader = new NIOLoader(this, raw, cas, touch);
+		loader.doMulti(asString, hostKeys, hashes, ret, report);
+
+		// fix the return array in case we had to rewrite any of the keys
+		for (int i = 0; i < keys.length; ++i) {
+			if (cleanKeys[i] == null)
+				continue;
+
+			// if key!=cleanKey and result has cleankey
+			if (!keys[i].equals(cleanKeys[i]) && ret.containsKey(cleanKeys[i])) {
+				ret.put(keys[i], ret.get(cleanKeys[i]));
+				ret.remove(cleanKeys[i]);
+			}
+
+			if (loader.failedKeys.contains(cleanKeys[i]))
+				report.addFailedKey(keys[i]);
+
+			// backfill missing keys w/ null value
+			// if (!ret.containsKey(keys[i]))
+			// ret.put(keys[i], null);
+		}
+
+		log.debug("++++ memcache: got back " + ret.size() + " results");
+		return report;
+	}
+
+	/**
+	 * @param cas
+	 *            if true, the cas unique of the items is requested
+	 * @param touch
+	 *            if not null, the expiration to touch the items with
+	 * @return the beginning of the multi-get request to a host.
+	 */
+	StringBuilder startMultiGet(boolean cas, Date touch) {
+		if (touch == null)
+			return new StringBuilder(cas ? "gets" : "get");
+		return new StringBuilder(cas ? "gats " : "gat ").append(touch.getTime() / 1000);
+	}
+
+	/**
+	 * add a key to the multi-get request to a host.
+	 */
+	void appendMultiGet(StringBuilder request, String key, boolean cas, Date touch) {
+		request.append(' ').append(key);
+	}
+
+	/**
+	 * finish the multi-get request to a host.
+	 */
+	void endMultiGet(StringBuilder request) {
+		request.append("\r\n");
+	}
+
+	/**
+	 * @return the bytes the response of a multi-get ends with.
+	 */
+	byte[] multiGetEnd() {
+		return B_END;
+	}
+
+	/**
+	 * load the response of the multi-get request into the map.
+	 */
+	void loadMultiGet(ByteBufArrayInputStream input, AscIIResponseParser parser, Map<String, Object> hm,
+			boolean asString, boolean raw, boolean cas) throws IOException {
+		loadMulti(input, parser, hm, asString, raw, cas);
+	}
+
+	/**
+	 * This method loads the data from cache into a Map.
+	 * 
+	 * Pass a SockIO object which is ready to receive data and a HashMap<br/>
+	 * to store the results.
+	 * 
+	 * @param input
+	 *            data received from the server
+	 * @param parser
+	 *            parser to read the response lines
+	 * @param hm
+	 *            hashmap to store data into
+	 * @param asString
+	 *            if true, and if we are using NativehHandler, return string val
+	 * @param cas
+	 *            if true, store the values as {@link MemcachedItem}
+	 * @throws IOException
+	 *             if io exception happens while reading from socket
+	 */
+	private void loadMulti(ByteBufArrayInputStream input, AscIIResponseParser parser, Map<String, Object> hm,
+			boolean asString, boolean raw, boolean cas) throws IOException {
+
+		parser.reset(input);
+		while (true) {
+			parser.expectLine();
+
+			if (parser.lineStartsWith(AscIIResponseParser.VALUE)) {
+				parser.skipToken();
+				String key = parser.nextString();
+				int flag = parser.nextInt();
+				int length = parser.nextInt();
+				long casUnique = parser.hasNext() ? parser.nextLong() : 0;
+
+				// read obj into buffer
+				byte[] buf = new byte[length];
+				input.read(buf);
+				parser.skipLine();
+
+				if (raw) {
+					// leave the value as it is.
+					hm.put(key, new RawItem(flag, casUnique, length, ByteBuffer.wrap(buf)));
+					continue;
+				}
+
+				// store the object into the cache
+				Object o = decodeValue(key, buf, flag, asString);
+				if (cas) {
+					MemcachedItem item = new MemcachedItem();
+					item.value = o;
+					item.casUnique = casUnique;
+					hm.put(key, item);
+				} else
+					hm.put(key, o);
+			} else if (parser.lineEquals(AscIIResponseParser.END)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * decode a value read as a whole, e.g. by a multi-get.
+	 * 
+	 * @return the value, or null if it can't be decoded.
+	 */
+	Object decodeValue(String key, byte[] buf, int flag, boolean asString) throws IOException {
+		Object o = null;
+		// we can only take out serialized objects
+		if ((flag & F_COMPRESSED) == F_COMPRESSED) {
+			GZIPInputStream gzi = new GZIPInputStream(new ByteArrayInputStream(buf));
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(buf.length);
+			int count;
+			byte[] tmp = new byte[2048];
+			while ((count = gzi.read(tmp)) != -1) {
+				bos.write(tmp, 0, count);
+			}
+			// store uncompressed back to buffer
+			buf = bos.toByteArray();
+			gzi.close();
+		}
+		if (flag != MARKER_OTHERS) {
+			if (primitiveAsString || asString) {
+				// pulling out string value
+				o = new String(buf, defaultEncoding);
+			} else {
+				// decoding object
+				try {
+					o = NativeHandler.decode(buf, flag);
+				} catch (Exception e) {
+					log.error("++++ Exception thrown while trying to deserialize for key: " + key + " -- "
+							+ e.getMessage());
+					e.printStackTrace();
+				}
+			}
+		} else if (isCounter(buf, asString)) {
+			o = new String(buf, defaultEncoding);
+		} else if (transCoder != null) {
+			o = transCoder.decode(new ByteArrayInputStream(buf));
+		}
+		return o;
+	}
+
+	/**
+	 * A flagless value of digits is a counter the server created by an incr
+	 * with an initial value. It is read as one only where it cannot be a value
+	 * written by a custom transcoder.
+	 */
+	private boolean isCounter(byte[] buf, boolean asString) {
+		return (asString || transCoder instanceof ObjectTransCoder) && NativeHandler.isCounter(buf);
+	}
+
+	public OperationFuture<Object> getAsync(String key) {
+		return getAsync(key, null);
+	}
+
+	public OperationFuture<Object> getAsync(String key, Integer hashCode) {
+		final OperationFuture<Object> future = new OperationFuture<Object>();
+		if (key == null) {
+			future.fail(new IllegalArgumentException("++++ key is null for getAsync()"));
+			return future;
+		}
+
+		String cleanKey;
+		try {
+			cleanKey = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			future.fail(e);
+			return future;
+		}
+		String host = pool.routeKey(cleanKey, hashCode);
+		if (host == null) {
+			future.fail(new IOException("no socket to server available"));
+			return future;
+		}
+
+		Map<String, String> origKeys = new HashMap<String, String>(2);
+		origKeys.put(cleanKey, key);
+		final OperationFuture<Map<String, Object>> part = loadAsync(host, new StringBuilder("get ").append(cleanKey),
+				origKeys);
+		final String k = key;
+		part.addListener(new Runnable() {
+			public void run() {
+				if (part.getCause() != null)
+					future.fail(part.getCause());
+				else if (part.isCancelled())
+					future.cancel(false);
+				else
+					future.complete(part.getNow().get(k));
+			}
+		});
+		future.addListener(new Runnable() {
+			public void run() {
+				if (future.isCancelled())
+					part.cancel(false);
+			}
+		});
+		return future;
+	}
+
+	public OperationFuture<Map<String, Object>> getMultiAsync(String[] keys) {
+		return getMultiAsync(keys, null);
+	}
+
+	public OperationFuture<Map<String, Object>> getMultiAsync(String[] keys, Integer[] hashCodes) {
+		if (keys == null || keys.length == 0) {
+			OperationFuture<Map<String, Object>> future = new OperationFuture<Map<String, Object>>();
+			future.fail(new IllegalArgumentException("++++ missing keys for getMultiAsync()"));
+			return future;
+		}
+
+		// partition the keys by host, keeping the keys before sanitized.
+		Map<String, StringBuilder> cmdMap = new HashMap<String, StringBuilder>();
+		Map<String, String> origKeys = new HashMap<String, String>(keys.length);
+		for (int i = 0; i < keys.length; ++i) {
+			String key = keys[i];
+			if (key == null) {
+				log.error("null key, so skipping");
+				continue;
+			}
+
+			String cleanKey;
+			try {
+				cleanKey = sanitizeKey(key);
+			} catch (UnsupportedEncodingException e) {
+				log.error("failed to sanitize your key!", e);
+				continue;
+			}
+
+			String host = pool.routeKey(cleanKey, hashCodes != null && hashCodes.length > i ? hashCodes[i] : null);
+			if (host == null)
+				continue;
+
+			if (!cmdMap.containsKey(host))
+				cmdMap.put(host, new StringBuilder("get"));
+			cmdMap.get(host).append(" " + cleanKey);
+			origKeys.put(cleanKey, key);
+		}
+
+		List<OperationFuture<Map<String, Object>>> parts = new ArrayList<OperationFuture<Map<String, Object>>>(
+				cmdMap.size());
+		for (Map.Entry<String, StringBuilder> entry : cmdMap.entrySet())
+			parts.add(loadAsync(entry.getKey(), entry.getValue(), origKeys));
+		return AsyncDispatcher.merge(parts, keys.length);
+	}
+
+	/**
+	 * send a retrieval command to the host without blocking.
+	 * 
+	 * @param origKeys
+	 *            keys before sanitized, by the sanitized ones
+	 * @return future of the items found, by the keys before sanitized
+	 */
+	private OperationFuture<Map<String, Object>> loadAsync(String host, StringBuilder command,
+			final Map<String, String> origKeys) {
+		byte[] request = command.append("\r\n").toString().getBytes();
+		OperationFuture<Map<String, Object>> future = new OperationFuture<Map<String, Object>>();
+		pool.getAsyncDispatcher().send(host, request, request.length, asyncTimeout(), future,
+				new AsyncDispatcher.ResponseHandler<Map<String, Object>>() {
+					public Map<String, Object> decode(ByteBuffer response) throws Exception {
+						// the stream flips the buffer it reads.
+						ByteBuffer buf = response.slice();
+						buf.position(buf.limit());
+						Map<String, Object> hm = new HashMap<String, Object>();
+						loadMulti(new ByteBufArrayInputStream(new ByteBuffer[] { buf }), new AscIIResponseParser(), hm,
+								false, false, false);
+						// fix the keys in case we had to rewrite any of them.
+						Map<String, Object> ret = new HashMap<String, Object>(hm.size());
+						for (Map.Entry<String, Object> e : hm.entrySet())
+							ret.put(origKeys.containsKey(e.getKey()) ? origKeys.get(e.getKey()) : e.getKey(),
+									e.getValue());
+						return ret;
+					}
+				});
+		return future;
+	}
+
+	public OperationFuture<Boolean> setAsync(String key, Object value) {
+		return storeAsync("set", key, value, null, null);
+	}
+
+	public OperationFuture<Boolean> setAsync(String key, Object value, Date expiry) {
+		return storeAsync("set", key, value, expiry, null);
+	}
+
+	public OperationFuture<Boolean> setAsync(String key, Object value, Date expiry, Integer hashCode) {
+		return storeAsync("set", key, value, expiry, hashCode);
+	}
+
+	public OperationFuture<Boolean> addAsync(String key, Object value) {
+		return storeAsync("add", key, value, null, null);
+	}
+
+	public OperationFuture<Boolean> addAsync(String key, Object value, Date expiry) {
+		return storeAsync("add", key, value, expiry, null);
+	}
+
+	public OperationFuture<Boolean> addAsync(String key, Object value, Date expiry, Integer hashCode) {
+		return storeAsync("add", key, value, expiry, hashCode);
+	}
+
+	public OperationFuture<Boolean> replaceAsync(String key, Object value) {
+		return storeAsync("replace", key, value, null, null);
+	}
+
+	public OperationFuture<Boolean> replaceAsync(String key, Object value, Date expiry) {
+		return storeAsync("replace", key, value, expiry, null);
+	}
+
+	public OperationFuture<Boolean> replaceAsync(String key, Object value, Date expiry, Integer hashCode) {
+		return storeAsync("replace", key, value, expiry, hashCode);
+	}
+
+	private OperationFuture<Boolean> storeAsync(String cmdname, String key, Object value, Date expiry,
+			Integer hashCode) {
+		OperationFuture<Boolean> future = new OperationFuture<Boolean>();
+		if (key == null || value == null) {
+			future.fail(new IllegalArgumentException("++++ null key or value for " + cmdname + "Async()"));
+			return future;
+		}
+
+		try {
+			key = sanitizeKey(key);
+			ByteBuffer request = encodeStore(cmdname, key, value, expiry, 0L);
+			sendAsync(key, hashCode, request.array(), request.position(), future,
+					new AsyncDispatcher.ResponseHandler<Boolean>() {
+						public Boolean decode(ByteBuffer response) throws Exception {
+							return responseParser(response).lineEquals(AscIIResponseParser.STORED);
+						}
+					});
+		} catch (IOException e) {
+			future.fail(e);
+		}
+		return future;
+	}
+
+	public OperationFuture<Boolean> deleteAsync(String key) {
+		return deleteAsync(key, null);
+	}
+
+	public OperationFuture<Boolean> deleteAsync(String key, Integer hashCode) {
+		OperationFuture<Boolean> future = new OperationFuture<Boolean>();
+		if (key == null) {
+			future.fail(new IllegalArgumentException("++++ null value for key passed to deleteAsync()"));
+			return future;
+		}
+
+		try {
+			key = sanitizeKey(key);
+			byte[] request = new StringBuilder("delete ").append(key).append("\r\n").toString().getBytes();
+			sendAsync(key, hashCode, request, request.length, future, new AsyncDispatcher.ResponseHandler<Boolean>() {
+				public Boolean decode(ByteBuffer response) throws Exception {
+					return responseParser(response).lineEquals(AscIIResponseParser.DELETED);
+				}
+			});
+		} catch (IOException e) {
+			future.fail(e);
+		}
+		return future;
+	}
+
+	public OperationFuture<Long> incrAsync(String key, long inc) {
+		return incrdecrAsync("incr", key, inc, null);
+	}
+
+	public OperationFuture<Long> incrAsync(String key, long inc, Integer hashCode) {
+		return incrdecrAsync("incr", key, inc, hashCode);
+	}
+
+	public OperationFuture<Long> decrAsync(String key, long inc) {
+		return incrdecrAsync("decr", key, inc, null);
+	}
+
+	public OperationFuture<Long> decrAsync(String key, long inc, Integer hashCode) {
+		return incrdecrAsync("decr", key, inc, hashCode);
+	}
+
+	private OperationFuture<Long> incrdecrAsync(String cmdname, String key, long inc, Integer hashCode) {
+		OperationFuture<Long> future = new OperationFuture<Long>();
+		if (key == null) {
+			future.fail(new IllegalArgumentException("++++ null key for " + cmdname + "Async()"));
+			return future;
+		}
+
+		try {
+			key = sanitizeKey(key);
+			byte[] request = new StringBuilder(cmdname).append(" ").append(key).append(" ").append(inc)
+					.append("\r\n").toString().getBytes();
+			sendAsync(key, hashCode, request, request.length, future, new AsyncDispatcher.ResponseHandler<Long>() {
+				public Long decode(ByteBuffer response) throws Exception {
+					AscIIResponseParser parser = responseParser(response);
+					// -1 if the key is not found, as the blocking incr/decr.
+					return parser.isNumber() ? parser.nextLong() : -1L;
+				}
+			});
+		} catch (IOException e) {
+			future.fail(e);
+		}
+		return future;
+	}
+
+	public Batch batch() {
+		return new Batch() {
+			void send(List<Batch.Operation> operations) {
+				sendBatch(operations);
+			}
+		};
+	}
+
+	/**
+	 * send the operations of a batch, one pipelined request per host. The
+	 * responses of a host are decoded in the order of its operations.
+	 */
+	private void sendBatch(List<Batch.Operation> operations) {
+		Map<String, List<Batch.Operation>> opsByHost = new HashMap<String, List<Batch.Operation>>();
+		Map<String, List<byte[]>> framesByHost = new HashMap<String, List<byte[]>>();
+		for (Batch.Operation op : operations) {
+			try {
+				String cleanKey = sanitizeKey(op.key);
+				String host = pool.routeKey(cleanKey, null);
+				if (host == null) {
+					op.fail(new IOException("no socket to server available"));
+					continue;
+				}
+				byte[] frame = encodeBatch(op, cleanKey);
+				if (!opsByHost.containsKey(host)) {
+					opsByHost.put(host, new ArrayList<Batch.Operation>());
+					framesByHost.put(host, new ArrayList<byte[]>());
+				}
+				opsByHost.get(host).add(op);
+				framesByHost.get(host).add(frame);
+			} catch (IOException e) {
+				op.fail(e);
+			}
+		}
+
+		AsyncDispatcher dispatcher = pool.getAsyncDispatcher();
+		for (Map.Entry<String, List<Batch.Operation>> entry : opsByHost.entrySet()) {
+			List<byte[]> frames = framesByHost.get(entry.getKey());
+			int size = 0;
+			for (byte[] frame : frames)
+				size += frame.length;
+			ByteBuffer request = ByteBuffer.allocate(size);
+			for (byte[] frame : frames)
+				request.put(frame);
+
+			final List<Batch.Operation> ops = entry.getValue();
+			OperationFuture<Object> future = new OperationFuture<Object>();
+			Batch.failUndone(future, ops);
+			dispatcher.send(entry.getKey(), request.array(), size, asyncTimeout(), future,
+					new AsyncDispatcher.ResponseHandler<Object>() {
+						public Object decode(ByteBuffer response) throws Exception {
+							AscIIResponseParser parser = new AscIIResponseParser().reset(response.array(),
+									response.arrayOffset() + response.position(), response.remaining());
+							for (Batch.Operation op : ops)
+								decodeBatch(parser, op);
+							return null;
+						}
+					});
+		}
+	}
 
-		if (data == null)
-			return null;
+	private byte[] encodeBatch(Batch.Operation op, String key) throws IOException {
+		switch (op.type) {
+		case Batch.GET:
+			return new StringBuilder("get ").append(key).append("\r\n").toString().getBytes();
+		case Batch.GETS:
+			return new StringBuilder("gets ").append(key).append("\r\n").toString().getBytes();
+		case Batch.SET:
+		case Batch.ADD:
+		case Batch.REPLACE:
+			ByteBuffer frame = encodeStore(op.type == Batch.SET ? "set" : op.type == Batch.ADD ? "add" : "replace",
+					key, op.value, op.expiry, 0L);
+			return Arrays.copyOf(frame.array(), frame.position());
+		case Batch.DELETE:
+			return new StringBuilder("delete ").append(key).append("\r\n").toString().getBytes();
+		case Batch.INCR:
+		case Batch.DECR:
+			return new StringBuilder(op.type == Batch.INCR ? "incr " : "decr ").append(key).append(" ")
+					.append(op.delta).append("\r\n").toString().getBytes();
+		default:
+			return new StringBuilder("touch ").append(key).append(" ")
+					.append(op.expiry == null ? 0 : op.expiry.getTime() / 1000).append("\r\n").toString().getBytes();
+		}
+	}
 
-		Object[] res = new Object[keys.length];
-		for (int i = 0; i < keys.length; i++) {
-			res[i] = data.get(keys[i]);
+	/**
+	 * read the response of an operation of a batch and complete its future.
+	 */
+	private void decodeBatch(AscIIResponseParser parser, Batch.Operation op) throws IOException {
+		parser.expectLine();
+		if (parser.isError()) {
+			op.fail(new IOException("++++ " + parser.getLine()));
+			return;
 		}
 
-		return res;
+		switch (op.type) {
+		case Batch.GET:
+		case Batch.GETS:
+			if (parser.lineEquals(AscIIResponseParser.END)) {
+				op.complete(null);
+				return;
+			}
+			if (!parser.lineStartsWith(AscIIResponseParser.VALUE))
+				throw new IOException("++++ unexpected response: " + parser.getLine());
+			// skip "VALUE <key>"
+			parser.skipToken();
+			parser.skipToken();
+			int flag = parser.nextInt();
+			byte[] buf = new byte[parser.nextInt()];
+			long casUnique = parser.hasNext() ? parser.nextLong() : 0;
+			parser.read(buf);
+			// Skip "\r\n" after the data block, and "END\r\n"
+			parser.skipLine();
+			parser.skipLine();
+			Object o = decodeValue(op.key, buf, flag, false);
+			if (op.type == Batch.GETS) {
+				MemcachedItem item = new MemcachedItem();
+				item.value = o;
+				item.casUnique = casUnique;
+				op.complete(item);
+			} else
+				op.complete(o);
+			break;
+		case Batch.SET:
+		case Batch.ADD:
+		case Batch.REPLACE:
+			op.complete(parser.lineEquals(AscIIResponseParser.STORED));
+			break;
+		case Batch.DELETE:
+			op.complete(parser.lineEquals(AscIIResponseParser.DELETED));
+			break;
+		case Batch.INCR:
+		case Batch.DECR:
+			// -1 if the key is not found, as the blocking incr/decr.
+			op.complete(parser.isNumber() ? parser.nextLong() : -1L);
+			break;
+		default:
+			op.complete(parser.lineEquals(AscIIResponseParser.TOUCHED));
+		}
 	}
 
-	public Map<String, Object> getMulti(String[] keys) {
-		return getMulti(keys, null);
+	public Set<String> setMulti(Map<String, Object> items) {
+		return storeMulti("set", items, null);
 	}
 
-	public Map<String, Object> getMulti(String[] keys, Integer[] hashCodes) {
-		return getMulti(keys, hashCodes, false);
+	public Set<String> setMulti(Map<String, Object> items, Date expiry) {
+		return storeMulti("set", items, expiry);
+	}
+
+	public Set<String> addMulti(Map<String, Object> items) {
+		return storeMulti("add", items, null);
+	}
+
+	public Set<String> addMulti(Map<String, Object> items, Date expiry) {
+		return storeMulti("add", items, expiry);
+	}
+
+	public Set<String> casMulti(Map<String, MemcachedItem> items) {
+		return storeMulti("cas", items, null);
+	}
+
+	public Set<String> casMulti(Map<String, MemcachedItem> items, Date expiry) {
+		return storeMulti("cas", items, expiry);
 	}
 
 	/**
-	 * Retrieve multiple keys from the memcache.
-	 * 
-	 * This is recommended over repeated calls to {@link #get(String) get()},
-	 * since it<br/>
-	 * is more efficient.<br/>
-	 * 
-	 * @param keys
-	 *            keys to retrieve
-	 * @param hashCodes
-	 *            if not null, then the Integer array of hashCodes
-	 * @param asString
-	 *            if true then retrieve using String val
-	 * @return a hashmap with entries for each key is found by the server, keys
-	 *         that are not found are not entered into the hashmap, but
-	 *         attempting to retrieve them from the hashmap gives you null.
+	 * @param items
+	 *            values by their keys, {@link MemcachedItem} values with
+	 *            their cas unique for cas
 	 */
-	public Map<String, Object> getMulti(String[] keys, Integer[] hashCodes, boolean asString) {
+	private Set<String> storeMulti(String cmdname, Map<String, ?> items, Date expiry) {
+		if (items == null || items.isEmpty()) {
+			log.error("missing items for " + cmdname + "Multi()");
+			return new HashSet<String>();
+		}
+
+		boolean cas = "cas".equals(cmdname);
+		Map<String, List<String>> keysByHost = new HashMap<String, List<String>>();
+		Map<String, List<byte[]>> framesByHost = new HashMap<String, List<byte[]>>();
+		Set<String> failed = new HashSet<String>();
+		for (Map.Entry<String, ?> item : items.entrySet()) {
+			String key = item.getKey();
+			Object value = item.getValue();
+			long casUnique = 0;
+			if (cas && value != null) {
+				casUnique = ((MemcachedItem) value).casUnique;
+				value = ((MemcachedItem) value).value;
+			}
+			if (key == null || value == null) {
+				log.error("null key or value, so skipping");
+				if (key != null)
+					failed.add(key);
+				continue;
+			}
+
+			try {
+				String cleanKey = sanitizeKey(key);
+				ByteBuffer frame = encodeStore(cmdname, cleanKey, value, expiry, casUnique);
+				addFrame(cleanKey, key, Arrays.copyOf(frame.array(), frame.position()), keysByHost, framesByHost,
+						failed);
+			} catch (IOException e) {
+				if (errorHandler != null)
+					errorHandler.handleErrorOnSet(this, e, key);
+				log.error("++++ failed to encode the value of key: " + key, e);
+				failed.add(key);
+			}
+		}
 
+		failed.addAll(sendPipelined(keysByHost, framesByHost, AscIIResponseParser.STORED));
+		return failed;
+	}
+
+	public Set<String> touchMulti(String[] keys, Date expiry) {
 		if (keys == null || keys.length == 0) {
-			log.error("missing keys for getMulti()");
-			return null;
+			log.error("missing keys for touchMulti()");
+			return new HashSet<String>();
 		}
 
-		Map<String, StringBuilder> cmdMap = new HashMap<String, StringBuilder>();
-		String[] cleanKeys = new String[keys.length];
-		for (int i = 0; i < keys.length; ++i) {
-			String key = keys[i];
+		long exp = expiry == null ? 0 : expiry.getTime() / 1000;
+		Map<String, List<String>> keysByHost = new HashMap<String, List<String>>();
+		Map<String, List<byte[]>> framesByHost = new HashMap<String, List<byte[]>>();
+		Set<String> failed = new HashSet<String>();
+		for (String key : keys) {
 			if (key == null) {
 				log.error("null key, so skipping");
 				continue;
 			}
 
-			Integer hash = null;
-			if (hashCodes != null && hashCodes.length > i)
-				hash = hashCodes[i];
-
-			cleanKeys[i] = key;
 			try {
-				cleanKeys[i] = sanitizeKey(key);
+				String cleanKey = sanitizeKey(key);
+				byte[] frame = new StringBuilder("touch ").append(cleanKey).append(' ').append(exp).append("\r\n")
+						.toString().getBytes();
+				addFrame(cleanKey, key, frame, keysByHost, framesByHost, failed);
 			} catch (UnsupportedEncodingException e) {
-				// if we have an errorHandler, use its hook
-				if (errorHandler != null)
-					errorHandler.handleErrorOnGet(this, e, key);
 				log.error("failed to sanitize your key!", e);
-				continue;
+				failed.add(key);
 			}
+		}
+
+		failed.addAll(sendPipelined(keysByHost, framesByHost, AscIIResponseParser.TOUCHED));
+		return failed;
+	}
 
-			// get SockIO obj from cache key
-			SchoonerSockIO sock = pool.getSock(cleanKeys[i], hash);
+	public Set<String> deleteMulti(String[] keys) {
+		if (keys == null || keys.length == 0) {
+			log.error("missing keys for deleteMulti()");
+			return new HashSet<String>();
+		}
 
-			if (sock == null) {
-				if (errorHandler != null)
-					errorHandler.handleErrorOnGet(this, new IOException("no socket to server available"), key);
+		Map<String, List<String>> keysByHost = new HashMap<String, List<String>>();
+		Map<String, List<byte[]>> framesByHost = new HashMap<String, List<byte[]>>();
+		Set<String> failed = new HashSet<String>();
+		for (String key : keys) {
+			if (key == null) {
+				log.error("null key, so skipping");
 				continue;
 			}
 
-			// store in map and list if not already
-			if (!cmdMap.containsKey(sock.getHost()))
-				cmdMap.put(sock.getHost(), new StringBuilder("get"));
-
-			cmdMap.get(sock.getHost()).append(" " + cleanKeys[i]);
-
-			// return to pool
-			sock.close();
+			try {
+				String cleanKey = sanitizeKey(key);
+				byte[] frame = new StringBuilder("delete ").append(cleanKey).append("\r\n").toString().getBytes();
+				addFrame(cleanKey, key, frame, keysByHost, framesByHost, failed);
+			} catch (UnsupportedEncodingException e) {
+				log.error("failed to sanitize your key!", e);
+				failed.add(key);
+			}
 		}
 
-		log.debug("multi get socket count : " + cmdMap.size());
-
-		// now query memcache
-		Map<String, Object> ret = new HashMap<String, Object>(keys.length);
-
-		// now use new NIO implementation
-		(new NIOLoader(this)).doMulti(asString, cmdMap, keys, ret);
-
-		// fix the return array in case we had to rewrite any of the keys
-		for (int i = 0; i < keys.length; ++i) {
-
-			// if key!=cleanKey and result has cleankey
-			if (!keys[i].equals(cleanKeys[i]) && ret.containsKey(cleanKeys[i])) {
-				ret.put(keys[i], ret.get(cleanKeys[i]));
-				ret.remove(cleanKeys[i]);
-			}
+		failed.addAll(sendPipelined(keysByHost, framesByHost, AscIIResponseParser.DELETED));
+		return failed;
+	}
 
-			// backfill missing keys w/ null value
-			// if (!ret.containsKey(keys[i]))
-			// ret.put(keys[i], null);
+	private void addFrame(String cleanKey, String key, byte[] frame, Map<String, List<String>> keysByHost,
+			Map<String, List<byte[]>> framesByHost, Set<String> failed) {
+		String host = pool.routeKey(cleanKey, null);
+		if (host == null) {
+			failed.add(key);
+			return;
 		}
-
-		log.debug("++++ memcache: got back " + ret.size() + " results");
-		return ret;
+		if (!keysByHost.containsKey(host)) {
+			keysByHost.put(host, new ArrayList<String>());
+			framesByHost.put(host, new ArrayList<byte[]>());
+		}
+		keysByHost.get(host).add(key);
+		framesByHost.get(host).add(frame);
 	}
 
 	/**
-	 * This method loads the data from cache into a Map.
+	 * pipeline the commands to all the hosts at once. The commands are sent in
+	 * batches up to the buffer size of the pool, and the response lines are
+	 * matched to the keys in order.
 	 * 
-	 * Pass a SockIO object which is ready to receive data and a HashMap<br/>
-	 * to store the results.
-	 * 
-	 * @param sock
-	 *            socket waiting to pass back data
-	 * @param hm
-	 *            hashmap to store data into
-	 * @param asString
-	 *            if true, and if we are using NativehHandler, return string val
-	 * @throws IOException
-	 *             if io exception happens while reading from socket
+	 * @param success
+	 *            response line of a command succeeded, VALUE for the hit of a
+	 *            get, whose value is skipped
+	 * @return keys failed
 	 */
-	private void loadMulti(LineInputStream input, Map<String, Object> hm, boolean asString) throws IOException {
-
-		while (true) {
-			String line = input.readLine();
+	private Set<String> sendPipelined(Map<String, List<String>> keysByHost, Map<String, List<byte[]>> framesByHost,
+			final byte[] success) {
+		if (keysByHost.isEmpty())
+			return new HashSet<String>();
+
+		AsyncDispatcher dispatcher = pool.getAsyncDispatcher();
+		long timeout = operationTimeout > 0 ? operationTimeout : pool.getMaxBusy();
+		List<OperationFuture<Set<String>>> batches = new ArrayList<OperationFuture<Set<String>>>();
+		List<List<String>> batchKeys = new ArrayList<List<String>>();
+		for (Map.Entry<String, List<String>> entry : keysByHost.entrySet()) {
+			List<String> keys = entry.getValue();
+			List<byte[]> frames = framesByHost.get(entry.getKey());
+			int start = 0;
+			while (start < frames.size()) {
+				int end = start;
+				int size = 0;
+				while (end < frames.size() && (end == start || size + frames.get(end).length <= pool.getBufferSize()))
+					size += frames.get(end++).length;
+
+				ByteBuffer request = ByteBuffer.allocate(size);
+				for (int i = start; i < end; i++)
+					request.put(frames.get(i));
+
+				final List<String> batch = keys.subList(start, end);
+				OperationFuture<Set<String>> future = new OperationFuture<Set<String>>();
+				dispatcher.send(entry.getKey(), request.array(), request.position(), timeout, future,
+						new AsyncDispatcher.ResponseHandler<Set<String>>() {
+							public Set<String> decode(ByteBuffer response) throws Exception {
+								Set<String> failed = new HashSet<String>();
+								AscIIResponseParser parser = new AscIIResponseParser().reset(response.array(),
+										response.arrayOffset() + response.position(), response.remaining());
+								for (String key : batch) {
+									if (!parser.readLine())
+										failed.add(key);
+									else if (parser.lineStartsWith(AscIIResponseParser.VALUE)) {
+										skipValue(parser);
+										if (success != AscIIResponseParser.VALUE)
+											failed.add(key);
+									} else if (!parser.lineEquals(success))
+										failed.add(key);
+								}
+								return failed;
+							}
+						});
+				batches.add(future);
+				batchKeys.add(batch);
+				start = end;
+			}
+		}
+		return AsyncDispatcher.awaitFailures(batches, batchKeys);
+	}
 
-			if (line.startsWith(VALUE)) {
-				String[] info = line.split(" ");
-				String key = info[1];
-				int flag = Integer.parseInt(info[2]);
-				int length = Integer.parseInt(info[3]);
+	/**
+	 * send a request of the asynchronous api to the server of the key.
+	 */
+	private <T> void sendAsync(String key, Integer hashCode, byte[] request, int length, OperationFuture<T> future,
+			AsyncDispatcher.ResponseHandler<T> handler) {
+		String host = pool.routeKey(key, hashCode);
+		if (host == null) {
+			future.fail(new IOException("no socket to server available"));
+			return;
+		}
+		pool.getAsyncDispatcher().send(host, request, length, asyncTimeout(), future, handler);
+	}
 
-				// read obj into buffer
-				byte[] buf = new byte[length];
-				input.read(buf);
-				input.clearEOL();
+	private long asyncTimeout() {
+		return operationTimeout > 0 ? operationTimeout : pool.getSocketTO();
+	}
 
-				// ready object
-				Object o = null;
-				// we can only take out serialized objects
-				if ((flag & F_COMPRESSED) == F_COMPRESSED) {
-					GZIPInputStream gzi = new GZIPInputStream(new ByteArrayInputStream(buf));
-					ByteArrayOutputStream bos = new ByteArrayOutputStream(buf.length);
-					int count;
-					byte[] tmp = new byte[2048];
-					while ((count = gzi.read(tmp)) != -1) {
-						bos.write(tmp, 0, count);
-					}
-					// store uncompressed back to buffer
-					buf = bos.toByteArray();
-					gzi.close();
-				}
-				if (flag != MARKER_OTHERS) {
-					if (primitiveAsString || asString) {
-						// pulling out string value
-						o = new String(buf, defaultEncoding);
-					} else {
-						// decoding object
-						try {
-							o = NativeHandler.decode(buf, flag);
-						} catch (Exception e) {
-							log.error("++++ Exception thrown while trying to deserialize for key: " + key + " -- "
-									+ e.getMessage());
-							e.printStackTrace();
-						}
-					}
-				} else if (transCoder != null) {
-					o = transCoder.decode(new ByteArrayInputStream(buf));
-				}
+	/**
+	 * read the first line of a response of the asynchronous api.
+	 */
+	private static AscIIResponseParser responseParser(ByteBuffer response) throws IOException {
+		AscIIResponseParser parser = new AscIIResponseParser().reset(response.array(),
+				response.arrayOffset() + response.position(), response.remaining());
+		parser.expectLine();
+		return parser;
+	}
 
-				// store the object into the cache
-				hm.put(key, o);
-			} else if (END.startsWith(line)) {
-				break;
-			}
+	/**
+	 * encode a storage command with its value, the cas unique is only sent by
+	 * cas.
+	 * 
+	 * @return the command, from 0 to the position of the buffer
+	 */
+	private ByteBuffer encodeStore(String cmdname, String key, Object value, Date expiry, long casUnique)
+			throws IOException {
+		int flags = NativeHandler.getMarkerFlag(value);
+		byte[] b = encodeValue(value, flags);
+		ByteBuffer frame = ByteBuffer.allocate(cmdname.length() + RequestEncoder.utf8Length(key) + b.length + 64);
+		RequestEncoder.putAscii(frame, cmdname);
+		frame.put(RequestEncoder.SPACE);
+		RequestEncoder.putAscii(frame, key);
+		frame.put(RequestEncoder.SPACE);
+		RequestEncoder.putDecimal(frame, flags);
+		frame.put(RequestEncoder.SPACE);
+		RequestEncoder.putDecimal(frame, expiry == null ? 0 : expiry.getTime() / 1000);
+		frame.put(RequestEncoder.SPACE);
+		RequestEncoder.putDecimal(frame, b.length);
+		if ("cas".equals(cmdname)) {
+			frame.put(RequestEncoder.SPACE);
+			RequestEncoder.putDecimal(frame, casUnique);
 		}
+		RequestEncoder.putReturn(frame);
+		frame.put(b);
+		RequestEncoder.putReturn(frame);
+		return frame;
+	}
+
+	/**
+	 * encode a value into bytes, as the blocking set does.
+	 */
+	private byte[] encodeValue(Object value, int flags) throws IOException {
+		if (flags != MARKER_OTHERS)
+			return NativeHandler.encode(value);
+		if (!(transCoder instanceof AbstractTransCoder))
+			throw new IOException("++++ the transcoder can only encode into a socket: " + transCoder.getClass());
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		((AbstractTransCoder) transCoder).encode(bos, value);
+		return bos.toByteArray();
 	}
 
 	public boolean flushAll() {
@@ -1216,7 +2789,7 @@ public class AscIIClient extends MemCachedClient {
 
 		for (int i = 0; i < servers.length; i++) {
 
-			SchoonerSockIO sock = pool.getConnection(servers[i]);
+			SchoonerSockIO sock = getConnection(servers[i]);
 			if (sock == null) {
 				log.error("++++ unable to get connection to : " + servers[i]);
 				success = false;
@@ -1232,10 +2805,9 @@ public class AscIIClient extends MemCachedClient {
 				sock.write(command.getBytes());
 				// if we get appropriate response back, then we return true
 				// get result code
-				SockInputStream sis = new SockInputStream(sock, Integer.MAX_VALUE);
-				String line = sis.getLine();
-				sis.close();
-				success = (OK.equals(line)) ? success && true : false;
+				AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+				parser.readLine();
+				success = parser.lineEquals(AscIIResponseParser.OK) ? success && true : false;
 			} catch (IOException e) {
 
 				// if we have an errorHandler, use its hook
@@ -1320,7 +2892,7 @@ public class AscIIClient extends MemCachedClient {
 
 		for (int i = 0; i < servers.length; i++) {
 
-			SchoonerSockIO sock = pool.getConnection(servers[i]);
+			SchoonerSockIO sock = getConnection(servers[i]);
 			if (sock == null) {
 				if (errorHandler != null)
 					errorHandler.handleErrorOnStats(this, new IOException("no socket to server available"));
@@ -1334,7 +2906,7 @@ public class AscIIClient extends MemCachedClient {
 				// map to hold key value pairs
 				Map<String, String> stats = new HashMap<String, String>();
 				// get result code
-				SockInputStream input = new SockInputStream(sock, Integer.MAX_VALUE);
+				SockInputStream input = sock.getSockInputStream();
 				String line;
 				// loop over results
 				while ((line = input.getLine()) != null) {
@@ -1393,9 +2965,32 @@ public class AscIIClient extends MemCachedClient {
 		protected int numConns = 0;
 		protected AscIIClient mc;
 		protected Connection[] conns;
+		/**
+		 * keys not fetched from any host.
+		 */
+		protected final Set<String> failedKeys = new HashSet<String>();
+		private final AscIIResponseParser parser = new AscIIResponseParser();
+		private final boolean raw;
+		private final boolean cas;
+		private final Date touch;
 
 		public NIOLoader(AscIIClient mc) {
+			this(mc, false, false, null);
+		}
+
+		/**
+		 * @param raw
+		 *            if true, the values are loaded as {@link RawItem}
+		 * @param cas
+		 *            if true, the values are loaded as {@link MemcachedItem}
+		 * @param touch
+		 *            if not null, the items are touched with this expiration
+		 */
+		public NIOLoader(AscIIClient mc, boolean raw, boolean cas, Date touch) {
 			this.mc = mc;
+			this.raw = raw;
+			this.cas = cas;
+			this.touch = touch;
 		}
 
 		private final class Connection {
@@ -1404,11 +2999,30 @@ public class AscIIClient extends MemCachedClient {
 			public ByteBuffer outgoing;
 			public SchoonerSockIO sock;
 			public SocketChannel channel;
+			public final String host;
+			public final List<String> keys;
 			private boolean isDone = false;
+			private boolean failed = false;
 
-			public Connection(SchoonerSockIO sock, StringBuilder request) throws IOException {
+			public Connection(SchoonerSockIO sock, String host, List<String> keys) {
 				this.sock = sock;
-				outgoing = ByteBuffer.wrap(request.append("\r\n").toString().getBytes());
+				this.host = host;
+				this.keys = keys;
+				StringBuilder request = startMultiGet(cas, touch);
+				for (String key : keys)
+					appendMultiGet(request, key, cas, touch);
+				endMultiGet(request);
+				outgoing = ByteBuffer.wrap(request.toString().getBytes());
+			}
+
+			public void send() throws IOException {
+				if (sock instanceof MultiplexedSockIO) {
+					// the shared connection is served by the multiplexer, just
+					// send the request and read it after the select loop.
+					sock.getByteChannel().write(outgoing);
+					((MultiplexedSockIO) sock).commit();
+					return;
+				}
 
 				channel = (SocketChannel) sock.getChannel();
 				if (channel == null)
@@ -1416,17 +3030,23 @@ public class AscIIClient extends MemCachedClient {
 
 				channel.configureBlocking(false);
 				channel.register(selector, SelectionKey.OP_WRITE, this);
+				numConns++;
+			}
+
+			/**
+			 * read the whole response of a multiplexed socket.
+			 */
+			public void readAll() throws IOException {
+				while (!isDone() && sock.read(getBuffer()) >= 0)
+					;
 			}
 
 			public void close() {
-				try {
-					if (isDone) {
-						channel.configureBlocking(true);
-						sock.close();
-						return;
-					}
-				} catch (IOException e) {
-					log.warn("++++ memcache: unexpected error closing normally", e);
+				// the channel stays non-blocking, the socket waits on its own
+				// selector.
+				if (isDone) {
+					sock.close();
+					return;
 				}
 
 				try {
@@ -1442,14 +3062,15 @@ public class AscIIClient extends MemCachedClient {
 					return true;
 
 				// else find out the hard way
-				int strPos = B_END.length - 1;
+				byte[] end = multiGetEnd();
+				int strPos = end.length - 1;
 
 				int bi = incoming.size() - 1;
 				while (bi >= 0 && strPos >= 0) {
 					ByteBuffer buf = incoming.get(bi);
 					int pos = buf.position() - 1;
 					while (pos >= 0 && strPos >= 0) {
-						if (buf.get(pos--) != B_END[strPos--])
+						if (buf.get(pos--) != end[strPos--])
 							return false;
 					}
 
@@ -1477,31 +3098,89 @@ public class AscIIClient extends MemCachedClient {
 			}
 		}
 
-		public void doMulti(boolean asString, Map<String, StringBuilder> sockKeys, String[] keys,
-				Map<String, Object> ret) {
+		public void doMulti(Map<String, List<String>> hostKeys, Map<String, Object> ret) {
+			doMulti(false, hostKeys, null, ret, new MultiGetReport(ret));
+		}
+
+		/**
+		 * fetch the keys of each host. A host that can't be connected, fails
+		 * or times out doesn't fail the others, its keys are fetched from
+		 * their failover host in another round, until all the keys are
+		 * fetched or left without a host.
+		 * 
+		 * @param hostKeys
+		 *            keys to fetch by host
+		 * @param hashes
+		 *            hashcodes of the keys, or null
+		 * @param report
+		 *            gets the status of each host asked
+		 */
+		public void doMulti(boolean asString, Map<String, List<String>> hostKeys, Map<String, Integer> hashes,
+				Map<String, Object> ret, MultiGetReport report) {
+			Set<String> unavailable = new HashSet<String>();
+			while (!hostKeys.isEmpty()) {
+				Map<String, List<String>> lost = doRound(asString, hostKeys, ret, report);
+				unavailable.addAll(lost.keySet());
+
+				hostKeys = new HashMap<String, List<String>>();
+				for (List<String> keys : lost.values()) {
+					for (String key : keys) {
+						String host = pool.getFailoverServer(key, hashes == null ? null : hashes.get(key),
+								unavailable);
+						if (host == null) {
+							failedKeys.add(key);
+							continue;
+						}
+
+						if (!hostKeys.containsKey(host))
+							hostKeys.put(host, new ArrayList<String>());
+						hostKeys.get(host).add(key);
+					}
+				}
+			}
+		}
+
+		/**
+		 * send one request to each host and load the responses.
+		 * 
+		 * @return keys of the hosts that failed, by host
+		 */
+		private Map<String, List<String>> doRound(boolean asString, Map<String, List<String>> hostKeys,
+				Map<String, Object> ret, MultiGetReport report) {
 
+			Map<String, List<String>> lost = new HashMap<String, List<String>>();
 			long timeRemaining = 0;
+			boolean broken = false;
+			conns = new Connection[hostKeys.size()];
+			numConns = 0;
 			try {
 				selector = Selector.open();
 
 				// get the sockets, flip them to non-blocking, and set up data
 				// structures
-				conns = new Connection[sockKeys.keySet().size()];
-				numConns = 0;
-				for (Iterator<String> i = sockKeys.keySet().iterator(); i.hasNext();) {
+				int count = 0;
+				for (Map.Entry<String, List<String>> e : hostKeys.entrySet()) {
 					// get SockIO obj from hostname
-					String host = i.next();
+					String host = e.getKey();
 
-					SchoonerSockIO sock = pool.getConnection(host);
+					SchoonerSockIO sock = getConnection(host);
 
 					if (sock == null) {
 						if (errorHandler != null)
 							errorHandler.handleErrorOnGet(this.mc, new IOException("no socket to server available"),
-									keys);
-						return;
+									e.getValue().toArray(new String[e.getValue().size()]));
+						report.setHostStatus(host, MultiGetReport.UNAVAILABLE);
+						lost.put(host, e.getValue());
+						continue;
 					}
 
-					conns[numConns++] = new Connection(sock, sockKeys.get(host));
+					Connection c = new Connection(sock, host, e.getValue());
+					conns[count++] = c;
+					try {
+						c.send();
+					} catch (IOException ex) {
+						fail(c, MultiGetReport.FAILED, ex, report, lost);
+					}
 				}
 
 				// the main select loop; ends when
@@ -1509,18 +3188,24 @@ public class AscIIClient extends MemCachedClient {
 				// 2) we time out
 				long startTime = System.currentTimeMillis();
 
-				long timeout = pool.getMaxBusy();
+				long timeout = operationTimeout > 0 ? operationTimeout : pool.getMaxBusy();
 				timeRemaining = timeout;
 
 				while (numConns > 0 && timeRemaining > 0) {
-					int n = selector.select(Math.min(timeout, 5000));
+					int n = selector.select(Math.min(timeRemaining, 5000));
 					if (n > 0) {
 						// we've got some activity; handle it
 						Iterator<SelectionKey> it = selector.selectedKeys().iterator();
 						while (it.hasNext()) {
 							SelectionKey key = it.next();
 							it.remove();
-							handleKey(key);
+							try {
+								handleKey(key);
+							} catch (IOException ex) {
+								key.cancel();
+								numConns--;
+								fail((Connection) key.attachment(), MultiGetReport.FAILED, ex, report, lost);
+							}
 						}
 					} else {
 						// timeout likely... better check
@@ -1531,8 +3216,22 @@ public class AscIIClient extends MemCachedClient {
 
 					timeRemaining = timeout - (System.currentTimeMillis() - startTime);
 				}
+
+				// the multiplexed ones are not in the selector.
+				for (Connection c : conns) {
+					if (c == null || c.channel != null || c.failed)
+						continue;
+					try {
+						c.readAll();
+					} catch (IOException ex) {
+						fail(c, ex instanceof SocketTimeoutException ? MultiGetReport.TIMED_OUT
+								: MultiGetReport.FAILED, ex, report, lost);
+					}
+				}
 			} catch (IOException e) {
-				return;
+				// the selector failed, the hosts not done yet are failed.
+				log.error("Caught the exception on " + e);
+				broken = true;
 			} finally {
 				log.debug("Disconnecting; numConns=" + numConns + "  timeRemaining=" + timeRemaining);
 
@@ -1550,22 +3249,38 @@ public class AscIIClient extends MemCachedClient {
 				}
 			}
 
-			// Done! Build the list of results and return them. If we get
-			// here by a timeout, then some of the connections are probably
-			// not done. But we'll return what we've got...
+			// Done! Build the list of results and return them. The hosts not
+			// done by now timed out, their keys are tried on another host.
 			for (Connection c : conns) {
+				if (c == null || c.failed)
+					continue;
+
+				if (!c.isDone()) {
+					log.error("++++ no response in time from host: " + c.host);
+					report.setHostStatus(c.host, broken ? MultiGetReport.FAILED : MultiGetReport.TIMED_OUT);
+					lost.put(c.host, c.keys);
+					continue;
+				}
+
+				report.setHostStatus(c.host, MultiGetReport.OK);
 				try {
-					if (c.incoming.size() > 0 && c.isDone())
-						loadMulti(new ByteBufArrayInputStream(c.incoming), ret, asString);
+					loadMultiGet(new ByteBufArrayInputStream(c.incoming), parser, ret, asString, raw, cas);
 				} catch (Exception e) {
 					// shouldn't happen; we have all the data already
 					log.debug("Caught the aforementioned exception on " + c);
 				}
 			}
+			return lost;
 		}
 
-		public void doMulti(Map<String, StringBuilder> sockKeys, String[] keys, Map<String, Object> ret) {
-			doMulti(false, sockKeys, keys, ret);
+		private void fail(Connection c, int status, IOException e, MultiGetReport report,
+				Map<String, List<String>> lost) {
+			log.error("++++ multi get failed on host: " + c.host, e);
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this.mc, e, c.keys.toArray(new String[c.keys.size()]));
+			c.failed = true;
+			report.setHostStatus(c.host, status);
+			lost.put(c.host, c.keys);
 		}
 
 		private void handleKey(SelectionKey key) throws IOException {
@@ -1598,6 +3313,8 @@ public class AscIIClient extends MemCachedClient {
 					numConns--;
 					return;
 				}
+			} else if (count < 0) {
+				throw new IOException("++++ connection closed by host: " + conn.host);
 			}
 		}
 	}
@@ -1609,7 +3326,7 @@ public class AscIIClient extends MemCachedClient {
 		}
 
 		// get SockIO obj from hash or from key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		// return false if unable to get SockIO obj
 		if (sock == null) {
@@ -1625,22 +3342,21 @@ public class AscIIClient extends MemCachedClient {
 
 			// if we get appropriate response back, then we return true
 			// get result code
-			SockInputStream sis = new SockInputStream(sock, Integer.MAX_VALUE);
-			String line = sis.getLine();
-			sis.close();
-			if (SYNCED.equals(line)) {
+			AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+			parser.readLine();
+			if (parser.lineEquals(AscIIResponseParser.SYNCED)) {
 				log.info(new StringBuffer().append("++++ sync of key: ").append(key)
 						.append(" from cache was a success").toString());
 
 				// return sock to pool and bail here
 				return true;
-			} else if (NOTFOUND.equals(line)) {
+			} else if (parser.lineEquals(AscIIResponseParser.NOT_FOUND)) {
 				log.info(new StringBuffer().append("++++ sync of key: ").append(key)
 						.append(" from cache failed as the key was not found").toString());
 			} else {
 				if (log.isErrorEnabled()) {
 					log.error(new StringBuffer().append("++++ error sync key: ").append(key).toString());
-					log.error(new StringBuffer().append("++++ server response: ").append(line).toString());
+					log.error(new StringBuffer().append("++++ server response: ").append(parser.getLine()).toString());
 				}
 			}
 		} catch (IOException e) {
@@ -1697,7 +3413,7 @@ public class AscIIClient extends MemCachedClient {
 
 		for (int i = 0; i < servers.length; i++) {
 
-			SchoonerSockIO sock = pool.getConnection(servers[i]);
+			SchoonerSockIO sock = getConnection(servers[i]);
 			if (sock == null) {
 				log.error("++++ unable to get connection to : " + servers[i]);
 				success = false;
@@ -1711,10 +3427,9 @@ public class AscIIClient extends MemCachedClient {
 				sock.write(command.getBytes());
 				// if we get appropriate response back, then we return true
 				// get result code
-				SockInputStream sis = new SockInputStream(sock, Integer.MAX_VALUE);
-				String line = sis.getLine();
-				sis.close();
-				success = (SYNCED.equals(line)) ? success && true : false;
+				AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+				parser.readLine();
+				success = parser.lineEquals(AscIIResponseParser.SYNCED) ? success && true : false;
 			} catch (IOException e) {
 				// exception thrown
 				if (log.isErrorEnabled()) {
@@ -1751,12 +3466,123 @@ public class AscIIClient extends MemCachedClient {
 		this.primitiveAsString = primitiveAsString;
 	}
 
+	public void setOperationTimeout(long operationTimeout) {
+		this.operationTimeout = operationTimeout;
+	}
+
+	@Override
+	public void setNoreply(boolean noreply) {
+		this.noreply = noreply;
+	}
+
+	@Override
+	public boolean isNoreply() {
+		return noreply;
+	}
+
+	/**
+	 * get the socket for the key, the operation on it may wait up to the
+	 * operation timeout.
+	 */
+	private SchoonerSockIO getSock(String key, Integer hashCode) {
+		return getSock(key, hashCode, false);
+	}
+
+	/**
+	 * get the socket for the key, the noreply commands written on it are
+	 * synced first unless this is a noreply command too.
+	 */
+	SchoonerSockIO getSock(String key, Integer hashCode, boolean noreply) {
+		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		return noreply ? prepare(sock) : sync(prepare(sock));
+	}
+
+	/**
+	 * get a socket to the host, the operation on it may wait up to the
+	 * operation timeout.
+	 */
+	private SchoonerSockIO getConnection(String host) {
+		return sync(prepare(pool.getConnection(host)));
+	}
+
+	private SchoonerSockIO prepare(SchoonerSockIO sock) {
+		if (sock != null)
+			sock.setOperationTimeout(operationTimeout);
+		return sock;
+	}
+
+	/**
+	 * read the responses of the noreply commands written on the socket, so
+	 * that the next command reads its own response.
+	 * 
+	 * @return the socket, or null if it is broken.
+	 */
+	private SchoonerSockIO sync(SchoonerSockIO sock) {
+		if (sock == null || sock.getNoreplyCount() == 0)
+			return sock;
+		try {
+			syncNoreply(sock);
+			return sock;
+		} catch (IOException e) {
+			if (log.isErrorEnabled())
+				log.error("++++ failed to sync noreply commands on " + sock.getHost() + ": " + e.getMessage());
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString());
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * count a noreply command written on the socket, the socket is synced
+	 * every {@link #NOREPLY_SYNC_INTERVAL} commands so the errors are not
+	 * lost.
+	 * 
+	 * @return false if the noreply commands failed.
+	 */
+	boolean noreplyWritten(SchoonerSockIO sock) throws IOException {
+		if (sock.noreplyWritten() < NOREPLY_SYNC_INTERVAL)
+			return true;
+		return syncNoreply(sock);
+	}
+
+	/**
+	 * sync point of the noreply commands: the server answers nothing to them
+	 * but the errors, so the lines before the response of a version command
+	 * are the errors of the noreply commands written before it.
+	 * 
+	 * @return false if any of the noreply commands failed.
+	 * @throws IOException
+	 *             if the connection is broken.
+	 */
+	private boolean syncNoreply(SchoonerSockIO sock) throws IOException {
+		sock.resetNoreplyCount();
+		sock.writeBuf.clear();
+		RequestEncoder.putAscii(sock.writeBuf, "version");
+		RequestEncoder.putReturn(sock.writeBuf);
+		sock.flush();
+
+		AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+		boolean success = true;
+		for (parser.expectLine(); !parser.lineStartsWith(AscIIResponseParser.VERSION); parser.expectLine()) {
+			success = false;
+			if (log.isErrorEnabled())
+				log.error("++++ noreply command failed on " + sock.getHost() + ": " + parser.getLine());
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, new IOException("++++ noreply command failed: "
+						+ parser.getLine()), null);
+		}
+		return success;
+	}
+
 	@Override
 	public void setSanitizeKeys(boolean sanitizeKeys) {
 		this.sanitizeKeys = sanitizeKeys;
 	}
 
-	private String sanitizeKey(String key) throws UnsupportedEncodingException {
+	String sanitizeKey(String key) throws UnsupportedEncodingException {
 		return (sanitizeKeys) ? URLEncoder.encode(key, "UTF-8") : key;
 	}
 
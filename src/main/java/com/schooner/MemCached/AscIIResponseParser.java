@@ -0,0 +1,392 @@
+package com.schooner.MemCached;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A reusable parser for the response lines of memcached ascii protocol.<br>
+ * <br>
+ * The line is read into a byte array kept by the parser, status lines are
+ * compared as bytes and numbers are parsed from the bytes directly, so parsing
+ * a response doesn't create any String. Reading from a {@link SockInputStream},
+ * the end of the line is searched in the buffer of the socket in place and the
+ * line is copied out at once. The parser never reads beyond the end of the
+ * line, the data block following a <code>VALUE</code> line can be read
+ * from the same stream afterwards.<br>
+ * <br>
+ * A parser is not thread safe, each socket keeps its own.
+ *
+ * @since 3.1.0
+ * @see SchoonerSockIO#getResponseParser(java.io.InputStream)
+ */
+public final class AscIIResponseParser {
+
+	public static final byte[] VALUE = "VALUE".getBytes();
+	public static final byte[] END = "END".getBytes();
+	public static final byte[] STORED = "STORED".getBytes();
+	public static final byte[] NOT_STORED = "NOT_STORED".getBytes();
+	public static final byte[] EXISTS = "EXISTS".getBytes();
+	public static final byte[] NOT_FOUND = "NOT_FOUND".getBytes();
+	public static final byte[] DELETED = "DELETED".getBytes();
+	public static final byte[] TOUCHED = "TOUCHED".getBytes();
+	public static final byte[] SYNCED = "SYNCED".getBytes();
+	public static final byte[] OK = "OK".getBytes();
+	public static final byte[] VERSION = "VERSION".getBytes();
+	public static final byte[] ERROR = "ERROR".getBytes();
+	public static final byte[] CLIENT_ERROR = "CLIENT_ERROR".getBytes();
+	public static final byte[] SERVER_ERROR = "SERVER_ERROR".getBytes();
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] EMPTY = new byte[0];
+
+	private InputStream in;
+	// set if in is the stream of a socket, its buffer is scanned in place.
+	private SockInputStream sockIn;
+	private byte[] data;
+	private int dataPos;
+	private int dataLimit;
+
+	// current line without "\r\n".
+	private byte[] line = new byte[256];
+	private int length;
+	private int pos;
+
+	/**
+	 * read the following lines from the stream.
+	 *
+	 * @param in
+	 *            stream positioned at the beginning of a line
+	 * @return this parser
+	 */
+	public AscIIResponseParser reset(InputStream in) {
+		this.in = in;
+		this.sockIn = in instanceof SockInputStream ? (SockInputStream) in : null;
+		this.data = null;
+		length = 0;
+		pos = 0;
+		return this;
+	}
+
+	/**
+	 * read the following lines from a response received as a whole, e.g. a
+	 * UDP datagram.
+	 *
+	 * @param data
+	 *            response bytes
+	 * @return this parser
+	 */
+	public AscIIResponseParser reset(byte[] data) {
+		return data == null ? reset(EMPTY, 0, 0) : reset(data, 0, data.length);
+	}
+
+	/**
+	 * read the following lines from a part of a byte array.
+	 *
+	 * @param data
+	 *            bytes holding the response
+	 * @param offset
+	 *            index of the first byte of the response
+	 * @param length
+	 *            length of the response
+	 * @return this parser
+	 */
+	public AscIIResponseParser reset(byte[] data, int offset, int length) {
+		this.in = null;
+		this.sockIn = null;
+		this.data = data;
+		dataPos = offset;
+		dataLimit = offset + length;
+		this.length = 0;
+		pos = 0;
+		return this;
+	}
+
+	private int read() throws IOException {
+		if (data != null)
+			return dataPos < dataLimit ? data[dataPos++] & 0xff : -1;
+		return in.read();
+	}
+
+	/**
+	 * read the next line, the tokens of the line are read from its beginning.
+	 *
+	 * @return false if the stream ends before any byte of the line.
+	 * @throws IOException
+	 *             error happened in reading.
+	 */
+	public boolean readLine() throws IOException {
+		length = 0;
+		pos = 0;
+		if (sockIn != null)
+			return readBufferedLine();
+		int b;
+		while ((b = read()) != -1) {
+			if (b == '\n') {
+				if (length > 0 && line[length - 1] == '\r')
+					length--;
+				return true;
+			}
+			if (length == line.length) {
+				byte[] tmp = new byte[line.length * 2];
+				System.arraycopy(line, 0, tmp, 0, length);
+				line = tmp;
+			}
+			line[length++] = (byte) b;
+		}
+		return length > 0;
+	}
+
+	private boolean readBufferedLine() throws IOException {
+		int n;
+		while ((n = sockIn.fill()) > 0) {
+			ByteBuffer buf = sockIn.buffer();
+			int start = buf.position();
+			int end = start + n;
+			int eol = start;
+			while (eol < end && buf.get(eol) != '\n')
+				eol++;
+
+			int k = eol - start;
+			if (length + k > line.length) {
+				byte[] tmp = new byte[Math.max(line.length * 2, length + k)];
+				System.arraycopy(line, 0, tmp, 0, length);
+				line = tmp;
+			}
+			buf.get(line, length, k);
+			length += k;
+			if (eol < end) {
+				buf.get();
+				sockIn.consumed(k + 1);
+				if (length > 0 && line[length - 1] == '\r')
+					length--;
+				return true;
+			}
+			sockIn.consumed(k);
+		}
+		return length > 0;
+	}
+
+	/**
+	 * read the next line and fail if the stream ends.
+	 *
+	 * @throws IOException
+	 *             if the stream ends or error happened in reading.
+	 */
+	public void expectLine() throws IOException {
+		if (!readLine())
+			throw new IOException("++++ Stream appears to be dead, so closing it down");
+	}
+
+	/**
+	 * skip the rest of the current line in the stream, e.g. the "\r\n" after
+	 * a data block.
+	 *
+	 * @throws IOException
+	 *             error happened in reading.
+	 */
+	public void skipLine() throws IOException {
+		if (sockIn != null) {
+			int n;
+			while ((n = sockIn.fill()) > 0) {
+				ByteBuffer buf = sockIn.buffer();
+				int start = buf.position();
+				int end = start + n;
+				int eol = start;
+				while (eol < end && buf.get(eol) != '\n')
+					eol++;
+				if (eol < end) {
+					buf.position(eol + 1);
+					sockIn.consumed(eol + 1 - start);
+					return;
+				}
+				buf.position(end);
+				sockIn.consumed(n);
+			}
+			return;
+		}
+		int b;
+		while ((b = read()) != -1 && b != '\n')
+			;
+	}
+
+	/**
+	 * read a data block following the current line, e.g. the value after a
+	 * <code>VALUE</code> line.
+	 *
+	 * @param b
+	 *            buffer to fill completely
+	 * @throws IOException
+	 *             if the response ends before the buffer is filled.
+	 */
+	public void read(byte[] b) throws IOException {
+		if (data != null) {
+			if (dataLimit - dataPos < b.length)
+				throw new EOFException("++++ response is shorter than the data block");
+			System.arraycopy(data, dataPos, b, 0, b.length);
+			dataPos += b.length;
+			return;
+		}
+		int count = 0;
+		while (count < b.length) {
+			int n = in.read(b, count, b.length - count);
+			if (n < 0)
+				throw new EOFException("++++ response is shorter than the data block");
+			count += n;
+		}
+	}
+
+	/**
+	 * skip a data block following the current line, e.g. a value not needed.
+	 *
+	 * @param n
+	 *            length of the data block
+	 * @throws IOException
+	 *             if the response ends before the data block.
+	 */
+	public void skip(int n) throws IOException {
+		if (data != null) {
+			if (dataLimit - dataPos < n)
+				throw new EOFException("++++ response is shorter than the data block");
+			dataPos += n;
+			return;
+		}
+		long left = n;
+		while (left > 0) {
+			long k = in.skip(left);
+			if (k <= 0)
+				throw new EOFException("++++ response is shorter than the data block");
+			left -= k;
+		}
+	}
+
+	/**
+	 * @param status
+	 *            status without "\r\n"
+	 * @return true if the line is exactly the status.
+	 */
+	public boolean lineEquals(byte[] status) {
+		return length == status.length && lineStartsWith(status);
+	}
+
+	/**
+	 * @param prefix
+	 *            prefix to check
+	 * @return true if the line begins with the prefix.
+	 */
+	public boolean lineStartsWith(byte[] prefix) {
+		if (length < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (line[i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the line is an error reported by the server.
+	 */
+	public boolean isError() {
+		return lineStartsWith(ERROR) || lineStartsWith(CLIENT_ERROR) || lineStartsWith(SERVER_ERROR);
+	}
+
+	/**
+	 * @return true if the line is an unsigned number, like the reply of incr.
+	 */
+	public boolean isNumber() {
+		int i = 0;
+		while (i < length && line[i] >= '0' && line[i] <= '9')
+			i++;
+		if (i == 0)
+			return false;
+		// some servers pad the number with spaces.
+		while (i < length && line[i] == ' ')
+			i++;
+		return i == length;
+	}
+
+	/**
+	 * @return true if there is another token in the line.
+	 */
+	public boolean hasNext() {
+		while (pos < length && line[pos] == ' ')
+			pos++;
+		return pos < length;
+	}
+
+	/**
+	 * skip the next token of the line.
+	 */
+	public void skipToken() {
+		hasNext();
+		while (pos < length && line[pos] != ' ')
+			pos++;
+	}
+
+	/**
+	 * parse the next token of the line as an unsigned number.
+	 *
+	 * @return the number
+	 * @throws NumberFormatException
+	 *             if the token is not a number.
+	 */
+	public long nextLong() {
+		if (!hasNext())
+			throw new NumberFormatException("missing number in: " + getLine());
+		// cas unique and counters are 64 bit unsigned, the bits are kept on
+		// overflow.
+		long n = 0;
+		while (pos < length && line[pos] != ' ') {
+			int d = line[pos] - '0';
+			if (d < 0 || d > 9)
+				throw new NumberFormatException("bad number in: " + getLine());
+			n = n * 10 + d;
+			pos++;
+		}
+		return n;
+	}
+
+	/**
+	 * parse the next token of the line as an int.
+	 *
+	 * @return the number
+	 * @throws NumberFormatException
+	 *             if the token is not a number.
+	 */
+	public int nextInt() {
+		return (int) nextLong();
+	}
+
+	/**
+	 * read the flag of the next token of a meta response, e.g. 'f' of "f32",
+	 * its value is read by {@link #nextLong()} or {@link #nextString()}.
+	 *
+	 * @return the flag, or 0 if there is no more token.
+	 */
+	public int nextFlag() {
+		if (!hasNext())
+			return 0;
+		return line[pos++];
+	}
+
+	/**
+	 * @return the next token of the line, e.g. the key of a VALUE line.
+	 */
+	public String nextString() {
+		hasNext();
+		int start = pos;
+		while (pos < length && line[pos] != ' ')
+			pos++;
+		return new String(line, start, pos - start, UTF8);
+	}
+
+	/**
+	 * @return the line as a string, for logging.
+	 */
+	public String getLine() {
+		return new String(line, 0, length, UTF8);
+	}
+}
@@ -29,11 +29,16 @@
 package com.schooner.MemCached;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import com.schooner.MemCached.command.DeletionCommand;
 import com.schooner.MemCached.command.FlushAllCommand;
@@ -82,6 +87,8 @@ public class AscIIUDPClient extends MemCachedClient {
 	private boolean sanitizeKeys;
 	@SuppressWarnings("unused")
 	private boolean primitiveAsString;
+	// ms an operation may wait for the server, 0 for the socket timeout.
+	private long operationTimeout;
 	@SuppressWarnings("unused")
 	private boolean compressEnable;
 	@SuppressWarnings("unused")
@@ -201,6 +208,26 @@ public class AscIIUDPClient extends MemCachedClient {
 		return set("cas", key, value, null, null, casUnique);
 	}
 
+	public Object update(String key, Mutation mutation, int maxRetries, Date expiry) {
+		return update(key, mutation, maxRetries, expiry, null);
+	}
+
+	public Object update(String key, Mutation mutation, int maxRetries, Date expiry, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ update is not supported over UDP");
+	}
+
+	public long getUpdateRetries() {
+		return 0;
+	}
+
+	public long getUpdateFailures() {
+		return 0;
+	}
+
+	public Batch batch() {
+		throw new UnsupportedOperationException("++++ batch is not supported over UDP");
+	}
+
 	public boolean prepend(String key, Object value, Integer hashCode) {
 		return set("prepend", key, value, null, hashCode, 0L);
 	}
@@ -225,6 +252,58 @@ public class AscIIUDPClient extends MemCachedClient {
 		return set("replace", key, value, expiry, hashCode, 0L);
 	}
 
+	/**
+	 * Not supported, a request must fit into a datagram, so the value can't be
+	 * sent without copying it.
+	 */
+	public boolean set(String key, ByteBuffer value) {
+		throw new UnsupportedOperationException("++++ storing a ByteBuffer is not supported over UDP");
+	}
+
+	public boolean set(String key, ByteBuffer value, Date expiry) {
+		throw new UnsupportedOperationException("++++ storing a ByteBuffer is not supported over UDP");
+	}
+
+	public boolean set(String key, FileChannel src, long position, long count) {
+		throw new UnsupportedOperationException("++++ storing a file region is not supported over UDP");
+	}
+
+	public boolean set(String key, FileChannel src, long position, long count, Date expiry) {
+		throw new UnsupportedOperationException("++++ storing a file region is not supported over UDP");
+	}
+
+	public boolean add(String key, ByteBuffer value) {
+		throw new UnsupportedOperationException("++++ storing a ByteBuffer is not supported over UDP");
+	}
+
+	public boolean add(String key, ByteBuffer value, Date expiry) {
+		throw new UnsupportedOperationException("++++ storing a ByteBuffer is not supported over UDP");
+	}
+
+	public boolean add(String key, FileChannel src, long position, long count) {
+		throw new UnsupportedOperationException("++++ storing a file region is not supported over UDP");
+	}
+
+	public boolean add(String key, FileChannel src, long position, long count, Date expiry) {
+		throw new UnsupportedOperationException("++++ storing a file region is not supported over UDP");
+	}
+
+	public boolean replace(String key, ByteBuffer value) {
+		throw new UnsupportedOperationException("++++ storing a ByteBuffer is not supported over UDP");
+	}
+
+	public boolean replace(String key, ByteBuffer value, Date expiry) {
+		throw new UnsupportedOperationException("++++ storing a ByteBuffer is not supported over UDP");
+	}
+
+	public boolean replace(String key, FileChannel src, long position, long count) {
+		throw new UnsupportedOperationException("++++ storing a file region is not supported over UDP");
+	}
+
+	public boolean replace(String key, FileChannel src, long position, long count, Date expiry) {
+		throw new UnsupportedOperationException("++++ storing a file region is not supported over UDP");
+	}
+
 	/**
 	 * Stores data to cache.
 	 * 
@@ -278,7 +357,7 @@ public class AscIIUDPClient extends MemCachedClient {
 		}
 
 		// get SockIO obj
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		if (sock == null) {
 			if (errorHandler != null)
@@ -409,7 +488,7 @@ public class AscIIUDPClient extends MemCachedClient {
 
 		for (int i = 0; i < servers.length; i++) {
 
-			SchoonerSockIO sock = pool.getConnection(servers[i]);
+			SchoonerSockIO sock = getConnection(servers[i]);
 			if (sock == null) {
 				if (errorHandler != null)
 					errorHandler.handleErrorOnFlush(this, new IOException("no socket to server available"));
@@ -490,7 +569,7 @@ public class AscIIUDPClient extends MemCachedClient {
 				hash = hashCodes[i];
 
 			// get SockIO obj from cache key
-			SchoonerSockIO sock = pool.getSock(key, hash);
+			SchoonerSockIO sock = getSock(key, hash);
 
 			if (sock == null) {
 				if (errorHandler != null)
@@ -562,6 +641,248 @@ public class AscIIUDPClient extends MemCachedClient {
 		return get("gets", key, hashCode);
 	}
 
+	/**
+	 * Not supported, a datagram response is read as a whole, so the value
+	 * can't be read into the caller's buffer.
+	 */
+	public RawItem getRaw(String key) {
+		throw new UnsupportedOperationException("++++ getRaw is not supported over UDP");
+	}
+
+	public RawItem getRaw(String key, ByteBuffer dst) {
+		throw new UnsupportedOperationException("++++ getRaw is not supported over UDP");
+	}
+
+	public RawItem getRaw(String key, Integer hashCode, ByteBuffer dst) {
+		throw new UnsupportedOperationException("++++ getRaw is not supported over UDP");
+	}
+
+	public Map<String, RawItem> getMultiRaw(String[] keys) {
+		throw new UnsupportedOperationException("++++ getMultiRaw is not supported over UDP");
+	}
+
+	public Map<String, RawItem> getMultiRaw(String[] keys, Integer[] hashCodes) {
+		throw new UnsupportedOperationException("++++ getMultiRaw is not supported over UDP");
+	}
+
+	public MultiGetReport getMultiReport(String[] keys) {
+		throw new UnsupportedOperationException("++++ getMultiReport is not supported over UDP");
+	}
+
+	public MultiGetReport getMultiReport(String[] keys, Integer[] hashCodes) {
+		throw new UnsupportedOperationException("++++ getMultiReport is not supported over UDP");
+	}
+
+	/**
+	 * Not supported, a datagram response is read as a whole, so the value
+	 * can't be streamed.
+	 */
+	public InputStream getAsStream(String key) {
+		throw new UnsupportedOperationException("++++ getAsStream is not supported over UDP");
+	}
+
+	public InputStream getAsStream(String key, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ getAsStream is not supported over UDP");
+	}
+
+	/**
+	 * datagrams are not pipelined, the keys are stored one by one.
+	 */
+	public Set<String> setMulti(Map<String, Object> items) {
+		return setMulti(items, null);
+	}
+
+	public Set<String> setMulti(Map<String, Object> items, Date expiry) {
+		Set<String> failed = new HashSet<String>();
+		if (items == null)
+			return failed;
+		for (Map.Entry<String, Object> item : items.entrySet()) {
+			if (item.getKey() != null && !set(item.getKey(), item.getValue(), expiry))
+				failed.add(item.getKey());
+		}
+		return failed;
+	}
+
+	public Set<String> addMulti(Map<String, Object> items) {
+		return addMulti(items, null);
+	}
+
+	public Set<String> addMulti(Map<String, Object> items, Date expiry) {
+		Set<String> failed = new HashSet<String>();
+		if (items == null)
+			return failed;
+		for (Map.Entry<String, Object> item : items.entrySet()) {
+			if (item.getKey() != null && !add(item.getKey(), item.getValue(), expiry))
+				failed.add(item.getKey());
+		}
+		return failed;
+	}
+
+	public Set<String> casMulti(Map<String, MemcachedItem> items) {
+		return casMulti(items, null);
+	}
+
+	public Set<String> casMulti(Map<String, MemcachedItem> items, Date expiry) {
+		Set<String> failed = new HashSet<String>();
+		if (items == null)
+			return failed;
+		for (Map.Entry<String, MemcachedItem> item : items.entrySet()) {
+			if (item.getKey() == null)
+				continue;
+			if (item.getValue() == null
+					|| !cas(item.getKey(), item.getValue().value, expiry, item.getValue().casUnique))
+				failed.add(item.getKey());
+		}
+		return failed;
+	}
+
+	public Map<String, MemcachedItem> getsMulti(String[] keys) {
+		return getsMulti(keys, null);
+	}
+
+	public Map<String, MemcachedItem> getsMulti(String[] keys, Integer[] hashCodes) {
+		Map<String, MemcachedItem> ret = new HashMap<String, MemcachedItem>();
+		if (keys == null)
+			return ret;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == null)
+				continue;
+			MemcachedItem item = gets(keys[i], hashCodes != null && hashCodes.length > i ? hashCodes[i] : null);
+			if (item != null)
+				ret.put(keys[i], item);
+		}
+		return ret;
+	}
+
+	public Set<String> deleteMulti(String[] keys) {
+		Set<String> failed = new HashSet<String>();
+		if (keys == null)
+			return failed;
+		for (String key : keys) {
+			if (key != null && !delete(key))
+				failed.add(key);
+		}
+		return failed;
+	}
+
+	/**
+	 * touch and get-and-touch are only supported over TCP.
+	 */
+	public boolean touch(String key, Date expiry) {
+		throw new UnsupportedOperationException("++++ touch is not supported over UDP");
+	}
+
+	public boolean touch(String key, Date expiry, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ touch is not supported over UDP");
+	}
+
+	public Set<String> touchMulti(String[] keys, Date expiry) {
+		throw new UnsupportedOperationException("++++ touch is not supported over UDP");
+	}
+
+	public Object getAndTouch(String key, Date expiry) {
+		throw new UnsupportedOperationException("++++ touch is not supported over UDP");
+	}
+
+	public Object getAndTouch(String key, Date expiry, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ touch is not supported over UDP");
+	}
+
+	public MemcachedItem getsAndTouch(String key, Date expiry) {
+		throw new UnsupportedOperationException("++++ touch is not supported over UDP");
+	}
+
+	public MemcachedItem getsAndTouch(String key, Date expiry, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ touch is not supported over UDP");
+	}
+
+	public Map<String, Object> getMultiAndTouch(String[] keys, Date expiry) {
+		throw new UnsupportedOperationException("++++ touch is not supported over UDP");
+	}
+
+	public Map<String, Object> getMultiAndTouch(String[] keys, Integer[] hashCodes, Date expiry) {
+		throw new UnsupportedOperationException("++++ touch is not supported over UDP");
+	}
+
+	/**
+	 * the asynchronous operations are only supported over TCP.
+	 */
+	public OperationFuture<Object> getAsync(String key) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Object> getAsync(String key, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Map<String, Object>> getMultiAsync(String[] keys) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Map<String, Object>> getMultiAsync(String[] keys, Integer[] hashCodes) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Boolean> setAsync(String key, Object value) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Boolean> setAsync(String key, Object value, Date expiry) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Boolean> setAsync(String key, Object value, Date expiry, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Boolean> addAsync(String key, Object value) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Boolean> addAsync(String key, Object value, Date expiry) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Boolean> addAsync(String key, Object value, Date expiry, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Boolean> replaceAsync(String key, Object value) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Boolean> replaceAsync(String key, Object value, Date expiry) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Boolean> replaceAsync(String key, Object value, Date expiry, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Boolean> deleteAsync(String key) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Boolean> deleteAsync(String key, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Long> incrAsync(String key, long inc) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Long> incrAsync(String key, long inc, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Long> decrAsync(String key, long inc) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
+	public OperationFuture<Long> decrAsync(String key, long inc, Integer hashCode) {
+		throw new UnsupportedOperationException("++++ asynchronous operations are not supported over UDP");
+	}
+
 	/**
 	 * get memcached item from server.
 	 * 
@@ -593,7 +914,7 @@ public class AscIIUDPClient extends MemCachedClient {
 		}
 
 		// get SockIO obj using cache key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		if (sock == null) {
 			if (errorHandler != null)
@@ -638,6 +959,17 @@ public class AscIIUDPClient extends MemCachedClient {
 		return (this.get(key, null) != null);
 	}
 
+	public Set<String> keysExist(String[] keys) {
+		Set<String> existing = new HashSet<String>();
+		if (keys == null)
+			return existing;
+		for (String key : keys) {
+			if (keyExists(key))
+				existing.add(key);
+		}
+		return existing;
+	}
+
 	public Map<String, Map<String, String>> stats() {
 		return stats(null);
 	}
@@ -678,7 +1010,7 @@ public class AscIIUDPClient extends MemCachedClient {
 		}
 
 		// get SockIO obj from hash or from key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		// return false if unable to get SockIO obj
 		if (sock == null) {
@@ -742,7 +1074,7 @@ public class AscIIUDPClient extends MemCachedClient {
 
 		for (int i = 0; i < servers.length; i++) {
 
-			SchoonerSockIO sock = pool.getConnection(servers[i]);
+			SchoonerSockIO sock = getConnection(servers[i]);
 			if (sock == null) {
 				log.error("++++ unable to get connection to : " + servers[i]);
 				success = false;
@@ -790,7 +1122,7 @@ public class AscIIUDPClient extends MemCachedClient {
 		}
 
 		// get SockIO obj from hash or from key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		// return false if unable to get SockIO obj
 		if (sock == null) {
@@ -865,7 +1197,7 @@ public class AscIIUDPClient extends MemCachedClient {
 		}
 
 		// get SockIO obj for given cache key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		if (sock == null) {
 			if (errorHandler != null)
@@ -930,7 +1262,7 @@ public class AscIIUDPClient extends MemCachedClient {
 
 		for (int i = 0; i < servers.length; i++) {
 
-			SchoonerSockIO sock = pool.getConnection(servers[i]);
+			SchoonerSockIO sock = getConnection(servers[i]);
 			if (sock == null) {
 				if (errorHandler != null)
 					errorHandler.handleErrorOnStats(this, new IOException("no socket to server available"));
@@ -981,6 +1313,46 @@ public class AscIIUDPClient extends MemCachedClient {
 		this.primitiveAsString = primitiveAsString;
 	}
 
+	public void setOperationTimeout(long operationTimeout) {
+		this.operationTimeout = operationTimeout;
+	}
+
+	/**
+	 * noreply is not supported, the errors of noreply commands could not be read over UDP.
+	 */
+	@Override
+	public void setNoreply(boolean noreply) {
+		if (noreply)
+			throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean isNoreply() {
+		return false;
+	}
+
+	/**
+	 * get the socket for the key, the operation on it may wait up to the
+	 * operation timeout.
+	 */
+	private SchoonerSockIO getSock(String key, Integer hashCode) {
+		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		if (sock != null)
+			sock.setOperationTimeout(operationTimeout);
+		return sock;
+	}
+
+	/**
+	 * get a socket to the host, the operation on it may wait up to the
+	 * operation timeout.
+	 */
+	private SchoonerSockIO getConnection(String host) {
+		SchoonerSockIO sock = pool.getConnection(host);
+		if (sock != null)
+			sock.setOperationTimeout(operationTimeout);
+		return sock;
+	}
+
 	@Override
 	public void setSanitizeKeys(boolean sanitizeKeys) {
 		this.sanitizeKeys = sanitizeKeys;
@@ -0,0 +1,314 @@
+package com.schooner.MemCached;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.whalin.MemCached.MemCachedClient;
+
+/**
+ * {@link AsyncDispatcher} sends the requests of the asynchronous api of a
+ * pool. There is one {@link MultiplexedConnection} per host and protocol,
+ * served by a few {@link Multiplexer} threads, so no thread is blocked for any
+ * request in flight. The responses are decoded by the multiplexer thread and
+ * handed to the {@link OperationFuture} of the request. The timeouts of the
+ * requests are kept by a timer thread, a request timed out fails its future
+ * and its response is dropped when it arrives.<br>
+ * <br>
+ * A connection is made by a connector thread, not by the caller. A host which
+ * fails to connect is marked dead for a delay doubling up to the max retry
+ * delay of the pool, and the requests sent to it meanwhile fail at once.
+ *
+ * @since 3.1.0
+ * @see SchoonerSockIOPool#getAsyncDispatcher()
+ * @see OperationFuture
+ */
+public class AsyncDispatcher {
+
+	// logger
+	private static Logger log = LoggerFactory.getLogger(AsyncDispatcher.class);
+
+	/**
+	 * decodes the response of a request, it is called by the multiplexer thread
+	 * and must not block.
+	 */
+	public interface ResponseHandler<T> {
+		T decode(ByteBuffer response) throws Exception;
+	}
+
+	private final SchoonerSockIOPool pool;
+	private final Multiplexer[] multiplexers;
+	private final AtomicInteger next = new AtomicInteger();
+	private final ConcurrentMap<String, MultiplexedConnection> asciiConns = new ConcurrentHashMap<String, MultiplexedConnection>();
+	private final ConcurrentMap<String, MultiplexedConnection> binaryConns = new ConcurrentHashMap<String, MultiplexedConnection>();
+	private final ScheduledThreadPoolExecutor timer;
+	private final ExecutorService connector;
+
+	// when the hosts failed to connect, and how long they are left alone.
+	private final ConcurrentMap<String, Long> hostDead = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentMap<String, Long> hostDeadDur = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * @param pool
+	 *            pool of the hosts, the connections are made with its settings
+	 * @param threads
+	 *            number of selector threads
+	 * @throws IOException
+	 *             if fails to open the selectors
+	 */
+	public AsyncDispatcher(SchoonerSockIOPool pool, int threads) throws IOException {
+		this.pool = pool;
+		multiplexers = new Multiplexer[Math.max(threads, 1)];
+		for (int i = 0; i < multiplexers.length; i++)
+			multiplexers[i] = new Multiplexer("SockIOPool-AsyncMultiplexer-" + i);
+		timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SockIOPool-AsyncTimer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		connector = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SockIOPool-AsyncConnector");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * send a request to the host, the future is completed with the decoded
+	 * response.
+	 *
+	 * @param host
+	 *            host:port to send to
+	 * @param request
+	 *            bytes of the request, ascii or binary
+	 * @param length
+	 *            length of the request
+	 * @param timeout
+	 *            ms to wait for the response, 0 to wait forever
+	 * @param future
+	 *            future of the operation
+	 * @param handler
+	 *            decodes the response
+	 */
+	public <T> void send(final String host, byte[] request, int length, long timeout, final OperationFuture<T> future,
+			final ResponseHandler<T> handler) {
+		final MultiplexedConnection.Request r = new MultiplexedConnection.Request(request, length,
+				new MultiplexedConnection.Request.Listener() {
+					public void onDone(MultiplexedConnection.Request r) {
+						if (future.isDone())
+							return;
+						if (r.getError() != null) {
+							future.fail(r.getError());
+							return;
+						}
+						try {
+							future.complete(handler.decode(r.getResponse()));
+						} catch (Exception e) {
+							future.fail(e);
+						}
+					}
+				});
+
+		final ScheduledFuture<?> timeoutTask = timeout <= 0 ? null : timer.schedule(new Runnable() {
+			public void run() {
+				future.fail(new SocketTimeoutException("++++ timeout waiting for response from " + host));
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		future.addListener(new Runnable() {
+			public void run() {
+				// the task is out of the timer queue at once, not when due.
+				if (timeoutTask != null && timeoutTask.cancel(false))
+					timer.remove((Runnable) timeoutTask);
+				// timed out or cancelled, drop the response when it arrives.
+				if (!r.isDone())
+					r.abandon();
+			}
+		});
+
+		final MultiplexedConnection conn = getConnection(host, request[0] == MemCachedClient.MAGIC_REQ);
+		try {
+			if (conn.offer(r))
+				return;
+			checkDead(host);
+			connector.execute(new Runnable() {
+				public void run() {
+					connectAndSubmit(conn, r, future);
+				}
+			});
+		} catch (IOException e) {
+			future.fail(e);
+		} catch (RejectedExecutionException e) {
+			future.fail(new IOException("++++ async dispatcher is shut down"));
+		}
+	}
+
+	/**
+	 * connect and send a request, run by a connector thread. The connects of
+	 * a connection are done one at a time, the requests waiting for a connect
+	 * which fails are failed at once.
+	 */
+	private void connectAndSubmit(MultiplexedConnection conn, MultiplexedConnection.Request r,
+			OperationFuture<?> future) {
+		synchronized (conn) {
+			if (future.isDone())
+				return;
+			try {
+				if (conn.offer(r))
+					return;
+				checkDead(conn.getHost());
+				try {
+					conn.connect();
+				} catch (IOException e) {
+					markDead(conn.getHost());
+					throw e;
+				}
+				hostDeadDur.remove(conn.getHost());
+				conn.submit(r);
+			} catch (IOException e) {
+				future.fail(e);
+			}
+		}
+	}
+
+	private void checkDead(String host) throws IOException {
+		Long store = hostDead.get(host);
+		Long expire = hostDeadDur.get(host);
+		if (store != null && expire != null && store.longValue() + expire.longValue() > System.currentTimeMillis())
+			throw new IOException("++++ host is marked dead: " + host);
+	}
+
+	private void markDead(String host) {
+		Long dur = hostDeadDur.get(host);
+		long expire = dur != null ? Math.min(dur.longValue() * 2, SchoonerSockIOPool.MAX_RETRY_DELAY) : 1000;
+		hostDead.put(host, System.currentTimeMillis());
+		hostDeadDur.put(host, expire);
+	}
+
+	/**
+	 * merge the results of the operations sent to several hosts, e.g. the
+	 * parts of a multi-get. The result is completed when all the parts are
+	 * done, the parts failed or timed out are logged and left out, as the
+	 * blocking multi-get does.
+	 *
+	 * @param parts
+	 *            operations to merge
+	 * @param size
+	 *            expected size of the merged map
+	 * @return future of the merged map
+	 */
+	public static <V> OperationFuture<Map<String, V>> merge(final List<OperationFuture<Map<String, V>>> parts, int size) {
+		final OperationFuture<Map<String, V>> result = new OperationFuture<Map<String, V>>();
+		final Map<String, V> merged = new HashMap<String, V>(size);
+		final AtomicInteger remaining = new AtomicInteger(parts.size());
+		if (parts.isEmpty()) {
+			result.complete(merged);
+			return result;
+		}
+
+		for (final OperationFuture<Map<String, V>> part : parts) {
+			part.addListener(new Runnable() {
+				public void run() {
+					Throwable cause = part.getCause();
+					if (cause != null) {
+						if (log.isErrorEnabled())
+							log.error("++++ part of multi-get failed: " + cause.getMessage());
+					} else if (!part.isCancelled()) {
+						synchronized (merged) {
+							merged.putAll(part.getNow());
+						}
+					}
+					if (remaining.decrementAndGet() == 0)
+						result.complete(merged);
+				}
+			});
+		}
+		result.addListener(new Runnable() {
+			public void run() {
+				if (result.isCancelled()) {
+					for (OperationFuture<Map<String, V>> part : parts)
+						part.cancel(false);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * wait for the batches of a multi-key write, the keys of a batch failed or
+	 * timed out as a whole are all reported as failed.
+	 *
+	 * @param batches
+	 *            futures of the keys failed in each batch
+	 * @param keys
+	 *            keys of each batch
+	 * @return keys failed
+	 */
+	public static Set<String> awaitFailures(List<OperationFuture<Set<String>>> batches, List<List<String>> keys) {
+		Set<String> failed = new HashSet<String>();
+		for (int i = 0; i < batches.size(); i++) {
+			try {
+				failed.addAll(batches.get(i).get());
+			} catch (ExecutionException e) {
+				if (log.isErrorEnabled())
+					log.error("++++ batch of " + keys.get(i).size() + " keys failed: " + e.getCause().getMessage());
+				failed.addAll(keys.get(i));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (int j = i; j < batches.size(); j++)
+					failed.addAll(keys.get(j));
+				break;
+			}
+		}
+		return failed;
+	}
+
+	private MultiplexedConnection getConnection(String host, boolean binary) {
+		ConcurrentMap<String, MultiplexedConnection> conns = binary ? binaryConns : asciiConns;
+		MultiplexedConnection conn = conns.get(host);
+		if (conn != null)
+			return conn;
+
+		Multiplexer multiplexer = multiplexers[(next.getAndIncrement() & Integer.MAX_VALUE) % multiplexers.length];
+		conn = new MultiplexedConnection(host, pool.createSockIOFactory(host), multiplexer);
+		MultiplexedConnection old = conns.putIfAbsent(host, conn);
+		return old != null ? old : conn;
+	}
+
+	/**
+	 * stop the selector threads and close all the connections, the requests
+	 * waiting for response fail.
+	 */
+	public void shutdown() {
+		timer.shutdownNow();
+		connector.shutdownNow();
+		for (MultiplexedConnection conn : asciiConns.values())
+			conn.close();
+		for (MultiplexedConnection conn : binaryConns.values())
+			conn.close();
+		for (Multiplexer multiplexer : multiplexers)
+			multiplexer.shutdown();
+	}
+}
@@ -81,7 +81,7 @@ public class AuthSchoonerSockIOFactory extends SchoonerSockIOFactory {
 		// now write the data to the cache server
 		sock.flush();
 		// get result code
-		DataInputStream dis = new DataInputStream(new SockInputStream(sock, Integer.MAX_VALUE));
+		DataInputStream dis = new DataInputStream(sock.getSockInputStream());
 		dis.readInt();
 		dis.readByte();
 		dis.readByte();
@@ -0,0 +1,201 @@
+package com.schooner.MemCached;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A batch of unrelated operations sent together, see
+ * {@link com.whalin.MemCached.MemCachedClient#batch()}.<br>
+ * <br>
+ * The operations are collected first, each returning the future of its
+ * result. {@link #execute()} groups them by the host of their keys and sends
+ * one pipelined request per host with the asynchronous api of the pool, so
+ * that the hosts are served in parallel and a batch costs one round trip per
+ * host instead of one per operation. The operations to a host are run in the
+ * order they are added. If the request to a host fails or times out, the
+ * futures of all its operations fail.<br>
+ * <br>
+ * A batch is not thread safe and can be executed only once.
+ *
+ * <pre>
+ * Batch batch = mc.batch();
+ * OperationFuture&lt;Object&gt; foo = batch.get(&quot;foo&quot;);
+ * batch.set(&quot;bar&quot;, &quot;baz&quot;);
+ * OperationFuture&lt;Long&gt; hits = batch.incr(&quot;hits&quot;, 1);
+ * batch.execute();
+ * Object value = foo.get();
+ * </pre>
+ *
+ * @since 3.1.0
+ * @see AsyncDispatcher
+ */
+public abstract class Batch {
+
+	// types of the operations.
+	static final int GET = 0;
+	static final int GETS = 1;
+	static final int SET = 2;
+	static final int ADD = 3;
+	static final int REPLACE = 4;
+	static final int DELETE = 5;
+	static final int INCR = 6;
+	static final int DECR = 7;
+	static final int TOUCH = 8;
+
+	/**
+	 * an operation of the batch, with the future of its result.
+	 */
+	static final class Operation {
+		final int type;
+		final String key;
+		final Object value;
+		final Date expiry;
+		final long delta;
+		final OperationFuture<?> future;
+
+		Operation(int type, String key, Object value, Date expiry, long delta, OperationFuture<?> future) {
+			this.type = type;
+			this.key = key;
+			this.value = value;
+			this.expiry = expiry;
+			this.delta = delta;
+			this.future = future;
+		}
+
+		@SuppressWarnings("unchecked")
+		boolean complete(Object result) {
+			return ((OperationFuture<Object>) future).complete(result);
+		}
+
+		boolean fail(Throwable cause) {
+			return future.fail(cause);
+		}
+	}
+
+	private final List<Operation> operations = new ArrayList<Operation>();
+	private boolean executed = false;
+
+	/**
+	 * @return future of the value, null if the key is not found.
+	 */
+	public OperationFuture<Object> get(String key) {
+		return queue(GET, key, null, null, 0L, new OperationFuture<Object>());
+	}
+
+	/**
+	 * @return future of the item with its cas unique, null if the key is not
+	 *         found.
+	 */
+	public OperationFuture<MemcachedItem> gets(String key) {
+		return queue(GETS, key, null, null, 0L, new OperationFuture<MemcachedItem>());
+	}
+
+	public OperationFuture<Boolean> set(String key, Object value) {
+		return set(key, value, null);
+	}
+
+	public OperationFuture<Boolean> set(String key, Object value, Date expiry) {
+		return queue(SET, key, value, expiry, 0L, new OperationFuture<Boolean>());
+	}
+
+	public OperationFuture<Boolean> add(String key, Object value) {
+		return add(key, value, null);
+	}
+
+	public OperationFuture<Boolean> add(String key, Object value, Date expiry) {
+		return queue(ADD, key, value, expiry, 0L, new OperationFuture<Boolean>());
+	}
+
+	public OperationFuture<Boolean> replace(String key, Object value) {
+		return replace(key, value, null);
+	}
+
+	public OperationFuture<Boolean> replace(String key, Object value, Date expiry) {
+		return queue(REPLACE, key, value, expiry, 0L, new OperationFuture<Boolean>());
+	}
+
+	public OperationFuture<Boolean> delete(String key) {
+		return queue(DELETE, key, null, null, 0L, new OperationFuture<Boolean>());
+	}
+
+	/**
+	 * @return future of the value after incrementing, -1 if the key is not
+	 *         found.
+	 */
+	public OperationFuture<Long> incr(String key, long inc) {
+		return queue(INCR, key, null, null, inc, new OperationFuture<Long>());
+	}
+
+	/**
+	 * @return future of the value after decrementing, -1 if the key is not
+	 *         found.
+	 */
+	public OperationFuture<Long> decr(String key, long inc) {
+		return queue(DECR, key, null, null, inc, new OperationFuture<Long>());
+	}
+
+	public OperationFuture<Boolean> touch(String key, Date expiry) {
+		return queue(TOUCH, key, null, expiry, 0L, new OperationFuture<Boolean>());
+	}
+
+	/**
+	 * @return number of operations in the batch.
+	 */
+	public int size() {
+		return operations.size();
+	}
+
+	/**
+	 * send the operations without waiting for their results.
+	 *
+	 * @throws IllegalStateException
+	 *             if the batch is executed already.
+	 */
+	public void execute() {
+		if (executed)
+			throw new IllegalStateException("++++ batch is executed already");
+		executed = true;
+		if (!operations.isEmpty())
+			send(operations);
+	}
+
+	/**
+	 * send the operations, one request per host.
+	 */
+	abstract void send(List<Operation> operations);
+
+	private <T> OperationFuture<T> queue(int type, String key, Object value, Date expiry, long delta,
+			OperationFuture<T> future) {
+		if (executed)
+			throw new IllegalStateException("++++ batch is executed already");
+		if (key == null || (value == null && type >= SET && type <= REPLACE)) {
+			future.fail(new IllegalArgumentException("++++ null key or value for batch"));
+			return future;
+		}
+		operations.add(new Operation(type, key, value, expiry, delta, future));
+		return future;
+	}
+
+	/**
+	 * fail the operations not done yet when the request to their host is done,
+	 * e.g. it failed, timed out, or its response ended early.
+	 *
+	 * @param request
+	 *            future of the request to the host
+	 * @param operations
+	 *            operations of the request
+	 */
+	static void failUndone(final OperationFuture<?> request, final List<Operation> operations) {
+		request.addListener(new Runnable() {
+			public void run() {
+				Throwable cause = request.getCause();
+				if (cause == null)
+					cause = new IOException("++++ no response for the operation");
+				for (Operation op : operations)
+					op.fail(cause);
+			}
+		});
+	}
+}
@@ -31,20 +31,26 @@ package com.schooner.MemCached;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
 import com.whalin.MemCached.ErrorHandler;
@@ -74,6 +80,11 @@ public class BinaryClient extends MemCachedClient {
 	// flags
 	private boolean sanitizeKeys;
 	private boolean primitiveAsString;
+	// ms an operation may wait for the server, 0 for the socket timeout.
+	private long operationTimeout;
+	// conflicts and give-ups of update.
+	private final AtomicLong updateRetries = new AtomicLong();
+	private final AtomicLong updateFailures = new AtomicLong();
 	@SuppressWarnings("unused")
 	private boolean compressEnable;
 	@SuppressWarnings("unused")
@@ -123,7 +134,110 @@ public class BinaryClient extends MemCachedClient {
 	}
 
 	public boolean keyExists(String key) {
-		return (this.get(key, null) != null);
+
+		if (key == null) {
+			log.error("null value for key passed to keyExists()");
+			return false;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			log.error("failed to sanitize your key!", e);
+			return false;
+		}
+
+		// get SockIO obj from hash or from key
+		SchoonerSockIO sock = getSock(key, null);
+
+		// return false if unable to get SockIO obj
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, new IOException("no socket to server available"), key);
+			return false;
+		}
+
+		try {
+			// the binary protocol has no get without the value, the value of
+			// a hit is skipped in the socket and not decoded.
+			sock.writeBuf.clear();
+			putGet(sock.writeBuf, OPCODE_GET, key, null);
+			sock.flush();
+			SockInputStream input = sock.getSockInputStream();
+			DataInputStream dis = new DataInputStream(input);
+			dis.readInt();
+			dis.readShort();
+			short status = dis.readShort();
+			int bodyLength = dis.readInt();
+			dis.readInt();
+			dis.readLong();
+			input.willRead(bodyLength);
+			input.skip(bodyLength);
+			if (status == STAT_NO_ERROR)
+				return true;
+			if (status != STAT_KEY_NOT_FOUND && log.isErrorEnabled()) {
+				log.error("++++ error checking key: " + key);
+				log.error("++++ server response: " + status);
+			}
+		} catch (IOException e) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, e, key);
+
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while checking key: " + key);
+				log.error(e.getMessage(), e);
+			}
+
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString(), e1);
+			}
+
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		}
+
+		return false;
+	}
+
+	public Set<String> keysExist(String[] keys) {
+		Set<String> existing = new HashSet<String>();
+		if (keys == null || keys.length == 0) {
+			log.error("missing keys for keysExist()");
+			return existing;
+		}
+
+		Map<String, List<String>> keysByHost = new HashMap<String, List<String>>();
+		Map<String, List<byte[]>> framesByHost = new HashMap<String, List<byte[]>>();
+		Set<String> missing = new HashSet<String>();
+		for (String key : keys) {
+			if (key == null) {
+				log.error("null key, so skipping");
+				continue;
+			}
+
+			try {
+				String cleanKey = sanitizeKey(key);
+				ByteBuffer frame = ByteBuffer.allocate(RequestEncoder.HEADER_LENGTH + RequestEncoder.utf8Length(cleanKey));
+				// only the hits are answered.
+				putGet(frame, OPCODE_GETQ, cleanKey, null);
+				addFrame(cleanKey, key, frame.array(), keysByHost, framesByHost, missing);
+				existing.add(key);
+			} catch (UnsupportedEncodingException e) {
+				log.error("failed to sanitize your key!", e);
+			}
+		}
+
+		existing.removeAll(missing);
+		existing.removeAll(sendQuiet(keysByHost, framesByHost, false));
+		return existing;
 	}
 
 	public boolean delete(String key) {
@@ -152,7 +266,7 @@ public class BinaryClient extends MemCachedClient {
 		}
 
 		// get SockIO obj from hash or from key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		// return false if unable to get SockIO obj
 		if (sock == null) {
@@ -162,20 +276,14 @@ public class BinaryClient extends MemCachedClient {
 		}
 
 		try {
+			int keyLen = RequestEncoder.utf8Length(key);
 			sock.writeBuf.clear();
-			sock.writeBuf.put(MAGIC_REQ);
-			sock.writeBuf.put(OPCODE_DELETE);
-			byte[] keyBuf = key.getBytes();
-			sock.writeBuf.putShort((short) keyBuf.length);
-			sock.writeBuf.putInt(0);
-			sock.writeBuf.putInt(keyBuf.length);
-			sock.writeBuf.putInt(0);
-			sock.writeBuf.putLong(0L);
-			sock.writeBuf.put(keyBuf);
+			RequestEncoder.putHeader(sock.writeBuf, OPCODE_DELETE, keyLen, 0, keyLen, 0L);
+			RequestEncoder.putUtf8(sock.writeBuf, key);
 			sock.flush();
 			// if we get appropriate response back, then we return true
 			// get result code
-			SockInputStream input = new SockInputStream(sock, Integer.MAX_VALUE);
+			SockInputStream input = sock.getSockInputStream();
 			DataInputStream dis = new DataInputStream(input);
 			dis.readInt();
 			dis.readShort();
@@ -283,6 +391,106 @@ public class BinaryClient extends MemCachedClient {
 		return set(OPCODE_SET, key, value, null, null, casUnique, primitiveAsString);
 	}
 
+	public Object update(String key, Mutation mutation, int maxRetries, Date expiry) {
+		return update(key, mutation, maxRetries, expiry, null);
+	}
+
+	public Object update(String key, Mutation mutation, int maxRetries, Date expiry, Integer hashCode) {
+		if (key == null || mutation == null) {
+			log.error("key is null or mutation is null for update()");
+			return null;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, e, key);
+
+			log.error("failed to sanitize your key!", e);
+			return null;
+		}
+
+		for (int attempt = 0;; attempt++) {
+			// the socket goes back to the pool before a backoff.
+			SchoonerSockIO sock = getSock(key, hashCode);
+
+			if (sock == null) {
+				if (errorHandler != null)
+					errorHandler.handleErrorOnSet(this, new IOException("no socket to server available"), key);
+				return null;
+			}
+
+			short status;
+			try {
+				MemcachedItem item = gets(sock, OPCODE_GET, key, false, null);
+				// the server never gives out 0 as cas unique.
+				boolean found = item.casUnique != 0;
+				// an exception of the mutation goes to the caller, the socket
+				// is left in a clean state.
+				Object value = mutation.apply(item.value);
+				if (value == null)
+					return null;
+				// add if not found, so that a concurrent add conflicts too.
+				status = store(sock, found ? OPCODE_SET : OPCODE_ADD, key, value, expiry, item.casUnique,
+						primitiveAsString);
+				if (status == STAT_NO_ERROR)
+					return value;
+				if (status != STAT_KEY_EXISTS && status != STAT_KEY_NOT_FOUND && log.isErrorEnabled()) {
+					log.error("++++ error updating key: " + key);
+					log.error("++++ server response: " + status);
+				}
+			} catch (IOException e) {
+				// if we have an errorHandler, use its hook
+				if (errorHandler != null)
+					errorHandler.handleErrorOnSet(this, e, key);
+
+				// exception thrown
+				if (log.isErrorEnabled()) {
+					log.error("++++ exception thrown while updating key: " + key);
+					log.error(e.getMessage(), e);
+				}
+
+				try {
+					sock.sockets.invalidateObject(sock);
+				} catch (Exception e1) {
+					log.error("++++ failed to close socket : " + sock.toString(), e1);
+				}
+
+				sock = null;
+				return null;
+			} finally {
+				if (sock != null) {
+					sock.close();
+					sock = null;
+				}
+			}
+
+			// only a conflict with another client is retried.
+			if (status != STAT_KEY_EXISTS && status != STAT_KEY_NOT_FOUND)
+				return null;
+			if (attempt >= maxRetries) {
+				updateFailures.incrementAndGet();
+				log.warn("++++ update gave up after " + maxRetries + " retries for key: " + key);
+				return null;
+			}
+			if (!backoff(attempt))
+				return null;
+			updateRetries.incrementAndGet();
+			if (log.isDebugEnabled())
+				log.debug("++++ update conflicted, retrying for key: " + key);
+		}
+	}
+
+	public long getUpdateRetries() {
+		return updateRetries.get();
+	}
+
+	public long getUpdateFailures() {
+		return updateFailures.get();
+	}
+
 	public boolean prepend(String key, Object value, Integer hashCode) {
 		return apPrepend(OPCODE_PREPEND, key, value, hashCode, 0L);
 	}
@@ -307,39 +515,82 @@ public class BinaryClient extends MemCachedClient {
 		return set(OPCODE_REPLACE, key, value, expiry, hashCode, 0L, primitiveAsString);
 	}
 
+	public boolean set(String key, ByteBuffer value) {
+		return setValue(OPCODE_SET, key, value, null, 0L, 0L, null);
+	}
+
+	public boolean set(String key, ByteBuffer value, Date expiry) {
+		return setValue(OPCODE_SET, key, value, null, 0L, 0L, expiry);
+	}
+
+	public boolean set(String key, FileChannel src, long position, long count) {
+		return setValue(OPCODE_SET, key, null, src, position, count, null);
+	}
+
+	public boolean set(String key, FileChannel src, long position, long count, Date expiry) {
+		return setValue(OPCODE_SET, key, null, src, position, count, expiry);
+	}
+
+	public boolean add(String key, ByteBuffer value) {
+		return setValue(OPCODE_ADD, key, value, null, 0L, 0L, null);
+	}
+
+	public boolean add(String key, ByteBuffer value, Date expiry) {
+		return setValue(OPCODE_ADD, key, value, null, 0L, 0L, expiry);
+	}
+
+	public boolean add(String key, FileChannel src, long position, long count) {
+		return setValue(OPCODE_ADD, key, null, src, position, count, null);
+	}
+
+	public boolean add(String key, FileChannel src, long position, long count, Date expiry) {
+		return setValue(OPCODE_ADD, key, null, src, position, count, expiry);
+	}
+
+	public boolean replace(String key, ByteBuffer value) {
+		return setValue(OPCODE_REPLACE, key, value, null, 0L, 0L, null);
+	}
+
+	public boolean replace(String key, ByteBuffer value, Date expiry) {
+		return setValue(OPCODE_REPLACE, key, value, null, 0L, 0L, expiry);
+	}
+
+	public boolean replace(String key, FileChannel src, long position, long count) {
+		return setValue(OPCODE_REPLACE, key, null, src, position, count, null);
+	}
+
+	public boolean replace(String key, FileChannel src, long position, long count, Date expiry) {
+		return setValue(OPCODE_REPLACE, key, null, src, position, count, expiry);
+	}
+
 	/**
-	 * Set, Add, Replace data to cache.
-	 * 
-	 * If data does not already exist for this key on the server, or if the key
-	 * is being<br/>
-	 * deleted, the specified value will not be stored.<br/>
-	 * The server will automatically delete the value when the expiration time
-	 * has been reached.<br/>
-	 * <br/>
-	 * If compression is enabled, and the data is longer than the compression
-	 * threshold<br/>
-	 * the data will be stored in compressed form.<br/>
-	 * <br/>
-	 * As of the current release, all objects stored will use java
-	 * serialization.
+	 * Stores bytes from a buffer or a file region to cache as a byte array.
+	 * The bytes are sent as they are after the request header: the buffer
+	 * with a gathering write, the file region with
+	 * {@link FileChannel#transferTo}, so they are never copied into the heap.
 	 * 
-	 * @param cmdname
+	 * @param opcode
 	 *            action to take (set, add, replace)
 	 * @param key
 	 *            key to store cache under
 	 * @param value
-	 *            object to cache
+	 *            bytes to store from its position to its limit, or null if
+	 *            they are from the file
+	 * @param src
+	 *            file to store bytes from
+	 * @param position
+	 *            position in the file of the first byte
+	 * @param count
+	 *            bytes to store from the file
 	 * @param expiry
 	 *            expiration
-	 * @param hashCode
-	 *            if not null, then the int hashcode to use
 	 * @return true/false indicating success
 	 */
-	private boolean set(byte opcode, String key, Object value, Date expiry, Integer hashCode, long casUnique,
-			boolean asString) {
+	private boolean setValue(byte opcode, String key, ByteBuffer value, FileChannel src, long position, long count,
+			Date expiry) {
 
 		if (key == null) {
-			log.error("key is null or cmd is null/empty for set()");
+			log.error("key is null for set()");
 			return false;
 		}
 
@@ -355,13 +606,13 @@ public class BinaryClient extends MemCachedClient {
 			return false;
 		}
 
-		if (value == null) {
+		if (value == null && src == null) {
 			log.error("trying to store a null value to cache");
 			return false;
 		}
 
 		// get SockIO obj
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, null);
 
 		if (sock == null) {
 			if (errorHandler != null)
@@ -373,56 +624,22 @@ public class BinaryClient extends MemCachedClient {
 			expiry = new Date(0);
 
 		try {
-			// store flags
-			int flags = asString ? MemCachedClient.MARKER_STRING : NativeHandler.getMarkerFlag(value);
-			byte[] buf = key.getBytes();
+			int keyLen = RequestEncoder.utf8Length(key);
+			int valLen = value != null ? value.remaining() : (int) count;
 			sock.writeBuf.clear();
-			sock.writeBuf.put(MAGIC_REQ);
-			sock.writeBuf.put(opcode);
-			sock.writeBuf.putShort((short) buf.length);
-			sock.writeBuf.put((byte) 0x08);
-			sock.writeBuf.put((byte) 0);
-			sock.writeBuf.putShort((short) 0);
-			sock.writeBuf.putInt(0);
-			sock.writeBuf.putInt(0);
-			sock.writeBuf.putLong(casUnique);
-			sock.writeBuf.putInt(flags);
-			sock.writeBuf.putInt(new Long(expiry.getTime() / 1000).intValue());
-			sock.writeBuf.put(buf);
-			SockOutputStream output = new SockOutputStream(sock);
-			int valLen = 0;
-			if (flags != MARKER_OTHERS) {
-				byte[] b;
-				if (asString) {
-					b = value.toString().getBytes(defaultEncoding);
-				} else {
-					/*
-					 * Using NativeHandler to serialize the value
-					 */
-					b = NativeHandler.encode(value);
-				}
-				output.write(b);
-				valLen = b.length;
-				valLen = b.length;
+			RequestEncoder.putHeader(sock.writeBuf, opcode, keyLen, 0x08, 0x08 + keyLen + valLen, 0L);
+			sock.writeBuf.putInt(MARKER_BYTEARR);
+			sock.writeBuf.putInt((int) (expiry.getTime() / 1000));
+			RequestEncoder.putUtf8(sock.writeBuf, key);
 
-			} else {
-				// always serialize for non-primitive types
-				valLen = transCoder.encode(output, value);
-			}
-			// write serialized object
-			int bodyLen = 0x08 + buf.length + valLen;
-			int oldPosition = sock.writeBuf.position();
-			sock.writeBuf.position(8);
-			// put real object bytes size
-			sock.writeBuf.putInt(bodyLen);
-			// return to correct position.
-			sock.writeBuf.position(oldPosition);
+			// send the value as it is, without copying it.
+			if (value != null)
+				sock.flush(new ByteBuffer[] { value.duplicate() });
+			else
+				sock.flush(src, position, count, null);
 
-			// write the buffer to server
-			// now write the data to the cache server
-			sock.flush();
 			// get result code
-			DataInputStream dis = new DataInputStream(new SockInputStream(sock, Integer.MAX_VALUE));
+			DataInputStream dis = new DataInputStream(sock.getSockInputStream());
 			dis.readInt();
 			dis.readShort();
 			short stat = dis.readShort();
@@ -461,7 +678,7 @@ public class BinaryClient extends MemCachedClient {
 	}
 
 	/**
-	 * Append & Prepend data to cache.
+	 * Set, Add, Replace data to cache.
 	 * 
 	 * If data does not already exist for this key on the server, or if the key
 	 * is being<br/>
@@ -482,11 +699,14 @@ public class BinaryClient extends MemCachedClient {
 	 *            key to store cache under
 	 * @param value
 	 *            object to cache
+	 * @param expiry
+	 *            expiration
 	 * @param hashCode
 	 *            if not null, then the int hashcode to use
 	 * @return true/false indicating success
 	 */
-	private boolean apPrepend(byte opcode, String key, Object value, Integer hashCode, Long casUnique) {
+	private boolean set(byte opcode, String key, Object value, Date expiry, Integer hashCode, long casUnique,
+			boolean asString) {
 
 		if (key == null) {
 			log.error("key is null or cmd is null/empty for set()");
@@ -496,6 +716,11 @@ public class BinaryClient extends MemCachedClient {
 		try {
 			key = sanitizeKey(key);
 		} catch (UnsupportedEncodingException e) {
+
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, e, key);
+
 			log.error("failed to sanitize your key!", e);
 			return false;
 		}
@@ -506,56 +731,22 @@ public class BinaryClient extends MemCachedClient {
 		}
 
 		// get SockIO obj
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, new IOException("no socket to server available"), key);
 			return false;
 		}
 
 		try {
-			// store flags
-			int flags = NativeHandler.getMarkerFlag(value);
-			byte[] buf = key.getBytes();
-			sock.writeBuf.clear();
-			sock.writeBuf.put(MAGIC_REQ);
-			sock.writeBuf.put(opcode);
-			sock.writeBuf.putShort((short) buf.length);
-			sock.writeBuf.putInt(0);
-			sock.writeBuf.putLong(0L);
-			sock.writeBuf.putLong(casUnique);
-			sock.writeBuf.put(buf);
-			SockOutputStream output = new SockOutputStream(sock);
-			int valLen = 0;
-			if (flags != MARKER_OTHERS) {
-				byte[] b = NativeHandler.encode(value);
-				output.write(b);
-				valLen = b.length;
-			} else {
-				// always serialize for non-primitive types
-				valLen = transCoder.encode(output, value);
-			}
-			// write serialized object
-			int bodyLen = buf.length + valLen;
-			int oldPosition = sock.writeBuf.position();
-			sock.writeBuf.position(8);
-			// put real object bytes size
-			sock.writeBuf.putInt(bodyLen);
-			// return to correct position.
-			sock.writeBuf.position(oldPosition);
-
-			// write the buffer to server
-			// now write the data to the cache server
-			sock.flush();
-			// get result code
-			DataInputStream dis = new DataInputStream(new SockInputStream(sock, Integer.MAX_VALUE));
-			dis.readInt();
-			dis.readShort();
-			short stat = dis.readShort();
-			dis.close();
-			if (STAT_NO_ERROR == stat) {
-				return true;
-			}
+			return store(sock, opcode, key, value, expiry, casUnique, asString) == STAT_NO_ERROR;
 		} catch (IOException e) {
+
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, e, key);
+
 			// exception thrown
 			if (log.isErrorEnabled()) {
 				log.error("++++ exception thrown while writing bytes to server on set");
@@ -569,6 +760,7 @@ public class BinaryClient extends MemCachedClient {
 			}
 
 			sock = null;
+		} catch (RuntimeException e) {
 		} finally {
 			if (sock != null) {
 				sock.close();
@@ -579,22 +771,216 @@ public class BinaryClient extends MemCachedClient {
 		return false;
 	}
 
-	public long addOrIncr(String key) {
-		return addOrIncr(key, 0, null);
-	}
+	/**
+	 * sends a storage request for key over sock and reads its status.
+	 * 
+	 * @return status of the request, STAT_NO_ERROR if stored
+	 */
+	private short store(SchoonerSockIO sock, byte opcode, String key, Object value, Date expiry, long casUnique,
+			boolean asString) throws IOException {
+		if (expiry == null)
+			expiry = new Date(0);
 
-	public long addOrIncr(String key, long inc) {
-		return addOrIncr(key, inc, null);
+		// store flags
+		int flags = asString ? MemCachedClient.MARKER_STRING : NativeHandler.getMarkerFlag(value);
+		int keyLen = RequestEncoder.utf8Length(key);
+		sock.writeBuf.clear();
+		// the body length is put after the value is written.
+		RequestEncoder.putHeader(sock.writeBuf, opcode, keyLen, 0x08, 0, casUnique);
+		sock.writeBuf.putInt(flags);
+		sock.writeBuf.putInt((int) (expiry.getTime() / 1000));
+		RequestEncoder.putUtf8(sock.writeBuf, key);
+		SockOutputStream output = new SockOutputStream(sock);
+		int valLen = 0;
+		ByteBuffer data = null;
+		CharSequence chars = stringValue(value, flags, asString);
+		if (chars != null && sock.ensureWriteCapacity(RequestEncoder.utf8Length(chars))) {
+			// encode the string into the buffer directly.
+			valLen = RequestEncoder.putUtf8(sock.writeBuf, chars);
+		} else if (flags != MARKER_OTHERS) {
+			byte[] b;
+			if (asString) {
+				b = value.toString().getBytes(defaultEncoding);
+			} else {
+				/*
+				 * Using NativeHandler to serialize the value
+				 */
+				b = NativeHandler.encode(value);
+			}
+			if (b.length >= SchoonerSockIO.GATHER_THRESHOLD)
+				data = ByteBuffer.wrap(b);
+			else
+				output.write(b);
+			valLen = b.length;
+		} else {
+			// always serialize for non-primitive types
+			valLen = transCoder.encode(output, value);
+		}
+		// put real body size
+		sock.writeBuf.putInt(RequestEncoder.BODY_LENGTH_OFFSET, 0x08 + keyLen + valLen);
+
+		// write the buffer to server
+		// now write the data to the cache server
+		if (data == null)
+			sock.flush();
+		else
+			// send the large value as it is, without copying it.
+			sock.flush(new ByteBuffer[] { data });
+		// get result code
+		DataInputStream dis = new DataInputStream(sock.getSockInputStream());
+		dis.readInt();
+		dis.readShort();
+		short stat = dis.readShort();
+		// skip the rest, e.g. the error message, the socket may be reused.
+		int bodyLen = dis.readInt();
+		dis.readInt();
+		dis.readLong();
+		dis.skipBytes(bodyLen);
+		dis.close();
+		return stat;
 	}
 
-	public long addOrIncr(String key, long inc, Integer hashCode) {
-		boolean ret = add(key, "" + inc, hashCode);
+	/**
+	 * Append & Prepend data to cache.
+	 * 
+	 * If data does not already exist for this key on the server, or if the key
+	 * is being<br/>
+	 * deleted, the specified value will not be stored.<br/>
+	 * The server will automatically delete the value when the expiration time
+	 * has been reached.<br/>
+	 * <br/>
+	 * If compression is enabled, and the data is longer than the compression
+	 * threshold<br/>
+	 * the data will be stored in compressed form.<br/>
+	 * <br/>
+	 * As of the current release, all objects stored will use java
+	 * serialization.
+	 * 
+	 * @param cmdname
+	 *            action to take (set, add, replace)
+	 * @param key
+	 *            key to store cache under
+	 * @param value
+	 *            object to cache
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return true/false indicating success
+	 */
+	private boolean apPrepend(byte opcode, String key, Object value, Integer hashCode, Long casUnique) {
 
-		if (ret) {
-			return inc;
-		} else {
-			return incrdecr(OPCODE_INCREMENT, key, inc, hashCode);
+		if (key == null) {
+			log.error("key is null or cmd is null/empty for set()");
+			return false;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			log.error("failed to sanitize your key!", e);
+			return false;
+		}
+
+		if (value == null) {
+			log.error("trying to store a null value to cache");
+			return false;
+		}
+
+		// get SockIO obj
+		SchoonerSockIO sock = getSock(key, hashCode);
+
+		if (sock == null) {
+			return false;
+		}
+
+		try {
+			// store flags
+			int flags = NativeHandler.getMarkerFlag(value);
+			int keyLen = RequestEncoder.utf8Length(key);
+			sock.writeBuf.clear();
+			// the body length is put after the value is written.
+			RequestEncoder.putHeader(sock.writeBuf, opcode, keyLen, 0, 0, casUnique);
+			RequestEncoder.putUtf8(sock.writeBuf, key);
+			SockOutputStream output = new SockOutputStream(sock);
+			int valLen = 0;
+			ByteBuffer data = null;
+			if (flags != MARKER_OTHERS) {
+				byte[] b = NativeHandler.encode(value);
+				if (b.length >= SchoonerSockIO.GATHER_THRESHOLD)
+					data = ByteBuffer.wrap(b);
+				else
+					output.write(b);
+				valLen = b.length;
+			} else {
+				// always serialize for non-primitive types
+				valLen = transCoder.encode(output, value);
+			}
+			// put real body size
+			sock.writeBuf.putInt(RequestEncoder.BODY_LENGTH_OFFSET, keyLen + valLen);
+
+			// write the buffer to server
+			// now write the data to the cache server
+			if (data == null)
+				sock.flush();
+			else
+				// send the large value as it is, without copying it.
+				sock.flush(new ByteBuffer[] { data });
+			// get result code
+			DataInputStream dis = new DataInputStream(sock.getSockInputStream());
+			dis.readInt();
+			dis.readShort();
+			short stat = dis.readShort();
+			dis.close();
+			if (STAT_NO_ERROR == stat) {
+				return true;
+			}
+		} catch (IOException e) {
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while writing bytes to server on set");
+				log.error(e.getMessage(), e);
+			}
+
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString(), e1);
+			}
+
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
 		}
+
+		return false;
+	}
+
+	/**
+	 * get the string to store if the value is stored as UTF-8 string, so that
+	 * it can be encoded into the socket buffer directly.
+	 * 
+	 * @return null if the value is not a string or the encoding is not UTF-8.
+	 */
+	private CharSequence stringValue(Object value, int flags, boolean asString) {
+		if (asString)
+			return "UTF-8".equalsIgnoreCase(defaultEncoding) ? value.toString() : null;
+		if (flags != MARKER_OTHERS && value instanceof CharSequence)
+			return (CharSequence) value;
+		return null;
+	}
+
+	public long addOrIncr(String key) {
+		return addOrIncr(key, 0, null);
+	}
+
+	public long addOrIncr(String key, long inc) {
+		return addOrIncr(key, inc, null);
+	}
+
+	public long addOrIncr(String key, long inc, Integer hashCode) {
+		return incrdecr(OPCODE_INCREMENT, key, inc, inc, hashCode);
 	}
 
 	public long addOrDecr(String key) {
@@ -606,12 +992,7 @@ public class BinaryClient extends MemCachedClient {
 	}
 
 	public long addOrDecr(String key, long inc, Integer hashCode) {
-		boolean ret = add(key, "" + inc, hashCode);
-		if (ret) {
-			return inc;
-		} else {
-			return incrdecr(OPCODE_DECREMENT, key, inc, hashCode);
-		}
+		return incrdecr(OPCODE_DECREMENT, key, inc, inc, hashCode);
 	}
 
 	public long incr(String key) {
@@ -658,6 +1039,19 @@ public class BinaryClient extends MemCachedClient {
 	 * @return new value or -1 if not exist
 	 */
 	private long incrdecr(byte opcode, String key, long inc, Integer hashCode) {
+		return incrdecr(opcode, key, inc, 0L, hashCode);
+	}
+
+	/**
+	 * Increments/decrements the value, the server creates the counter with
+	 * the initial value if it is missing, all in one request.
+	 * 
+	 * @see #incrdecr(byte, String, long, Integer)
+	 * @param initial
+	 *            value of the counter created
+	 * @return new value, the initial value if created, or -1 on error
+	 */
+	private long incrdecr(byte opcode, String key, long inc, long initial, Integer hashCode) {
 
 		if (key == null) {
 			log.error("null key for incrdecr()");
@@ -676,7 +1070,7 @@ public class BinaryClient extends MemCachedClient {
 		}
 
 		// get SockIO obj for given cache key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		if (sock == null) {
 			if (errorHandler != null)
@@ -685,24 +1079,16 @@ public class BinaryClient extends MemCachedClient {
 		}
 
 		try {
+			int keyLen = RequestEncoder.utf8Length(key);
 			sock.writeBuf.clear();
-			sock.writeBuf.put(MAGIC_REQ);
-			sock.writeBuf.put(opcode);
-			byte[] keyBuf = key.getBytes();
-			sock.writeBuf.putShort((short) keyBuf.length);// key size
-			sock.writeBuf.put((byte) 0X14);
-			sock.writeBuf.put((byte) 0);
-			sock.writeBuf.putShort((short) 0);
-			sock.writeBuf.putInt(keyBuf.length + 20); // body total
-			sock.writeBuf.putInt(0);
-			sock.writeBuf.putLong(0L);
+			RequestEncoder.putHeader(sock.writeBuf, opcode, keyLen, 0x14, keyLen + 20, 0L);
 			sock.writeBuf.putLong(inc);
-			sock.writeBuf.putLong(0L);
+			sock.writeBuf.putLong(initial);
 			sock.writeBuf.putInt(0);
-			sock.writeBuf.put(keyBuf);
+			RequestEncoder.putUtf8(sock.writeBuf, key);
 			sock.flush();
 			// get result code
-			DataInputStream dis = new DataInputStream(new SockInputStream(sock, Integer.MAX_VALUE));
+			DataInputStream dis = new DataInputStream(sock.getSockInputStream());
 			dis.readInt();
 			dis.readShort();
 			short status = dis.readShort();
@@ -753,7 +1139,7 @@ public class BinaryClient extends MemCachedClient {
 	}
 
 	public Object get(String key, Integer hashCode) {
-		return get(OPCODE_GET, key, hashCode, false);
+		return get(OPCODE_GET, key, hashCode, false, null);
 	}
 
 	public MemcachedItem gets(String key) {
@@ -761,208 +1147,1272 @@ public class BinaryClient extends MemCachedClient {
 	}
 
 	public MemcachedItem gets(String key, Integer hashCode) {
-		return gets(OPCODE_GET, key, hashCode, false);
+		return gets(OPCODE_GET, key, hashCode, false, null);
 	}
 
-	public void setTransCoder(TransCoder transCoder) {
-		this.transCoder = transCoder;
+	public Object getAndTouch(String key, Date expiry) {
+		return getAndTouch(key, expiry, null);
 	}
 
-	public Object[] getMultiArray(String[] keys) {
-		return getMultiArray(keys, null);
+	public Object getAndTouch(String key, Date expiry, Integer hashCode) {
+		return get(OPCODE_GAT, key, hashCode, false, expiry == null ? new Date(0) : expiry);
 	}
 
-	public Object[] getMultiArray(String[] keys, Integer[] hashCodes) {
-
-		Map<String, Object> data = getMulti(keys, hashCodes);
-
-		if (data == null)
-			return null;
-
-		Object[] res = new Object[keys.length];
-		for (int i = 0; i < keys.length; i++) {
-			res[i] = data.get(keys[i]);
-		}
-
-		return res;
+	public MemcachedItem getsAndTouch(String key, Date expiry) {
+		return getsAndTouch(key, expiry, null);
 	}
 
-	public Map<String, Object> getMulti(String[] keys) {
-		return getMulti(keys, null);
+	public MemcachedItem getsAndTouch(String key, Date expiry, Integer hashCode) {
+		return gets(OPCODE_GAT, key, hashCode, false, expiry == null ? new Date(0) : expiry);
 	}
 
-	public Map<String, Object> getMulti(String[] keys, Integer[] hashCodes) {
-		return getMulti(keys, hashCodes, false);
+	public boolean touch(String key, Date expiry) {
+		return touch(key, expiry, null);
 	}
 
-	/**
-	 * Retrieve multiple keys from the memcache.
-	 * 
-	 * This is recommended over repeated calls to {@link #get(String) get()},
-	 * since it<br/>
-	 * is more efficient.<br/>
-	 * 
-	 * @param keys
-	 *            keys to retrieve
-	 * @param hashCodes
-	 *            if not null, then the Integer array of hashCodes
-	 * @param asString
-	 *            if true then retrieve using String val
-	 * @return a hashmap with entries for each key is found by the server, keys
-	 *         that are not found are not entered into the hashmap, but
-	 *         attempting to retrieve them from the hashmap gives you null.
-	 */
-	public Map<String, Object> getMulti(String[] keys, Integer[] hashCodes, boolean asString) {
+	public boolean touch(String key, Date expiry, Integer hashCode) {
 
-		if (keys == null || keys.length == 0) {
-			log.error("missing keys for getMulti()");
-			return null;
+		if (key == null) {
+			log.error("null value for key passed to touch()");
+			return false;
 		}
 
-		Map<String, ArrayList<String>> cmdMap = new HashMap<String, ArrayList<String>>();
-		String[] cleanKeys = new String[keys.length];
-		for (int i = 0; i < keys.length; ++i) {
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			log.error("failed to sanitize your key!", e);
+			return false;
+		}
 
-			String key = keys[i];
-			if (key == null) {
-				log.error("null key, so skipping");
-				continue;
+		// get SockIO obj from hash or from key
+		SchoonerSockIO sock = getSock(key, hashCode);
+
+		// return false if unable to get SockIO obj
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, new IOException("no socket to server available"), key);
+			return false;
+		}
+
+		try {
+			sock.writeBuf.clear();
+			putGet(sock.writeBuf, OPCODE_TOUCH, key, expiry == null ? new Date(0) : expiry);
+			sock.flush();
+			SockInputStream input = sock.getSockInputStream();
+			DataInputStream dis = new DataInputStream(input);
+			dis.readInt();
+			dis.readShort();
+			short status = dis.readShort();
+			dis.close();
+			if (status == STAT_NO_ERROR)
+				return true;
+			if (status == STAT_KEY_NOT_FOUND) {
+				log.debug("++++ touch of key: " + key + " failed as the key was not found");
+			} else if (log.isErrorEnabled()) {
+				log.error("++++ error touching key: " + key);
+				log.error("++++ server response: " + status);
 			}
+		} catch (IOException e) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, e, key);
 
-			Integer hash = null;
-			if (hashCodes != null && hashCodes.length > i)
-				hash = hashCodes[i];
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while touching key: " + key);
+				log.error(e.getMessage(), e);
+			}
 
-			cleanKeys[i] = key;
 			try {
-				cleanKeys[i] = sanitizeKey(key);
-			} catch (UnsupportedEncodingException e) {
-
-				// if we have an errorHandler, use its hook
-				if (errorHandler != null)
-					errorHandler.handleErrorOnGet(this, e, key);
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString(), e1);
+			}
 
-				log.error("failed to sanitize your key!", e);
-				continue;
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
 			}
+		}
 
-			// get SockIO obj from cache key
-			SchoonerSockIO sock = pool.getSock(cleanKeys[i], hash);
+		return false;
+	}
 
-			if (sock == null) {
-				if (errorHandler != null)
-					errorHandler.handleErrorOnGet(this, new IOException("no socket to server available"), key);
-				continue;
-			}
+	/**
+	 * put a get, or a get and touch if expiry is not null, whose extras are
+	 * the expiration.
+	 */
+	private void putGet(ByteBuffer buf, byte opcode, String key, Date expiry) {
+		int keyLen = RequestEncoder.utf8Length(key);
+		if (expiry == null) {
+			RequestEncoder.putHeader(buf, opcode, keyLen, 0, keyLen, 0L);
+		} else {
+			RequestEncoder.putHeader(buf, opcode, keyLen, 0x04, 0x04 + keyLen, 0L);
+			buf.putInt((int) (expiry.getTime() / 1000));
+		}
+		RequestEncoder.putUtf8(buf, key);
+	}
 
-			// store in map and list if not already
-			if (!cmdMap.containsKey(sock.getHost()))
-				cmdMap.put(sock.getHost(), new ArrayList<String>());
+	public RawItem getRaw(String key) {
+		return getRaw(key, null, null);
+	}
+
+	public RawItem getRaw(String key, ByteBuffer dst) {
+		return getRaw(key, null, dst);
+	}
 
-			cmdMap.get(sock.getHost()).add(cleanKeys[i]);
+	public RawItem getRaw(String key, Integer hashCode, ByteBuffer dst) {
+		if (key == null) {
+			log.error("key is null for getRaw()");
+			return null;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, e, key);
+
+			log.error("failed to sanitize your key!", e);
+			return null;
+		}
+
+		// get SockIO obj using cache key
+		SchoonerSockIO sock = getSock(key, hashCode);
+
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, new IOException("no socket to server available"), key);
+			return null;
+		}
+
+		try {
+			int keyLen = RequestEncoder.utf8Length(key);
+			sock.writeBuf.clear();
+			RequestEncoder.putHeader(sock.writeBuf, OPCODE_GET, keyLen, 0, keyLen, 0L);
+			RequestEncoder.putUtf8(sock.writeBuf, key);
+			// write buffer to server
+			sock.flush();
+
+			SockInputStream input = sock.getSockInputStream();
+			DataInputStream dis = new DataInputStream(input);
+			// process the header
+			dis.readShort();
+			short keyLength = dis.readShort();
+			byte extra = dis.readByte();
+			dis.readByte();
+			short status = dis.readShort();
+			int bodyLength = dis.readInt();
+			dis.readInt();
+			long casUnique = dis.readLong();
+			if (status != STAT_NO_ERROR) {
+				// skip the error message.
+				input.willRead(bodyLength);
+				input.skip(bodyLength);
+				return null;
+			}
+			int flag = dis.readInt();
+			dis.skipBytes(extra - 4 + keyLength);
+
+			// the value goes to the buffer as it is.
+			int dataSize = bodyLength - extra - keyLength;
+			input.willRead(dataSize);
+			return new RawItem(flag, casUnique, dataSize, input.readValue(dst));
+		} catch (IOException e) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, e, key);
+
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while trying to get raw item from cache for key: " + key);
+				log.error(e.getMessage(), e);
+			}
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString(), e1);
+			}
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		}
+		return null;
+	}
+
+	public InputStream getAsStream(String key) {
+		return getAsStream(key, null);
+	}
+
+	public InputStream getAsStream(String key, Integer hashCode) {
+		if (key == null) {
+			log.error("key is null for getAsStream()");
+			return null;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, e, key);
+
+			log.error("failed to sanitize your key!", e);
+			return null;
+		}
+
+		// get SockIO obj using cache key
+		SchoonerSockIO sock = getSock(key, hashCode);
+
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, new IOException("no socket to server available"), key);
+			return null;
+		}
+
+		ValueInputStream value = null;
+		try {
+			int keyLen = RequestEncoder.utf8Length(key);
+			sock.writeBuf.clear();
+			RequestEncoder.putHeader(sock.writeBuf, OPCODE_GET, keyLen, 0, keyLen, 0L);
+			RequestEncoder.putUtf8(sock.writeBuf, key);
+			// write buffer to server
+			sock.flush();
+
+			SockInputStream input = sock.getSockInputStream();
+			DataInputStream dis = new DataInputStream(input);
+			// process the header
+			dis.readShort();
+			short keyLength = dis.readShort();
+			byte extra = dis.readByte();
+			dis.readByte();
+			short status = dis.readShort();
+			int bodyLength = dis.readInt();
+			dis.readInt();
+			dis.readLong();
+			if (status != STAT_NO_ERROR) {
+				// skip the error message.
+				input.willRead(bodyLength);
+				input.skip(bodyLength);
+				return null;
+			}
+			int flag = dis.readInt();
+			dis.skipBytes(extra - 4 + keyLength);
+
+			// the stream owns the socket from now on, nothing follows the
+			// value.
+			value = new ValueInputStream(sock, input, bodyLength - extra - keyLength, 0);
+			sock = null;
+			if ((flag & F_COMPRESSED) == F_COMPRESSED)
+				return new GZIPInputStream(value);
+			return value;
+		} catch (IOException e) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, e, key);
+
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while trying to get stream from cache for key: " + key);
+				log.error(e.getMessage(), e);
+			}
+			if (value != null) {
+				try {
+					value.close();
+				} catch (IOException e1) {
+					log.error("++++ failed to close stream for key: " + key, e1);
+				}
+			} else {
+				try {
+					sock.sockets.invalidateObject(sock);
+				} catch (Exception e1) {
+					log.error("++++ failed to close socket : " + sock.toString(), e1);
+				}
+				sock = null;
+			}
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		}
+		return null;
+	}
+
+	public void setTransCoder(TransCoder transCoder) {
+		this.transCoder = transCoder;
+	}
+
+	public Object[] getMultiArray(String[] keys) {
+		return getMultiArray(keys, null);
+	}
+
+	public Object[] getMultiArray(String[] keys, Integer[] hashCodes) {
+
+		Map<String, Object> data = getMulti(keys, hashCodes);
+
+		if (data == null)
+			return null;
+
+		Object[] res = new Object[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			res[i] = data.get(keys[i]);
+		}
+
+		return res;
+	}
+
+	public Map<String, Object> getMulti(String[] keys) {
+		return getMulti(keys, null);
+	}
+
+	public Map<String, Object> getMulti(String[] keys, Integer[] hashCodes) {
+		return getMulti(keys, hashCodes, false);
+	}
+
+	/**
+	 * Retrieve multiple keys from the memcache.
+	 * 
+	 * This is recommended over repeated calls to {@link #get(String) get()},
+	 * since it<br/>
+	 * is more efficient.<br/>
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @param hashCodes
+	 *            if not null, then the Integer array of hashCodes
+	 * @param asString
+	 *            if true then retrieve using String val
+	 * @return a hashmap with entries for each key is found by the server, keys
+	 *         that are not found are not entered into the hashmap, but
+	 *         attempting to retrieve them from the hashmap gives you null.
+	 */
+	public Map<String, Object> getMulti(String[] keys, Integer[] hashCodes, boolean asString) {
+		return getMulti(keys, hashCodes, asString, false, false, null);
+	}
+
+	public Map<String, MemcachedItem> getsMulti(String[] keys) {
+		return getsMulti(keys, null);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Map<String, MemcachedItem> getsMulti(String[] keys, Integer[] hashCodes) {
+		// the loader puts MemcachedItem values only in cas mode.
+		return (Map) getMulti(keys, hashCodes, false, false, true, null);
+	}
+
+	public Map<String, Object> getMultiAndTouch(String[] keys, Date expiry) {
+		return getMultiAndTouch(keys, null, expiry);
+	}
+
+	public Map<String, Object> getMultiAndTouch(String[] keys, Integer[] hashCodes, Date expiry) {
+		return getMulti(keys, hashCodes, false, false, false, expiry == null ? new Date(0) : expiry);
+	}
+
+	public Map<String, RawItem> getMultiRaw(String[] keys) {
+		return getMultiRaw(keys, null);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Map<String, RawItem> getMultiRaw(String[] keys, Integer[] hashCodes) {
+		// the loader puts RawItem values only in raw mode.
+		return (Map) getMulti(keys, hashCodes, false, true, false, null);
+	}
+
+	public MultiGetReport getMultiReport(String[] keys) {
+		return getMultiReport(keys, null);
+	}
+
+	public MultiGetReport getMultiReport(String[] keys, Integer[] hashCodes) {
+		return getMultiReport(keys, hashCodes, false, false, false, null);
+	}
+
+	/**
+	 * @param cas
+	 *            if true, the values are loaded as {@link MemcachedItem} with
+	 *            their cas unique
+	 * @param touch
+	 *            if not null, the expiration the items found are touched with
+	 */
+	private Map<String, Object> getMulti(String[] keys, Integer[] hashCodes, boolean asString, boolean raw,
+			boolean cas, Date touch) {
+		MultiGetReport report = getMultiReport(keys, hashCodes, asString, raw, cas, touch);
+		return report == null ? null : report.getValues();
+	}
+
+	private MultiGetReport getMultiReport(String[] keys, Integer[] hashCodes, boolean asString, boolean raw,
+			boolean cas, Date touch) {
+
+		if (keys == null || keys.length == 0) {
+			log.error("missing keys for getMulti()");
+			return null;
+		}
+
+		Map<String, List<String>> hostKeys = new HashMap<String, List<String>>();
+		Map<String, Integer> hashes = hashCodes == null ? null : new HashMap<String, Integer>();
+		Map<String, Object> ret = new HashMap<String, Object>(keys.length);
+		MultiGetReport report = new MultiGetReport(ret);
+		String[] cleanKeys = new String[keys.length];
+		for (int i = 0; i < keys.length; ++i) {
+
+			String key = keys[i];
+			if (key == null) {
+				log.error("null key, so skipping");
+				continue;
+			}
+
+			Integer hash = null;
+			if (hashCodes != null && hashCodes.length > i)
+				hash = hashCodes[i];
+
+			cleanKeys[i] = key;
+			try {
+				cleanKeys[i] = sanitizeKey(key);
+			} catch (UnsupportedEncodingException e) {
+
+				// if we have an errorHandler, use its hook
+				if (errorHandler != null)
+					errorHandler.handleErrorOnGet(this, e, key);
+
+				log.error("failed to sanitize your key!", e);
+				report.addFailedKey(key);
+				continue;
+			}
+
+			// the host of the key, the sockets are borrowed by the loader
+			String host = pool.routeKey(cleanKeys[i], hash);
+
+			if (host == null) {
+				if (errorHandler != null)
+					errorHandler.handleErrorOnGet(this, new IOException("no socket to server available"), key);
+				report.addFailedKey(key);
+				continue;
+			}
+
+			// store in map and list if not already
+			if (!hostKeys.containsKey(host))
+				hostKeys.put(host, new ArrayList<String>());
+
+			hostKeys.get(host).add(cleanKeys[i]);
+			if (hashes != null && hash != null)
+				hashes.put(cleanKeys[i], hash);
+		}
+
+		log.debug("multi get socket count : " + hostKeys.size());
+
+		// now use new NIO implementation
+		NIOLoader loader = new NIOLoader(this, raw, cas, touch);
+		loader.doMulti(asString, hostKeys, hashes, ret, report);
+
+		// fix the return array in case we had to rewrite any of the keys
+		for (int i = 0; i < keys.length; ++i) {
+			if (cleanKeys[i] == null)
+				continue;
+
+			// if key!=cleanKey and result has cleankey
+			if (!keys[i].equals(cleanKeys[i]) && ret.containsKey(cleanKeys[i])) {
+				ret.put(keys[i], ret.get(cleanKeys[i]));
+				ret.remove(cleanKeys[i]);
+			}
+
+			if (loader.failedKeys.contains(cleanKeys[i]))
+				report.addFailedKey(keys[i]);
+
+			// backfill missing keys w/ null value
+			// if (!ret.containsKey(keys[i]))
+			// ret.put(keys[i], null);
+		}
+
+		log.debug("++++ memcache: got back " + ret.size() + " results");
+		return report;
+	}
+
+	/**
+	 * decode a value read as a whole, e.g. by a multi-get.
+	 * 
+	 * @return the value, or null if it can't be decoded.
+	 */
+	private Object decodeValue(String key, byte[] buf, int flag) throws IOException {
+		Object o = null;
+		// we can only take out serialized objects
+		if ((flag & F_COMPRESSED) == F_COMPRESSED) {
+			GZIPInputStream gzi = new GZIPInputStream(new ByteArrayInputStream(buf));
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(buf.length);
+			int count;
+			byte[] tmp = new byte[2048];
+			while ((count = gzi.read(tmp)) != -1) {
+				bos.write(tmp, 0, count);
+			}
+			// store uncompressed back to buffer
+			buf = bos.toByteArray();
+			gzi.close();
+		}
+		if (flag != MARKER_OTHERS) {
+			// decoding object
+			try {
+				o = NativeHandler.decode(buf, flag);
+			} catch (Exception e) {
+
+				// if we have an errorHandler, use its hook
+				if (errorHandler != null)
+					errorHandler.handleErrorOnGet(this, e, key);
+
+				log.error("++++ Exception thrown while trying to deserialize for key: " + key, e);
+				e.printStackTrace();
+			}
+		} else if (isCounter(buf, false)) {
+			o = new String(buf, defaultEncoding);
+		} else if (transCoder != null) {
+			o = transCoder.decode(new ByteArrayInputStream(buf));
+		}
+		return o;
+	}
+
+	/**
+	 * A flagless value of digits is a counter the server created by an incr
+	 * with an initial value. It is read as one only where it cannot be a value
+	 * written by a custom transcoder.
+	 */
+	private boolean isCounter(byte[] buf, boolean asString) {
+		return (asString || transCoder instanceof ObjectTransCoder) && NativeHandler.isCounter(buf);
+	}
+
+	/**
+	 * This method loads the data from cache into a Map.
+	 * 
+	 * Pass a SockIO object which is ready to receive data and a HashMap<br/>
+	 * to store the results.
+	 * 
+	 * @param sock
+	 *            socket waiting to pass back data
+	 * @param hm
+	 *            hashmap to store data into
+	 * @param raw
+	 *            if true, store the values as {@link RawItem}
+	 * @param cas
+	 *            if true, store the values as {@link MemcachedItem}
+	 * @throws IOException
+	 *             if io exception happens while reading from socket
+	 */
+	private void loadMulti(DataInputStream input, Map<String, Object> hm, boolean raw, boolean cas)
+			throws IOException {
+
+		while (true) {
+			input.readByte();
+			byte opcode = input.readByte();
+			if (opcode == OPCODE_GETKQ || opcode == OPCODE_GATKQ) {
+				short keyLen = input.readShort();
+				input.readInt();
+				int length = input.readInt() - keyLen - 4;
+				input.readInt();
+				long casUnique = input.readLong();
+				int flag = input.readInt();
+				byte[] keyBuf = new byte[keyLen];
+				input.read(keyBuf);
+				String key = new String(keyBuf);
+
+				// read obj into buffer
+				byte[] buf = new byte[length];
+				input.read(buf);
+
+				if (raw) {
+					// leave the value as it is.
+					hm.put(key, new RawItem(flag, casUnique, length, ByteBuffer.wrap(buf)));
+					continue;
+				}
+
+				// ready object
+				Object o = decodeValue(key, buf, flag);
+				// store the object into the cache
+				if (cas) {
+					MemcachedItem item = new MemcachedItem();
+					item.value = o;
+					item.casUnique = casUnique;
+					hm.put(key, item);
+				} else
+					hm.put(key, o);
+			} else if (opcode == OPCODE_NOOP) {
+				break;
+			}
+		}
+	}
+
+	public OperationFuture<Object> getAsync(String key) {
+		return getAsync(key, null);
+	}
+
+	public OperationFuture<Object> getAsync(String key, Integer hashCode) {
+		final OperationFuture<Object> future = new OperationFuture<Object>();
+		if (key == null) {
+			future.fail(new IllegalArgumentException("++++ key is null for getAsync()"));
+			return future;
+		}
+
+		String cleanKey;
+		try {
+			cleanKey = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			future.fail(e);
+			return future;
+		}
+		String host = pool.routeKey(cleanKey, hashCode);
+		if (host == null) {
+			future.fail(new IOException("no socket to server available"));
+			return future;
+		}
+
+		ArrayList<String> hostKeys = new ArrayList<String>(1);
+		hostKeys.add(cleanKey);
+		Map<String, String> origKeys = new HashMap<String, String>(2);
+		origKeys.put(cleanKey, key);
+		final OperationFuture<Map<String, Object>> part = loadAsync(host, hostKeys, origKeys);
+		final String k = key;
+		part.addListener(new Runnable() {
+			public void run() {
+				if (part.getCause() != null)
+					future.fail(part.getCause());
+				else if (part.isCancelled())
+					future.cancel(false);
+				else
+					future.complete(part.getNow().get(k));
+			}
+		});
+		future.addListener(new Runnable() {
+			public void run() {
+				if (future.isCancelled())
+					part.cancel(false);
+			}
+		});
+		return future;
+	}
+
+	public OperationFuture<Map<String, Object>> getMultiAsync(String[] keys) {
+		return getMultiAsync(keys, null);
+	}
+
+	public OperationFuture<Map<String, Object>> getMultiAsync(String[] keys, Integer[] hashCodes) {
+		if (keys == null || keys.length == 0) {
+			OperationFuture<Map<String, Object>> future = new OperationFuture<Map<String, Object>>();
+			future.fail(new IllegalArgumentException("++++ missing keys for getMultiAsync()"));
+			return future;
+		}
+
+		// partition the keys by host, keeping the keys before sanitized.
+		Map<String, ArrayList<String>> cmdMap = new HashMap<String, ArrayList<String>>();
+		Map<String, String> origKeys = new HashMap<String, String>(keys.length);
+		for (int i = 0; i < keys.length; ++i) {
+			String key = keys[i];
+			if (key == null) {
+				log.error("null key, so skipping");
+				continue;
+			}
+
+			String cleanKey;
+			try {
+				cleanKey = sanitizeKey(key);
+			} catch (UnsupportedEncodingException e) {
+				log.error("failed to sanitize your key!", e);
+				continue;
+			}
+
+			String host = pool.routeKey(cleanKey, hashCodes != null && hashCodes.length > i ? hashCodes[i] : null);
+			if (host == null)
+				continue;
+
+			if (!cmdMap.containsKey(host))
+				cmdMap.put(host, new ArrayList<String>());
+			cmdMap.get(host).add(cleanKey);
+			origKeys.put(cleanKey, key);
+		}
+
+		List<OperationFuture<Map<String, Object>>> parts = new ArrayList<OperationFuture<Map<String, Object>>>(
+				cmdMap.size());
+		for (Map.Entry<String, ArrayList<String>> entry : cmdMap.entrySet())
+			parts.add(loadAsync(entry.getKey(), entry.getValue(), origKeys));
+		return AsyncDispatcher.merge(parts, keys.length);
+	}
+
+	/**
+	 * get the keys from the host without blocking.
+	 * 
+	 * @param origKeys
+	 *            keys before sanitized, by the sanitized ones
+	 * @return future of the items found, by the keys before sanitized
+	 */
+	private OperationFuture<Map<String, Object>> loadAsync(String host, ArrayList<String> keys,
+			final Map<String, String> origKeys) {
+		// GETKQ for each key, the NOOP at last marks the end of response.
+		int size = (keys.size() + 1) * RequestEncoder.HEADER_LENGTH;
+		for (String k : keys)
+			size += RequestEncoder.utf8Length(k);
+		ByteBuffer request = ByteBuffer.allocate(size);
+		for (String k : keys) {
+			int keyLen = RequestEncoder.utf8Length(k);
+			RequestEncoder.putHeader(request, OPCODE_GETKQ, keyLen, 0, keyLen, 0L);
+			RequestEncoder.putUtf8(request, k);
+		}
+		RequestEncoder.putHeader(request, OPCODE_NOOP, 0, 0, 0, 0L);
+
+		OperationFuture<Map<String, Object>> future = new OperationFuture<Map<String, Object>>();
+		pool.getAsyncDispatcher().send(host, request.array(), request.position(), asyncTimeout(), future,
+				new AsyncDispatcher.ResponseHandler<Map<String, Object>>() {
+					public Map<String, Object> decode(ByteBuffer response) throws Exception {
+						Map<String, Object> hm = new HashMap<String, Object>();
+						loadMulti(new DataInputStream(new ByteArrayInputStream(response.array(), response.arrayOffset()
+								+ response.position(), response.remaining())), hm, false, false);
+						// fix the keys in case we had to rewrite any of them.
+						Map<String, Object> ret = new HashMap<String, Object>(hm.size());
+						for (Map.Entry<String, Object> e : hm.entrySet())
+							ret.put(origKeys.containsKey(e.getKey()) ? origKeys.get(e.getKey()) : e.getKey(),
+									e.getValue());
+						return ret;
+					}
+				});
+		return future;
+	}
+
+	public OperationFuture<Boolean> setAsync(String key, Object value) {
+		return storeAsync(OPCODE_SET, key, value, null, null);
+	}
+
+	public OperationFuture<Boolean> setAsync(String key, Object value, Date expiry) {
+		return storeAsync(OPCODE_SET, key, value, expiry, null);
+	}
+
+	public OperationFuture<Boolean> setAsync(String key, Object value, Date expiry, Integer hashCode) {
+		return storeAsync(OPCODE_SET, key, value, expiry, hashCode);
+	}
+
+	public OperationFuture<Boolean> addAsync(String key, Object value) {
+		return storeAsync(OPCODE_ADD, key, value, null, null);
+	}
+
+	public OperationFuture<Boolean> addAsync(String key, Object value, Date expiry) {
+		return storeAsync(OPCODE_ADD, key, value, expiry, null);
+	}
+
+	public OperationFuture<Boolean> addAsync(String key, Object value, Date expiry, Integer hashCode) {
+		return storeAsync(OPCODE_ADD, key, value, expiry, hashCode);
+	}
+
+	public OperationFuture<Boolean> replaceAsync(String key, Object value) {
+		return storeAsync(OPCODE_REPLACE, key, value, null, null);
+	}
+
+	public OperationFuture<Boolean> replaceAsync(String key, Object value, Date expiry) {
+		return storeAsync(OPCODE_REPLACE, key, value, expiry, null);
+	}
+
+	public OperationFuture<Boolean> replaceAsync(String key, Object value, Date expiry, Integer hashCode) {
+		return storeAsync(OPCODE_REPLACE, key, value, expiry, hashCode);
+	}
+
+	private OperationFuture<Boolean> storeAsync(byte opcode, String key, Object value, Date expiry, Integer hashCode) {
+		OperationFuture<Boolean> future = new OperationFuture<Boolean>();
+		if (key == null || value == null) {
+			future.fail(new IllegalArgumentException("++++ null key or value for storing asynchronously"));
+			return future;
+		}
+
+		try {
+			key = sanitizeKey(key);
+			byte[] request = encodeStore(opcode, key, value, expiry, 0L);
+			sendAsync(key, hashCode, request, request.length, future, STATUS_HANDLER);
+		} catch (IOException e) {
+			future.fail(e);
+		}
+		return future;
+	}
+
+	/**
+	 * encode a storage request with its value.
+	 */
+	private byte[] encodeStore(byte opcode, String key, Object value, Date expiry, long casUnique)
+			throws IOException {
+		int flags = NativeHandler.getMarkerFlag(value);
+		byte[] b = encodeValue(value, flags);
+		int keyLen = RequestEncoder.utf8Length(key);
+		ByteBuffer frame = ByteBuffer.allocate(RequestEncoder.HEADER_LENGTH + 0x08 + keyLen + b.length);
+		RequestEncoder.putHeader(frame, opcode, keyLen, 0x08, 0x08 + keyLen + b.length, casUnique);
+		frame.putInt(flags);
+		frame.putInt(expiry == null ? 0 : (int) (expiry.getTime() / 1000));
+		RequestEncoder.putUtf8(frame, key);
+		frame.put(b);
+		return frame.array();
+	}
+
+	public OperationFuture<Boolean> deleteAsync(String key) {
+		return deleteAsync(key, null);
+	}
+
+	public OperationFuture<Boolean> deleteAsync(String key, Integer hashCode) {
+		OperationFuture<Boolean> future = new OperationFuture<Boolean>();
+		if (key == null) {
+			future.fail(new IllegalArgumentException("++++ null value for key passed to deleteAsync()"));
+			return future;
+		}
+
+		try {
+			key = sanitizeKey(key);
+			int keyLen = RequestEncoder.utf8Length(key);
+			ByteBuffer request = ByteBuffer.allocate(RequestEncoder.HEADER_LENGTH + keyLen);
+			RequestEncoder.putHeader(request, OPCODE_DELETE, keyLen, 0, keyLen, 0L);
+			RequestEncoder.putUtf8(request, key);
+			sendAsync(key, hashCode, request.array(), request.position(), future, STATUS_HANDLER);
+		} catch (IOException e) {
+			future.fail(e);
+		}
+		return future;
+	}
+
+	public OperationFuture<Long> incrAsync(String key, long inc) {
+		return incrdecrAsync(OPCODE_INCREMENT, key, inc, null);
+	}
+
+	public OperationFuture<Long> incrAsync(String key, long inc, Integer hashCode) {
+		return incrdecrAsync(OPCODE_INCREMENT, key, inc, hashCode);
+	}
+
+	public OperationFuture<Long> decrAsync(String key, long inc) {
+		return incrdecrAsync(OPCODE_DECREMENT, key, inc, null);
+	}
+
+	public OperationFuture<Long> decrAsync(String key, long inc, Integer hashCode) {
+		return incrdecrAsync(OPCODE_DECREMENT, key, inc, hashCode);
+	}
+
+	private OperationFuture<Long> incrdecrAsync(byte opcode, String key, long inc, Integer hashCode) {
+		OperationFuture<Long> future = new OperationFuture<Long>();
+		if (key == null) {
+			future.fail(new IllegalArgumentException("++++ null key for incr/decr asynchronously"));
+			return future;
+		}
+
+		try {
+			key = sanitizeKey(key);
+			int keyLen = RequestEncoder.utf8Length(key);
+			ByteBuffer request = ByteBuffer.allocate(RequestEncoder.HEADER_LENGTH + 0x14 + keyLen);
+			RequestEncoder.putHeader(request, opcode, keyLen, 0x14, keyLen + 20, 0L);
+			request.putLong(inc);
+			request.putLong(0L);
+			request.putInt(0);
+			RequestEncoder.putUtf8(request, key);
+			sendAsync(key, hashCode, request.array(), request.position(), future,
+					new AsyncDispatcher.ResponseHandler<Long>() {
+						public Long decode(ByteBuffer response) throws Exception {
+							// -1 on error, as the blocking incr/decr.
+							if (response.getShort(response.position() + 6) != STAT_NO_ERROR)
+								return -1L;
+							return response.getLong(response.position() + RequestEncoder.HEADER_LENGTH);
+						}
+					});
+		} catch (IOException e) {
+			future.fail(e);
+		}
+		return future;
+	}
+
+	// true if the status of the response is no error.
+	private static final AsyncDispatcher.ResponseHandler<Boolean> STATUS_HANDLER = new AsyncDispatcher.ResponseHandler<Boolean>() {
+		public Boolean decode(ByteBuffer response) throws Exception {
+			return response.getShort(response.position() + 6) == STAT_NO_ERROR;
+		}
+	};
+
+	public Batch batch() {
+		return new Batch() {
+			void send(List<Batch.Operation> operations) {
+				sendBatch(operations);
+			}
+		};
+	}
+
+	/**
+	 * send the operations of a batch, one pipelined request per host. Every
+	 * operation is sent with a non-quiet opcode, so that the responses of a
+	 * host are decoded in the order of its operations.
+	 */
+	private void sendBatch(List<Batch.Operation> operations) {
+		Map<String, List<Batch.Operation>> opsByHost = new HashMap<String, List<Batch.Operation>>();
+		Map<String, List<byte[]>> framesByHost = new HashMap<String, List<byte[]>>();
+		for (Batch.Operation op : operations) {
+			try {
+				String cleanKey = sanitizeKey(op.key);
+				String host = pool.routeKey(cleanKey, null);
+				if (host == null) {
+					op.fail(new IOException("no socket to server available"));
+					continue;
+				}
+				byte[] frame = encodeBatch(op, cleanKey);
+				if (!opsByHost.containsKey(host)) {
+					opsByHost.put(host, new ArrayList<Batch.Operation>());
+					framesByHost.put(host, new ArrayList<byte[]>());
+				}
+				opsByHost.get(host).add(op);
+				framesByHost.get(host).add(frame);
+			} catch (IOException e) {
+				op.fail(e);
+			}
+		}
+
+		AsyncDispatcher dispatcher = pool.getAsyncDispatcher();
+		for (Map.Entry<String, List<Batch.Operation>> entry : opsByHost.entrySet()) {
+			List<byte[]> frames = framesByHost.get(entry.getKey());
+			int size = 0;
+			for (byte[] frame : frames)
+				size += frame.length;
+			ByteBuffer request = ByteBuffer.allocate(size);
+			for (byte[] frame : frames)
+				request.put(frame);
+
+			final List<Batch.Operation> ops = entry.getValue();
+			OperationFuture<Object> future = new OperationFuture<Object>();
+			Batch.failUndone(future, ops);
+			dispatcher.send(entry.getKey(), request.array(), size, asyncTimeout(), future,
+					new AsyncDispatcher.ResponseHandler<Object>() {
+						public Object decode(ByteBuffer response) throws Exception {
+							ByteBuffer buf = response.slice();
+							for (Batch.Operation op : ops)
+								decodeBatch(buf, op);
+							return null;
+						}
+					});
+		}
+	}
+
+	private byte[] encodeBatch(Batch.Operation op, String key) throws IOException {
+		int keyLen = RequestEncoder.utf8Length(key);
+		ByteBuffer frame;
+		switch (op.type) {
+		case Batch.GET:
+		case Batch.GETS:
+			frame = ByteBuffer.allocate(RequestEncoder.HEADER_LENGTH + keyLen);
+			putGet(frame, OPCODE_GET, key, null);
+			return frame.array();
+		case Batch.SET:
+			return encodeStore(OPCODE_SET, key, op.value, op.expiry, 0L);
+		case Batch.ADD:
+			return encodeStore(OPCODE_ADD, key, op.value, op.expiry, 0L);
+		case Batch.REPLACE:
+			return encodeStore(OPCODE_REPLACE, key, op.value, op.expiry, 0L);
+		case Batch.DELETE:
+			frame = ByteBuffer.allocate(RequestEncoder.HEADER_LENGTH + keyLen);
+			RequestEncoder.putHeader(frame, OPCODE_DELETE, keyLen, 0, keyLen, 0L);
+			RequestEncoder.putUtf8(frame, key);
+			return frame.array();
+		case Batch.INCR:
+		case Batch.DECR:
+			frame = ByteBuffer.allocate(RequestEncoder.HEADER_LENGTH + 0x14 + keyLen);
+			RequestEncoder.putHeader(frame, op.type == Batch.INCR ? OPCODE_INCREMENT : OPCODE_DECREMENT, keyLen,
+					0x14, keyLen + 20, 0L);
+			frame.putLong(op.delta);
+			frame.putLong(0L);
+			frame.putInt(0);
+			RequestEncoder.putUtf8(frame, key);
+			return frame.array();
+		default:
+			frame = ByteBuffer.allocate(RequestEncoder.HEADER_LENGTH + 0x04 + keyLen);
+			putGet(frame, OPCODE_TOUCH, key, op.expiry == null ? new Date(0) : op.expiry);
+			return frame.array();
+		}
+	}
+
+	/**
+	 * read the response of an operation of a batch and complete its future.
+	 */
+	private void decodeBatch(ByteBuffer response, Batch.Operation op) throws IOException {
+		int start = response.position();
+		if (response.remaining() < RequestEncoder.HEADER_LENGTH)
+			throw new EOFException("++++ response of batch ended early");
+		int keyLen = response.getShort(start + 2) & 0xffff;
+		int extLen = response.get(start + 4) & 0xff;
+		short status = response.getShort(start + 6);
+		int bodyLen = response.getInt(start + 8);
+		long casUnique = response.getLong(start + 16);
+		int body = start + RequestEncoder.HEADER_LENGTH;
+		if (response.limit() - body < bodyLen)
+			throw new EOFException("++++ response of batch ended early");
+		response.position(body + bodyLen);
+
+		switch (op.type) {
+		case Batch.GET:
+		case Batch.GETS:
+			if (status != STAT_NO_ERROR) {
+				op.complete(null);
+				return;
+			}
+			byte[] buf = new byte[bodyLen - extLen - keyLen];
+			System.arraycopy(response.array(), response.arrayOffset() + body + extLen + keyLen, buf, 0, buf.length);
+			Object o = decodeValue(op.key, buf, response.getInt(body));
+			if (op.type == Batch.GETS) {
+				MemcachedItem item = new MemcachedItem();
+				item.value = o;
+				item.casUnique = casUnique;
+				op.complete(item);
+			} else
+				op.complete(o);
+			break;
+		case Batch.INCR:
+		case Batch.DECR:
+			// -1 on error, as the blocking incr/decr.
+			op.complete(status == STAT_NO_ERROR ? response.getLong(body) : -1L);
+			break;
+		default:
+			op.complete(status == STAT_NO_ERROR);
+		}
+	}
+
+	public Set<String> setMulti(Map<String, Object> items) {
+		return storeMulti(OPCODE_SETQ, items, null, false);
+	}
+
+	public Set<String> setMulti(Map<String, Object> items, Date expiry) {
+		return storeMulti(OPCODE_SETQ, items, expiry, false);
+	}
+
+	public Set<String> addMulti(Map<String, Object> items) {
+		return storeMulti(OPCODE_ADDQ, items, null, false);
+	}
+
+	public Set<String> addMulti(Map<String, Object> items, Date expiry) {
+		return storeMulti(OPCODE_ADDQ, items, expiry, false);
+	}
+
+	public Set<String> casMulti(Map<String, MemcachedItem> items) {
+		return storeMulti(OPCODE_SETQ, items, null, true);
+	}
+
+	public Set<String> casMulti(Map<String, MemcachedItem> items, Date expiry) {
+		return storeMulti(OPCODE_SETQ, items, expiry, true);
+	}
+
+	/**
+	 * @param items
+	 *            values by their keys, {@link MemcachedItem} values with
+	 *            their cas unique if cas
+	 * @param cas
+	 *            if true, a value is only stored if its cas unique matches
+	 */
+	private Set<String> storeMulti(byte opcode, Map<String, ?> items, Date expiry, boolean cas) {
+		if (items == null || items.isEmpty()) {
+			log.error("missing items for storing multiple keys");
+			return new HashSet<String>();
+		}
+
+		Map<String, List<String>> keysByHost = new HashMap<String, List<String>>();
+		Map<String, List<byte[]>> framesByHost = new HashMap<String, List<byte[]>>();
+		Set<String> failed = new HashSet<String>();
+		for (Map.Entry<String, ?> item : items.entrySet()) {
+			String key = item.getKey();
+			Object value = item.getValue();
+			long casUnique = 0L;
+			if (cas && value != null) {
+				casUnique = ((MemcachedItem) value).casUnique;
+				value = ((MemcachedItem) value).value;
+			}
+			if (key == null || value == null) {
+				log.error("null key or value, so skipping");
+				if (key != null)
+					failed.add(key);
+				continue;
+			}
+
+			try {
+				String cleanKey = sanitizeKey(key);
+				addFrame(cleanKey, key, encodeStore(opcode, cleanKey, value, expiry, casUnique), keysByHost,
+						framesByHost, failed);
+			} catch (IOException e) {
+				if (errorHandler != null)
+					errorHandler.handleErrorOnSet(this, e, key);
+				log.error("++++ failed to encode the value of key: " + key, e);
+				failed.add(key);
+			}
+		}
+
+		failed.addAll(sendQuiet(keysByHost, framesByHost, true));
+		return failed;
+	}
 
-			// return to pool
-			sock.close();
+	public Set<String> touchMulti(String[] keys, Date expiry) {
+		if (keys == null || keys.length == 0) {
+			log.error("missing keys for touchMulti()");
+			return new HashSet<String>();
 		}
 
-		log.debug("multi get socket count : " + cmdMap.size());
+		Map<String, List<String>> keysByHost = new HashMap<String, List<String>>();
+		Map<String, List<byte[]>> framesByHost = new HashMap<String, List<byte[]>>();
+		Set<String> failed = new HashSet<String>();
+		for (String key : keys) {
+			if (key == null) {
+				log.error("null key, so skipping");
+				continue;
+			}
 
-		// now query memcache
-		Map<String, Object> ret = new HashMap<String, Object>(keys.length);
+			try {
+				String cleanKey = sanitizeKey(key);
+				// there is no quiet touch, every touch is answered.
+				ByteBuffer frame = ByteBuffer.allocate(RequestEncoder.HEADER_LENGTH + 0x04
+						+ RequestEncoder.utf8Length(cleanKey));
+				putGet(frame, OPCODE_TOUCH, cleanKey, expiry == null ? new Date(0) : expiry);
+				addFrame(cleanKey, key, frame.array(), keysByHost, framesByHost, failed);
+			} catch (UnsupportedEncodingException e) {
+				log.error("failed to sanitize your key!", e);
+				failed.add(key);
+			}
+		}
 
-		// now use new NIO implementation
-		(new NIOLoader(this)).doMulti(asString, cmdMap, keys, ret);
+		failed.addAll(sendQuiet(keysByHost, framesByHost, true));
+		return failed;
+	}
 
-		// fix the return array in case we had to rewrite any of the keys
-		for (int i = 0; i < keys.length; ++i) {
+	public Set<String> deleteMulti(String[] keys) {
+		if (keys == null || keys.length == 0) {
+			log.error("missing keys for deleteMulti()");
+			return new HashSet<String>();
+		}
 
-			// if key!=cleanKey and result has cleankey
-			if (!keys[i].equals(cleanKeys[i]) && ret.containsKey(cleanKeys[i])) {
-				ret.put(keys[i], ret.get(cleanKeys[i]));
-				ret.remove(cleanKeys[i]);
+		Map<String, List<String>> keysByHost = new HashMap<String, List<String>>();
+		Map<String, List<byte[]>> framesByHost = new HashMap<String, List<byte[]>>();
+		Set<String> failed = new HashSet<String>();
+		for (String key : keys) {
+			if (key == null) {
+				log.error("null key, so skipping");
+				continue;
 			}
 
-			// backfill missing keys w/ null value
-			// if (!ret.containsKey(keys[i]))
-			// ret.put(keys[i], null);
+			try {
+				String cleanKey = sanitizeKey(key);
+				int keyLen = RequestEncoder.utf8Length(cleanKey);
+				ByteBuffer frame = ByteBuffer.allocate(RequestEncoder.HEADER_LENGTH + keyLen);
+				RequestEncoder.putHeader(frame, OPCODE_DELETEQ, keyLen, 0, keyLen, 0L);
+				RequestEncoder.putUtf8(frame, cleanKey);
+				addFrame(cleanKey, key, frame.array(), keysByHost, framesByHost, failed);
+			} catch (UnsupportedEncodingException e) {
+				log.error("failed to sanitize your key!", e);
+				failed.add(key);
+			}
 		}
 
-		log.debug("++++ memcache: got back " + ret.size() + " results");
-		return ret;
+		failed.addAll(sendQuiet(keysByHost, framesByHost, true));
+		return failed;
+	}
+
+	private void addFrame(String cleanKey, String key, byte[] frame, Map<String, List<String>> keysByHost,
+			Map<String, List<byte[]>> framesByHost, Set<String> failed) {
+		String host = pool.routeKey(cleanKey, null);
+		if (host == null) {
+			failed.add(key);
+			return;
+		}
+		if (!keysByHost.containsKey(host)) {
+			keysByHost.put(host, new ArrayList<String>());
+			framesByHost.put(host, new ArrayList<byte[]>());
+		}
+		keysByHost.get(host).add(key);
+		framesByHost.get(host).add(frame);
 	}
 
 	/**
-	 * This method loads the data from cache into a Map.
-	 * 
-	 * Pass a SockIO object which is ready to receive data and a HashMap<br/>
-	 * to store the results.
+	 * pipeline the quiet requests to all the hosts at once. The requests are
+	 * sent in batches up to the buffer size of the pool, each is terminated by
+	 * a NOOP, so that only the failed requests and the NOOP are answered. The
+	 * opaque of each request is its index in the batch, to find the key of a
+	 * failure.
 	 * 
-	 * @param sock
-	 *            socket waiting to pass back data
-	 * @param hm
-	 *            hashmap to store data into
-	 * @param asString
-	 *            if true, and if we are using NativehHandler, return string val
-	 * @throws IOException
-	 *             if io exception happens while reading from socket
+	 * @param silentSucceeded
+	 *            whether a request not answered succeeded, as a quiet store
+	 *            does, or failed, as a quiet get does
+	 * @return keys failed
 	 */
-	private void loadMulti(DataInputStream input, Map<String, Object> hm) throws IOException {
-
-		while (true) {
-			input.readByte();
-			byte opcode = input.readByte();
-			if (opcode == OPCODE_GETKQ) {
-				short keyLen = input.readShort();
-				input.readInt();
-				int length = input.readInt() - keyLen - 4;
-				input.readInt();
-				input.readLong();
-				int flag = input.readInt();
-				byte[] keyBuf = new byte[keyLen];
-				input.read(keyBuf);
-				String key = new String(keyBuf);
-
-				// read obj into buffer
-				byte[] buf = new byte[length];
-				input.read(buf);
-
-				// ready object
-				Object o = null;
-				// we can only take out serialized objects
-				if ((flag & F_COMPRESSED) == F_COMPRESSED) {
-					GZIPInputStream gzi = new GZIPInputStream(new ByteArrayInputStream(buf));
-					ByteArrayOutputStream bos = new ByteArrayOutputStream(buf.length);
-					int count;
-					byte[] tmp = new byte[2048];
-					while ((count = gzi.read(tmp)) != -1) {
-						bos.write(tmp, 0, count);
-					}
-					// store uncompressed back to buffer
-					buf = bos.toByteArray();
-					gzi.close();
-				}
-				if (flag != MARKER_OTHERS) {
-					// decoding object
-					try {
-						o = NativeHandler.decode(buf, flag);
-					} catch (Exception e) {
-
-						// if we have an errorHandler, use its hook
-						if (errorHandler != null)
-							errorHandler.handleErrorOnGet(this, e, key);
-
-						log.error("++++ Exception thrown while trying to deserialize for key: " + key, e);
-						e.printStackTrace();
-					}
-				} else if (transCoder != null) {
-					o = transCoder.decode(new ByteArrayInputStream(buf));
+	private Set<String> sendQuiet(Map<String, List<String>> keysByHost, Map<String, List<byte[]>> framesByHost,
+			final boolean silentSucceeded) {
+		if (keysByHost.isEmpty())
+			return new HashSet<String>();
+
+		AsyncDispatcher dispatcher = pool.getAsyncDispatcher();
+		long timeout = operationTimeout > 0 ? operationTimeout : pool.getMaxBusy();
+		List<OperationFuture<Set<String>>> batches = new ArrayList<OperationFuture<Set<String>>>();
+		List<List<String>> batchKeys = new ArrayList<List<String>>();
+		for (Map.Entry<String, List<String>> entry : keysByHost.entrySet()) {
+			List<String> keys = entry.getValue();
+			List<byte[]> frames = framesByHost.get(entry.getKey());
+			int start = 0;
+			while (start < frames.size()) {
+				int end = start;
+				int size = RequestEncoder.HEADER_LENGTH;
+				while (end < frames.size() && (end == start || size + frames.get(end).length <= pool.getBufferSize()))
+					size += frames.get(end++).length;
+
+				ByteBuffer request = ByteBuffer.allocate(size);
+				for (int i = start; i < end; i++) {
+					int pos = request.position();
+					request.put(frames.get(i));
+					request.putInt(pos + 12, i - start);
 				}
-				// store the object into the cache
-				hm.put(key, o);
-			} else if (opcode == OPCODE_NOOP) {
-				break;
+				RequestEncoder.putHeader(request, OPCODE_NOOP, 0, 0, 0, 0L);
+
+				final List<String> batch = keys.subList(start, end);
+				OperationFuture<Set<String>> future = new OperationFuture<Set<String>>();
+				dispatcher.send(entry.getKey(), request.array(), request.position(), timeout, future,
+						new AsyncDispatcher.ResponseHandler<Set<String>>() {
+							public Set<String> decode(ByteBuffer response) throws Exception {
+								Set<String> failed = new HashSet<String>();
+								if (!silentSucceeded)
+									failed.addAll(batch);
+								int pos = response.position();
+								while (pos + RequestEncoder.HEADER_LENGTH <= response.limit()) {
+									if (response.get(pos + 1) != OPCODE_NOOP) {
+										String key = batch.get(response.getInt(pos + 12));
+										if (response.getShort(pos + 6) == STAT_NO_ERROR)
+											failed.remove(key);
+										else
+											failed.add(key);
+									}
+									pos += RequestEncoder.HEADER_LENGTH + response.getInt(pos + 8);
+								}
+								return failed;
+							}
+						});
+				batches.add(future);
+				batchKeys.add(batch);
+				start = end;
 			}
 		}
+		return AsyncDispatcher.awaitFailures(batches, batchKeys);
+	}
+
+	/**
+	 * send a request of the asynchronous api to the server of the key.
+	 */
+	private <T> void sendAsync(String key, Integer hashCode, byte[] request, int length, OperationFuture<T> future,
+			AsyncDispatcher.ResponseHandler<T> handler) {
+		String host = pool.routeKey(key, hashCode);
+		if (host == null) {
+			future.fail(new IOException("no socket to server available"));
+			return;
+		}
+		pool.getAsyncDispatcher().send(host, request, length, asyncTimeout(), future, handler);
+	}
+
+	private long asyncTimeout() {
+		return operationTimeout > 0 ? operationTimeout : pool.getSocketTO();
+	}
+
+	/**
+	 * encode a value into bytes, as the blocking set does.
+	 */
+	private byte[] encodeValue(Object value, int flags) throws IOException {
+		if (flags != MARKER_OTHERS)
+			return NativeHandler.encode(value);
+		if (!(transCoder instanceof AbstractTransCoder))
+			throw new IOException("++++ the transcoder can only encode into a socket: " + transCoder.getClass());
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		((AbstractTransCoder) transCoder).encode(bos, value);
+		return bos.toByteArray();
 	}
 
 	public boolean flushAll() {
@@ -991,7 +2441,7 @@ public class BinaryClient extends MemCachedClient {
 
 		for (int i = 0; i < servers.length; i++) {
 
-			SchoonerSockIO sock = pool.getConnection(servers[i]);
+			SchoonerSockIO sock = getConnection(servers[i]);
 			if (sock == null) {
 				if (errorHandler != null)
 					errorHandler.handleErrorOnFlush(this, new IOException("no socket to server available"));
@@ -1014,7 +2464,7 @@ public class BinaryClient extends MemCachedClient {
 				sock.flush();
 				// if we get appropriate response back, then we return true
 				// get result code
-				DataInputStream dis = new DataInputStream(new SockInputStream(sock, Integer.MAX_VALUE));
+				DataInputStream dis = new DataInputStream(sock.getSockInputStream());
 				dis.readInt();
 				dis.readShort();
 				success = dis.readShort() == STAT_NO_ERROR ? success && true : false;
@@ -1104,7 +2554,7 @@ public class BinaryClient extends MemCachedClient {
 
 		for (int i = 0; i < servers.length; i++) {
 
-			SchoonerSockIO sock = pool.getConnection(servers[i]);
+			SchoonerSockIO sock = getConnection(servers[i]);
 			if (sock == null) {
 				if (errorHandler != null)
 					errorHandler.handleErrorOnStats(this, new IOException("no socket to server available"));
@@ -1134,10 +2584,10 @@ public class BinaryClient extends MemCachedClient {
 					sock.writeBuf.put(reqKey);
 				}
 				sock.writeBuf.flip();
-				sock.getChannel().write(sock.writeBuf);
+				sock.getByteChannel().write(sock.writeBuf);
 
 				// response
-				DataInputStream input = new DataInputStream(new SockInputStream(sock, Integer.MAX_VALUE));
+				DataInputStream input = new DataInputStream(sock.getSockInputStream());
 				while (true) {
 					input.skip(2);
 					statKeyLen = input.readShort();
@@ -1188,9 +2638,31 @@ public class BinaryClient extends MemCachedClient {
 		protected int numConns = 0;
 		protected BinaryClient mc;
 		protected Connection[] conns;
+		/**
+		 * keys not fetched from any host.
+		 */
+		protected final Set<String> failedKeys = new HashSet<String>();
+		private final boolean raw;
+		private final boolean cas;
+		private final Date touch;
 
 		public NIOLoader(BinaryClient mc) {
+			this(mc, false, false, null);
+		}
+
+		/**
+		 * @param raw
+		 *            if true, the values are loaded as {@link RawItem}
+		 * @param cas
+		 *            if true, the values are loaded as {@link MemcachedItem}
+		 * @param touch
+		 *            if not null, the items are touched with this expiration
+		 */
+		public NIOLoader(BinaryClient mc, boolean raw, boolean cas, Date touch) {
 			this.mc = mc;
+			this.raw = raw;
+			this.cas = cas;
+			this.touch = touch;
 		}
 
 		private final class Connection {
@@ -1199,57 +2671,66 @@ public class BinaryClient extends MemCachedClient {
 			public ByteBuffer outgoing;
 			public SchoonerSockIO sock;
 			public SocketChannel channel;
+			public final String host;
+			public final List<String> keys;
 			private boolean isDone = false;
+			private boolean failed = false;
 			private final byte[] NOOPFLAG = { MAGIC_RESP, OPCODE_NOOP, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
 					0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00 };
 
-			public Connection(SchoonerSockIO sock, ArrayList<String> keys) throws IOException {
+			public Connection(SchoonerSockIO sock, String host, List<String> keys) {
 				this.sock = sock;
-				List<byte[]> bufList = new ArrayList<byte[]>(keys.size());
+				this.host = host;
+				this.keys = keys;
+				int[] keyLens = new int[keys.size()];
 				int size = 0;
-				for (String key : keys) {
-					byte[] buf = key.getBytes();
-					bufList.add(buf);
-					size += buf.length;
+				for (int i = 0; i < keyLens.length; i++) {
+					keyLens[i] = RequestEncoder.utf8Length(keys.get(i));
+					size += keyLens[i];
 				}
-				size = size + (bufList.size() + 1) * 24;
+				size = size + (keyLens.length + 1) * RequestEncoder.HEADER_LENGTH;
+				if (touch != null)
+					size += keyLens.length * 0x04;
 				outgoing = ByteBuffer.allocateDirect(size);
 				outgoing.clear();
-				for (String key : keys) {
-					byte[] buf = key.getBytes();
-					outgoing.put(MAGIC_REQ);
-					outgoing.put(OPCODE_GETKQ);
-					outgoing.putShort((short) buf.length);
-					outgoing.putInt(0);
-					outgoing.putInt(buf.length);
-					outgoing.putInt(0);
-					outgoing.putLong(0L);
-					outgoing.put(buf);
-				}
-				outgoing.put(MAGIC_REQ);
-				outgoing.put(OPCODE_NOOP);
-				outgoing.putShort((short) 0);
-				outgoing.putInt(0);
-				outgoing.putLong(0L);
-				outgoing.putLong(0L);
+				for (int i = 0; i < keyLens.length; i++)
+					putGet(outgoing, touch == null ? OPCODE_GETKQ : OPCODE_GATKQ, keys.get(i), touch);
+				RequestEncoder.putHeader(outgoing, OPCODE_NOOP, 0, 0, 0, 0L);
 				outgoing.flip();
+			}
+
+			public void send() throws IOException {
+				if (sock instanceof MultiplexedSockIO) {
+					// the shared connection is served by the multiplexer, just
+					// send the request and read it after the select loop.
+					sock.getByteChannel().write(outgoing);
+					((MultiplexedSockIO) sock).commit();
+					return;
+				}
+
 				channel = (SocketChannel) sock.getChannel();
 				if (channel == null)
 					throw new IOException("dead connection to: " + sock.getHost());
 
 				channel.configureBlocking(false);
 				channel.register(selector, SelectionKey.OP_WRITE, this);
+				numConns++;
+			}
+
+			/**
+			 * read the whole response of a multiplexed socket.
+			 */
+			public void readAll() throws IOException {
+				while (!isDone() && sock.read(getBuffer()) >= 0)
+					;
 			}
 
 			public void close() {
-				try {
-					if (isDone) {
-						channel.configureBlocking(true);
-						sock.close();
-						return;
-					}
-				} catch (IOException e) {
-					log.warn("++++ memcache: unexpected error closing normally", e);
+				// the channel stays non-blocking, the socket waits on its own
+				// selector.
+				if (isDone) {
+					sock.close();
+					return;
 				}
 
 				try {
@@ -1300,32 +2781,89 @@ public class BinaryClient extends MemCachedClient {
 			}
 		}
 
-		public void doMulti(Map<String, ArrayList<String>> sockKeys, String[] keys, Map<String, Object> ret) {
-			doMulti(false, sockKeys, keys, ret);
+		public void doMulti(Map<String, List<String>> hostKeys, Map<String, Object> ret) {
+			doMulti(false, hostKeys, null, ret, new MultiGetReport(ret));
+		}
+
+		/**
+		 * fetch the keys of each host. A host that can't be connected, fails
+		 * or times out doesn't fail the others, its keys are fetched from
+		 * their failover host in another round, until all the keys are
+		 * fetched or left without a host.
+		 * 
+		 * @param hostKeys
+		 *            keys to fetch by host
+		 * @param hashes
+		 *            hashcodes of the keys, or null
+		 * @param report
+		 *            gets the status of each host asked
+		 */
+		public void doMulti(boolean asString, Map<String, List<String>> hostKeys, Map<String, Integer> hashes,
+				Map<String, Object> ret, MultiGetReport report) {
+			Set<String> unavailable = new HashSet<String>();
+			while (!hostKeys.isEmpty()) {
+				Map<String, List<String>> lost = doRound(asString, hostKeys, ret, report);
+				unavailable.addAll(lost.keySet());
+
+				hostKeys = new HashMap<String, List<String>>();
+				for (List<String> keys : lost.values()) {
+					for (String key : keys) {
+						String host = pool.getFailoverServer(key, hashes == null ? null : hashes.get(key),
+								unavailable);
+						if (host == null) {
+							failedKeys.add(key);
+							continue;
+						}
+
+						if (!hostKeys.containsKey(host))
+							hostKeys.put(host, new ArrayList<String>());
+						hostKeys.get(host).add(key);
+					}
+				}
+			}
 		}
 
-		public void doMulti(boolean asString, Map<String, ArrayList<String>> sockKeys, String[] keys,
-				Map<String, Object> ret) {
+		/**
+		 * send one request to each host and load the responses.
+		 * 
+		 * @return keys of the hosts that failed, by host
+		 */
+		private Map<String, List<String>> doRound(boolean asString, Map<String, List<String>> hostKeys,
+				Map<String, Object> ret, MultiGetReport report) {
 
+			Map<String, List<String>> lost = new HashMap<String, List<String>>();
 			long timeRemaining = 0;
+			boolean broken = false;
+			conns = new Connection[hostKeys.size()];
+			numConns = 0;
 			try {
 				selector = Selector.open();
 
 				// get the sockets, flip them to non-blocking, and set up data
 				// structures
-				conns = new Connection[sockKeys.keySet().size()];
-				numConns = 0;
-				for (Iterator<String> i = sockKeys.keySet().iterator(); i.hasNext();) {
+				int count = 0;
+				for (Map.Entry<String, List<String>> e : hostKeys.entrySet()) {
 					// get SockIO obj from hostname
-					String host = i.next();
+					String host = e.getKey();
 
-					SchoonerSockIO sock = pool.getConnection(host);
+					SchoonerSockIO sock = getConnection(host);
 
 					if (sock == null) {
-						return;
+						if (errorHandler != null)
+							errorHandler.handleErrorOnGet(this.mc, new IOException("no socket to server available"),
+									e.getValue().toArray(new String[e.getValue().size()]));
+						report.setHostStatus(host, MultiGetReport.UNAVAILABLE);
+						lost.put(host, e.getValue());
+						continue;
 					}
 
-					conns[numConns++] = new Connection(sock, sockKeys.get(host));
+					Connection c = new Connection(sock, host, e.getValue());
+					conns[count++] = c;
+					try {
+						c.send();
+					} catch (IOException ex) {
+						fail(c, MultiGetReport.FAILED, ex, report, lost);
+					}
 				}
 
 				// the main select loop; ends when
@@ -1333,18 +2871,24 @@ public class BinaryClient extends MemCachedClient {
 				// 2) we time out
 				long startTime = System.currentTimeMillis();
 
-				long timeout = pool.getMaxBusy();
+				long timeout = operationTimeout > 0 ? operationTimeout : pool.getMaxBusy();
 				timeRemaining = timeout;
 
 				while (numConns > 0 && timeRemaining > 0) {
-					int n = selector.select(Math.min(timeout, 5000));
+					int n = selector.select(Math.min(timeRemaining, 5000));
 					if (n > 0) {
 						// we've got some activity; handle it
 						Iterator<SelectionKey> it = selector.selectedKeys().iterator();
 						while (it.hasNext()) {
 							SelectionKey key = it.next();
 							it.remove();
-							handleKey(key);
+							try {
+								handleKey(key);
+							} catch (IOException ex) {
+								key.cancel();
+								numConns--;
+								fail((Connection) key.attachment(), MultiGetReport.FAILED, ex, report, lost);
+							}
 						}
 					} else {
 						// timeout likely... better check
@@ -1355,11 +2899,22 @@ public class BinaryClient extends MemCachedClient {
 
 					timeRemaining = timeout - (System.currentTimeMillis() - startTime);
 				}
+
+				// the multiplexed ones are not in the selector.
+				for (Connection c : conns) {
+					if (c == null || c.channel != null || c.failed)
+						continue;
+					try {
+						c.readAll();
+					} catch (IOException ex) {
+						fail(c, ex instanceof SocketTimeoutException ? MultiGetReport.TIMED_OUT
+								: MultiGetReport.FAILED, ex, report, lost);
+					}
+				}
 			} catch (IOException e) {
-				// errors can happen just about anywhere above, from
-				// connection setup to any of the mechanics
+				// the selector failed, the hosts not done yet are failed.
 				log.error("Caught the exception on " + e);
-				return;
+				broken = true;
 			} finally {
 				// run through our conns and either return them to the pool
 				// or forcibly close them
@@ -1375,18 +2930,38 @@ public class BinaryClient extends MemCachedClient {
 				}
 			}
 
-			// Done! Build the list of results and return them. If we get
-			// here by a timeout, then some of the connections are probably
-			// not done. But we'll return what we've got...
+			// Done! Build the list of results and return them. The hosts not
+			// done by now timed out, their keys are tried on another host.
 			for (Connection c : conns) {
+				if (c == null || c.failed)
+					continue;
+
+				if (!c.isDone()) {
+					log.error("++++ no response in time from host: " + c.host);
+					report.setHostStatus(c.host, broken ? MultiGetReport.FAILED : MultiGetReport.TIMED_OUT);
+					lost.put(c.host, c.keys);
+					continue;
+				}
+
+				report.setHostStatus(c.host, MultiGetReport.OK);
 				try {
-					if (c.incoming.size() > 0 && c.isDone())
-						loadMulti(new DataInputStream(new ByteBufArrayInputStream(c.incoming)), ret);
+					loadMulti(new DataInputStream(new ByteBufArrayInputStream(c.incoming)), ret, raw, cas);
 				} catch (Exception e) {
 					// shouldn't happen; we have all the data already
 					log.debug("Caught the aforementioned exception on " + c);
 				}
 			}
+			return lost;
+		}
+
+		private void fail(Connection c, int status, IOException e, MultiGetReport report,
+				Map<String, List<String>> lost) {
+			log.error("++++ multi get failed on host: " + c.host, e);
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this.mc, e, c.keys.toArray(new String[c.keys.size()]));
+			c.failed = true;
+			report.setHostStatus(c.host, status);
+			lost.put(c.host, c.keys);
 		}
 
 		private void handleKey(SelectionKey key) throws IOException {
@@ -1419,6 +2994,8 @@ public class BinaryClient extends MemCachedClient {
 					numConns--;
 					return;
 				}
+			} else if (count < 0) {
+				throw new IOException("++++ connection closed by host: " + conn.host);
 			}
 		}
 	}
@@ -1449,6 +3026,46 @@ public class BinaryClient extends MemCachedClient {
 		this.primitiveAsString = primitiveAsString;
 	}
 
+	public void setOperationTimeout(long operationTimeout) {
+		this.operationTimeout = operationTimeout;
+	}
+
+	/**
+	 * noreply is not supported, the binary protocol has quiet commands instead, see setMulti.
+	 */
+	@Override
+	public void setNoreply(boolean noreply) {
+		if (noreply)
+			throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean isNoreply() {
+		return false;
+	}
+
+	/**
+	 * get the socket for the key, the operation on it may wait up to the
+	 * operation timeout.
+	 */
+	private SchoonerSockIO getSock(String key, Integer hashCode) {
+		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		if (sock != null)
+			sock.setOperationTimeout(operationTimeout);
+		return sock;
+	}
+
+	/**
+	 * get a socket to the host, the operation on it may wait up to the
+	 * operation timeout.
+	 */
+	private SchoonerSockIO getConnection(String host) {
+		SchoonerSockIO sock = pool.getConnection(host);
+		if (sock != null)
+			sock.setOperationTimeout(operationTimeout);
+		return sock;
+	}
+
 	@Override
 	public void setSanitizeKeys(boolean sanitizeKeys) {
 		this.sanitizeKeys = sanitizeKeys;
@@ -1460,10 +3077,10 @@ public class BinaryClient extends MemCachedClient {
 
 	@Override
 	public Object get(String key, Integer hashCode, boolean asString) {
-		return get(OPCODE_GET, key, hashCode, asString);
+		return get(OPCODE_GET, key, hashCode, asString, null);
 	}
 
-	private Object get(byte opCode, String key, Integer hashCode, boolean asString) {
+	private Object get(byte opCode, String key, Integer hashCode, boolean asString, Date expiry) {
 		if (key == null) {
 			log.error("key is null for get()");
 			return null;
@@ -1481,7 +3098,7 @@ public class BinaryClient extends MemCachedClient {
 		}
 
 		// get SockIO obj using cache key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		if (sock == null) {
 			if (errorHandler != null)
@@ -1490,16 +3107,8 @@ public class BinaryClient extends MemCachedClient {
 		}
 
 		try {
-			byte[] buf = key.getBytes();
 			sock.writeBuf.clear();
-			sock.writeBuf.put(MAGIC_REQ);
-			sock.writeBuf.put(opCode);
-			sock.writeBuf.putShort((short) buf.length);
-			sock.writeBuf.putInt(0);
-			sock.writeBuf.putInt(buf.length);
-			sock.writeBuf.putInt(0);
-			sock.writeBuf.putLong(0);
-			sock.writeBuf.put(buf);
+			putGet(sock.writeBuf, opCode, key, expiry);
 			// write buffer to server
 			sock.flush();
 
@@ -1507,7 +3116,7 @@ public class BinaryClient extends MemCachedClient {
 			int flag = 0;
 
 			// get result code
-			SockInputStream input = new SockInputStream(sock, Integer.MAX_VALUE);
+			SockInputStream input = sock.getSockInputStream();
 			DataInputStream dis = new DataInputStream(input);
 			// process the header
 			dis.readInt();
@@ -1526,7 +3135,7 @@ public class BinaryClient extends MemCachedClient {
 			if (dataSize > 0) {
 				if (NativeHandler.isHandled(flag)) {
 					// decoding object
-					buf = input.getBuffer();
+					byte[] buf = input.getBuffer();
 					if ((flag & F_COMPRESSED) == F_COMPRESSED) {
 						GZIPInputStream gzi = new GZIPInputStream(new ByteArrayInputStream(buf));
 						ByteArrayOutputStream bos = new ByteArrayOutputStream(buf.length);
@@ -1546,12 +3155,20 @@ public class BinaryClient extends MemCachedClient {
 				} else if (transCoder != null) {
 					// decode object with default transcoder.
 					InputStream in = input;
-					if ((flag & F_COMPRESSED) == F_COMPRESSED)
-						in = new GZIPInputStream(in);
-					if (classLoader == null)
-						o = transCoder.decode(in);
-					else
-						o = ((ObjectTransCoder) transCoder).decode(in, classLoader);
+					if (flag == MARKER_OTHERS && dataSize <= NativeHandler.COUNTER_LENGTH) {
+						byte[] buf = input.getBuffer();
+						if (isCounter(buf, asString))
+							o = new String(buf, defaultEncoding);
+						in = new ByteArrayInputStream(buf);
+					}
+					if (o == null) {
+						if ((flag & F_COMPRESSED) == F_COMPRESSED)
+							in = new GZIPInputStream(in);
+						if (classLoader == null)
+							o = transCoder.decode(in);
+						else
+							o = ((ObjectTransCoder) transCoder).decode(in, classLoader);
+					}
 				}
 			}
 			return o;
@@ -1580,7 +3197,7 @@ public class BinaryClient extends MemCachedClient {
 		return null;
 	}
 
-	private MemcachedItem gets(byte opCode, String key, Integer hashCode, boolean asString) {
+	private MemcachedItem gets(byte opCode, String key, Integer hashCode, boolean asString, Date expiry) {
 		if (key == null) {
 			log.error("key is null for get()");
 			return null;
@@ -1598,7 +3215,7 @@ public class BinaryClient extends MemCachedClient {
 		}
 
 		// get SockIO obj using cache key
-		SchoonerSockIO sock = pool.getSock(key, hashCode);
+		SchoonerSockIO sock = getSock(key, hashCode);
 
 		if (sock == null) {
 			if (errorHandler != null)
@@ -1607,73 +3224,7 @@ public class BinaryClient extends MemCachedClient {
 		}
 
 		try {
-			byte[] buf = key.getBytes();
-			sock.writeBuf.clear();
-			sock.writeBuf.put(MAGIC_REQ);
-			sock.writeBuf.put(opCode);
-			sock.writeBuf.putShort((short) buf.length);
-			sock.writeBuf.putInt(0);
-			sock.writeBuf.putInt(buf.length);
-			sock.writeBuf.putInt(0);
-			sock.writeBuf.putLong(0);
-			sock.writeBuf.put(buf);
-			// write buffer to server
-			sock.flush();
-
-			int dataSize = 0;
-			int flag = 0;
-			MemcachedItem item = new MemcachedItem();
-
-			// get result code
-			SockInputStream input = new SockInputStream(sock, Integer.MAX_VALUE);
-			DataInputStream dis = new DataInputStream(input);
-			// process the header
-			dis.readInt();
-			byte extra = dis.readByte();
-			dis.readByte();
-			if (STAT_NO_ERROR == dis.readShort()) {
-				dataSize = dis.readInt() - extra;
-				dis.readInt();
-				item.casUnique = dis.readLong();
-			}
-
-			flag = dis.readInt();
-			Object o = null;
-			input.willRead(dataSize);
-			// we can only take out serialized objects
-			if (dataSize > 0) {
-				if (NativeHandler.isHandled(flag)) {
-					// decoding object
-					buf = input.getBuffer();
-					if ((flag & F_COMPRESSED) == F_COMPRESSED) {
-						GZIPInputStream gzi = new GZIPInputStream(new ByteArrayInputStream(buf));
-						ByteArrayOutputStream bos = new ByteArrayOutputStream(buf.length);
-						int count;
-						byte[] tmp = new byte[2048];
-						while ((count = gzi.read(tmp)) != -1) {
-							bos.write(tmp, 0, count);
-						}
-						// store uncompressed back to buffer
-						buf = bos.toByteArray();
-						gzi.close();
-					}
-					if (primitiveAsString || asString) {
-						o = new String(buf, defaultEncoding);
-					} else
-						o = NativeHandler.decode(buf, flag);
-				} else if (transCoder != null) {
-					// decode object with default transcoder.
-					InputStream in = input;
-					if ((flag & F_COMPRESSED) == F_COMPRESSED)
-						in = new GZIPInputStream(in);
-					if (classLoader == null)
-						o = transCoder.decode(in);
-					else
-						o = ((ObjectTransCoder) transCoder).decode(in, classLoader);
-				}
-			}
-			item.value = o;
-			return item;
+			return gets(sock, opCode, key, asString, expiry);
 		} catch (IOException e) {
 			if (errorHandler != null)
 				errorHandler.handleErrorOnDelete(this, e, key);
@@ -1698,6 +3249,89 @@ public class BinaryClient extends MemCachedClient {
 		return null;
 	}
 
+	/**
+	 * sends a get like request for key over sock and reads the item.
+	 * 
+	 * @return the item, with a null value and 0 cas unique if the key is not
+	 *         found
+	 */
+	private MemcachedItem gets(SchoonerSockIO sock, byte opCode, String key, boolean asString, Date expiry)
+			throws IOException {
+		sock.writeBuf.clear();
+		putGet(sock.writeBuf, opCode, key, expiry);
+		// write buffer to server
+		sock.flush();
+
+		int dataSize = 0;
+		int flag = 0;
+		MemcachedItem item = new MemcachedItem();
+
+		// get result code
+		SockInputStream input = sock.getSockInputStream();
+		DataInputStream dis = new DataInputStream(input);
+		// process the header
+		dis.readInt();
+		byte extra = dis.readByte();
+		dis.readByte();
+		if (STAT_NO_ERROR != dis.readShort()) {
+			// skip the error message, the socket may be reused.
+			int bodyLen = dis.readInt();
+			dis.readInt();
+			dis.readLong();
+			dis.skipBytes(bodyLen);
+			return item;
+		}
+		dataSize = dis.readInt() - extra;
+		dis.readInt();
+		item.casUnique = dis.readLong();
+
+		flag = dis.readInt();
+		Object o = null;
+		input.willRead(dataSize);
+		// we can only take out serialized objects
+		if (dataSize > 0) {
+			if (NativeHandler.isHandled(flag)) {
+				// decoding object
+				byte[] buf = input.getBuffer();
+				if ((flag & F_COMPRESSED) == F_COMPRESSED) {
+					GZIPInputStream gzi = new GZIPInputStream(new ByteArrayInputStream(buf));
+					ByteArrayOutputStream bos = new ByteArrayOutputStream(buf.length);
+					int count;
+					byte[] tmp = new byte[2048];
+					while ((count = gzi.read(tmp)) != -1) {
+						bos.write(tmp, 0, count);
+					}
+					// store uncompressed back to buffer
+					buf = bos.toByteArray();
+					gzi.close();
+				}
+				if (primitiveAsString || asString) {
+					o = new String(buf, defaultEncoding);
+				} else
+					o = NativeHandler.decode(buf, flag);
+			} else if (transCoder != null) {
+				// decode object with default transcoder.
+				InputStream in = input;
+				if (flag == MARKER_OTHERS && dataSize <= NativeHandler.COUNTER_LENGTH) {
+					byte[] buf = input.getBuffer();
+					if (isCounter(buf, asString))
+						o = new String(buf, defaultEncoding);
+					in = new ByteArrayInputStream(buf);
+				}
+				if (o == null) {
+					if ((flag & F_COMPRESSED) == F_COMPRESSED)
+						in = new GZIPInputStream(in);
+					if (classLoader == null)
+						o = transCoder.decode(in);
+					else
+						o = ((ObjectTransCoder) transCoder).decode(in, classLoader);
+				}
+			}
+		}
+		item.value = o;
+		return item;
+	}
+
 	public Object[] getMultiArray(String[] keys, Integer[] hashCodes, boolean asString) {
 		Map<String, Object> data = getMulti(keys, hashCodes, asString);
 
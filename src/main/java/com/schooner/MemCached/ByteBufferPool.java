@@ -0,0 +1,227 @@
+package com.schooner.MemCached;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct {@link ByteBuffer} shared by all the sockets of a
+ * {@link SchoonerSockIOPool}.<br>
+ * <br>
+ * The buffers are kept in size classes, doubling from 8KB up to the max item
+ * size of the pool. A socket borrows a small buffer when it is borrowed from
+ * the pool, changes to a bigger one only when a large value is written, and
+ * returns them when it is given back, so the direct memory follows the
+ * requests in flight instead of the connections open.<br>
+ * <br>
+ * The direct memory allocated is capped, free buffers of other size classes
+ * are dropped to make room, and heap buffers are used when there is still not
+ * enough. The cap is soft: the pool only drops its references to the trimmed
+ * buffers, and the JVM frees their memory when they are collected, so the
+ * direct memory of the process may stay above the cap until the next GC. Keep
+ * -XX:MaxDirectMemorySize above it.
+ *
+ * @since 3.1.0
+ * @see SchoonerSockIO
+ */
+public class ByteBufferPool {
+
+	public static final int MIN_BUFFER_SIZE = 8 * 1024;
+
+	private final int[] sizes;
+	private final List<Queue<ByteBuffer>> free;
+	private final long maxDirectMemory;
+
+	private final AtomicLong directMemory = new AtomicLong();
+	private final AtomicLong directMemoryInUse = new AtomicLong();
+	private final AtomicLong borrowed = new AtomicLong();
+	private final AtomicLong allocated = new AtomicLong();
+	private final AtomicLong heapAllocated = new AtomicLong();
+
+	/**
+	 * @param maxBufferSize
+	 *            size of the largest buffer, usually the max item size
+	 * @param maxDirectMemory
+	 *            max bytes of direct memory held by the pool, a soft cap
+	 */
+	public ByteBufferPool(int maxBufferSize, long maxDirectMemory) {
+		this.maxDirectMemory = maxDirectMemory;
+
+		List<Integer> list = new ArrayList<Integer>();
+		int size = MIN_BUFFER_SIZE;
+		while (size < maxBufferSize) {
+			list.add(size);
+			size <<= 1;
+		}
+		list.add(maxBufferSize);
+
+		sizes = new int[list.size()];
+		free = new ArrayList<Queue<ByteBuffer>>(sizes.length);
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = list.get(i);
+			free.add(new ConcurrentLinkedQueue<ByteBuffer>());
+		}
+	}
+
+	/**
+	 * borrow a cleared buffer of at least the specified capacity, capped by the
+	 * largest size class.
+	 *
+	 * @param capacity
+	 *            bytes needed
+	 * @return buffer
+	 */
+	public ByteBuffer borrow(int capacity) {
+		int c = sizeClass(capacity);
+		int size = sizes[c];
+		borrowed.incrementAndGet();
+
+		ByteBuffer buf = free.get(c).poll();
+		if (buf == null) {
+			if (reserve(size)) {
+				allocated.incrementAndGet();
+				buf = ByteBuffer.allocateDirect(size);
+			} else {
+				heapAllocated.incrementAndGet();
+				return ByteBuffer.allocate(size);
+			}
+		}
+
+		directMemoryInUse.addAndGet(size);
+		buf.clear();
+		return buf;
+	}
+
+	/**
+	 * give a buffer back to the pool, heap buffers are just dropped.
+	 *
+	 * @param buf
+	 *            buffer borrowed from this pool
+	 */
+	public void release(ByteBuffer buf) {
+		if (buf == null || !buf.isDirect())
+			return;
+
+		int c = sizeClass(buf.capacity());
+		if (sizes[c] != buf.capacity()) {
+			// not one of ours.
+			return;
+		}
+		directMemoryInUse.addAndGet(-buf.capacity());
+		free.get(c).offer(buf);
+	}
+
+	private int sizeClass(int capacity) {
+		for (int i = 0; i < sizes.length; i++) {
+			if (sizes[i] >= capacity)
+				return i;
+		}
+		return sizes.length - 1;
+	}
+
+	private boolean reserve(int size) {
+		while (true) {
+			long current = directMemory.get();
+			if (current + size > maxDirectMemory) {
+				if (!trim(current + size - maxDirectMemory))
+					return false;
+				continue;
+			}
+			if (directMemory.compareAndSet(current, current + size))
+				return true;
+		}
+	}
+
+	/**
+	 * drop free buffers, the largest first. Their memory is freed when GC
+	 * collects them, not here.
+	 *
+	 * @return false if nothing could be dropped.
+	 */
+	private boolean trim(long bytes) {
+		boolean trimmed = false;
+		for (int i = sizes.length - 1; i >= 0 && bytes > 0; i--) {
+			ByteBuffer buf;
+			while (bytes > 0 && (buf = free.get(i).poll()) != null) {
+				directMemory.addAndGet(-buf.capacity());
+				bytes -= buf.capacity();
+				trimmed = true;
+			}
+		}
+		return trimmed;
+	}
+
+	/**
+	 * @return the size classes, in bytes.
+	 */
+	public int[] getSizeClasses() {
+		return sizes.clone();
+	}
+
+	/**
+	 * @param sizeClass
+	 *            index of size class
+	 * @return number of free buffers in the size class
+	 */
+	public int getFreeBuffers(int sizeClass) {
+		return free.get(sizeClass).size();
+	}
+
+	public long getMaxDirectMemory() {
+		return maxDirectMemory;
+	}
+
+	/**
+	 * @return bytes of direct memory held by the pool, free or borrowed, not
+	 *         counting the trimmed buffers not collected yet.
+	 */
+	public long getDirectMemory() {
+		return directMemory.get();
+	}
+
+	/**
+	 * @return bytes of direct memory borrowed by the sockets now.
+	 */
+	public long getDirectMemoryInUse() {
+		return directMemoryInUse.get();
+	}
+
+	/**
+	 * @return number of borrows since created.
+	 */
+	public long getBorrowCount() {
+		return borrowed.get();
+	}
+
+	/**
+	 * @return number of direct buffers allocated since created, a borrow
+	 *         which doesn't allocate is served by a free buffer.
+	 */
+	public long getAllocateCount() {
+		return allocated.get();
+	}
+
+	/**
+	 * @return number of heap buffers given out because of the direct memory
+	 *         cap.
+	 */
+	public long getHeapAllocateCount() {
+		return heapAllocated.get();
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ByteBufferPool direct=").append(getDirectMemory()).append('/')
+				.append(maxDirectMemory).append(" inUse=").append(getDirectMemoryInUse()).append(" borrows=")
+				.append(getBorrowCount()).append(" allocates=").append(getAllocateCount()).append(" heap=")
+				.append(getHeapAllocateCount()).append(" free=[");
+		for (int i = 0; i < sizes.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(sizes[i] / 1024).append("K:").append(getFreeBuffers(i));
+		}
+		return sb.append(']').toString();
+	}
+}
@@ -0,0 +1,531 @@
+package com.schooner.MemCached;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.pool.BaseObjectPool;
+import org.apache.commons.pool.PoolableObjectFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A connection pool which keeps the idle objects in a lock-free structure.<br>
+ * <br>
+ * {@link org.apache.commons.pool.impl.GenericObjectPool} synchronizes every
+ * borrow and return on the pool monitor, which becomes the hottest lock of the
+ * client when hundreds of threads talk to the same server. This pool keeps the
+ * idle objects in a Treiber stack (lifo) or in a
+ * {@link ConcurrentLinkedQueue} (fifo), and bounds the active objects with a
+ * non-fair {@link Semaphore}, so the uncontended path of
+ * {@link #borrowObject()} and {@link #returnObject(Object)} is a couple of CAS
+ * operations.<br>
+ * <br>
+ * An idle entry is used once: it is claimed by whoever takes it, a borrower or
+ * the evictor, and a kept object goes back as a new entry. The evictor works
+ * in place, it claims the entries it destroys or tests and leaves the others
+ * to the borrowers.<br>
+ * <br>
+ * It honours the same knobs as the GenericObjectPool used before: maxActive,
+ * maxWait (exhausted action is always block), maxIdle, minIdle, testOnBorrow,
+ * testOnReturn, testWhileIdle, lifo and the idle object eviction settings.
+ *
+ * @since 3.1.0
+ * @see org.apache.commons.pool.impl.GenericObjectPool
+ */
+public class LockFreeObjectPool extends BaseObjectPool {
+
+	// logger
+	private static Logger log = LoggerFactory.getLogger(LockFreeObjectPool.class);
+
+	// shared by all pools, runs the eviction of idle objects.
+	private static Timer evictionTimer;
+	private static int evictionUsage = 0;
+
+	private final PoolableObjectFactory factory;
+
+	private final int maxActive;
+	private final long maxWait;
+	private final int maxIdle;
+	private final int minIdle;
+	private final boolean testOnBorrow;
+	private final boolean testOnReturn;
+	private final int numTestsPerEvictionRun;
+	private final long minEvictableIdleTimeMillis;
+	private final boolean testWhileIdle;
+	private final long softMinEvictableIdleTimeMillis;
+
+	// null if maxActive is not positive, which means no limit.
+	private final Semaphore permits;
+
+	private final IdleObjects idle;
+	private final AtomicInteger numIdle = new AtomicInteger();
+	private final AtomicInteger numActive = new AtomicInteger();
+
+	private TimerTask evictor;
+
+	public LockFreeObjectPool(PoolableObjectFactory factory, int maxActive, long maxWait, int maxIdle, int minIdle,
+			boolean testOnBorrow, boolean testOnReturn, long timeBetweenEvictionRunsMillis,
+			int numTestsPerEvictionRun, long minEvictableIdleTimeMillis, boolean testWhileIdle,
+			long softMinEvictableIdleTimeMillis, boolean lifo) {
+		this.factory = factory;
+		this.maxActive = maxActive;
+		this.maxWait = maxWait;
+		this.maxIdle = maxIdle;
+		this.minIdle = minIdle;
+		this.testOnBorrow = testOnBorrow;
+		this.testOnReturn = testOnReturn;
+		this.numTestsPerEvictionRun = numTestsPerEvictionRun;
+		this.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+		this.testWhileIdle = testWhileIdle;
+		this.softMinEvictableIdleTimeMillis = softMinEvictableIdleTimeMillis;
+		this.permits = maxActive > 0 ? new Semaphore(maxActive) : null;
+		this.idle = lifo ? new IdleStack() : new IdleQueue();
+
+		if (timeBetweenEvictionRunsMillis > 0)
+			startEvictor(timeBetweenEvictionRunsMillis);
+	}
+
+	@Override
+	public Object borrowObject() throws Exception {
+		assertOpen();
+		acquirePermit();
+
+		try {
+			while (true) {
+				IdleObject io = idle.poll();
+				Object obj;
+				boolean created = false;
+				if (io != null) {
+					numIdle.decrementAndGet();
+					obj = io.obj;
+				} else {
+					obj = factory.makeObject();
+					created = true;
+				}
+
+				try {
+					factory.activateObject(obj);
+					if (testOnBorrow && !factory.validateObject(obj))
+						throw new Exception("ValidateObject failed");
+				} catch (Throwable t) {
+					destroy(obj);
+					if (created)
+						throw new NoSuchElementException("Could not create a validated object, cause: "
+								+ t.getMessage());
+					// the idle one is broken, try next one.
+					continue;
+				}
+
+				numActive.incrementAndGet();
+				return obj;
+			}
+		} catch (Exception e) {
+			if (permits != null)
+				permits.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public void returnObject(Object obj) throws Exception {
+		try {
+			boolean success = !isClosed();
+			if (success && testOnReturn && !factory.validateObject(obj))
+				success = false;
+			if (success) {
+				try {
+					factory.passivateObject(obj);
+				} catch (Exception e) {
+					success = false;
+				}
+			}
+
+			if (success && reserveIdleSlot())
+				idle.offer(new IdleObject(obj, System.currentTimeMillis()));
+			else
+				destroy(obj);
+		} finally {
+			numActive.decrementAndGet();
+			if (permits != null)
+				permits.release();
+		}
+	}
+
+	@Override
+	public void invalidateObject(Object obj) throws Exception {
+		try {
+			factory.destroyObject(obj);
+		} finally {
+			numActive.decrementAndGet();
+			if (permits != null)
+				permits.release();
+		}
+	}
+
+	@Override
+	public void addObject() throws Exception {
+		assertOpen();
+		Object obj = factory.makeObject();
+		try {
+			factory.passivateObject(obj);
+		} catch (Exception e) {
+			destroy(obj);
+			throw e;
+		}
+		if (reserveIdleSlot())
+			idle.offer(new IdleObject(obj, System.currentTimeMillis()));
+		else
+			destroy(obj);
+	}
+
+	@Override
+	public int getNumIdle() {
+		return numIdle.get();
+	}
+
+	@Override
+	public int getNumActive() {
+		return numActive.get();
+	}
+
+	public int getMaxActive() {
+		return maxActive;
+	}
+
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	/**
+	 * Destroys all the idle objects. Borrowed objects are not affected.
+	 */
+	@Override
+	public void clear() {
+		IdleObject io;
+		while ((io = idle.poll()) != null) {
+			numIdle.decrementAndGet();
+			destroy(io.obj);
+		}
+	}
+
+	@Override
+	public void close() throws Exception {
+		super.close();
+		stopEvictor();
+		clear();
+	}
+
+	/**
+	 * Runs one pass of the idle object evictor, this is called by the shared
+	 * eviction timer.
+	 */
+	public synchronized void evict() {
+		if (isClosed())
+			return;
+
+		List<IdleObject> objs = idle.oldest(getNumTests());
+		long now = System.currentTimeMillis();
+		for (IdleObject io : objs) {
+			long idleTime = now - io.idleSince;
+			boolean remove = false;
+			if (minEvictableIdleTimeMillis > 0 && idleTime > minEvictableIdleTimeMillis)
+				remove = true;
+			else if (softMinEvictableIdleTimeMillis > 0 && idleTime > softMinEvictableIdleTimeMillis
+					&& numIdle.get() > minIdle)
+				remove = true;
+
+			// borrowed meanwhile, or nothing to do with it.
+			if ((!remove && !testWhileIdle) || !io.claim())
+				continue;
+
+			if (!remove) {
+				try {
+					factory.activateObject(io.obj);
+					if (!factory.validateObject(io.obj))
+						remove = true;
+					else
+						factory.passivateObject(io.obj);
+				} catch (Exception e) {
+					remove = true;
+				}
+			}
+
+			if (remove) {
+				numIdle.decrementAndGet();
+				destroy(io.obj);
+			} else {
+				// the claimed entry may already be dropped by a borrower, so
+				// the object goes back in a new one.
+				idle.offer(new IdleObject(io.obj, io.idleSince));
+			}
+		}
+
+		idle.purge();
+		ensureMinIdle();
+	}
+
+	private void ensureMinIdle() {
+		while (!isClosed() && numIdle.get() < minIdle
+				&& (maxActive <= 0 || numIdle.get() + numActive.get() < maxActive)) {
+			try {
+				addObject();
+			} catch (Exception e) {
+				if (log.isDebugEnabled())
+					log.debug("++++ failed to create idle object: " + e.getMessage());
+				break;
+			}
+		}
+	}
+
+	private int getNumTests() {
+		int n = numIdle.get();
+		if (numTestsPerEvictionRun >= 0)
+			return Math.min(numTestsPerEvictionRun, n);
+		return (int) Math.ceil(n / Math.abs((double) numTestsPerEvictionRun));
+	}
+
+	private void acquirePermit() throws Exception {
+		if (permits == null)
+			return;
+
+		if (maxWait <= 0) {
+			permits.acquire();
+		} else if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+			throw new NoSuchElementException("Timeout waiting for idle object");
+		}
+	}
+
+	private boolean reserveIdleSlot() {
+		if (maxIdle < 0) {
+			numIdle.incrementAndGet();
+			return true;
+		}
+
+		while (true) {
+			int n = numIdle.get();
+			if (n >= maxIdle)
+				return false;
+			if (numIdle.compareAndSet(n, n + 1))
+				return true;
+		}
+	}
+
+	private void destroy(Object obj) {
+		try {
+			factory.destroyObject(obj);
+		} catch (Exception e) {
+			if (log.isDebugEnabled())
+				log.debug("++++ failed to destroy pooled object: " + e.getMessage());
+		}
+	}
+
+	private void startEvictor(long delay) {
+		synchronized (LockFreeObjectPool.class) {
+			if (evictionTimer == null)
+				evictionTimer = new Timer("SockIOPool-Evictor", true);
+			evictionUsage++;
+			evictor = new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						evict();
+					} catch (Exception e) {
+						log.error("++++ error happened when evicting idle objects", e);
+					}
+				}
+			};
+			evictionTimer.schedule(evictor, delay, delay);
+		}
+	}
+
+	private void stopEvictor() {
+		synchronized (LockFreeObjectPool.class) {
+			if (evictor == null)
+				return;
+			evictor.cancel();
+			evictor = null;
+			if (--evictionUsage == 0) {
+				evictionTimer.cancel();
+				evictionTimer = null;
+			}
+		}
+	}
+
+	private static final class IdleObject {
+		private static final AtomicIntegerFieldUpdater<IdleObject> CLAIMED = AtomicIntegerFieldUpdater.newUpdater(
+				IdleObject.class, "claimed");
+
+		final Object obj;
+		final long idleSince;
+		volatile IdleObject next;
+		private volatile int claimed;
+
+		IdleObject(Object obj, long idleSince) {
+			this.obj = obj;
+			this.idleSince = idleSince;
+		}
+
+		/**
+		 * @return true for the only caller who gets the object of this entry.
+		 */
+		boolean claim() {
+			return CLAIMED.compareAndSet(this, 0, 1);
+		}
+
+		boolean isClaimed() {
+			return claimed != 0;
+		}
+	}
+
+	private static abstract class IdleObjects {
+		/**
+		 * @return a claimed entry, or null if there is no idle object.
+		 */
+		abstract IdleObject poll();
+
+		/**
+		 * @param io
+		 *            a new entry, never one which has been polled.
+		 */
+		abstract void offer(IdleObject io);
+
+		/**
+		 * @return the <code>n</code> entries which have been idle for the
+		 *         longest time, the oldest comes first. They stay idle, and
+		 *         have to be claimed to be used.
+		 */
+		abstract List<IdleObject> oldest(int n);
+
+		/**
+		 * unlink the entries claimed by the evictor.
+		 */
+		abstract void purge();
+	}
+
+	/**
+	 * Treiber stack, the most recently returned object is borrowed first.<br>
+	 * <br>
+	 * An entry is never pushed twice, so the head can't come back to a popped
+	 * entry and its CAS has no ABA problem. The links of the entries in the
+	 * stack are changed only by {@link #purge()}, under the evictor lock, to
+	 * skip claimed entries. A concurrent pop may still put a claimed entry
+	 * back on top, it is then skipped by the next poll.
+	 */
+	private static final class IdleStack extends IdleObjects {
+		private final AtomicReference<IdleObject> head = new AtomicReference<IdleObject>();
+
+		@Override
+		IdleObject poll() {
+			while (true) {
+				IdleObject h = head.get();
+				if (h == null)
+					return null;
+				if (head.compareAndSet(h, h.next) && h.claim())
+					return h;
+			}
+		}
+
+		@Override
+		void offer(IdleObject io) {
+			while (true) {
+				IdleObject h = head.get();
+				io.next = h;
+				if (head.compareAndSet(h, io))
+					return;
+			}
+		}
+
+		@Override
+		List<IdleObject> oldest(int n) {
+			List<IdleObject> all = new ArrayList<IdleObject>();
+			if (n <= 0)
+				return all;
+
+			// the youngest object is on top.
+			for (IdleObject io = head.get(); io != null; io = io.next) {
+				if (!io.isClaimed())
+					all.add(io);
+			}
+
+			List<IdleObject> oldest = new ArrayList<IdleObject>(Math.min(n, all.size()));
+			for (int i = all.size() - 1; i >= 0 && oldest.size() < n; i--)
+				oldest.add(all.get(i));
+			return oldest;
+		}
+
+		@Override
+		void purge() {
+			IdleObject h;
+			while ((h = head.get()) != null && h.isClaimed())
+				head.compareAndSet(h, h.next);
+
+			IdleObject prev = h;
+			while (prev != null) {
+				IdleObject next = prev.next;
+				if (next != null && next.isClaimed())
+					prev.next = next.next;
+				else
+					prev = next;
+			}
+		}
+	}
+
+	/**
+	 * FIFO queue, the object idle for the longest time is borrowed first.
+	 */
+	private static final class IdleQueue extends IdleObjects {
+		private final ConcurrentLinkedQueue<IdleObject> queue = new ConcurrentLinkedQueue<IdleObject>();
+
+		@Override
+		IdleObject poll() {
+			IdleObject io;
+			while ((io = queue.poll()) != null) {
+				if (io.claim())
+					return io;
+			}
+			return null;
+		}
+
+		@Override
+		void offer(IdleObject io) {
+			queue.offer(io);
+		}
+
+		@Override
+		List<IdleObject> oldest(int n) {
+			List<IdleObject> oldest = new ArrayList<IdleObject>(Math.max(n, 0));
+			for (Iterator<IdleObject> i = queue.iterator(); i.hasNext() && oldest.size() < n;) {
+				IdleObject io = i.next();
+				if (!io.isClaimed())
+					oldest.add(io);
+			}
+			return oldest;
+		}
+
+		@Override
+		void purge() {
+			for (Iterator<IdleObject> i = queue.iterator(); i.hasNext();) {
+				if (i.next().isClaimed())
+					i.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,664 @@
+package com.schooner.MemCached;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+import com.whalin.MemCached.ErrorHandler;
+import com.whalin.MemCached.MemCachedClient;
+
+/**
+ * {@link MetaClient} speaks the meta commands of memcached 1.6+, mg, ms, md,
+ * ma and mn, over the ascii sockets of the pool.<br>
+ * <br>
+ * get, gets, keyExists, touch, the stores, delete and incr/decr are sent as
+ * meta commands. A multi-get is a pipeline of quiet mg commands closed by mn,
+ * so the misses cost no response at all, and noreply uses the quiet flag. The
+ * operations without meta commands, like stats and flush_all, and the
+ * streaming, raw-value, multi-key touch and async operations are sent as the
+ * ascii ones.<br>
+ * <br>
+ * The meta flags are exposed where they save round trips:
+ * {@link #metaGet(String, Integer, Date, int, int)} touches the item, gets its
+ * ttl and cas, and leases the recache of a missing or stale item in the same
+ * command, and {@link #invalidate(String)} marks an item stale instead of
+ * deleting it, so one client recaches it while the others keep getting the
+ * old value. addOrIncr and addOrDecr create a missing counter by the
+ * auto-vivify of ma, in one round trip.
+ *
+ * @since 3.1.0
+ * @see AscIIClient
+ * @see MetaItem
+ */
+public class MetaClient extends AscIIClient {
+
+	private static final byte[] HD = "HD".getBytes();
+	private static final byte[] VA = "VA".getBytes();
+	private static final byte[] EN = "EN".getBytes();
+	private static final byte[] NF = "NF".getBytes();
+	private static final byte[] MN = "MN".getBytes();
+	private static final byte[] B_MN = "MN\r\n".getBytes();
+
+	/**
+	 * Creates a new instance of MemCachedClient.
+	 */
+	public MetaClient() {
+		this(null);
+	}
+
+	/**
+	 * Creates a new instance of MemCachedClient accepting a passed in pool
+	 * name.
+	 *
+	 * @param poolName
+	 *            name of SockIOPool
+	 */
+	public MetaClient(String poolName) {
+		super(poolName);
+	}
+
+	public MetaClient(String poolName, ClassLoader cl, ErrorHandler eh) {
+		super(poolName, cl, eh);
+	}
+
+	@Override
+	public boolean keyExists(String key) {
+		// no value is sent back for a hit.
+		return metaGet(key, null, "", false) != null;
+	}
+
+	@Override
+	public Set<String> keysExist(String[] keys) {
+		return keysExist(keys, "mg ", "\r\n", HD);
+	}
+
+	@Override
+	Object get(String cmd, String key, Integer hashCode, boolean asString) {
+		MetaItem item = metaGet(key, hashCode, "v f", asString);
+		return item == null ? null : item.value;
+	}
+
+	@Override
+	public MemcachedItem gets(String cmd, String key, Integer hashCode, boolean asString) {
+		MetaItem meta = metaGet(key, hashCode, "v f c", asString);
+		if (meta == null)
+			return null;
+		MemcachedItem item = new MemcachedItem();
+		item.value = meta.value;
+		item.casUnique = meta.casUnique;
+		return item;
+	}
+
+	@Override
+	public Object getAndTouch(String key, Date expiry, Integer hashCode) {
+		MetaItem item = metaGet(key, hashCode, "v f T" + (expiry == null ? 0 : expiry.getTime() / 1000), false);
+		return item == null ? null : item.value;
+	}
+
+	@Override
+	public MemcachedItem getsAndTouch(String key, Date expiry, Integer hashCode) {
+		MetaItem meta = metaGet(key, hashCode, "v f c T" + (expiry == null ? 0 : expiry.getTime() / 1000), false);
+		if (meta == null)
+			return null;
+		MemcachedItem item = new MemcachedItem();
+		item.value = meta.value;
+		item.casUnique = meta.casUnique;
+		return item;
+	}
+
+	@Override
+	public boolean touch(String key, Date expiry, Integer hashCode) {
+		// no value is sent back for a hit.
+		return metaGet(key, hashCode, "T" + (expiry == null ? 0 : expiry.getTime() / 1000), false) != null;
+	}
+
+	@Override
+	public MetaItem metaGet(String key, Integer hashCode, Date expiry, int vivify, int recache) {
+		StringBuilder flags = new StringBuilder("v f c t");
+		if (expiry != null)
+			flags.append(" T").append(expiry.getTime() / 1000);
+		if (vivify > 0)
+			flags.append(" N").append(vivify);
+		if (recache > 0)
+			flags.append(" R").append(recache);
+		return metaGet(key, hashCode, flags.toString(), false);
+	}
+
+	/**
+	 * get an item by mg with the flags.
+	 *
+	 * @return the item, or null if not found or error happens.
+	 */
+	private MetaItem metaGet(String key, Integer hashCode, String flags, boolean asString) {
+
+		if (key == null) {
+			log.error("key is null for get()");
+			return null;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			log.error("failed to sanitize your key!", e);
+			return null;
+		}
+
+		// get SockIO obj using cache key
+		SchoonerSockIO sock = getSock(key, hashCode, false);
+
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, new IOException("no socket to server available"), key);
+			return null;
+		}
+
+		try {
+			sock.writeBuf.clear();
+			RequestEncoder.putAscii(sock.writeBuf, "mg ");
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			if (flags.length() > 0) {
+				sock.writeBuf.put(RequestEncoder.SPACE);
+				RequestEncoder.putAscii(sock.writeBuf, flags);
+			}
+			RequestEncoder.putReturn(sock.writeBuf);
+			sock.flush();
+
+			SockInputStream input = sock.getSockInputStream();
+			AscIIResponseParser parser = sock.getResponseParser(input);
+			parser.expectLine();
+			if (parser.lineEquals(EN))
+				return null;
+
+			MetaItem item = new MetaItem();
+			int dataSize = -1;
+			if (parser.lineStartsWith(VA)) {
+				parser.skipToken();
+				dataSize = parser.nextInt();
+			} else if (!parser.lineStartsWith(HD)) {
+				throw new IOException("++++ unexpected response: " + parser.getLine());
+			} else {
+				parser.skipToken();
+			}
+			int flag = readFlags(parser, item);
+			if (dataSize >= 0) {
+				item.value = readValue(input, flag, dataSize, asString);
+				// Skip "\r\n" after the data block
+				parser.skipLine();
+			}
+			return item;
+		} catch (Exception ce) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, ce, key);
+
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while trying to get object from cache for key: " + key);
+				log.error(ce.getMessage(), ce);
+			}
+
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString());
+			}
+
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * read the return flags of a mg response into the item.
+	 *
+	 * @return the client flags of the value.
+	 */
+	private static int readFlags(AscIIResponseParser parser, MetaItem item) {
+		int flag = 0;
+		for (int f = parser.nextFlag(); f != 0; f = parser.nextFlag()) {
+			switch (f) {
+			case 'f':
+				flag = parser.nextInt();
+				break;
+			case 'c':
+				item.casUnique = parser.nextLong();
+				break;
+			case 't':
+				item.ttl = Long.parseLong(parser.nextString());
+				break;
+			case 'W':
+				item.win = true;
+				break;
+			case 'X':
+				item.stale = true;
+				break;
+			case 'Z':
+				item.winSent = true;
+				break;
+			default:
+				parser.skipToken();
+			}
+		}
+		return flag;
+	}
+
+	@Override
+	boolean set(String cmdname, String key, Object value, Date expiry, Integer hashCode, Long casUnique,
+			boolean asString, boolean noreply) {
+
+		if (cmdname == null || key == null) {
+			log.error("key is null or cmd is null/empty for set()");
+			return false;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, e, key);
+			log.error("failed to sanitize your key!", e);
+			return false;
+		}
+
+		if (value == null) {
+			log.error("trying to store a null value to cache");
+			return false;
+		}
+
+		// get SockIO obj
+		SchoonerSockIO sock = getSock(key, hashCode, noreply);
+
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, new IOException("no socket to server available"), key);
+			return false;
+		}
+
+		// store flags
+		int flags = asString ? MemCachedClient.MARKER_STRING : NativeHandler.getMarkerFlag(value);
+
+		try {
+			// ms <key> <datalen> <flags>*\r\n
+			sock.writeBuf.clear();
+			RequestEncoder.putAscii(sock.writeBuf, "ms ");
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			sock.writeBuf.put(RequestEncoder.SPACE);
+			int offset = sock.writeBuf.position();
+			// write blank bytes size.
+			sock.writeBuf.put(BLAND_DATA_SIZE);
+			RequestEncoder.putAscii(sock.writeBuf, " F");
+			RequestEncoder.putDecimal(sock.writeBuf, flags);
+			if (expiry != null) {
+				RequestEncoder.putAscii(sock.writeBuf, " T");
+				RequestEncoder.putDecimal(sock.writeBuf, expiry.getTime() / 1000);
+			}
+			if (casUnique != 0) {
+				RequestEncoder.putAscii(sock.writeBuf, " C");
+				RequestEncoder.putDecimal(sock.writeBuf, casUnique);
+			}
+			RequestEncoder.putAscii(sock.writeBuf, mode(cmdname));
+			if (noreply)
+				RequestEncoder.putAscii(sock.writeBuf, " q");
+			RequestEncoder.putReturn(sock.writeBuf);
+			sendValue(sock, value, flags, asString, offset);
+			if (noreply)
+				return quietWritten(sock);
+
+			// get result code
+			AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+			parser.readLine();
+			if (parser.lineEquals(HD))
+				return true;
+			if (parser.isError() && log.isErrorEnabled()) {
+				log.error(new StringBuffer().append("++++ error storing data in cache for key: ").append(key)
+						.toString());
+				log.error(new StringBuffer().append("++++ server response: ").append(parser.getLine()).toString());
+			}
+		} catch (Exception e) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, e, key);
+
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while writing bytes to server on set");
+				log.error(e.getMessage(), e);
+			}
+
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString());
+			}
+
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * count a quiet command written on the socket. A multiplexed connection
+	 * can't tell the answers of quiet commands from the responses of the
+	 * other requests, so there the command is closed by mn and its answer is
+	 * dropped with the MN.
+	 */
+	private boolean quietWritten(SchoonerSockIO sock) throws IOException {
+		if (sock instanceof MultiplexedSockIO) {
+			sock.writeBuf.clear();
+			RequestEncoder.putAscii(sock.writeBuf, "mn");
+			RequestEncoder.putReturn(sock.writeBuf);
+			sock.flush();
+			return true;
+		}
+		return noreplyWritten(sock);
+	}
+
+	/**
+	 * @return the mode flag of ms for the storage command.
+	 */
+	private static String mode(String cmdname) {
+		if ("add".equals(cmdname))
+			return " ME";
+		if ("replace".equals(cmdname))
+			return " MR";
+		if ("append".equals(cmdname))
+			return " MA";
+		if ("prepend".equals(cmdname))
+			return " MP";
+		// set and cas
+		return "";
+	}
+
+	@Override
+	long addOrIncrdecr(String cmdname, String key, long inc, Integer hashCode) {
+		return incrdecr(cmdname, key, inc, hashCode, false, true);
+	}
+
+	@Override
+	long incrdecr(String cmdname, String key, long inc, Integer hashCode, boolean noreply) {
+		return incrdecr(cmdname, key, inc, hashCode, noreply, false);
+	}
+
+	/**
+	 * ma, if vivify the server creates the counter with inc if it is missing,
+	 * in the same round trip.
+	 */
+	private long incrdecr(String cmdname, String key, long inc, Integer hashCode, boolean noreply, boolean vivify) {
+
+		if (key == null) {
+			log.error("null key for incrdecr()");
+			return -1;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, e, key);
+			log.error("failed to sanitize your key!", e);
+			return -1;
+		}
+
+		// get SockIO obj for given cache key
+		SchoonerSockIO sock = getSock(key, hashCode, noreply);
+
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnSet(this, new IOException("no socket to server available"), key);
+			return -1;
+		}
+
+		try {
+			sock.writeBuf.clear();
+			RequestEncoder.putAscii(sock.writeBuf, "ma ");
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			RequestEncoder.putAscii(sock.writeBuf, " D");
+			RequestEncoder.putDecimal(sock.writeBuf, inc);
+			if ("decr".equals(cmdname))
+				RequestEncoder.putAscii(sock.writeBuf, " MD");
+			if (vivify) {
+				RequestEncoder.putAscii(sock.writeBuf, " N0 J");
+				RequestEncoder.putDecimal(sock.writeBuf, inc);
+			}
+			RequestEncoder.putAscii(sock.writeBuf, noreply ? " q" : " v");
+			RequestEncoder.putReturn(sock.writeBuf);
+			sock.flush();
+			if (noreply) {
+				quietWritten(sock);
+				return -1;
+			}
+
+			// get result code
+			AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+			parser.expectLine();
+			if (parser.lineStartsWith(VA)) {
+				// the new value follows as the data block.
+				parser.expectLine();
+				return parser.nextLong();
+			} else if (parser.lineEquals(NF)) {
+				log.info(new StringBuffer().append("++++ key not found to incr/decr for key: ").append(key).toString());
+			} else {
+				if (log.isErrorEnabled()) {
+					log.error(new StringBuffer().append("++++ error incr/decr key: ").append(key).toString());
+					log.error(new StringBuffer().append("++++ server response: ").append(parser.getLine()).toString());
+				}
+			}
+		} catch (Exception e) {
+
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnGet(this, e, key);
+
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while writing bytes to server on incr/decr");
+				log.error(e.getMessage(), e);
+			}
+
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString());
+			}
+
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		}
+
+		return -1;
+	}
+
+	@Override
+	public boolean delete(String key, Integer hashCode, Date expiry) {
+		// md has no delete with a hold time.
+		if (expiry != null)
+			return super.delete(key, hashCode, expiry);
+		return delete(key, hashCode, false);
+	}
+
+	@Override
+	public boolean invalidate(String key, Integer hashCode) {
+		return delete(key, hashCode, true);
+	}
+
+	/**
+	 * delete or invalidate the item by md.
+	 */
+	private boolean delete(String key, Integer hashCode, boolean invalidate) {
+
+		if (key == null) {
+			log.error("null value for key passed to delete()");
+			return false;
+		}
+
+		try {
+			key = sanitizeKey(key);
+		} catch (UnsupportedEncodingException e) {
+
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnDelete(this, e, key);
+
+			log.error("failed to sanitize your key!", e);
+			return false;
+		}
+
+		boolean noreply = isNoreply();
+		// get SockIO obj from hash or from key
+		SchoonerSockIO sock = getSock(key, hashCode, noreply);
+
+		// return false if unable to get SockIO obj
+		if (sock == null) {
+			if (errorHandler != null)
+				errorHandler.handleErrorOnDelete(this, new IOException("no socket to server available"), key);
+			return false;
+		}
+
+		try {
+			sock.writeBuf.clear();
+			RequestEncoder.putAscii(sock.writeBuf, "md ");
+			RequestEncoder.putAscii(sock.writeBuf, key);
+			if (invalidate)
+				RequestEncoder.putAscii(sock.writeBuf, " I");
+			if (noreply)
+				RequestEncoder.putAscii(sock.writeBuf, " q");
+			RequestEncoder.putReturn(sock.writeBuf);
+			sock.flush();
+			if (noreply)
+				return quietWritten(sock);
+
+			AscIIResponseParser parser = sock.getResponseParser(sock.getSockInputStream());
+			parser.readLine();
+			if (parser.lineEquals(HD)) {
+				log.debug(new StringBuffer().append("++++ deletion of key: ").append(key)
+						.append(" from cache was a success").toString());
+				return true;
+			} else if (parser.lineEquals(NF)) {
+				log.debug(new StringBuffer().append("++++ deletion of key: ").append(key)
+						.append(" from cache failed as the key was not found").toString());
+			} else if (log.isErrorEnabled()) {
+				log.error(new StringBuffer().append("++++ error deleting key: ").append(key).toString());
+				log.error(new StringBuffer().append("++++ server response: ").append(parser.getLine()).toString());
+			}
+		} catch (IOException e) {
+
+			// if we have an errorHandler, use its hook
+			if (errorHandler != null)
+				errorHandler.handleErrorOnDelete(this, e, key);
+
+			// exception thrown
+			if (log.isErrorEnabled()) {
+				log.error("++++ exception thrown while writing bytes to server on delete");
+				log.error(e.getMessage(), e);
+			}
+
+			try {
+				sock.sockets.invalidateObject(sock);
+			} catch (Exception e1) {
+				log.error("++++ failed to close socket : " + sock.toString());
+			}
+
+			sock = null;
+		} finally {
+			if (sock != null) {
+				sock.close();
+				sock = null;
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	StringBuilder startMultiGet(boolean cas, Date touch) {
+		return new StringBuilder();
+	}
+
+	@Override
+	void appendMultiGet(StringBuilder request, String key, boolean cas, Date touch) {
+		// quiet, only the hits are answered.
+		request.append("mg ").append(key).append(cas ? " v f c k q" : " v f k q");
+		if (touch != null)
+			request.append(" T").append(touch.getTime() / 1000);
+		request.append("\r\n");
+	}
+
+	@Override
+	void endMultiGet(StringBuilder request) {
+		request.append("mn\r\n");
+	}
+
+	@Override
+	byte[] multiGetEnd() {
+		return B_MN;
+	}
+
+	@Override
+	void loadMultiGet(ByteBufArrayInputStream input, AscIIResponseParser parser, Map<String, Object> hm,
+			boolean asString, boolean raw, boolean cas) throws IOException {
+
+		parser.reset(input);
+		while (true) {
+			parser.expectLine();
+
+			if (parser.lineStartsWith(VA)) {
+				parser.skipToken();
+				int length = parser.nextInt();
+				int flag = 0;
+				long casUnique = 0;
+				String key = null;
+				for (int f = parser.nextFlag(); f != 0; f = parser.nextFlag()) {
+					if (f == 'f')
+						flag = parser.nextInt();
+					else if (f == 'c')
+						casUnique = parser.nextLong();
+					else if (f == 'k')
+						key = parser.nextString();
+					else
+						parser.skipToken();
+				}
+
+				// read obj into buffer
+				byte[] buf = new byte[length];
+				input.read(buf);
+				parser.skipLine();
+
+				if (raw) {
+					hm.put(key, new RawItem(flag, casUnique, length, ByteBuffer.wrap(buf)));
+				} else if (cas) {
+					MemcachedItem item = new MemcachedItem();
+					item.value = decodeValue(key, buf, flag, asString);
+					item.casUnique = casUnique;
+					hm.put(key, item);
+				} else
+					hm.put(key, decodeValue(key, buf, flag, asString));
+			} else if (parser.lineEquals(MN)) {
+				break;
+			} else if (parser.isError() && log.isErrorEnabled()) {
+				log.error("++++ error in multi-get: " + parser.getLine());
+			}
+		}
+	}
+}
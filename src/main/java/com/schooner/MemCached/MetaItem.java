@@ -0,0 +1,57 @@
+package com.schooner.MemCached;
+
+/**
+ * MetaItem holds an item retrieved by a meta get, with the flags the server
+ * returned for it.
+ *
+ * @since 3.1.0
+ * @see com.whalin.MemCached.MemCachedClient#metaGet(String, Integer, java.util.Date, int, int)
+ */
+public final class MetaItem {
+	public Object value;
+	public long casUnique;
+	// seconds left to live, -1 for never expires.
+	public long ttl = -1;
+	public boolean win;
+	public boolean stale;
+	public boolean winSent;
+
+	public Object getValue() {
+		return value;
+	}
+
+	public long getCasUnique() {
+		return casUnique;
+	}
+
+	/**
+	 * @return seconds the item has left to live, -1 if it never expires.
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * @return true if this client won the right to recache the item, e.g. it
+	 *         was missing and created by vivify, or it is stale or about to
+	 *         expire. The other clients keep getting the current value until
+	 *         the winner stores a new one.
+	 */
+	public boolean isWin() {
+		return win;
+	}
+
+	/**
+	 * @return true if the item is invalidated but still served.
+	 */
+	public boolean isStale() {
+		return stale;
+	}
+
+	/**
+	 * @return true if another client has won the right to recache the item.
+	 */
+	public boolean isWinSent() {
+		return winSent;
+	}
+}
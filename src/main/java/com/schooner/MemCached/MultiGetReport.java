@@ -0,0 +1,77 @@
+package com.schooner.MemCached;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a multi-get with the status of every host it asked, see
+ * {@link com.whalin.MemCached.MemCachedClient#getMultiReport(String[])}.<br>
+ * <br>
+ * A host that can't be connected, fails or doesn't answer in time doesn't
+ * fail the others. The keys it holds are fetched from their failover host in
+ * the same call, and only the keys left without a host are reported as
+ * failed. A failed key is a key whose value is unknown, not a miss.
+ *
+ * @since 3.1.0
+ */
+public final class MultiGetReport {
+
+	// status of a host.
+	public static final int OK = 0;
+	public static final int UNAVAILABLE = 1;
+	public static final int TIMED_OUT = 2;
+	public static final int FAILED = 3;
+
+	private final Map<String, Object> values;
+	private final Map<String, Integer> hostStatus = new HashMap<String, Integer>();
+	private final List<String> failedKeys = new ArrayList<String>();
+
+	MultiGetReport(Map<String, Object> values) {
+		this.values = values;
+	}
+
+	/**
+	 * @return a hashmap with entries for each key found, from every host that
+	 *         answered.
+	 */
+	public Map<String, Object> getValues() {
+		return values;
+	}
+
+	/**
+	 * @return the status of each host asked, one of {@link #OK},
+	 *         {@link #UNAVAILABLE}, {@link #TIMED_OUT} or {@link #FAILED}.
+	 */
+	public Map<String, Integer> getHostStatus() {
+		return hostStatus;
+	}
+
+	/**
+	 * @return the keys not fetched from any host.
+	 */
+	public List<String> getFailedKeys() {
+		return failedKeys;
+	}
+
+	/**
+	 * @return true if every key is fetched, even if some from a failover host.
+	 */
+	public boolean isComplete() {
+		return failedKeys.isEmpty();
+	}
+
+	void setHostStatus(String host, int status) {
+		hostStatus.put(host, status);
+	}
+
+	void addFailedKey(String key) {
+		failedKeys.add(key);
+	}
+
+	public String toString() {
+		return new StringBuffer().append("MultiGetReport values: ").append(values.size()).append(" hosts: ")
+				.append(hostStatus).append(" failed keys: ").append(failedKeys.size()).toString();
+	}
+}
@@ -0,0 +1,957 @@
+package com.schooner.MemCached;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.whalin.MemCached.MemCachedClient;
+
+/**
+ * A physical connection to memcached server which is shared by many
+ * {@link MultiplexedSockIO}.<br>
+ * <br>
+ * Requests are queued by the calling threads and written with gathering
+ * writes, so that the requests of several threads go out in one syscall.
+ * Responses are read by the {@link Multiplexer} thread and dispatched back to
+ * the request they belong to. Binary requests are matched with the
+ * <code>opaque</code> field, which is rewritten to a connection-unique value
+ * when the request is queued and restored in the response. ASCII responses are
+ * matched in FIFO order, the end of each response is found by the verb of the
+ * command.<br>
+ * <br>
+ * The protocol of the connection is decided by the first request sent on it.
+ *
+ * @since 3.1.0
+ * @see MultiplexedSockIO
+ * @see Multiplexer
+ */
+public class MultiplexedConnection {
+
+	// logger
+	private static Logger log = LoggerFactory.getLogger(MultiplexedConnection.class);
+
+	private static final int UNKNOWN = 0;
+	private static final int ASCII = 1;
+	private static final int BINARY = 2;
+
+	// what we are waiting for in the ascii protocol.
+	private static final byte EXPECT_NONE = 0;
+	private static final byte EXPECT_LINE = 1;
+	private static final byte EXPECT_END = 2;
+	private static final byte EXPECT_VALUES = 3;
+	private static final byte EXPECT_META = 4;
+	private static final byte EXPECT_MN = 5;
+
+	private static final byte[] VALUE = "VALUE ".getBytes();
+	private static final byte[] VA = "VA ".getBytes();
+	private static final byte[] END = "END\r\n".getBytes();
+	private static final byte[] MN_LINE = "MN\r\n".getBytes();
+	private static final byte[] ERROR = "ERROR".getBytes();
+	private static final byte[] CLIENT_ERROR = "CLIENT_ERROR".getBytes();
+	private static final byte[] SERVER_ERROR = "SERVER_ERROR".getBytes();
+	private static final byte[] NOREPLY = "noreply".getBytes();
+
+	private static final byte[][] STORAGE = { "set".getBytes(), "add".getBytes(), "replace".getBytes(),
+			"append".getBytes(), "prepend".getBytes(), "cas".getBytes() };
+	private static final byte[][] RETRIEVAL = { "get".getBytes(), "gets".getBytes(), "gat".getBytes(),
+			"gats".getBytes() };
+	private static final byte[] STATS = "stats".getBytes();
+	private static final byte[] RESET = "reset".getBytes();
+	private static final byte[] DETAIL = "detail".getBytes();
+	private static final byte[] QUIT = "quit".getBytes();
+	private static final byte[] MG = "mg".getBytes();
+	private static final byte[] MS = "ms".getBytes();
+	private static final byte[] MD = "md".getBytes();
+	private static final byte[] MA = "ma".getBytes();
+	private static final byte[] MN = "mn".getBytes();
+
+	private final String host;
+	private final SchoonerSockIOFactory factory;
+	private final Multiplexer multiplexer;
+
+	// guards connecting and the order of queued requests.
+	private final Object lock = new Object();
+	private volatile boolean connected = false;
+	private volatile int protocol = UNKNOWN;
+	private SchoonerSockIO sock;
+	private volatile SocketChannel channel;
+	private volatile SelectionKey key;
+
+	// write side, the batch is only touched with writeLock held.
+	private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final ByteBuffer[] batch = new ByteBuffer[64];
+	private int batchOffset = 0;
+	private int batchLength = 0;
+	private volatile boolean wantWrite = false;
+
+	// requests waiting for response.
+	private final Queue<Request> pending = new ConcurrentLinkedQueue<Request>();
+	private final ConcurrentSkipListMap<Integer, Request> inflight = new ConcurrentSkipListMap<Integer, Request>();
+	private int nextOpaque = 1;
+
+	// decoder state, only touched by the multiplexer thread.
+	private Request current;
+	private int expectIndex;
+	private final byte[] line = new byte[1024];
+	private int lineLength;
+	private int dataRemaining;
+	private boolean completeAfterData;
+	private final byte[] header = new byte[24];
+	private int headerLength;
+	private boolean inBody;
+	private int responseOpaque;
+
+	public MultiplexedConnection(String host, SchoonerSockIOFactory factory, Multiplexer multiplexer) {
+		this.host = host;
+		this.factory = factory;
+		this.multiplexer = multiplexer;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @return number of requests waiting for response.
+	 */
+	public int getPending() {
+		return pending.size() + inflight.size();
+	}
+
+	/**
+	 * connect to the server if not connected yet.
+	 *
+	 * @throws IOException
+	 *             if fails to connect.
+	 */
+	public void connect() throws IOException {
+		synchronized (lock) {
+			if (connected)
+				return;
+
+			SchoonerSockIO s;
+			try {
+				s = (SchoonerSockIO) factory.makeObject();
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException("++++ failed to connect to " + host + ": " + e.getMessage());
+			}
+			// the buffers are only needed by the handshake.
+			s.releaseBuffers();
+			s.getChannel().configureBlocking(false);
+
+			sock = s;
+			channel = s.getChannel();
+			protocol = UNKNOWN;
+			current = null;
+			lineLength = 0;
+			dataRemaining = 0;
+			completeAfterData = false;
+			headerLength = 0;
+			inBody = false;
+			connected = true;
+			multiplexer.register(this);
+		}
+	}
+
+	/**
+	 * queue a request and write it out as soon as possible.
+	 *
+	 * @param r
+	 *            request to send
+	 * @throws IOException
+	 *             if the connection is broken or the request is malformed.
+	 */
+	public void submit(Request r) throws IOException {
+		send(r, true);
+	}
+
+	/**
+	 * queue a request if the connection is up, it never connects.
+	 *
+	 * @param r
+	 *            request to send
+	 * @return false if not connected, the request is not sent then.
+	 * @throws IOException
+	 *             if the connection is broken or the request is malformed.
+	 */
+	public boolean offer(Request r) throws IOException {
+		return send(r, false);
+	}
+
+	private boolean send(Request r, boolean connect) throws IOException {
+		int p = r.data[0] == MemCachedClient.MAGIC_REQ ? BINARY : ASCII;
+		if (p == ASCII)
+			prepareAscii(r);
+
+		synchronized (lock) {
+			if (connect)
+				connect();
+			else if (!connected)
+				return false;
+			if (protocol == UNKNOWN)
+				protocol = p;
+			else if (protocol != p)
+				throw new IOException("++++ ascii and binary requests mixed on connection to " + host);
+
+			if (p == BINARY) {
+				prepareBinary(r);
+				if (r.expectsResponse)
+					inflight.put(r.firstOpaque, r);
+			} else if (r.expectsResponse) {
+				pending.add(r);
+			}
+			writeQueue.add(ByteBuffer.wrap(r.data, 0, r.length));
+		}
+
+		if (!r.expectsResponse)
+			r.complete();
+		flush();
+		return true;
+	}
+
+	/**
+	 * write out the queued requests, if another thread is writing, it will
+	 * take our requests with its own.
+	 */
+	private void flush() {
+		while (!writeQueue.isEmpty() && !wantWrite) {
+			if (!writeLock.tryLock())
+				return;
+			try {
+				writeBatch();
+			} catch (IOException e) {
+				fail(e);
+				return;
+			} finally {
+				writeLock.unlock();
+			}
+		}
+	}
+
+	private void writeBatch() throws IOException {
+		SocketChannel ch = channel;
+		if (ch == null)
+			throw new IOException("++++ attempting to write to closed connection: " + host);
+
+		while (true) {
+			if (batchOffset == batchLength) {
+				batchOffset = 0;
+				batchLength = 0;
+				ByteBuffer b;
+				while (batchLength < batch.length && (b = writeQueue.poll()) != null)
+					batch[batchLength++] = b;
+				if (batchLength == 0) {
+					wantWrite = false;
+					return;
+				}
+			}
+
+			ch.write(batch, batchOffset, batchLength - batchOffset);
+			while (batchOffset < batchLength && !batch[batchOffset].hasRemaining())
+				batch[batchOffset++] = null;
+
+			if (batchOffset < batchLength) {
+				// send buffer is full, let the multiplexer go on when writable.
+				if (!wantWrite) {
+					wantWrite = true;
+					multiplexer.register(this);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * register to the selector or update the interest ops, called by the
+	 * multiplexer thread.
+	 */
+	void register(Selector selector) throws IOException {
+		SocketChannel ch = channel;
+		if (ch == null || !ch.isOpen())
+			return;
+
+		SelectionKey k = key;
+		if (k == null || k.channel() != ch) {
+			k = ch.register(selector, SelectionKey.OP_READ, this);
+			key = k;
+		}
+		k.interestOps(wantWrite ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	/**
+	 * called by the multiplexer thread when the channel is writable.
+	 */
+	void onWritable() throws IOException {
+		writeLock.lock();
+		try {
+			wantWrite = false;
+			writeBatch();
+		} finally {
+			writeLock.unlock();
+		}
+		flush();
+	}
+
+	/**
+	 * called by the multiplexer thread when the channel is readable.
+	 */
+	void onReadable(SelectionKey k, ByteBuffer buf) throws IOException {
+		SocketChannel ch = (SocketChannel) k.channel();
+		if (ch != channel) {
+			k.cancel();
+			return;
+		}
+
+		buf.clear();
+		int count = ch.read(buf);
+		if (count < 0)
+			throw new EOFException("++++ connection closed by server: " + host);
+		buf.flip();
+
+		if (protocol == BINARY)
+			decodeBinary(buf);
+		else
+			decodeAscii(buf);
+	}
+
+	/**
+	 * close the physical connection and fail all the requests waiting for
+	 * response. The connection will be established again by next request.
+	 *
+	 * @param e
+	 *            the cause
+	 */
+	public void fail(IOException e) {
+		List<Request> failed = new ArrayList<Request>();
+		synchronized (lock) {
+			if (!connected)
+				return;
+			connected = false;
+
+			writeLock.lock();
+			try {
+				for (int i = batchOffset; i < batchLength; i++)
+					batch[i] = null;
+				batchOffset = 0;
+				batchLength = 0;
+				writeQueue.clear();
+				wantWrite = false;
+				channel = null;
+			} finally {
+				writeLock.unlock();
+			}
+
+			SelectionKey k = key;
+			if (k != null)
+				k.cancel();
+			key = null;
+
+			if (current != null)
+				failed.add(current);
+			Request r;
+			while ((r = pending.poll()) != null)
+				failed.add(r);
+			for (Map.Entry<Integer, Request> entry : inflight.entrySet())
+				failed.add(entry.getValue());
+			inflight.clear();
+
+			try {
+				sock.trueClose();
+			} catch (IOException ioe) {
+				if (log.isDebugEnabled())
+					log.debug("++++ failed to close connection: " + host, ioe);
+			}
+			sock = null;
+		}
+
+		if (log.isErrorEnabled() && failed.size() > 0)
+			log.error("++++ multiplexed connection to " + host + " failed with " + failed.size()
+					+ " requests pending: " + e.getMessage());
+
+		for (Request r : failed)
+			r.fail(e);
+	}
+
+	/**
+	 * close the physical connection.
+	 */
+	public void close() {
+		fail(new IOException("++++ connection closed: " + host));
+	}
+
+	public String toString() {
+		return "MultiplexedConnection to " + host;
+	}
+
+	private void prepareAscii(Request r) throws IOException {
+		byte[] d = r.data;
+		int len = r.length;
+		int[] starts = new int[8];
+		int[] ends = new int[8];
+		byte[] expects = new byte[4];
+		int count = 0;
+
+		int pos = 0;
+		while (pos < len) {
+			int eol = pos;
+			while (eol < len && d[eol] != '\n')
+				eol++;
+			if (eol == len)
+				throw new IOException("++++ incomplete command for " + host);
+
+			int tokens = tokenize(d, pos, eol, starts, ends);
+			pos = eol + 1;
+			if (tokens == 0)
+				continue;
+
+			int s = starts[0];
+			int e = ends[0];
+			byte expect = EXPECT_LINE;
+			int dataLength = -1;
+			if (matches(d, s, e, STORAGE)) {
+				dataLength = tokens > 4 ? parseInt(d, starts[4], ends[4]) : 0;
+			} else if (matches(d, s, e, RETRIEVAL)) {
+				expect = EXPECT_VALUES;
+			} else if (equals(d, s, e, STATS)) {
+				if (tokens < 2
+						|| !(equals(d, starts[1], ends[1], RESET) || equals(d, starts[1], ends[1], DETAIL)))
+					expect = EXPECT_END;
+			} else if (equals(d, s, e, MG) || equals(d, s, e, MA)) {
+				expect = EXPECT_META;
+			} else if (equals(d, s, e, MS)) {
+				dataLength = tokens > 2 ? parseInt(d, starts[2], ends[2]) : 0;
+			} else if (equals(d, s, e, MN)) {
+				expect = EXPECT_MN;
+			} else if (equals(d, s, e, QUIT)) {
+				expect = EXPECT_NONE;
+			}
+
+			// the quiet meta commands answer only the misses and errors, they
+			// are read up to the MN of the mn after them.
+			if (tokens > 2 && (expect == EXPECT_META || equals(d, s, e, MS) || equals(d, s, e, MD))
+					&& hasFlag(d, ends[1], eol, (byte) 'q'))
+				expect = EXPECT_NONE;
+
+			if (tokens > 1 && equals(d, starts[Math.min(tokens, starts.length) - 1],
+					ends[Math.min(tokens, starts.length) - 1], NOREPLY))
+				expect = EXPECT_NONE;
+
+			if (dataLength >= 0)
+				pos += dataLength + 2;
+
+			if (expect != EXPECT_NONE) {
+				if (count == expects.length) {
+					byte[] tmp = new byte[count * 2];
+					System.arraycopy(expects, 0, tmp, 0, count);
+					expects = tmp;
+				}
+				expects[count++] = expect;
+			}
+		}
+
+		r.expects = expects;
+		r.numExpects = count;
+		r.expectsResponse = count > 0;
+	}
+
+	private void prepareBinary(Request r) throws IOException {
+		byte[] d = r.data;
+		int count = 0;
+		int pos = 0;
+		while (pos + 24 <= r.length) {
+			if (d[pos] != MemCachedClient.MAGIC_REQ)
+				throw new IOException("++++ malformed binary request for " + host);
+			count++;
+			pos += 24 + getInt(d, pos + 8);
+		}
+		if (count == 0)
+			throw new IOException("++++ incomplete binary request for " + host);
+
+		int base = nextOpaque;
+		if ((long) base + count >= Integer.MAX_VALUE)
+			base = 1;
+		nextOpaque = base + count;
+
+		int[] originals = new int[count];
+		byte lastOpcode = 0;
+		pos = 0;
+		for (int i = 0; i < count; i++) {
+			originals[i] = getInt(d, pos + 12);
+			putInt(d, pos + 12, base + i);
+			lastOpcode = d[pos + 1];
+			pos += 24 + getInt(d, pos + 8);
+		}
+
+		r.firstOpaque = base;
+		r.lastOpaque = base + count - 1;
+		r.originalOpaques = originals;
+		r.expectsResponse = !isQuiet(lastOpcode);
+	}
+
+	private void decodeAscii(ByteBuffer in) throws IOException {
+		while (in.hasRemaining()) {
+			if (current == null) {
+				current = pending.poll();
+				if (current == null)
+					throw new IOException("++++ unexpected response from " + host);
+				expectIndex = 0;
+				lineLength = 0;
+				dataRemaining = 0;
+				completeAfterData = false;
+			}
+
+			if (dataRemaining > 0) {
+				int n = Math.min(dataRemaining, in.remaining());
+				current.append(in, n);
+				dataRemaining -= n;
+				if (dataRemaining == 0 && completeAfterData) {
+					completeAfterData = false;
+					nextExpect();
+				}
+				continue;
+			}
+
+			int start = in.position();
+			int limit = in.limit();
+			int i = start;
+			boolean eol = false;
+			while (i < limit) {
+				byte b = in.get(i++);
+				if (lineLength < line.length)
+					line[lineLength] = b;
+				lineLength++;
+				if (b == '\n') {
+					eol = true;
+					break;
+				}
+			}
+			current.append(in, i - start);
+			if (!eol)
+				continue;
+
+			onLine();
+			lineLength = 0;
+		}
+	}
+
+	private void onLine() {
+		switch (current.expects[expectIndex]) {
+		case EXPECT_END:
+			if (isEnd() || isError())
+				nextExpect();
+			break;
+		case EXPECT_VALUES:
+			if (startsWith(VALUE)) {
+				dataRemaining = lineToken(3) + 2;
+			} else if (isEnd() || isError()) {
+				nextExpect();
+			}
+			break;
+		case EXPECT_META:
+			if (startsWith(VA)) {
+				dataRemaining = lineToken(1) + 2;
+				completeAfterData = true;
+			} else {
+				nextExpect();
+			}
+			break;
+		case EXPECT_MN:
+			if (startsWith(VA))
+				dataRemaining = lineToken(1) + 2;
+			else if (lineLength == MN_LINE.length && startsWith(MN_LINE))
+				nextExpect();
+			break;
+		default:
+			nextExpect();
+		}
+	}
+
+	private void nextExpect() {
+		if (++expectIndex >= current.numExpects) {
+			current.complete();
+			current = null;
+		}
+	}
+
+	private void decodeBinary(ByteBuffer in) {
+		while (in.hasRemaining()) {
+			if (!inBody) {
+				int n = Math.min(24 - headerLength, in.remaining());
+				in.get(header, headerLength, n);
+				headerLength += n;
+				if (headerLength < 24)
+					return;
+
+				responseOpaque = getInt(header, 12);
+				dataRemaining = getInt(header, 8);
+				current = findRequest(responseOpaque);
+				if (current != null) {
+					putInt(header, 12, current.originalOpaques[responseOpaque - current.firstOpaque]);
+					current.append(header, 0, 24);
+				}
+				if (dataRemaining == 0)
+					endOfResponse();
+				else
+					inBody = true;
+				continue;
+			}
+
+			int n = Math.min(dataRemaining, in.remaining());
+			if (current != null)
+				current.append(in, n);
+			else
+				in.position(in.position() + n);
+			dataRemaining -= n;
+			if (dataRemaining == 0)
+				endOfResponse();
+		}
+	}
+
+	private Request findRequest(int opaque) {
+		Map.Entry<Integer, Request> entry = inflight.floorEntry(opaque);
+		if (entry == null || entry.getValue().lastOpaque < opaque)
+			return null;
+		return entry.getValue();
+	}
+
+	private void endOfResponse() {
+		headerLength = 0;
+		inBody = false;
+		if (current == null)
+			return;
+
+		// stat responses keep coming until the one with empty key.
+		boolean last = responseOpaque == current.lastOpaque
+				&& !(header[1] == MemCachedClient.OPCODE_STAT && ((header[2] & 0xff) << 8 | header[3] & 0xff) != 0);
+		if (last) {
+			inflight.remove(current.firstOpaque);
+			current.complete();
+		}
+		current = null;
+	}
+
+	private boolean isEnd() {
+		if (lineLength != END.length)
+			return false;
+		return startsWith(END);
+	}
+
+	private boolean isError() {
+		return startsWith(ERROR) || startsWith(CLIENT_ERROR) || startsWith(SERVER_ERROR);
+	}
+
+	private boolean startsWith(byte[] prefix) {
+		if (lineLength < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++)
+			if (line[i] != prefix[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * parse the n-th token of current line as a non-negative integer.
+	 */
+	private int lineToken(int n) {
+		int len = Math.min(lineLength, line.length);
+		int i = 0;
+		for (int t = 0; t < n; t++) {
+			while (i < len && line[i] != ' ')
+				i++;
+			while (i < len && line[i] == ' ')
+				i++;
+		}
+		int start = i;
+		while (i < len && line[i] >= '0' && line[i] <= '9')
+			i++;
+		return parseInt(line, start, i);
+	}
+
+	private static int tokenize(byte[] d, int start, int end, int[] starts, int[] ends) {
+		if (end > start && d[end - 1] == '\r')
+			end--;
+		int count = 0;
+		int i = start;
+		while (i < end) {
+			while (i < end && d[i] == ' ')
+				i++;
+			if (i == end)
+				break;
+			int s = i;
+			while (i < end && d[i] != ' ')
+				i++;
+			// keep the last token at the last slot, we need it for noreply.
+			int slot = count < starts.length ? count : starts.length - 1;
+			starts[slot] = s;
+			ends[slot] = i;
+			count++;
+		}
+		return count;
+	}
+
+	private static boolean equals(byte[] d, int start, int end, byte[] word) {
+		if (end - start != word.length)
+			return false;
+		for (int i = 0; i < word.length; i++)
+			if (d[start + i] != word[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return true if a token of the line between start and end is the flag
+	 *         without value.
+	 */
+	private static boolean hasFlag(byte[] d, int start, int end, byte flag) {
+		if (end > start && d[end - 1] == '\r')
+			end--;
+		for (int i = start; i < end; i++) {
+			if (d[i] == flag && d[i - 1] == ' ' && (i + 1 == end || d[i + 1] == ' '))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean matches(byte[] d, int start, int end, byte[][] words) {
+		for (byte[] word : words)
+			if (equals(d, start, end, word))
+				return true;
+		return false;
+	}
+
+	private static int parseInt(byte[] d, int start, int end) {
+		int v = 0;
+		for (int i = start; i < end; i++)
+			v = v * 10 + (d[i] - '0');
+		return v;
+	}
+
+	private static int getInt(byte[] d, int pos) {
+		return (d[pos] & 0xff) << 24 | (d[pos + 1] & 0xff) << 16 | (d[pos + 2] & 0xff) << 8 | d[pos + 3] & 0xff;
+	}
+
+	private static void putInt(byte[] d, int pos, int v) {
+		d[pos] = (byte) (v >>> 24);
+		d[pos + 1] = (byte) (v >>> 16);
+		d[pos + 2] = (byte) (v >>> 8);
+		d[pos + 3] = (byte) v;
+	}
+
+	private static boolean isQuiet(byte opcode) {
+		switch (opcode) {
+		case 0x09: // GETQ
+		case 0x0d: // GETKQ
+		case 0x11: // SETQ
+		case 0x12: // ADDQ
+		case 0x13: // REPLACEQ
+		case 0x14: // DELETEQ
+		case 0x15: // INCREMENTQ
+		case 0x16: // DECREMENTQ
+		case 0x17: // QUITQ
+		case 0x18: // FLUSHQ
+		case 0x19: // APPENDQ
+		case 0x1a: // PREPENDQ
+		case 0x1e: // GATQ
+		case 0x24: // GATKQ
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * A request sent on a {@link MultiplexedConnection}, the response bytes are
+	 * buffered here until the caller reads them.
+	 */
+	public static final class Request {
+
+		/**
+		 * notified when the whole response has arrived or the request failed,
+		 * it is called by the multiplexer thread and must not block.
+		 */
+		public interface Listener {
+			void onDone(Request r);
+		}
+
+		final byte[] data;
+		final int length;
+		private final Listener listener;
+
+		boolean expectsResponse;
+
+		// ascii framing
+		byte[] expects;
+		int numExpects;
+
+		// binary framing
+		int firstOpaque;
+		int lastOpaque;
+		int[] originalOpaques;
+
+		private byte[] buf;
+		private int readPos;
+		private int writePos;
+		private boolean done;
+		private boolean abandoned;
+		private IOException error;
+
+		public Request(byte[] data, int length) {
+			this(data, length, null);
+		}
+
+		public Request(byte[] data, int length, Listener listener) {
+			this.data = data;
+			this.length = length;
+			this.listener = listener;
+		}
+
+		synchronized void append(ByteBuffer src, int len) {
+			if (abandoned) {
+				src.position(src.position() + len);
+				return;
+			}
+			ensureCapacity(len);
+			src.get(buf, writePos, len);
+			writePos += len;
+			notifyAll();
+		}
+
+		synchronized void append(byte[] b, int off, int len) {
+			if (abandoned)
+				return;
+			ensureCapacity(len);
+			System.arraycopy(b, off, buf, writePos, len);
+			writePos += len;
+			notifyAll();
+		}
+
+		private void ensureCapacity(int len) {
+			if (buf == null) {
+				buf = new byte[Math.max(len, 1024)];
+			} else if (writePos + len > buf.length) {
+				byte[] tmp = new byte[Math.max(writePos + len, buf.length * 2)];
+				System.arraycopy(buf, 0, tmp, 0, writePos);
+				buf = tmp;
+			}
+		}
+
+		void complete() {
+			synchronized (this) {
+				done = true;
+				notifyAll();
+			}
+			if (listener != null)
+				listener.onDone(this);
+		}
+
+		void fail(IOException e) {
+			synchronized (this) {
+				if (done)
+					return;
+				error = e;
+				done = true;
+				notifyAll();
+			}
+			if (listener != null)
+				listener.onDone(this);
+		}
+
+		/**
+		 * @return the cause if the request failed, or null.
+		 */
+		public synchronized IOException getError() {
+			return error;
+		}
+
+		/**
+		 * @return the unread bytes of the response, the whole response if the
+		 *         caller reads it after it is done.
+		 */
+		public synchronized ByteBuffer getResponse() {
+			if (buf == null)
+				return ByteBuffer.allocate(0);
+			return ByteBuffer.wrap(buf, readPos, writePos - readPos);
+		}
+
+		/**
+		 * @return true if the whole response has arrived.
+		 */
+		public synchronized boolean isDone() {
+			return done;
+		}
+
+		/**
+		 * the caller is not interested in the rest of the response any more.
+		 */
+		public synchronized void abandon() {
+			abandoned = true;
+			buf = null;
+			readPos = 0;
+			writePos = 0;
+		}
+
+		/**
+		 * read the response, it will be blocked until some bytes arrive.
+		 *
+		 * @param dst
+		 *            buffer to fill
+		 * @param timeout
+		 *            max time to wait in ms, 0 means wait forever
+		 * @return bytes read, or -1 if the whole response has been read
+		 * @throws IOException
+		 *             if the connection is broken or timeout
+		 */
+		public synchronized int read(ByteBuffer dst, long timeout) throws IOException {
+			long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+			while (readPos == writePos) {
+				if (error != null)
+					throw new IOException(error.getMessage());
+				if (done)
+					return -1;
+				try {
+					if (timeout <= 0) {
+						wait();
+					} else {
+						long left = deadline - System.currentTimeMillis();
+						if (left <= 0)
+							throw new SocketTimeoutException("++++ timeout waiting for response");
+						wait(left);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("++++ interrupted waiting for response");
+				}
+			}
+
+			int n = Math.min(dst.remaining(), writePos - readPos);
+			dst.put(buf, readPos, n);
+			readPos += n;
+			if (readPos == writePos) {
+				readPos = 0;
+				writePos = 0;
+			}
+			return n;
+		}
+	}
+}
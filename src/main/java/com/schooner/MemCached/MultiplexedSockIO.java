@@ -0,0 +1,298 @@
+package com.schooner.MemCached;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+import org.apache.commons.pool.ObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A virtual socket on top of a shared {@link MultiplexedConnection}.<br>
+ * <br>
+ * The clients use it exactly like a TCP socket: the bytes written are kept
+ * until the caller begins to read the response (or closes the socket), then
+ * they are sent as one request on the shared connection, and the reads return
+ * the response of this request only.
+ *
+ * @since 3.1.0
+ * @see MultiplexedConnection
+ */
+public class MultiplexedSockIO extends SchoonerSockIO {
+
+	// logger
+	private static Logger log = LoggerFactory.getLogger(MultiplexedSockIO.class);
+
+	private final MultiplexedConnection conn;
+
+	private final int timeout;
+
+	// bytes written but not sent yet.
+	private byte[] out;
+	private int outLength = 0;
+
+	// the request we are reading response from.
+	private MultiplexedConnection.Request request;
+
+	// when the current operation times out, 0 if it hasn't started.
+	private long deadline = 0;
+
+	private final ByteChannel channel = new ByteChannel() {
+		public int read(ByteBuffer dst) throws IOException {
+			return MultiplexedSockIO.this.read(dst);
+		}
+
+		public int write(ByteBuffer src) throws IOException {
+			int n = src.remaining();
+			append(src);
+			return n;
+		}
+
+		public boolean isOpen() {
+			return conn.isConnected();
+		}
+
+		public void close() {
+		}
+	};
+
+	private final InputStream in = Channels.newInputStream(channel);
+
+	public MultiplexedSockIO(ObjectPool sockets, MultiplexedConnection conn, int bufferSize, int timeout)
+			throws UnknownHostException, IOException {
+		super(sockets, bufferSize);
+		this.conn = conn;
+		this.timeout = timeout;
+	}
+
+	private void append(ByteBuffer src) {
+		if (request != null) {
+			// a new request begins.
+			request.abandon();
+			request = null;
+		}
+
+		int n = src.remaining();
+		if (out == null) {
+			out = new byte[Math.max(n, 1024)];
+		} else if (outLength + n > out.length) {
+			byte[] tmp = new byte[Math.max(outLength + n, out.length * 2)];
+			System.arraycopy(out, 0, tmp, 0, outLength);
+			out = tmp;
+		}
+		src.get(out, outLength, n);
+		outLength += n;
+	}
+
+	/**
+	 * send the bytes written so far as one request.
+	 *
+	 * @throws IOException
+	 *             if the connection is broken
+	 */
+	public void commit() throws IOException {
+		if (outLength == 0)
+			return;
+
+		MultiplexedConnection.Request r = new MultiplexedConnection.Request(out, outLength);
+		out = null;
+		outLength = 0;
+		conn.submit(r);
+		request = r;
+		// the response of a new request has the whole timeout.
+		deadline = 0;
+	}
+
+	/**
+	 * read the response of the request written, the request is sent first if
+	 * it hasn't been.
+	 */
+	@Override
+	public int read(ByteBuffer buf) throws IOException {
+		commit();
+		if (request == null)
+			throw new IOException("++++ attempting to read before writing request to " + getHost());
+		long t = getOperationTimeout() > 0 ? getOperationTimeout() : timeout;
+		if (t <= 0)
+			return request.read(buf, 0);
+		if (deadline == 0)
+			deadline = System.currentTimeMillis() + t;
+		long left = deadline - System.currentTimeMillis();
+		if (left <= 0)
+			throw new SocketTimeoutException("++++ operation timed out on " + getHost());
+		return request.read(buf, left);
+	}
+
+	@Override
+	public void setOperationTimeout(long timeout) {
+		super.setOperationTimeout(timeout);
+		deadline = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writeBuf.flip();
+		append(writeBuf);
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		append(ByteBuffer.wrap(b));
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		int count = 0;
+		while (count < b.length) {
+			int cnt = in.read(b, count, (b.length - count));
+			if (cnt < 0)
+				throw new IOException("++++ Stream appears to be dead, so closing it down");
+			count += cnt;
+		}
+		return count;
+	}
+
+	@Override
+	public String readLine() throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		boolean eol = false;
+		int b;
+		while ((b = in.read()) != -1) {
+			if (b == 13) {
+				eol = true;
+			} else if (eol) {
+				if (b == 10)
+					break;
+				eol = false;
+			}
+			bos.write(b);
+		}
+
+		if (bos.size() <= 0)
+			throw new IOException("++++ Stream appears to be dead, so closing it down");
+
+		return bos.toString().trim();
+	}
+
+	@Override
+	public void clearEOL() throws IOException {
+		boolean eol = false;
+		int b;
+		while ((b = in.read()) != -1) {
+			// only stop when we see \r (13) followed by \n (10)
+			if (b == 13) {
+				eol = true;
+				continue;
+			}
+			if (eol) {
+				if (b == 10)
+					break;
+				eol = false;
+			}
+		}
+	}
+
+	/**
+	 * sends the request not sent yet, e.g. noreply commands, and checks in to
+	 * connection pool.
+	 */
+	@Override
+	public void close() {
+		readBuf.clear();
+		setOperationTimeout(0);
+		try {
+			commit();
+		} catch (IOException e) {
+			if (log.isErrorEnabled())
+				log.error("++++ failed to send request to " + getHost() + ": " + e.getMessage());
+		}
+		if (request != null) {
+			request.abandon();
+			request = null;
+		}
+
+		try {
+			sockets.returnObject(this);
+		} catch (Exception e) {
+			if (log.isErrorEnabled())
+				log.error("++++ error closing socket: " + toString() + " for host: " + getHost());
+		}
+	}
+
+	/**
+	 * drops the unsent request and the unread response, the shared connection
+	 * is kept open.
+	 */
+	@Override
+	public void trueClose() throws IOException {
+		out = null;
+		outLength = 0;
+		if (request != null) {
+			request.abandon();
+			request = null;
+		}
+	}
+
+	@Override
+	public void trueClose(boolean addToDeadPool) throws IOException {
+		trueClose();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return conn.isConnected();
+	}
+
+	@Override
+	public boolean isAlive() {
+		return conn.isConnected();
+	}
+
+	@Override
+	public String getHost() {
+		return conn.getHost();
+	}
+
+	/**
+	 * @return null, a multiplexed socket doesn't own a channel.
+	 */
+	@Override
+	public SocketChannel getChannel() {
+		return null;
+	}
+
+	@Override
+	public ByteChannel getByteChannel() {
+		return channel;
+	}
+
+	public MultiplexedConnection getConnection() {
+		return conn;
+	}
+
+	@Override
+	public short preWrite() {
+		// should do nothing, this method is for UDP only.
+		return 0;
+	}
+
+	@Override
+	public byte[] getResponse(short rid) throws IOException {
+		return null;
+	}
+
+	public int hashCode() {
+		return System.identityHashCode(this);
+	}
+
+	public String toString() {
+		return "MultiplexedSockIO to " + getHost();
+	}
+}
@@ -0,0 +1,50 @@
+package com.schooner.MemCached;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link MultiplexedSockIOFactory} creates the virtual sockets of multiplexed
+ * mode, each of them is bound to one of the shared connections of the host in
+ * round robin.
+ *
+ * @since 3.1.0
+ * @see MultiplexedSockIO
+ * @see SchoonerSockIOFactory
+ */
+public class MultiplexedSockIOFactory extends SchoonerSockIOFactory {
+
+	private final MultiplexedConnection[] conns;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * @param factory
+	 *            creates the physical connections
+	 * @param multiplexer
+	 *            the selector thread reading the responses
+	 * @param numConns
+	 *            number of physical connections to the host
+	 */
+	public MultiplexedSockIOFactory(SchoonerSockIOFactory factory, Multiplexer multiplexer, int numConns,
+			String host, int bufferSize, int socketTO) {
+		super(host, true, bufferSize, socketTO, factory.socketConnectTO, factory.nagle);
+		conns = new MultiplexedConnection[Math.max(numConns, 1)];
+		for (int i = 0; i < conns.length; i++)
+			conns[i] = new MultiplexedConnection(host, factory, multiplexer);
+	}
+
+	@Override
+	public Object makeObject() throws Exception {
+		MultiplexedConnection conn = conns[(next.getAndIncrement() & Integer.MAX_VALUE) % conns.length];
+		// fails here if the host is down, so that the pool can mark it dead.
+		conn.connect();
+		MultiplexedSockIO socket = new MultiplexedSockIO(sockets, conn, bufferSize, socketTO);
+		socket.setBufferPool(bufferPool);
+		socket.attachBuffers();
+		return socket;
+	}
+
+	public MultiplexedConnection[] getConnections() {
+		return conns;
+	}
+}
@@ -0,0 +1,116 @@
+package com.schooner.MemCached;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The selector thread of the multiplexed connections. It reads the responses
+ * of all {@link MultiplexedConnection} of a pool and finishes the writes which
+ * could not be done at once by the calling threads.
+ *
+ * @since 3.1.0
+ * @see MultiplexedConnection
+ */
+public class Multiplexer implements Runnable {
+
+	// logger
+	private static Logger log = LoggerFactory.getLogger(Multiplexer.class);
+
+	private final Selector selector;
+	private final Queue<MultiplexedConnection> changes = new ConcurrentLinkedQueue<MultiplexedConnection>();
+	private final ByteBuffer readBuf = ByteBuffer.allocateDirect(64 * 1024);
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	public Multiplexer(String name) throws IOException {
+		selector = Selector.open();
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * register a connection, or update its interest ops. It is done in the
+	 * multiplexer thread.
+	 *
+	 * @param conn
+	 *            connection to register
+	 */
+	public void register(MultiplexedConnection conn) {
+		changes.add(conn);
+		selector.wakeup();
+	}
+
+	public void run() {
+		while (running) {
+			try {
+				MultiplexedConnection conn;
+				while ((conn = changes.poll()) != null) {
+					try {
+						conn.register(selector);
+					} catch (IOException e) {
+						conn.fail(e);
+					}
+				}
+
+				selector.select();
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					handleKey(key);
+				}
+			} catch (Exception e) {
+				log.error("++++ error happened in multiplexer", e);
+			}
+		}
+
+		// close all connections when shutting down.
+		List<MultiplexedConnection> conns = new ArrayList<MultiplexedConnection>();
+		for (SelectionKey key : selector.keys())
+			conns.add((MultiplexedConnection) key.attachment());
+		for (MultiplexedConnection conn : conns)
+			conn.close();
+		try {
+			selector.close();
+		} catch (IOException e) {
+			log.error("++++ failed to close selector", e);
+		}
+	}
+
+	private void handleKey(SelectionKey key) {
+		MultiplexedConnection conn = (MultiplexedConnection) key.attachment();
+		try {
+			if (key.isValid() && key.isWritable()) {
+				conn.onWritable();
+				conn.register(selector);
+			}
+			if (key.isValid() && key.isReadable())
+				conn.onReadable(key, readBuf);
+		} catch (CancelledKeyException e) {
+			// the connection has been closed by another thread.
+		} catch (IOException e) {
+			conn.fail(e);
+		}
+	}
+
+	/**
+	 * stop the multiplexer thread and close all the connections.
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+}
@@ -0,0 +1,23 @@
+package com.schooner.MemCached;
+
+/**
+ * {@link Mutation} computes the new value of an item in a read-modify-write
+ * update, see
+ * {@link com.whalin.MemCached.MemCachedClient#update(String, Mutation, int, java.util.Date)}.<br>
+ * <br>
+ * The update applies the mutation again whenever another client changes the
+ * item in between, so it must be free of side effects and must not modify
+ * the value passed in.
+ *
+ * @since 3.1.0
+ */
+public interface Mutation {
+	/**
+	 * compute the new value from the current one.
+	 *
+	 * @param value
+	 *            current value of the item, or null if it is not found.
+	 * @return new value to store, or null to leave the item as it is.
+	 */
+	Object apply(Object value);
+}
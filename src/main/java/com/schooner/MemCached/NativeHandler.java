@@ -93,6 +93,9 @@ import com.whalin.MemCached.MemCachedClient;
  */
 public class NativeHandler {
 
+	// longest decimal of an unsigned 64-bit counter.
+	public static final int COUNTER_LENGTH = 20;
+
 	/**
 	 * Detemine of object can be natively serialized by this class.
 	 * 
@@ -126,6 +129,27 @@ public class NativeHandler {
 		return false;
 	}
 
+	/**
+	 * A counter created by the server, by an incr with an initial value, has
+	 * no flags, as the command carries none. It is told from a serialized
+	 * object by its digits, and read as the string add stores. The clients
+	 * ask only for as-string reads or with the default transcoder, whose
+	 * streams never start with a digit.
+	 * 
+	 * @param b
+	 *            value without flags
+	 * @return true if the value is a counter
+	 */
+	public static final boolean isCounter(byte[] b) {
+		if (b.length == 0 || b.length > COUNTER_LENGTH)
+			return false;
+		for (byte c : b) {
+			if (c < '0' || c > '9')
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Returns the flag for marking the type of the byte array.
 	 * 
@@ -0,0 +1,175 @@
+package com.schooner.MemCached;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The pending result of an asynchronous operation, see
+ * {@link com.whalin.MemCached.MemCachedClient#getAsync(String)}.<br>
+ * <br>
+ * The future is completed by the selector thread when the response arrives,
+ * or failed when the operation times out or the connection breaks. Instead of
+ * blocking in {@link #get()}, the caller can register listeners which are
+ * run when the future is done. The listeners run on the thread completing the
+ * future, usually the selector thread, so they must be quick and must never
+ * block.
+ *
+ * @since 3.1.0
+ * @see AsyncDispatcher
+ */
+public class OperationFuture<T> implements Future<T> {
+
+	// logger
+	private static Logger log = LoggerFactory.getLogger(OperationFuture.class);
+
+	private T value;
+	private Throwable error;
+	private boolean done;
+	private boolean cancelled;
+	private List<Runnable> listeners;
+
+	/**
+	 * run the listener when the future is done, or right away in the calling
+	 * thread if it is done already.
+	 *
+	 * @param listener
+	 *            listener to run, must not block
+	 */
+	public void addListener(Runnable listener) {
+		synchronized (this) {
+			if (!done) {
+				if (listeners == null)
+					listeners = new ArrayList<Runnable>(2);
+				listeners.add(listener);
+				return;
+			}
+		}
+		run(listener);
+	}
+
+	/**
+	 * complete the future with the result of the operation.
+	 *
+	 * @return false if the future is done already.
+	 */
+	boolean complete(T value) {
+		synchronized (this) {
+			if (done)
+				return false;
+			this.value = value;
+			done = true;
+			notifyAll();
+		}
+		fireListeners();
+		return true;
+	}
+
+	/**
+	 * fail the future with the cause.
+	 *
+	 * @return false if the future is done already.
+	 */
+	boolean fail(Throwable cause) {
+		synchronized (this) {
+			if (done)
+				return false;
+			error = cause;
+			done = true;
+			notifyAll();
+		}
+		fireListeners();
+		return true;
+	}
+
+	/**
+	 * cancel the operation, its response is dropped when it arrives.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (done)
+				return false;
+			cancelled = true;
+			done = true;
+			notifyAll();
+		}
+		fireListeners();
+		return true;
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return the cause of the failure, or null if the future is not done or
+	 *         succeeded.
+	 */
+	public synchronized Throwable getCause() {
+		return error;
+	}
+
+	/**
+	 * @return the result if the future is completed, or null.
+	 */
+	public synchronized T getNow() {
+		return value;
+	}
+
+	public synchronized T get() throws InterruptedException, ExecutionException {
+		while (!done)
+			wait();
+		return result();
+	}
+
+	public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+			TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			long left = deadline - System.nanoTime();
+			if (left <= 0)
+				throw new TimeoutException();
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		return result();
+	}
+
+	private T result() throws ExecutionException {
+		if (cancelled)
+			throw new CancellationException();
+		if (error != null)
+			throw new ExecutionException(error);
+		return value;
+	}
+
+	private void fireListeners() {
+		List<Runnable> l;
+		synchronized (this) {
+			l = listeners;
+			listeners = null;
+		}
+		if (l == null)
+			return;
+		for (Runnable listener : l)
+			run(listener);
+	}
+
+	private static void run(Runnable listener) {
+		try {
+			listener.run();
+		} catch (RuntimeException e) {
+			log.error("++++ exception thrown by listener of async operation", e);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.schooner.MemCached;
+
+import java.nio.ByteBuffer;
+
+import com.whalin.MemCached.MemCachedClient;
+
+/**
+ * RawItem holds an item as it is stored in memcached: the flags, the cas
+ * unique and the value bytes, which are neither decompressed nor decoded.<br>
+ * <br>
+ * The value is a buffer positioned at the first byte of the value and limited
+ * at its end. If the item was read into a buffer supplied by the caller, the
+ * value is a slice of that buffer and the position of the caller's buffer is
+ * moved past the value.
+ *
+ * @since 3.1.0
+ * @see MemcachedItem
+ * @see MemCachedClient#getRaw(String, ByteBuffer)
+ */
+public final class RawItem {
+	public int flags;
+	public long casUnique;
+	public int length;
+	public ByteBuffer value;
+
+	public RawItem(int flags, long casUnique, int length, ByteBuffer value) {
+		this.flags = flags;
+		this.casUnique = casUnique;
+		this.length = length;
+		this.value = value;
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public long getCasUnique() {
+		return casUnique;
+	}
+
+	/**
+	 * @return bytes of the value as stored.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the value, or null if it didn't fit into the buffer supplied by
+	 *         the caller, {@link #getLength()} tells the size needed.
+	 */
+	public ByteBuffer getValue() {
+		return value;
+	}
+
+	/**
+	 * @return true if the value is compressed with GZIP.
+	 */
+	public boolean isCompressed() {
+		return (flags & MemCachedClient.F_COMPRESSED) == MemCachedClient.F_COMPRESSED;
+	}
+}
@@ -0,0 +1,239 @@
+package com.schooner.MemCached;
+
+import java.nio.ByteBuffer;
+
+import com.whalin.MemCached.MemCachedClient;
+
+/**
+ * Writes the parts of memcached requests straight into the write buffer of a
+ * socket: command verbs, keys, decimal numbers and UTF-8 strings for the ascii
+ * protocol, and request headers for the binary protocol. Nothing is encoded
+ * into an intermediate String or byte array.<br>
+ * <br>
+ * The caller makes sure the buffer has room, see
+ * {@link SchoonerSockIO#ensureWriteCapacity(int)}.
+ *
+ * @since 3.1.0
+ * @see AscIIClient
+ * @see BinaryClient
+ */
+public final class RequestEncoder {
+
+	public static final byte SPACE = ' ';
+	public static final byte CR = '\r';
+	public static final byte LF = '\n';
+
+	// binary request header size.
+	public static final int HEADER_LENGTH = 24;
+	// offset of the total body length in binary request header.
+	public static final int BODY_LENGTH_OFFSET = 8;
+
+	private RequestEncoder() {
+	}
+
+	/**
+	 * put a string of ascii characters, like a command verb or a sanitized
+	 * key. Other characters are encoded as UTF-8.
+	 *
+	 * @param buf
+	 *            buffer to write to
+	 * @param s
+	 *            string to write
+	 * @return number of bytes written
+	 */
+	public static int putAscii(ByteBuffer buf, String s) {
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				// not ascii, write the rest as UTF-8.
+				return i + putUtf8(buf, s, i, len);
+			}
+			buf.put((byte) c);
+		}
+		return len;
+	}
+
+	/**
+	 * put a string as UTF-8.
+	 *
+	 * @param buf
+	 *            buffer to write to
+	 * @param s
+	 *            string to write
+	 * @return number of bytes written
+	 */
+	public static int putUtf8(ByteBuffer buf, CharSequence s) {
+		return putUtf8(buf, s, 0, s.length());
+	}
+
+	private static int putUtf8(ByteBuffer buf, CharSequence s, int start, int end) {
+		int begin = buf.position();
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				buf.put((byte) c);
+			} else if (c < 0x800) {
+				buf.put((byte) (0xc0 | (c >> 6)));
+				buf.put((byte) (0x80 | (c & 0x3f)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				buf.put((byte) (0xf0 | (cp >> 18)));
+				buf.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+				buf.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+				buf.put((byte) (0x80 | (cp & 0x3f)));
+			} else if (isSurrogate(c)) {
+				// unpaired surrogate, same as String.getBytes("UTF-8").
+				buf.put((byte) '?');
+			} else {
+				buf.put((byte) (0xe0 | (c >> 12)));
+				buf.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+				buf.put((byte) (0x80 | (c & 0x3f)));
+			}
+		}
+		return buf.position() - begin;
+	}
+
+	/**
+	 * @param s
+	 *            string to measure
+	 * @return number of bytes of the string in UTF-8.
+	 */
+	public static int utf8Length(CharSequence s) {
+		int len = s.length();
+		int n = len;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80)
+				continue;
+			if (c < 0x800) {
+				n++;
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				// 4 bytes for 2 chars.
+				n += 2;
+				i++;
+			} else if (!isSurrogate(c)) {
+				n += 2;
+			}
+		}
+		return n;
+	}
+
+	private static boolean isSurrogate(char c) {
+		return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+	}
+
+	/**
+	 * put a number in decimal ascii.
+	 *
+	 * @param buf
+	 *            buffer to write to
+	 * @param n
+	 *            number to write
+	 */
+	public static void putDecimal(ByteBuffer buf, long n) {
+		int len = decimalLength(n);
+		putDecimal(buf, buf.position(), n, len);
+		buf.position(buf.position() + len);
+	}
+
+	/**
+	 * put a number in decimal ascii at the specified index, without changing
+	 * the position of the buffer, e.g. to fill the length of a value which is
+	 * known after the value is written.
+	 *
+	 * @param buf
+	 *            buffer to write to
+	 * @param index
+	 *            where the number begins
+	 * @param n
+	 *            number to write
+	 * @return number of bytes written
+	 */
+	public static int putDecimal(ByteBuffer buf, int index, long n) {
+		int len = decimalLength(n);
+		putDecimal(buf, index, n, len);
+		return len;
+	}
+
+	private static void putDecimal(ByteBuffer buf, int index, long n, int len) {
+		if (n == Long.MIN_VALUE) {
+			buf.put(index, (byte) '-');
+			putDecimal(buf, index + 1, -(n / 10), len - 2);
+			buf.put(index + len - 1, (byte) ('0' + (-(n % 10))));
+			return;
+		}
+		if (n < 0) {
+			buf.put(index++, (byte) '-');
+			n = -n;
+			len--;
+		}
+		for (int i = index + len - 1; i >= index; i--) {
+			buf.put(i, (byte) ('0' + (n % 10)));
+			n /= 10;
+		}
+	}
+
+	/**
+	 * @param n
+	 *            number to measure
+	 * @return number of bytes of the number in decimal ascii.
+	 */
+	public static int decimalLength(long n) {
+		if (n == Long.MIN_VALUE)
+			return 20;
+		int len = 1;
+		if (n < 0) {
+			len++;
+			n = -n;
+		}
+		while (n >= 10) {
+			n /= 10;
+			len++;
+		}
+		return len;
+	}
+
+	/**
+	 * put "\r\n".
+	 *
+	 * @param buf
+	 *            buffer to write to
+	 */
+	public static void putReturn(ByteBuffer buf) {
+		buf.put(CR);
+		buf.put(LF);
+	}
+
+	/**
+	 * put the header of a binary request.
+	 *
+	 * @param buf
+	 *            buffer to write to
+	 * @param opcode
+	 *            command
+	 * @param keyLength
+	 *            bytes of the key
+	 * @param extrasLength
+	 *            bytes of the extras
+	 * @param bodyLength
+	 *            bytes of extras, key and value, it can be fixed later at
+	 *            {@link #BODY_LENGTH_OFFSET} if the value size is unknown
+	 * @param cas
+	 *            cas unique, 0 if not used
+	 */
+	public static void putHeader(ByteBuffer buf, byte opcode, int keyLength, int extrasLength, int bodyLength,
+			long cas) {
+		buf.put(MemCachedClient.MAGIC_REQ);
+		buf.put(opcode);
+		buf.putShort((short) keyLength);
+		buf.put((byte) extrasLength);
+		// data type and vbucket id
+		buf.put((byte) 0);
+		buf.putShort((short) 0);
+		buf.putInt(bodyLength);
+		// opaque
+		buf.putInt(0);
+		buf.putLong(cas);
+	}
+}
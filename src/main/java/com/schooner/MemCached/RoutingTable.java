@@ -0,0 +1,436 @@
+package com.schooner.MemCached;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * The immutable routing of keys to the servers of a pool, built when the pool
+ * is initialized.<br>
+ * <br>
+ * The keys are hashed to slots: the buckets of the modulo and jump hashings,
+ * or the points of a consistent hash ring in ring order, kept as a sorted
+ * array of points searched by binary search. Each slot knows its host
+ * and the next slot of another host, so the failover order of a slot is the
+ * ring order of the hosts after it. Routing a key allocates nothing, and a
+ * dead host only makes the lookup follow a few precomputed links.
+ *
+ * @since 3.1.0
+ * @see SchoonerSockIOPool#routeKey(String, Integer)
+ */
+final class RoutingTable {
+
+	/**
+	 * per thread buffers of the key hashings.
+	 */
+	private static final class Scratch {
+		final MessageDigest md5;
+		final CRC32 crc32 = new CRC32();
+		final byte[] digest = new byte[16];
+		byte[] bytes = new byte[256];
+
+		Scratch() {
+			try {
+				md5 = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("++++ no md5 algorythm found");
+			}
+		}
+
+		/**
+		 * @return the number of UTF-8 bytes of the string put into bytes.
+		 */
+		int encode(String s) {
+			int len = s.length();
+			if (bytes.length < len * 3)
+				bytes = new byte[len * 3];
+			int n = 0;
+			for (int i = 0; i < len; i++) {
+				char c = s.charAt(i);
+				if (c < 0x80) {
+					bytes[n++] = (byte) c;
+				} else if (c < 0x800) {
+					bytes[n++] = (byte) (0xc0 | (c >> 6));
+					bytes[n++] = (byte) (0x80 | (c & 0x3f));
+				} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, s.charAt(++i));
+					bytes[n++] = (byte) (0xf0 | (cp >> 18));
+					bytes[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+					bytes[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+					bytes[n++] = (byte) (0x80 | (cp & 0x3f));
+				} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+					// unpaired surrogate, as String.getBytes encodes it.
+					bytes[n++] = (byte) '?';
+				} else {
+					bytes[n++] = (byte) (0xe0 | (c >> 12));
+					bytes[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+					bytes[n++] = (byte) (0x80 | (c & 0x3f));
+				}
+			}
+			return n;
+		}
+	}
+
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	private final int hashingAlg;
+	private final String[] hosts;
+
+	// host index of each slot, and the next slot of another host.
+	private final int[] slotHosts;
+	private final int[] nextSlots;
+
+	// sorted points of the consistent hash ring, the slot of a point is its
+	// index.
+	private final long[] points;
+
+	/**
+	 * @param servers
+	 *            host:port of the servers
+	 * @param weights
+	 *            weights of the servers, or null
+	 * @param hashingAlg
+	 *            hashing algorithm of the pool, the native hash if unknown
+	 */
+	RoutingTable(String[] servers, Integer[] weights, int hashingAlg) {
+		if (hashingAlg < SchoonerSockIOPool.NATIVE_HASH || hashingAlg > SchoonerSockIOPool.JUMP_HASH)
+			hashingAlg = SchoonerSockIOPool.NATIVE_HASH;
+		this.hashingAlg = hashingAlg;
+		this.hosts = servers.clone();
+
+		if (isRing(hashingAlg)) {
+			TreeMap<Long, Integer> ring = populateConsistentBuckets(servers, weights, hashingAlg);
+			points = new long[ring.size()];
+			slotHosts = new int[ring.size()];
+			int slot = 0;
+			for (Map.Entry<Long, Integer> point : ring.entrySet()) {
+				points[slot] = point.getKey();
+				slotHosts[slot++] = point.getValue();
+			}
+		} else {
+			points = null;
+			List<Integer> buckets = new ArrayList<Integer>();
+			for (int i = 0; i < servers.length; i++) {
+				int weight = weightOf(weights, i);
+				for (int k = 0; k < weight; k++)
+					buckets.add(i);
+			}
+			slotHosts = new int[buckets.size()];
+			for (int i = 0; i < slotHosts.length; i++)
+				slotHosts[i] = buckets.get(i);
+		}
+		nextSlots = linkSlots(slotHosts);
+	}
+
+	private static boolean isRing(int hashingAlg) {
+		return hashingAlg == SchoonerSockIOPool.CONSISTENT_HASH || hashingAlg == SchoonerSockIOPool.KETAMA_HASH
+				|| hashingAlg == SchoonerSockIOPool.MURMUR3_HASH;
+	}
+
+	private static int weightOf(Integer[] weights, int i) {
+		return (weights != null && weights.length > i && weights[i] != null) ? weights[i].intValue() : 1;
+	}
+
+	/**
+	 * @return host index of each point of the consistent hash ring, 160 points
+	 *         per server of average weight.
+	 */
+	private static TreeMap<Long, Integer> populateConsistentBuckets(String[] servers, Integer[] weights,
+			int hashingAlg) {
+		TreeMap<Long, Integer> points = new TreeMap<Long, Integer>();
+
+		int totalWeight = 0;
+		for (int i = 0; i < servers.length; i++)
+			totalWeight += weightOf(weights, i);
+
+		MessageDigest md5 = SCRATCH.get().md5;
+		for (int i = 0; i < servers.length; i++) {
+			double factor;
+			if (hashingAlg == SchoonerSockIOPool.KETAMA_HASH) {
+				// rounded as libmemcached does.
+				double pct = (double) weightOf(weights, i) / (double) totalWeight;
+				factor = Math.floor(pct * 40 * servers.length + 0.0000000001);
+			} else {
+				factor = Math.floor(((double) (40 * servers.length * weightOf(weights, i))) / (double) totalWeight);
+			}
+
+			for (long j = 0; j < factor; j++) {
+				if (hashingAlg == SchoonerSockIOPool.MURMUR3_HASH) {
+					// a point per hash, 4 per step as many as the md5 rings.
+					for (int h = 0; h < 4; h++)
+						points.put(murmur3HashingAlg("SHARD-" + i + "-NODE-" + (j * 4 + h)), i);
+					continue;
+				}
+
+				byte[] d;
+				if (hashingAlg == SchoonerSockIOPool.KETAMA_HASH) {
+					d = md5.digest(ketamaLabel(servers[i], j).getBytes());
+				} else {
+					// the position of the server in the list is more stable
+					// than its host:port, as long as the order of the list is
+					// kept.
+					d = md5.digest(("SHARD-" + i + "-NODE-" + j).getBytes());
+				}
+
+				for (int h = 0; h < 4; h++) {
+					long k = ((long) (d[3 + h * 4] & 0xFF) << 24) | ((long) (d[2 + h * 4] & 0xFF) << 16)
+							| ((long) (d[1 + h * 4] & 0xFF) << 8) | ((long) (d[0 + h * 4] & 0xFF));
+
+					points.put(k, i);
+				}
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * The label of a ketama point of libmemcached, also the libmemcached key
+	 * format of spymemcached: host:port-index, without the port if it is the
+	 * default one.
+	 */
+	static String ketamaLabel(String server, long index) {
+		String host = server;
+		if (server.endsWith(":11211"))
+			host = server.substring(0, server.length() - ":11211".length());
+		return host + "-" + index;
+	}
+
+	/**
+	 * @return for each slot, the next slot in ring order held by another host,
+	 *         or -1 if all the slots are of one host.
+	 */
+	private static int[] linkSlots(int[] slotHosts) {
+		int n = slotHosts.length;
+		int[] next = new int[n];
+		if (n == 0)
+			return next;
+
+		// the first slot after the last one is of another host, then walk
+		// backwards carrying it over the slots of the same host.
+		int last = n - 1;
+		int other = -1;
+		for (int i = 0; i < n; i++) {
+			if (slotHosts[i] != slotHosts[last]) {
+				other = i;
+				break;
+			}
+		}
+		for (int i = last; i >= 0; i--) {
+			int succ = (i + 1) % n;
+			if (slotHosts[succ] != slotHosts[i])
+				other = succ;
+			next[i] = other;
+		}
+		return next;
+	}
+
+	/**
+	 * @return number of servers.
+	 */
+	int getHostCount() {
+		return hosts.length;
+	}
+
+	/**
+	 * @return number of slots, the longest failover walk.
+	 */
+	int getSlotCount() {
+		return slotHosts.length;
+	}
+
+	String getHost(int hostIndex) {
+		return hosts[hostIndex];
+	}
+
+	int getHostIndex(int slot) {
+		return slotHosts[slot];
+	}
+
+	/**
+	 * @return the next slot of another host, -1 if there is no other host.
+	 */
+	int nextSlot(int slot) {
+		return nextSlots[slot];
+	}
+
+	/**
+	 * @return slot of the key, -1 if there are no servers.
+	 */
+	int getSlot(String key, Integer hashCode) {
+		if (slotHosts.length == 0)
+			return -1;
+
+		long hc = getHash(key, hashCode);
+		if (points != null)
+			return findPointFor(hc);
+		if (hashingAlg == SchoonerSockIOPool.JUMP_HASH)
+			return jumpConsistentHash(hc, slotHosts.length);
+
+		long bucket = hc % slotHosts.length;
+		if (bucket < 0)
+			bucket *= -1;
+		return (int) bucket;
+	}
+
+	/**
+	 * Gets the slot of the first point equal or above the hash, or of the
+	 * first point of the ring if none found.
+	 */
+	private int findPointFor(long hv) {
+		int i = Arrays.binarySearch(points, hv);
+		if (i >= 0)
+			return i;
+
+		// not a point, the insertion point is the first point above
+		i = -i - 1;
+		return i == points.length ? 0 : i;
+	}
+
+	private long getHash(String key, Integer hashCode) {
+		if (hashCode != null) {
+			if (isRing(hashingAlg))
+				return hashCode.longValue() & 0xffffffffL;
+			else
+				return hashCode.longValue();
+		}
+
+		switch (hashingAlg) {
+		case SchoonerSockIOPool.OLD_COMPAT_HASH:
+			return origCompatHashingAlg(key);
+		case SchoonerSockIOPool.NEW_COMPAT_HASH:
+			return newCompatHashingAlg(key);
+		case SchoonerSockIOPool.CONSISTENT_HASH:
+		case SchoonerSockIOPool.KETAMA_HASH:
+			return md5HashingAlg(key);
+		case SchoonerSockIOPool.MURMUR3_HASH:
+		case SchoonerSockIOPool.JUMP_HASH:
+			return murmur3HashingAlg(key);
+		default:
+			return (long) key.hashCode();
+		}
+	}
+
+	/**
+	 * This is the original hashing algorithm from other clients. Found to be
+	 * slow and have poor distribution.
+	 */
+	static long origCompatHashingAlg(String key) {
+		long hash = 0;
+		for (int i = 0; i < key.length(); ++i) {
+			hash = (hash * 33) + key.charAt(i);
+		}
+
+		return hash;
+	}
+
+	/**
+	 * This is the new hashing algorithm from other clients, the CRC32 of the
+	 * UTF-8 bytes of the key.
+	 */
+	static long newCompatHashingAlg(String key) {
+		Scratch scratch = SCRATCH.get();
+		int len = scratch.encode(key);
+		CRC32 checksum = scratch.crc32;
+		checksum.reset();
+		checksum.update(scratch.bytes, 0, len);
+		long crc = checksum.getValue();
+		return (crc >> 16) & 0x7fff;
+	}
+
+	/**
+	 * MD5 based hash algorithm for use in the consistent hashing approach, of
+	 * the UTF-8 bytes of the key.
+	 */
+	static long md5HashingAlg(String key) {
+		Scratch scratch = SCRATCH.get();
+		int len = scratch.encode(key);
+		MessageDigest md5 = scratch.md5;
+		md5.reset();
+		md5.update(scratch.bytes, 0, len);
+		byte[] bKey = scratch.digest;
+		try {
+			md5.digest(bKey, 0, bKey.length);
+		} catch (DigestException e) {
+			throw new IllegalStateException("++++ md5 digest failed: " + e.getMessage());
+		}
+		long res = ((long) (bKey[3] & 0xFF) << 24) | ((long) (bKey[2] & 0xFF) << 16) | ((long) (bKey[1] & 0xFF) << 8)
+				| (long) (bKey[0] & 0xFF);
+		return res;
+	}
+
+	/**
+	 * MurmurHash3 x86 32 bit with seed 0, of the UTF-8 bytes of the key.
+	 */
+	static long murmur3HashingAlg(String key) {
+		Scratch scratch = SCRATCH.get();
+		int len = scratch.encode(key);
+		return murmur3(scratch.bytes, len) & 0xffffffffL;
+	}
+
+	static int murmur3(byte[] data, int len) {
+		final int c1 = 0xcc9e2d51;
+		final int c2 = 0x1b873593;
+		int h1 = 0;
+
+		int tail = len & ~3;
+		for (int i = 0; i < tail; i += 4) {
+			int k1 = (data[i] & 0xff) | ((data[i + 1] & 0xff) << 8) | ((data[i + 2] & 0xff) << 16) | (data[i + 3] << 24);
+			k1 *= c1;
+			k1 = Integer.rotateLeft(k1, 15);
+			k1 *= c2;
+			h1 ^= k1;
+			h1 = Integer.rotateLeft(h1, 13);
+			h1 = h1 * 5 + 0xe6546b64;
+		}
+
+		// the 1 to 3 bytes left, as the cases falling through in the
+		// reference.
+		int rest = len & 3;
+		if (rest > 0) {
+			int k1 = 0;
+			if (rest == 3)
+				k1 ^= (data[tail + 2] & 0xff) << 16;
+			if (rest >= 2)
+				k1 ^= (data[tail + 1] & 0xff) << 8;
+			k1 ^= data[tail] & 0xff;
+			k1 *= c1;
+			k1 = Integer.rotateLeft(k1, 15);
+			k1 *= c2;
+			h1 ^= k1;
+		}
+
+		h1 ^= len;
+		h1 ^= h1 >>> 16;
+		h1 *= 0x85ebca6b;
+		h1 ^= h1 >>> 13;
+		h1 *= 0xc2b2ae35;
+		h1 ^= h1 >>> 16;
+		return h1;
+	}
+
+	/**
+	 * Jump consistent hash of Lamping and Veach: when the number of buckets
+	 * grows by one, a key either stays or moves to the new bucket.
+	 */
+	static int jumpConsistentHash(long key, int buckets) {
+		long b = -1;
+		long j = 0;
+		while (j < buckets) {
+			b = j;
+			key = key * 2862933555777941757L + 1;
+			j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+		}
+		return (int) b;
+	}
+}
@@ -28,12 +28,16 @@
  ******************************************************************************/
 package com.schooner.MemCached;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
-import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.commons.pool.ObjectPool;
 
 import com.whalin.MemCached.SockIOPool;
 
@@ -47,20 +51,41 @@ import com.whalin.MemCached.SockIOPool;
  */
 public abstract class SchoonerSockIO extends SockIOPool.SockIO {
 
-	protected GenericObjectPool sockets;
+	protected ObjectPool sockets;
 
-	public SchoonerSockIO(GenericObjectPool sockets, int bufferSize) throws UnknownHostException, IOException {
+	public SchoonerSockIO(ObjectPool sockets, int bufferSize) throws UnknownHostException, IOException {
 		super(null, null, 0, 0, false);
 		this.sockets = sockets;
 		this.bufferSize = bufferSize;
 	}
 
+	/**
+	 * values at least this large are sent with gathering writes after the
+	 * request header instead of copied into writeBuf.
+	 */
+	public static final int GATHER_THRESHOLD = ByteBufferPool.MIN_BUFFER_SIZE;
+
 	private int bufferSize = 1024 * 1025;
 
+	// shared buffers, each socket allocates its own if not set.
+	private ByteBufferPool bufferPool;
+
 	// the datagram sent from memcached mustn't beyond 1400 bytes.
-	public ByteBuffer readBuf = ByteBuffer.allocateDirect(8 * 1024);
+	public ByteBuffer readBuf;
 	public ByteBuffer writeBuf;
 
+	// parses the ascii responses, created on first use.
+	private AscIIResponseParser parser;
+
+	// reads the responses, created on first use.
+	private SockInputStream input;
+
+	// ms the current operation may wait for the server, 0 for the default.
+	private long operationTimeout;
+
+	// noreply commands written since the last response was read.
+	private int noreplyCount;
+
 	public abstract short preWrite();
 
 	public abstract byte[] getResponse(short rid) throws IOException;
@@ -72,9 +97,212 @@ public abstract class SchoonerSockIO extends SockIOPool.SockIO {
 	 */
 	public abstract ByteChannel getByteChannel();
 
+	/**
+	 * read the bytes sent from server into the buffer, it will be blocked until
+	 * some bytes arrive or the socket read times out.
+	 * 
+	 * @param buf
+	 *            buffer to fill
+	 * @return number of bytes read, or -1 if end of stream
+	 * @throws IOException
+	 *             error happened in reading.
+	 */
+	public int read(ByteBuffer buf) throws IOException {
+		return Channels.newChannel(getChannel().socket().getInputStream()).read(buf);
+	}
+
+	/**
+	 * set how long the current operation may wait for the server, it is reset
+	 * when the socket is returned to the pool.
+	 *
+	 * @param timeout
+	 *            ms to wait, or 0 to use the socket timeout of the pool
+	 */
+	public void setOperationTimeout(long timeout) {
+		this.operationTimeout = timeout;
+	}
+
+	public long getOperationTimeout() {
+		return operationTimeout;
+	}
+
+	/**
+	 * count a noreply command written on this socket, the count is kept when
+	 * the socket is returned to the pool.
+	 * 
+	 * @return noreply commands written since the last sync point
+	 */
+	public int noreplyWritten() {
+		return ++noreplyCount;
+	}
+
+	public int getNoreplyCount() {
+		return noreplyCount;
+	}
+
+	public void resetNoreplyCount() {
+		noreplyCount = 0;
+	}
+
 	public void setBufferSize(int bufferSize) {
 		this.bufferSize = bufferSize;
-		writeBuf = ByteBuffer.allocateDirect(this.bufferSize);
+		if (bufferPool == null)
+			writeBuf = ByteBuffer.allocateDirect(this.bufferSize);
+	}
+
+	public void setBufferPool(ByteBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * get the read and write buffers ready, they are borrowed from the shared
+	 * buffer pool if there is one.
+	 */
+	public void attachBuffers() {
+		if (bufferPool == null) {
+			if (readBuf == null)
+				readBuf = ByteBuffer.allocateDirect(8 * 1024);
+			if (writeBuf == null)
+				writeBuf = ByteBuffer.allocateDirect(bufferSize);
+			return;
+		}
+
+		if (readBuf == null)
+			readBuf = bufferPool.borrow(ByteBufferPool.MIN_BUFFER_SIZE);
+		if (writeBuf == null)
+			writeBuf = bufferPool.borrow(ByteBufferPool.MIN_BUFFER_SIZE);
+	}
+
+	/**
+	 * give the buffers back to the shared buffer pool, the socket must not be
+	 * used until {@link #attachBuffers()} is called again.
+	 */
+	public void releaseBuffers() {
+		if (bufferPool == null)
+			return;
+
+		bufferPool.release(readBuf);
+		readBuf = null;
+		bufferPool.release(writeBuf);
+		writeBuf = null;
+	}
+
+	/**
+	 * make sure there is room for more bytes in writeBuf, it is changed to a
+	 * bigger buffer keeping the bytes written, up to the buffer size.
+	 * 
+	 * @param length
+	 *            bytes to write
+	 * @return false if the buffer can't grow that much.
+	 */
+	public boolean ensureWriteCapacity(int length) {
+		if (writeBuf.remaining() >= length)
+			return true;
+		if (bufferPool == null || writeBuf.capacity() >= bufferSize)
+			return false;
+
+		int size = Math.min(Math.max(writeBuf.position() + length, writeBuf.capacity() * 2), bufferSize);
+		ByteBuffer buf = bufferPool.borrow(size);
+		writeBuf.flip();
+		buf.put(writeBuf);
+		bufferPool.release(writeBuf);
+		writeBuf = buf;
+		return writeBuf.remaining() >= length;
+	}
+
+	/**
+	 * writes the bytes in writeBuf followed by the buffers, the buffers are
+	 * written as they are without being copied into writeBuf.
+	 * 
+	 * @param tail
+	 *            buffers to write after writeBuf
+	 * @throws IOException
+	 *             if an io error happens
+	 */
+	public void flush(ByteBuffer[] tail) throws IOException {
+		ByteChannel channel = getByteChannel();
+		writeBuf.flip();
+		while (writeBuf.hasRemaining())
+			channel.write(writeBuf);
+		for (ByteBuffer b : tail) {
+			while (b.hasRemaining())
+				channel.write(b);
+		}
+	}
+
+	/**
+	 * writes the bytes in writeBuf followed by a region of the file and the
+	 * tail, the file region is transferred to the socket channel without
+	 * being read into the heap.
+	 *
+	 * @param src
+	 *            file to send bytes from
+	 * @param position
+	 *            position in the file of the first byte to send
+	 * @param count
+	 *            bytes to send from the file
+	 * @param tail
+	 *            buffer to write after the file region, or null
+	 * @throws IOException
+	 *             if an io error happens, or the file ends before the region
+	 */
+	public void flush(FileChannel src, long position, long count, ByteBuffer tail) throws IOException {
+		flush(new ByteBuffer[0]);
+		ByteChannel channel = getByteChannel();
+		long end = position + count;
+		while (position < end) {
+			long n = src.transferTo(position, end - position, channel);
+			if (n <= 0 && position >= src.size())
+				throw new EOFException("++++ file ends before " + count + " bytes are sent");
+			position += n;
+		}
+		if (tail != null) {
+			while (tail.hasRemaining())
+				channel.write(tail);
+		}
+	}
+
+	/**
+	 * get the input stream of this socket, reset to read a new response. The
+	 * stream is the same for every response, like the parser.
+	 * 
+	 * @return the stream
+	 * @throws IOException
+	 *             error happened in reading.
+	 */
+	public SockInputStream getSockInputStream() throws IOException {
+		if (input == null)
+			input = new SockInputStream(this, Integer.MAX_VALUE);
+		else
+			input.reset(Integer.MAX_VALUE);
+		return input;
+	}
+
+	/**
+	 * get the response parser of this socket, reset to read from the stream.
+	 * 
+	 * @param in
+	 *            stream of the response, usually a {@link SockInputStream}
+	 * @return the parser
+	 */
+	public AscIIResponseParser getResponseParser(InputStream in) {
+		if (parser == null)
+			parser = new AscIIResponseParser();
+		return parser.reset(in);
+	}
+
+	/**
+	 * get the response parser of this socket, reset to read from a response
+	 * received as a whole.
+	 * 
+	 * @param response
+	 *            bytes of the response
+	 * @return the parser
+	 */
+	public AscIIResponseParser getResponseParser(byte[] response) {
+		if (parser == null)
+			parser = new AscIIResponseParser();
+		return parser.reset(response);
 	}
 
 	public int getBufferSize() {
@@ -1,7 +1,7 @@
 package com.schooner.MemCached;
 
 import org.apache.commons.pool.BasePoolableObjectFactory;
-import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.commons.pool.ObjectPool;
 
 import com.schooner.MemCached.SchoonerSockIOPool.TCPSockIO;
 import com.schooner.MemCached.SchoonerSockIOPool.UDPSockIO;
@@ -16,7 +16,7 @@ import com.schooner.MemCached.SchoonerSockIOPool.UDPSockIO;
  */
 public class SchoonerSockIOFactory extends BasePoolableObjectFactory {
 
-	protected GenericObjectPool sockets;
+	protected ObjectPool sockets;
 
 	protected String host;
 
@@ -30,6 +30,8 @@ public class SchoonerSockIOFactory extends BasePoolableObjectFactory {
 
 	protected boolean nagle;
 
+	protected ByteBufferPool bufferPool;
+
 	public SchoonerSockIOFactory(String host, boolean isTcp, int bufferSize, int socketTO, int socketConnectTO,
 			boolean nagle) {
 		super();
@@ -50,9 +52,20 @@ public class SchoonerSockIOFactory extends BasePoolableObjectFactory {
 	@Override
 	public void destroyObject(Object obj) throws Exception {
 		super.destroyObject(obj);
+		((SchoonerSockIO) obj).releaseBuffers();
 		((SchoonerSockIO) obj).trueClose();
 	}
 
+	@Override
+	public void activateObject(Object obj) throws Exception {
+		((SchoonerSockIO) obj).attachBuffers();
+	}
+
+	@Override
+	public void passivateObject(Object obj) throws Exception {
+		((SchoonerSockIO) obj).releaseBuffers();
+	}
+
 	@Override
 	public boolean validateObject(Object obj) {
 		return ((SchoonerSockIO) obj).isAlive();
@@ -77,12 +90,18 @@ public class SchoonerSockIOFactory extends BasePoolableObjectFactory {
 		} else {
 			socket = new UDPSockIO(sockets, host, bufferSize, socketTO);
 		}
+		socket.setBufferPool(bufferPool);
+		socket.attachBuffers();
 
 		return socket;
 	}
 
-	public void setSockets(GenericObjectPool sockets) {
+	public void setSockets(ObjectPool sockets) {
 		this.sockets = sockets;
 	}
 
+	public void setBufferPool(ByteBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
 }
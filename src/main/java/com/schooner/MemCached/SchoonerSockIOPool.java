@@ -29,36 +29,33 @@
 package com.schooner.MemCached;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.Channels;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.zip.CRC32;
 
+import org.apache.commons.pool.ObjectPool;
 import org.apache.commons.pool.impl.GenericObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -125,20 +122,6 @@ public class SchoonerSockIOPool {
 	// store instances of pools
 	private static ConcurrentMap<String, SchoonerSockIOPool> pools = new ConcurrentHashMap<String, SchoonerSockIOPool>();
 
-	// avoid recurring construction
-	private static ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
-		@Override
-		protected final MessageDigest initialValue() {
-			try {
-				return MessageDigest.getInstance("MD5");
-			} catch (NoSuchAlgorithmException e) {
-				if (log.isErrorEnabled())
-					log.error("++++ no md5 algorithm found");
-				throw new IllegalStateException("++++ no md5 algorythm found");
-			}
-		}
-	};
-
 	public static final int NATIVE_HASH = 0; // native String.hashCode();
 	public static final int OLD_COMPAT_HASH = 1; // original compatibility
 	// hashing algorithm (works with other clients)
@@ -146,6 +129,11 @@ public class SchoonerSockIOPool {
 	// compatibility hashing algorithm (works with other clients)
 	public static final int CONSISTENT_HASH = 3; // MD5 Based -- Stops
 	// thrashing when a server added or removed
+	public static final int KETAMA_HASH = 4; // MD5 ring of libmemcached and
+	// spymemcached ketama, shares the keyspace with them
+	public static final int MURMUR3_HASH = 5; // murmur3 based consistent ring
+	public static final int JUMP_HASH = 6; // jump consistent hash, for
+	// clusters that only grow or shrink at the end of the server list
 	public static final long MAX_RETRY_DELAY = 10 * 60 * 1000;
 	// max of 10 minute delay for fall off
 
@@ -193,13 +181,12 @@ public class SchoonerSockIOPool {
 	// list of all servers
 	private String[] servers;
 	private Integer[] weights;
-	private Integer totalWeight = 0;
 
-	private List<String> buckets;
-	private TreeMap<Long, String> consistentBuckets;
+	// routing of the keys to the servers, built by initialize.
+	private volatile RoutingTable routing;
 
 	// map to hold all available sockets
-	Map<String, GenericObjectPool> socketPool;
+	Map<String, LockFreeObjectPool> socketPool;
 
 	ConcurrentMap<String, Date> hostDead;
 
@@ -211,6 +198,16 @@ public class SchoonerSockIOPool {
 
 	private int bufferSize = 1024 * 1025;
 
+	private boolean multiplexed = false;
+	private int multiplexedConns = 1;
+	private Multiplexer multiplexer;
+
+	private int asyncThreads = 1;
+	private volatile AsyncDispatcher asyncDispatcher;
+
+	private long maxDirectMemory = 1024 * 1024 * 64;
+	private ByteBufferPool bufferPool;
+
 	protected SchoonerSockIOPool(boolean isTcp) {
 		this.isTcp = isTcp;
 	}
@@ -301,16 +298,28 @@ public class SchoonerSockIOPool {
 				throw new IllegalStateException("++++ trying to initialize with no servers");
 			}
 			// pools
-			socketPool = new HashMap<String, GenericObjectPool>(servers.length);
+			socketPool = new HashMap<String, LockFreeObjectPool>(servers.length);
 			hostDead = new ConcurrentHashMap<String, Date>();
 			hostDeadDur = new ConcurrentHashMap<String, Long>();
+			bufferPool = new ByteBufferPool(bufferSize, maxDirectMemory);
 			// only create up to maxCreate connections at once
 
+			if (multiplexed && isTcp) {
+				try {
+					multiplexer = new Multiplexer("SockIOPool-Multiplexer");
+				} catch (IOException e) {
+					if (log.isErrorEnabled())
+						log.error("++++ failed to start multiplexer", e);
+					throw new IllegalStateException("++++ failed to start multiplexer: " + e.getMessage());
+				}
+			}
+
+			// Create a socket pool for each host
+			for (int i = 0; i < servers.length; i++)
+				socketPool.put(servers[i], createSocketPool(servers[i]));
+
 			// initalize our internal hashing structures
-			if (this.hashingAlg == CONSISTENT_HASH)
-				populateConsistentBuckets();
-			else
-				populateBuckets();
+			routing = new RoutingTable(servers, weights, hashingAlg);
 
 			// mark pool as initialized
 			this.initialized = true;
@@ -325,84 +334,45 @@ public class SchoonerSockIOPool {
 		return isTcp;
 	}
 
-	private void populateBuckets() {
-		// store buckets in tree map
-		buckets = new ArrayList<String>();
-		for (int i = 0; i < servers.length; i++) {
-			if (this.weights != null && this.weights.length > i) {
-				for (int k = 0; k < this.weights[i].intValue(); k++) {
-					buckets.add(servers[i]);
-				}
-			} else {
-				buckets.add(servers[i]);
-			}
-
-			// Create a socket pool for each host
-			// Create an object pool to contain our active connections
-			GenericObjectPool gop;
-			SchoonerSockIOFactory factory;
-			if (authInfo != null) {
-				factory = new AuthSchoonerSockIOFactory(servers[i], isTcp, bufferSize, socketTO, socketConnectTO,
-						nagle, authInfo);
-			} else {
-				factory = new SchoonerSockIOFactory(servers[i], isTcp, bufferSize, socketTO, socketConnectTO, nagle);
-			}
-			gop = new GenericObjectPool(factory, maxConn, GenericObjectPool.WHEN_EXHAUSTED_BLOCK, maxWait, maxIdle,
-					minIdle, testOnBorrow, testOnReturn, timeBetweenEvictionRunsMillis, numTestsPerEvictionRun,
-					minEvictableIdleTimeMillis, testWhileIdle, this.softMinEvictableIdleTimeMillis, this.lifo);
-			factory.setSockets(gop);
-			socketPool.put(servers[i], gop);
-		}
-	}
-
-	private void populateConsistentBuckets() {
-		// store buckets in tree map
-		consistentBuckets = new TreeMap<Long, String>();
-
-		MessageDigest md5 = MD5.get();
-		if (this.totalWeight <= 0 && this.weights != null) {
-			for (int i = 0; i < this.weights.length; i++)
-				this.totalWeight += (this.weights[i] == null) ? 1 : this.weights[i];
-		} else if (this.weights == null) {
-			this.totalWeight = this.servers.length;
-		}
-
-		for (int i = 0; i < servers.length; i++) {
-			int thisWeight = 1;
-			if (this.weights != null && this.weights[i] != null)
-				thisWeight = this.weights[i];
-
-			double factor = Math.floor(((double) (40 * this.servers.length * thisWeight)) / (double) this.totalWeight);
-
-			for (long j = 0; j < factor; j++) {
-				//byte[] d = md5.digest((servers[i] + "-" + j).getBytes());
-				byte[] d = md5.digest(("SHARD-" + i + "-NODE-" + j).getBytes());  //@wjw_add: ڼڵHashֵʱ,÷бλʹ÷"ip:port"Ҫȶ(ֻҪַбĴ򲻱)
-				
-				for (int h = 0; h < 4; h++) {
-					Long k = ((long) (d[3 + h * 4] & 0xFF) << 24) | ((long) (d[2 + h * 4] & 0xFF) << 16)
-							| ((long) (d[1 + h * 4] & 0xFF) << 8) | ((long) (d[0 + h * 4] & 0xFF));
+	/**
+	 * Create an object pool to contain our active connections for the host.
+	 * 
+	 * @param host
+	 *            host:port
+	 * @return the pool
+	 */
+	private LockFreeObjectPool createSocketPool(String host) {
+		SchoonerSockIOFactory factory = createSockIOFactory(host);
 
-					consistentBuckets.put(k, servers[i]);
-				}
-			}
+		// the sockets borrowed are virtual ones sharing a few connections.
+		if (multiplexer != null)
+			factory = new MultiplexedSockIOFactory(factory, multiplexer, multiplexedConns, host, bufferSize, socketTO);
+		factory.setBufferPool(bufferPool);
 
-			// Create a socket pool for each host
-			// Create an object pool to contain our active connections
-			GenericObjectPool gop;
-			SchoonerSockIOFactory factory;
-			if (authInfo != null) {
-				factory = new AuthSchoonerSockIOFactory(servers[i], isTcp, bufferSize, socketTO, socketConnectTO,
-						nagle, authInfo);
-			} else {
-				factory = new SchoonerSockIOFactory(servers[i], isTcp, bufferSize, socketTO, socketConnectTO, nagle);
-			}
+		LockFreeObjectPool gop = new LockFreeObjectPool(factory, maxConn, maxWait, maxIdle, minIdle, testOnBorrow,
+				testOnReturn, timeBetweenEvictionRunsMillis, numTestsPerEvictionRun, minEvictableIdleTimeMillis,
+				testWhileIdle, this.softMinEvictableIdleTimeMillis, this.lifo);
+		factory.setSockets(gop);
+		return gop;
+	}
 
-			gop = new GenericObjectPool(factory, maxConn, GenericObjectPool.WHEN_EXHAUSTED_BLOCK, maxWait, maxIdle,
-					minIdle, testOnBorrow, testOnReturn, timeBetweenEvictionRunsMillis, numTestsPerEvictionRun,
-					minEvictableIdleTimeMillis, testWhileIdle, this.softMinEvictableIdleTimeMillis, this.lifo);
-			factory.setSockets(gop);
-			socketPool.put(servers[i], gop);
+	/**
+	 * Create the factory of the physical connections to the host.
+	 * 
+	 * @param host
+	 *            host:port
+	 * @return the factory
+	 */
+	SchoonerSockIOFactory createSockIOFactory(String host) {
+		SchoonerSockIOFactory factory;
+		if (authInfo != null) {
+			factory = new AuthSchoonerSockIOFactory(host, isTcp, bufferSize, socketTO, socketConnectTO, nagle,
+					authInfo);
+		} else {
+			factory = new SchoonerSockIOFactory(host, isTcp, bufferSize, socketTO, socketConnectTO, nagle);
 		}
+		factory.setBufferPool(bufferPool);
+		return factory;
 	}
 
 	/**
@@ -417,7 +387,7 @@ public class SchoonerSockIOPool {
 	 *            host to clear
 	 */
 	protected void clearHostFromPool(String host) {
-		GenericObjectPool pool = socketPool.get(host);
+		LockFreeObjectPool pool = socketPool.get(host);
 		pool.clear();
 	}
 
@@ -445,6 +415,105 @@ public class SchoonerSockIOPool {
 		return host;
 	}
 
+	/**
+	 * Gets the server a key is stored on, without borrowing a socket. There is
+	 * no failover, the server is returned even if it is dead.
+	 * 
+	 * @param key
+	 *            cache key
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return host:port, or null if the pool is not initialized or has no
+	 *         servers
+	 */
+	public final String getServer(String key, Integer hashCode) {
+		RoutingTable table = routing;
+		if (!this.initialized || table == null)
+			return null;
+		int slot = table.getSlot(key, hashCode);
+		return slot < 0 ? null : table.getHost(table.getHostIndex(slot));
+	}
+
+	/**
+	 * Gets the server to send a key to, without borrowing a socket. If the
+	 * server of the key is dead and failover is on, the servers are tried in
+	 * the same order as {@link #getSock(String, Integer)} tries them, the
+	 * ring order of the servers after the key. A server counts as dead only
+	 * while it waits for a retry after a failed connect, see
+	 * {@link #setFailback(boolean)}.
+	 * 
+	 * @param key
+	 *            cache key
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return host:port, or null if no server is available
+	 */
+	public final String routeKey(String key, Integer hashCode) {
+		return route(key, hashCode, Collections.<String> emptySet());
+	}
+
+	/**
+	 * Gets the server a key fails over to when some servers are unavailable,
+	 * without borrowing a socket.
+	 * 
+	 * @param key
+	 *            cache key
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @param unavailable
+	 *            servers to skip
+	 * @return host:port, or null if failover is off and the server of the key
+	 *         is unavailable, or if all servers are unavailable
+	 * @see #routeKey(String, Integer)
+	 */
+	public final String getFailoverServer(String key, Integer hashCode, Set<String> unavailable) {
+		return route(key, hashCode, unavailable);
+	}
+
+	private String route(String key, Integer hashCode, Set<String> unavailable) {
+		RoutingTable table = routing;
+		if (!this.initialized || table == null)
+			return null;
+		int slot = table.getSlot(key, hashCode);
+		if (slot < 0)
+			return null;
+
+		String server = table.getHost(table.getHostIndex(slot));
+		if (isAvailable(server, unavailable))
+			return server;
+		if (!failover)
+			return null;
+
+		// follow the failover order of the slot, a walk of the ring at most.
+		for (int i = table.getSlotCount(); i > 0; i--) {
+			slot = table.nextSlot(slot);
+			if (slot < 0)
+				return null;
+			server = table.getHost(table.getHostIndex(slot));
+			if (isAvailable(server, unavailable))
+				return server;
+		}
+		return null;
+	}
+
+	private boolean isAvailable(String server, Set<String> unavailable) {
+		return !unavailable.contains(server) && !isDead(server);
+	}
+
+	/**
+	 * @return true if the host is dead and not retried until its retry delay
+	 *         is over.
+	 */
+	private boolean isDead(String host) {
+		if (failback)
+			return false;
+
+		Date store = hostDead.get(host);
+		Long expire = hostDeadDur.get(host);
+		return store != null && expire != null
+				&& (store.getTime() + expire.longValue()) > System.currentTimeMillis();
+	}
+
 	/**
 	 * Returns appropriate SockIO object given string cache key.
 	 * 
@@ -471,57 +540,39 @@ public class SchoonerSockIOPool {
 	 */
 	public final SchoonerSockIO getSock(String key, Integer hashCode) {
 
-		if (!this.initialized) {
+		RoutingTable table = routing;
+		if (!this.initialized || table == null) {
 			if (log.isErrorEnabled())
 				log.error("attempting to get SockIO from uninitialized pool!");
 			return null;
 		}
 
 		// if no servers return null
-		int size = 0;
-		if ((this.hashingAlg == CONSISTENT_HASH && consistentBuckets.size() == 0)
-				|| (buckets != null && (size = buckets.size()) == 0))
+		int slot = table.getSlot(key, hashCode);
+		if (slot < 0)
 			return null;
-		else if (size == 1) {
-			SchoonerSockIO sock = (this.hashingAlg == CONSISTENT_HASH) ? getConnection(consistentBuckets
-					.get(consistentBuckets.firstKey())) : getConnection(buckets.get(0));
 
+		// try to get socket from the slot
+		int host = table.getHostIndex(slot);
+		SchoonerSockIO sock = getConnection(table.getHost(host));
+		if (sock != null || !failover)
 			return sock;
-		}
 
-		// from here on, we are working w/ multiple servers
-		// keep trying different servers until we find one
-		// making sure we only try each server one time
-		Set<String> tryServers = new HashSet<String>(Arrays.asList(servers));
-		// get initial bucket
-		long bucket = getBucket(key, hashCode);
-		String server = (this.hashingAlg == CONSISTENT_HASH) ? consistentBuckets.get(bucket) : buckets
-				.get((int) bucket);
-		while (!tryServers.isEmpty()) {
-			// try to get socket from bucket
-			SchoonerSockIO sock = getConnection(server);
+		// keep trying different servers in the failover order of the slot
+		// until we find one, making sure we only try each server one time
+		boolean[] tried = new boolean[table.getHostCount()];
+		tried[host] = true;
+		for (int i = table.getSlotCount(); i > 0; i--) {
+			slot = table.nextSlot(slot);
+			if (slot < 0)
+				break;
+			host = table.getHostIndex(slot);
+			if (tried[host])
+				continue;
+			tried[host] = true;
+			sock = getConnection(table.getHost(host));
 			if (sock != null)
 				return sock;
-
-			// if we do not want to failover, then bail here
-			if (!failover)
-				return null;
-			// log that we tried
-			tryServers.remove(server);
-			if (tryServers.isEmpty())
-				break;
-			// if we failed to get a socket from this server
-			// then we try again by adding an incrementer to the
-			// current key and then rehashing
-			int rehashTries = 0;
-			while (!tryServers.contains(server)) {
-				String newKey = new StringBuffer().append(rehashTries).append(key).toString();
-				// String.format( "%s%s", rehashTries, key );
-				bucket = getBucket(newKey, null);
-				server = (this.hashingAlg == CONSISTENT_HASH) ? consistentBuckets.get(bucket) : buckets
-						.get((int) bucket);
-				rehashTries++;
-			}
 		}
 		return null;
 	}
@@ -547,17 +598,11 @@ public class SchoonerSockIOPool {
 		if (host == null)
 			return null;
 
-		if (!failback && hostDead.containsKey(host) && hostDeadDur.containsKey(host)) {
-
-			Date store = hostDead.get(host);
-			long expire = hostDeadDur.get(host).longValue();
-
-			if ((store.getTime() + expire) > System.currentTimeMillis())
-				return null;
-		}
+		if (isDead(host))
+			return null;
 
 		// if we have items in the pool then we can return it
-		GenericObjectPool sockets = socketPool.get(host);
+		LockFreeObjectPool sockets = socketPool.get(host);
 		SchoonerSockIO socket;
 		try {
 
@@ -593,8 +638,8 @@ public class SchoonerSockIOPool {
 	 *            pool to close
 	 */
 	protected final void closeSocketPool() {
-		for (Iterator<GenericObjectPool> i = socketPool.values().iterator(); i.hasNext();) {
-			GenericObjectPool sockets = i.next();
+		for (Iterator<LockFreeObjectPool> i = socketPool.values().iterator(); i.hasNext();) {
+			LockFreeObjectPool sockets = i.next();
 			try {
 				sockets.close();
 			} catch (Exception e) {
@@ -613,11 +658,20 @@ public class SchoonerSockIOPool {
 	 */
 	public void shutDown() {
 		closeSocketPool();
+		if (multiplexer != null) {
+			multiplexer.shutdown();
+			multiplexer = null;
+		}
+		synchronized (this) {
+			if (asyncDispatcher != null) {
+				asyncDispatcher.shutdown();
+				asyncDispatcher = null;
+			}
+		}
 
 		socketPool.clear();
 		socketPool = null;
-		buckets = null;
-		consistentBuckets = null;
+		routing = null;
 		initialized = false;
 	}
 
@@ -970,6 +1024,15 @@ public class SchoonerSockIOPool {
 	 * original compatibility hashing alg (works with other clients)
 	 * SockIOPool.NEW_COMPAT_HASH (2) - new CRC32 based compatibility hashing
 	 * algorithm (fast and works with other clients)
+	 * SockIOPool.CONSISTENT_HASH (3) - MD5 based consistent hashing, stops
+	 * thrashing when a server is added or removed
+	 * SockIOPool.KETAMA_HASH (4) - MD5 based consistent hashing with the ring of
+	 * libmemcached and of spymemcached in its libmemcached key format, so that
+	 * the clients share one copy of the data
+	 * SockIOPool.MURMUR3_HASH (5) - murmur3 based consistent hashing, faster
+	 * than MD5
+	 * SockIOPool.JUMP_HASH (6) - jump consistent hash, fast and without a ring,
+	 * but only servers added or removed at the end of the list move few keys
 	 * 
 	 * @param alg
 	 *            int value representing hashing algorithm
@@ -987,148 +1050,142 @@ public class SchoonerSockIOPool {
 		return this.hashingAlg;
 	}
 
-	/**
-	 * Internal private hashing method.
-	 * 
-	 * This is the original hashing algorithm from other clients. Found to be
-	 * slow and have poor distribution.
-	 * 
-	 * @param key
-	 *            String to hash
-	 * @return hashCode for this string using our own hashing algorithm
-	 */
-	private static long origCompatHashingAlg(String key) {
-		long hash = 0;
-		char[] cArr = key.toCharArray();
+	public void setMaxConn(int maxConn) {
+		this.maxConn = maxConn;
+	}
 
-		for (int i = 0; i < cArr.length; ++i) {
-			hash = (hash * 33) + cArr[i];
-		}
+	public int getMaxConn() {
+		return maxConn;
+	}
 
-		return hash;
+	public void setMinConn(int minConn) {
+		this.minConn = minConn;
 	}
 
-	/**
-	 * Internal private hashing method.
-	 * 
-	 * This is the new hashing algorithm from other clients. Found to be fast
-	 * and have very good distribution.
-	 * 
-	 * UPDATE: This is dog slow under java
-	 * 
-	 * @param key
-	 * @return
-	 */
-	private static long newCompatHashingAlg(String key) {
-		CRC32 checksum = new CRC32();
-		checksum.update(key.getBytes());
-		long crc = checksum.getValue();
-		return (crc >> 16) & 0x7fff;
+	public int getMinConn() {
+		return minConn;
 	}
 
-	/**
-	 * Internal private hashing method.
-	 * 
-	 * MD5 based hash algorithm for use in the consistent hashing approach.
-	 * 
-	 * @param key
-	 * @return
-	 */
-	private static long md5HashingAlg(String key) {
-		MessageDigest md5 = MD5.get();
-		md5.reset();
-		md5.update(key.getBytes());
-		byte[] bKey = md5.digest();
-		long res = ((long) (bKey[3] & 0xFF) << 24) | ((long) (bKey[2] & 0xFF) << 16) | ((long) (bKey[1] & 0xFF) << 8)
-				| (long) (bKey[0] & 0xFF);
-		return res;
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
 	}
 
 	/**
-	 * Returns a bucket to check for a given key.
+	 * Sets the multiplexed mode, only works with TCP.<br>
+	 * <br>
+	 * In multiplexed mode the threads don't hold a connection exclusively for
+	 * the whole round trip, instead they share a few connections per host
+	 * (see {@link #setMultiplexedConns(int)}). The requests of several threads
+	 * are written in one syscall, and the responses are matched back to the
+	 * callers, by opaque for binary protocol and by order for ascii protocol.
+	 * <code>maxConn</code> then limits the requests in flight per host. Must be
+	 * set before {@link #initialize()}.
 	 * 
-	 * @param key
-	 *            String key cache is stored under
-	 * @return int bucket
+	 * @param multiplexed
+	 *            true to share connections among threads
 	 */
-	private final long getHash(String key, Integer hashCode) {
-
-		if (hashCode != null) {
-			if (hashingAlg == CONSISTENT_HASH)
-				return hashCode.longValue() & 0xffffffffL;
-			else
-				return hashCode.longValue();
-		} else {
-			switch (hashingAlg) {
-			case NATIVE_HASH:
-				return (long) key.hashCode();
-			case OLD_COMPAT_HASH:
-				return origCompatHashingAlg(key);
-			case NEW_COMPAT_HASH:
-				return newCompatHashingAlg(key);
-			case CONSISTENT_HASH:
-				return md5HashingAlg(key);
-			default:
-				// use the native hash as a default
-				hashingAlg = NATIVE_HASH;
-				return (long) key.hashCode();
-			}
-		}
+	public void setMultiplexed(boolean multiplexed) {
+		this.multiplexed = multiplexed;
 	}
 
-	private final long getBucket(String key, Integer hashCode) {
-		long hc = getHash(key, hashCode);
-
-		if (this.hashingAlg == CONSISTENT_HASH) {
-			return findPointFor(hc);
-		} else {
-			long bucket = hc % buckets.size();
-			if (bucket < 0)
-				bucket *= -1;
-			return bucket;
-		}
+	public boolean isMultiplexed() {
+		return multiplexed;
 	}
 
 	/**
-	 * Gets the first available key equal or above the given one, if none found,
-	 * returns the first k in the bucket
+	 * Sets the number of physical connections per host in multiplexed mode,
+	 * default is 1.
 	 * 
-	 * @param k
-	 *            key
-	 * @return
+	 * @param multiplexedConns
+	 *            connections per host
 	 */
-	private final Long findPointFor(Long hv) {
-		// this works in java 6, but still want to release support for java5
-		// Long k = this.consistentBuckets.ceilingKey( hv );
-		// return ( k == null ) ? this.consistentBuckets.firstKey() : k;
-
-		SortedMap<Long, String> tmap = this.consistentBuckets.tailMap(hv);
+	public void setMultiplexedConns(int multiplexedConns) {
+		this.multiplexedConns = multiplexedConns;
+	}
 
-		return (tmap.isEmpty()) ? this.consistentBuckets.firstKey() : tmap.firstKey();
+	public int getMultiplexedConns() {
+		return multiplexedConns;
 	}
 
-	public void setMaxConn(int maxConn) {
-		this.maxConn = maxConn;
+	/**
+	 * Sets the number of selector threads of the asynchronous api, default is
+	 * 1. Must be set before the first asynchronous operation.
+	 * 
+	 * @param asyncThreads
+	 *            selector threads
+	 * @see #getAsyncDispatcher()
+	 */
+	public void setAsyncThreads(int asyncThreads) {
+		this.asyncThreads = asyncThreads;
 	}
 
-	public int getMaxConn() {
-		return maxConn;
+	public int getAsyncThreads() {
+		return asyncThreads;
 	}
 
-	public void setMinConn(int minConn) {
-		this.minConn = minConn;
+	/**
+	 * Gets the dispatcher of the asynchronous api, it is started on first use.
+	 * It keeps its own connection per host, only works with TCP.
+	 * 
+	 * @return the dispatcher
+	 * @throws IllegalStateException
+	 *             if the pool is not initialized, is not TCP or fails to start
+	 *             the selector threads
+	 */
+	public AsyncDispatcher getAsyncDispatcher() {
+		AsyncDispatcher dispatcher = asyncDispatcher;
+		if (dispatcher != null)
+			return dispatcher;
+		return startAsyncDispatcher();
+	}
+
+	private synchronized AsyncDispatcher startAsyncDispatcher() {
+		if (!initialized)
+			throw new IllegalStateException("++++ attempting to dispatch from uninitialized pool!");
+		if (!isTcp)
+			throw new IllegalStateException("++++ asynchronous operations only work with TCP");
+		if (asyncDispatcher == null) {
+			try {
+				asyncDispatcher = new AsyncDispatcher(this, asyncThreads);
+			} catch (IOException e) {
+				if (log.isErrorEnabled())
+					log.error("++++ failed to start async dispatcher", e);
+				throw new IllegalStateException("++++ failed to start async dispatcher: " + e.getMessage());
+			}
+		}
+		return asyncDispatcher;
 	}
 
-	public int getMinConn() {
-		return minConn;
+	/**
+	 * Sets the max direct memory of the shared buffer pool, default is 64MB.<br>
+	 * <br>
+	 * The sockets borrow their buffers from a pool shared by all hosts, the
+	 * buffers grow on demand up to the buffer size for large values. Heap
+	 * buffers are used when the direct memory reaches this cap. It is a soft
+	 * cap, the memory of the buffers dropped to stay under it is freed by GC.
+	 * 
+	 * @param maxDirectMemory
+	 *            max bytes of direct memory
+	 * @see #setBufferSize(int)
+	 */
+	public void setMaxDirectMemory(long maxDirectMemory) {
+		this.maxDirectMemory = maxDirectMemory;
 	}
 
-	public void setBufferSize(int bufferSize) {
-		this.bufferSize = bufferSize;
+	public long getMaxDirectMemory() {
+		return maxDirectMemory;
 	}
 
-	public int getBufferSize() {
-		return bufferSize;
+	/**
+	 * @return the shared buffer pool, which gives the metrics of buffer usage,
+	 *         null if the pool is not initialized.
+	 */
+	public ByteBufferPool getBufferPool() {
+		return bufferPool;
 	}
 
 	public static class UDPSockIO extends SchoonerSockIO {
@@ -1217,7 +1274,7 @@ public class SchoonerSockIOPool {
 			}
 		}
 
-		public UDPSockIO(GenericObjectPool sockets, String host, int bufferSize, int timeout) throws IOException,
+		public UDPSockIO(ObjectPool sockets, String host, int bufferSize, int timeout) throws IOException,
 				UnknownHostException {
 			super(sockets, bufferSize);
 
@@ -1229,7 +1286,6 @@ public class SchoonerSockIOPool {
 			channel.socket().setSoTimeout(timeout);
 			selector = Selector.open();
 			((DatagramChannel) channel).register(selector, SelectionKey.OP_READ);
-			writeBuf = ByteBuffer.allocateDirect(bufferSize);
 		}
 
 		@Override
@@ -1255,7 +1311,7 @@ public class SchoonerSockIOPool {
 		@Override
 		public byte[] getResponse(short rid) throws IOException {
 
-			long timeout = 1000;
+			long timeout = getOperationTimeout() > 0 ? getOperationTimeout() : 1000;
 			long timeRemaining = timeout;
 
 			int length = 0;
@@ -1268,7 +1324,7 @@ public class SchoonerSockIOPool {
 
 			long startTime = System.currentTimeMillis();
 			while (timeRemaining > 0 && !mItem.isFinished()) {
-				int n = selector.select(500);
+				int n = selector.select(Math.min(timeRemaining, 500));
 				if (n > 0) {
 					// we've got some activity; handle it
 					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
@@ -1355,6 +1411,7 @@ public class SchoonerSockIOPool {
 		public void close() {
 			readBuf.clear();
 			writeBuf.clear();
+			setOperationTimeout(0);
 			try {
 				sockets.returnObject(this);
 			} catch (Exception e) {
@@ -1401,7 +1458,12 @@ public class SchoonerSockIOPool {
 	/**
 	 * MemCached Java client, utility class for Socket IO.
 	 * 
-	 * This class is a wrapper around a Socket and its streams.
+	 * This class is a wrapper around a Socket and its streams.<br>
+	 * <br>
+	 * The channel is non-blocking and waits on a selector of its own, so each
+	 * connection takes one more file descriptor for the selector, three on
+	 * JDKs which wake up selectors with a pipe. Count them in the open file
+	 * limit of the process along with maxConn.
 	 * 
 	 * @author greg whalin <greg@meetup.com>
 	 * @author Richard 'toast' Russo <russor@msoe.edu>
@@ -1417,6 +1479,38 @@ public class SchoonerSockIOPool {
 
 		public java.nio.channels.SocketChannel sockChannel;
 
+		// the channel is non-blocking, the selector waits for it to be ready.
+		private Selector selector;
+		private SelectionKey selectionKey;
+
+		// default ms an operation may wait for the server.
+		private final int timeout;
+
+		// when the current operation times out, 0 if it hasn't waited yet. An
+		// operation starts with the write of its request.
+		private long deadline = 0;
+
+		// blocks until the bytes are read or written, or the operation times
+		// out.
+		private final ByteChannel channel = new ByteChannel() {
+			public int read(ByteBuffer dst) throws IOException {
+				return TCPSockIO.this.read(dst);
+			}
+
+			public int write(ByteBuffer src) throws IOException {
+				return writeFully(src);
+			}
+
+			public boolean isOpen() {
+				return sockChannel != null && sockChannel.isOpen();
+			}
+
+			public void close() {
+			}
+		};
+
+		private final InputStream in = Channels.newInputStream(channel);
+
 		private int hash = 0;
 
 		/**
@@ -1436,7 +1530,7 @@ public class SchoonerSockIOPool {
 		 * @throws UnknownHostException
 		 *             if hostname is invalid
 		 */
-		public TCPSockIO(GenericObjectPool sockets, String host, int bufferSize, int timeout, int connectTimeout,
+		public TCPSockIO(ObjectPool sockets, String host, int bufferSize, int timeout, int connectTimeout,
 				boolean noDelay) throws IOException, UnknownHostException {
 
 			super(sockets, bufferSize);
@@ -1447,20 +1541,81 @@ public class SchoonerSockIOPool {
 			// get socket: default is to use non-blocking connect
 			sock = getSocket(ip[0], Integer.parseInt(ip[1]), connectTimeout);
 
-			writeBuf = ByteBuffer.allocateDirect(bufferSize);
-
-			if (timeout >= 0)
-				this.sock.setSoTimeout(timeout);
+			this.timeout = timeout;
 
 			// testing only
 			sock.setTcpNoDelay(noDelay);
 
-			// wrap streams
+			// every read and write waits on the selector until the deadline.
 			sockChannel = sock.getChannel();
+			try {
+				sockChannel.configureBlocking(false);
+				selector = Selector.open();
+				selectionKey = sockChannel.register(selector, 0);
+			} catch (IOException e) {
+				sock.close();
+				throw e;
+			}
 			hash = sock.hashCode();
 			this.host = host;
 		}
 
+		/**
+		 * a new operation begins, it may wait for the server up to its own
+		 * timeout or the socket timeout.
+		 */
+		@Override
+		public void setOperationTimeout(long timeout) {
+			super.setOperationTimeout(timeout);
+			deadline = 0;
+		}
+
+		/**
+		 * wait until the channel is ready for the operations.
+		 * 
+		 * @param ops
+		 *            interest set, e.g. {@link SelectionKey#OP_READ}
+		 * @throws SocketTimeoutException
+		 *             if the current operation times out
+		 * @throws IOException
+		 *             if an io error happens
+		 */
+		private void await(int ops) throws IOException {
+			if (deadline == 0) {
+				long t = getOperationTimeout() > 0 ? getOperationTimeout() : timeout;
+				deadline = t > 0 ? System.currentTimeMillis() + t : Long.MAX_VALUE;
+			}
+			selectionKey.interestOps(ops);
+			if (deadline == Long.MAX_VALUE) {
+				selector.select();
+			} else {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					throw new SocketTimeoutException("++++ operation timed out on " + host);
+				selector.select(remaining);
+			}
+			selector.selectedKeys().clear();
+		}
+
+		/**
+		 * writes all the bytes of the buffer.
+		 * 
+		 * @param src
+		 *            buffer to write
+		 * @return bytes written
+		 * @throws IOException
+		 *             if an io error happens or the operation times out
+		 */
+		private int writeFully(ByteBuffer src) throws IOException {
+			deadline = 0;
+			int n = src.remaining();
+			while (src.hasRemaining()) {
+				if (sockChannel.write(src) == 0)
+					await(SelectionKey.OP_WRITE);
+			}
+			return n;
+		}
+
 		/**
 		 * Method which gets a connection from SocketChannel.
 		 * 
@@ -1512,7 +1667,8 @@ public class SchoonerSockIOPool {
 		 *             if fails to close streams or socket
 		 */
 		public final void trueClose() throws IOException {
-			readBuf.clear();
+			if (readBuf != null)
+				readBuf.clear();
 
 			boolean err = false;
 			StringBuilder errMsg = new StringBuilder();
@@ -1552,8 +1708,17 @@ public class SchoonerSockIOPool {
 				}
 			}
 
+			if (selector != null) {
+				try {
+					selector.close();
+				} catch (IOException ioe) {
+					log.error("++++ error closing selector for host: " + getHost());
+				}
+			}
+
 			sockChannel = null;
 			sock = null;
+			selector = null;
 
 			if (err)
 				throw new IOException(errMsg.toString());
@@ -1565,6 +1730,7 @@ public class SchoonerSockIOPool {
 		 */
 		public final void close() {
 			readBuf.clear();
+			setOperationTimeout(0);
 			try {
 				sockets.returnObject(this);
 			} catch (Exception e) {
@@ -1599,11 +1765,26 @@ public class SchoonerSockIOPool {
 
 			int readCount;
 			while (length > 0) {
-				readCount = sockChannel.read(readBuf);
+				readCount = read(readBuf);
+				if (readCount < 0)
+					throw new IOException("++++ Stream appears to be dead, so closing it down");
 				length -= readCount;
 			}
 		}
 
+		@Override
+		public int read(ByteBuffer buf) throws IOException {
+			if (sock == null || !sock.isConnected()) {
+				if (log.isErrorEnabled())
+					log.error("++++ attempting to read from closed socket");
+				throw new IOException("++++ attempting to read from closed socket");
+			}
+			int n;
+			while ((n = sockChannel.read(buf)) == 0 && buf.hasRemaining())
+				await(SelectionKey.OP_READ);
+			return n;
+		}
+
 		/**
 		 * writes a byte array to the output stream
 		 * 
@@ -1618,7 +1799,7 @@ public class SchoonerSockIOPool {
 					log.error("++++ attempting to write to closed socket");
 				throw new IOException("++++ attempting to write to closed socket");
 			}
-			sockChannel.write(ByteBuffer.wrap(b));
+			writeFully(ByteBuffer.wrap(b));
 		}
 
 		/**
@@ -1630,7 +1811,55 @@ public class SchoonerSockIOPool {
 		@Override
 		public void flush() throws IOException {
 			writeBuf.flip();
-			sockChannel.write(writeBuf);
+			writeFully(writeBuf);
+		}
+
+		/**
+		 * writes writeBuf and the buffers in one gathering write, a large
+		 * value goes out without being copied into writeBuf first.
+		 * 
+		 * @param tail
+		 *            buffers to write after writeBuf
+		 * @throws IOException
+		 *             if an io error happens
+		 */
+		@Override
+		public void flush(ByteBuffer[] tail) throws IOException {
+			deadline = 0;
+			ByteBuffer[] srcs = new ByteBuffer[tail.length + 1];
+			writeBuf.flip();
+			srcs[0] = writeBuf;
+			System.arraycopy(tail, 0, srcs, 1, tail.length);
+			long remaining = 0;
+			for (ByteBuffer b : srcs)
+				remaining += b.remaining();
+			while (remaining > 0) {
+				long n = sockChannel.write(srcs);
+				if (n == 0)
+					await(SelectionKey.OP_WRITE);
+				remaining -= n;
+			}
+		}
+
+		/**
+		 * writes writeBuf, then transfers the file region straight to the
+		 * socket channel.
+		 */
+		@Override
+		public void flush(FileChannel src, long position, long count, ByteBuffer tail) throws IOException {
+			flush(new ByteBuffer[0]);
+			long end = position + count;
+			while (position < end) {
+				long n = src.transferTo(position, end - position, sockChannel);
+				if (n == 0) {
+					if (position >= src.size())
+						throw new EOFException("++++ file ends before " + count + " bytes are sent");
+					await(SelectionKey.OP_WRITE);
+				}
+				position += n;
+			}
+			if (tail != null)
+				writeFully(tail);
 		}
 
 		/**
@@ -1691,7 +1920,6 @@ public class SchoonerSockIOPool {
 
 			byte[] b = new byte[1];
 			boolean eol = false;
-			InputStream in = sock.getInputStream();
 			while (in.read(b, 0, 1) != -1) {
 
 				// only stop when we see
@@ -1719,9 +1947,10 @@ public class SchoonerSockIOPool {
 			}
 
 			int count = 0;
-			InputStream in = sock.getInputStream();
 			while (count < b.length) {
 				int cnt = in.read(b, count, (b.length - count));
+				if (cnt < 0)
+					throw new IOException("++++ Stream appears to be dead, so closing it down");
 				count += cnt;
 			}
 
@@ -1739,7 +1968,6 @@ public class SchoonerSockIOPool {
 			byte[] b = new byte[1];
 			ByteArrayOutputStream bos = new ByteArrayOutputStream();
 			boolean eol = false;
-			InputStream in = sock.getInputStream();
 			while (in.read(b, 0, 1) != -1) {
 
 				if (b[0] == 13) {
@@ -1772,8 +2000,7 @@ public class SchoonerSockIOPool {
 
 		@Override
 		public ByteChannel getByteChannel() {
-			// TODO Auto-generated method stub
-			return sockChannel;
+			return channel;
 		}
 	}
 
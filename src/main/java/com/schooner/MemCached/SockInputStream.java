@@ -29,11 +29,11 @@
 package com.schooner.MemCached;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.BufferUnderflowException;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
+import java.nio.ByteBuffer;
 
 /**
  * {@link SockInputStream} is a inputstream based on a socket. Due to memcached
@@ -49,7 +49,7 @@ public final class SockInputStream extends InputStream {
 	private int limit;
 	private int count = 0;
 	private byte b;
-	private ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	private ByteArrayOutputStream bos;
 
 	/**
 	 * get length of to-be-read.
@@ -83,11 +83,26 @@ public final class SockInputStream extends InputStream {
 	 */
 	public SockInputStream(final SchoonerSockIO sock, int limit) throws IOException {
 		this.sock = sock;
+		reset(limit);
+	}
+
+	/**
+	 * start reading a new response, as a new stream would: the bytes left in
+	 * the buffer are dropped and the socket is read once.
+	 * 
+	 * @param limit
+	 *            limited length to read from the socket.
+	 * @return this stream
+	 * @throws IOException
+	 *             error happened in reading.
+	 * @see SchoonerSockIO#getSockInputStream()
+	 */
+	final SockInputStream reset(int limit) throws IOException {
 		willRead(limit);
 		sock.readBuf.clear();
-		ReadableByteChannel wrappedChannel = Channels.newChannel(sock.getChannel().socket().getInputStream());
-		wrappedChannel.read(sock.readBuf);
+		sock.read(sock.readBuf);
 		sock.readBuf.flip();
+		return this;
 	}
 
 	/**
@@ -129,11 +144,48 @@ public final class SockInputStream extends InputStream {
 	 */
 	private final void readFromChannel() throws IOException {
 		sock.readBuf.clear();
-		ReadableByteChannel wrappedChannel = Channels.newChannel(sock.getChannel().socket().getInputStream());
-		wrappedChannel.read(sock.readBuf);
+		sock.read(sock.readBuf);
 		sock.readBuf.flip();
 	}
 
+	/**
+	 * make sure there are bytes in the socket buffer to read in place, the
+	 * socket is read if it is empty.
+	 * 
+	 * @return number of bytes which can be taken from {@link #buffer()}, or -1
+	 *         if the limited length is reached or the stream ends.
+	 * @throws IOException
+	 *             error happened in reading.
+	 */
+	final int fill() throws IOException {
+		if (count >= limit)
+			return -1;
+		if (!sock.readBuf.hasRemaining()) {
+			readFromChannel();
+			if (!sock.readBuf.hasRemaining())
+				return -1;
+		}
+		return Math.min(sock.readBuf.remaining(), limit - count);
+	}
+
+	/**
+	 * @return the buffer of the socket, bytes taken from it have to be
+	 *         counted with {@link #consumed(int)}.
+	 */
+	final ByteBuffer buffer() {
+		return sock.readBuf;
+	}
+
+	/**
+	 * count the bytes taken from {@link #buffer()} by the caller.
+	 * 
+	 * @param n
+	 *            number of bytes
+	 */
+	final void consumed(int n) {
+		count += n;
+	}
+
 	@Override
 	public final int read(byte[] b, int off, int len) throws IOException {
 		if (count >= limit) {
@@ -155,6 +207,86 @@ public final class SockInputStream extends InputStream {
 		return len;
 	}
 
+	/**
+	 * read bytes into the buffer, up to its remaining or the limited length.
+	 * The bytes already read from the socket are copied first, the rest are
+	 * read from the socket into the buffer directly.
+	 * 
+	 * @param dst
+	 *            buffer to fill, e.g. a direct buffer
+	 * @return number of bytes read, or -1 if the limited length is reached
+	 * @throws IOException
+	 *             error happened in reading.
+	 */
+	public final int read(ByteBuffer dst) throws IOException {
+		if (count >= limit) {
+			return -1;
+		}
+		final int len = Math.min(dst.remaining(), limit - count);
+		final int oldLimit = dst.limit();
+		dst.limit(dst.position() + len);
+		try {
+			ByteBuffer src = sock.readBuf;
+			if (src.hasRemaining()) {
+				int srcLimit = src.limit();
+				src.limit(src.position() + Math.min(src.remaining(), len));
+				dst.put(src);
+				src.limit(srcLimit);
+			}
+			while (dst.hasRemaining()) {
+				if (sock.read(dst) < 0)
+					throw new EOFException("++++ Stream appears to be dead, so closing it down");
+			}
+		} finally {
+			dst.limit(oldLimit);
+		}
+		count += len;
+		return len;
+	}
+
+	/**
+	 * read all left bytes, e.g. the value of an item, into the buffer.
+	 * 
+	 * @param dst
+	 *            buffer to read into, a new heap buffer is used if null.
+	 * @return a slice of the buffer holding the bytes, or null if the buffer
+	 *         doesn't have enough room, in which case the bytes are skipped.
+	 * @throws IOException
+	 *             error happened in reading.
+	 */
+	public final ByteBuffer readValue(ByteBuffer dst) throws IOException {
+		final int length = limit - count;
+		if (dst == null) {
+			dst = ByteBuffer.allocate(length);
+		} else if (dst.remaining() < length) {
+			skip(length);
+			return null;
+		}
+		ByteBuffer value = dst.slice();
+		value.limit(length);
+		if (length > 0)
+			read(dst);
+		return value;
+	}
+
+	@Override
+	public final long skip(long n) throws IOException {
+		final long len = Math.max(0, Math.min(n, limit - count));
+		long skipped = 0;
+		while (skipped < len) {
+			if (!sock.readBuf.hasRemaining()) {
+				readFromChannel();
+				if (!sock.readBuf.hasRemaining())
+					throw new EOFException("++++ Stream appears to be dead, so closing it down");
+			}
+			int k = (int) Math.min(sock.readBuf.remaining(), len - skipped);
+			sock.readBuf.position(sock.readBuf.position() + k);
+			skipped += k;
+		}
+		count += len;
+		return len;
+	}
+
 	/**
 	 * get all left bytes from the socket.
 	 * 
@@ -177,6 +309,8 @@ public final class SockInputStream extends InputStream {
 	 * @since 2.5.1
 	 */
 	public final String getLine() throws IOException {
+		if (bos == null)
+			bos = new ByteArrayOutputStream();
 		bos.reset();
 		int b;
 		while ((b = read()) != -1) {
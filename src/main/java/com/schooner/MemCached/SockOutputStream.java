@@ -33,10 +33,11 @@ import java.io.OutputStream;
 import java.nio.BufferOverflowException;
 
 /**
- * {@link SockOutputStream} is a outputstream based on socket. There will be a
- * big buffer in the socket, which is 1Mb in default, you can put all bytes into
- * this buffer easily, when it is full, it will flush the bytes into the socket.<br>
- * Don't make the buffer too much small, or else you will have problem in
+ * {@link SockOutputStream} is a outputstream based on socket. The bytes are put
+ * into the write buffer of the socket, which grows on demand up to the buffer
+ * size of the pool, 1Mb in default. When it is full, it will flush the bytes
+ * into the socket.<br>
+ * Don't make the buffer size too much small, or else you will have problem in
  * memcached set operation.
  * 
  * @author Xingen Wang
@@ -91,7 +92,7 @@ public final class SockOutputStream extends OutputStream {
 	 */
 	private final void writeToChannel() throws IOException {
 		sock.writeBuf.flip();
-		sock.getChannel().write(sock.writeBuf);
+		sock.getByteChannel().write(sock.writeBuf);
 		sock.writeBuf.clear();
 	}
 
@@ -100,7 +101,8 @@ public final class SockOutputStream extends OutputStream {
 		try {
 			sock.writeBuf.put((byte) b);
 		} catch (BufferOverflowException e) {
-			writeToChannel();
+			if (!sock.ensureWriteCapacity(1))
+				writeToChannel();
 			sock.writeBuf.put((byte) b);
 		}
 		count++;
@@ -115,7 +117,7 @@ public final class SockOutputStream extends OutputStream {
 	public final void write(byte[] b, int off, int len) throws IOException {
 		if (len == 0)
 			return;
-		if (sock.writeBuf.remaining() >= len)
+		if (sock.ensureWriteCapacity(len))
 			sock.writeBuf.put(b, off, len);
 		else {
 			int written = 0;
@@ -127,7 +129,7 @@ public final class SockOutputStream extends OutputStream {
 				if (w1 == 0)
 					writeToChannel();
 				else
-					sock.writeBuf.put(b, off, w1);
+					sock.writeBuf.put(b, off + written, w1);
 				written += w1;
 			}
 		}
@@ -0,0 +1,143 @@
+package com.schooner.MemCached;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link ValueInputStream} reads the value of an item right off the socket it
+ * was requested on, so the value is never held in the heap as a whole.<br>
+ * <br>
+ * The socket is borrowed from the pool until the value is fully read or the
+ * stream is closed, then the rest of the response is skipped and the socket is
+ * returned. If the stream is closed early, the unread bytes of the value are
+ * skipped too. The socket is dropped if an error happens in reading.
+ *
+ * @since 3.1.0
+ * @see SockInputStream
+ */
+public final class ValueInputStream extends InputStream {
+	private SchoonerSockIO sock;
+	private final SockInputStream input;
+	private final int length;
+	private final int trailerLines;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sock
+	 *            socket the value is read from, it must not be used by the
+	 *            caller any more.
+	 * @param input
+	 *            stream of the socket positioned at the first byte of the
+	 *            value
+	 * @param length
+	 *            bytes of the value
+	 * @param trailerLines
+	 *            lines to skip after the value, e.g. "\r\nEND\r\n" of an ascii
+	 *            get response.
+	 */
+	public ValueInputStream(SchoonerSockIO sock, SockInputStream input, int length, int trailerLines) {
+		this.sock = sock;
+		this.input = input;
+		this.length = length;
+		this.trailerLines = trailerLines;
+		input.willRead(length);
+	}
+
+	/**
+	 * @return bytes of the value as stored.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (sock == null)
+			return -1;
+		int b;
+		try {
+			b = input.read();
+		} catch (IOException e) {
+			invalidate();
+			throw e;
+		}
+		if (b == -1)
+			release();
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (sock == null)
+			return -1;
+		if (len == 0)
+			return 0;
+		int n;
+		try {
+			n = input.read(b, off, len);
+		} catch (IOException e) {
+			invalidate();
+			throw e;
+		}
+		if (n == -1)
+			release();
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (sock == null)
+			return 0;
+		try {
+			return input.skip(n);
+		} catch (IOException e) {
+			invalidate();
+			throw e;
+		}
+	}
+
+	/**
+	 * skip the unread bytes of the value and give the socket back to the pool.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (sock == null)
+			return;
+		try {
+			input.skip(length);
+		} catch (IOException e) {
+			invalidate();
+			throw e;
+		}
+		release();
+	}
+
+	/**
+	 * skip the rest of the response and return the socket to the pool.
+	 */
+	private void release() throws IOException {
+		try {
+			if (trailerLines > 0) {
+				input.willRead(Integer.MAX_VALUE);
+				AscIIResponseParser parser = sock.getResponseParser(input);
+				for (int i = 0; i < trailerLines; i++)
+					parser.skipLine();
+			}
+		} catch (IOException e) {
+			invalidate();
+			throw e;
+		}
+		sock.close();
+		sock = null;
+	}
+
+	private void invalidate() {
+		try {
+			sock.sockets.invalidateObject(sock);
+		} catch (Exception e) {
+			// the socket is dropped anyway.
+		}
+		sock = null;
+	}
+}
@@ -29,12 +29,12 @@
 package com.schooner.MemCached.command;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Date;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.schooner.MemCached.AscIIResponseParser;
 import com.schooner.MemCached.SchoonerSockIO;
 
 /**
@@ -47,8 +47,6 @@ import com.schooner.MemCached.SchoonerSockIO;
 public class DeletionCommand extends Command {
 
 	private static Logger log = LoggerFactory.getLogger(DeletionCommand.class);
-	private static final byte[] DELETED = "DELETED\r\n".getBytes();
-	private static final byte[] NOTFOUND = "NOT_FOUND\r\n".getBytes();
 
 	/**
 	 * deletion request textline: "delete <key> [<time>] [noreply]\r\n"
@@ -63,12 +61,13 @@ public class DeletionCommand extends Command {
 	}
 
 	public boolean response(SchoonerSockIO sock, short rid) throws IOException {
-		byte[] res = sock.getResponse(rid);
-		if (Arrays.equals(res, DELETED)) {
+		AscIIResponseParser parser = sock.getResponseParser(sock.getResponse(rid));
+		parser.readLine();
+		if (parser.lineEquals(AscIIResponseParser.DELETED)) {
 			if (log.isDebugEnabled())
 				log.debug("DELETED!");
 			return true;
-		} else if (Arrays.equals(res, NOTFOUND)) {
+		} else if (parser.lineEquals(AscIIResponseParser.NOT_FOUND)) {
 			if (log.isDebugEnabled())
 				log.debug("NOT_FOUND!");
 		} else {
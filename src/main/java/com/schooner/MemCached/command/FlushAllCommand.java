@@ -29,11 +29,11 @@
 package com.schooner.MemCached.command;
 
 import java.io.IOException;
-import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.schooner.MemCached.AscIIResponseParser;
 import com.schooner.MemCached.SchoonerSockIO;
 
 /**
@@ -53,8 +53,9 @@ public class FlushAllCommand extends Command {
 	}
 
 	public boolean response(SchoonerSockIO sock, short rid) throws IOException {
-		byte[] res = sock.getResponse(rid);
-		if (Arrays.equals(res, OK)) {
+		AscIIResponseParser parser = sock.getResponseParser(sock.getResponse(rid));
+		parser.readLine();
+		if (parser.lineEquals(AscIIResponseParser.OK)) {
 			return true;
 		} else {
 			return false;
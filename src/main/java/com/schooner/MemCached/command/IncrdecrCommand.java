@@ -33,6 +33,7 @@ import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.schooner.MemCached.AscIIResponseParser;
 import com.schooner.MemCached.SchoonerSockIO;
 
 /**
@@ -56,13 +57,13 @@ public class IncrdecrCommand extends Command {
 	}
 
 	public boolean response(SchoonerSockIO sock, short rid) throws IOException {
-		byte[] res = sock.getResponse(rid);
-		String line = new String(res).split("\r\n")[0];
-		if (line.matches("\\d+")) {
+		AscIIResponseParser parser = sock.getResponseParser(sock.getResponse(rid));
+		parser.readLine();
+		if (parser.isNumber()) {
 			// Sucessfully increase.
 			// return sock to pool and return result
 			try {
-				result = Long.parseLong(line);
+				result = parser.nextLong();
 				return true;
 			} catch (Exception ex) {
 				if (log.isErrorEnabled())
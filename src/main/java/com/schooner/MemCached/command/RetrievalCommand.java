@@ -30,12 +30,11 @@ package com.schooner.MemCached.command;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.schooner.MemCached.AscIIUDPClient;
+import com.schooner.MemCached.AscIIResponseParser;
 import com.schooner.MemCached.MemcachedItem;
 import com.schooner.MemCached.NativeHandler;
 import com.schooner.MemCached.SchoonerSockIO;
@@ -52,8 +51,6 @@ public class RetrievalCommand extends Command {
 
 	private static Logger log = LoggerFactory.getLogger(RetrievalCommand.class);
 
-	private static final byte[] B_END = "END\r\n".getBytes();
-	private static final byte[] B_VALUE = "VALUE ".getBytes();
 	private String key;
 	private String cmd;
 
@@ -90,83 +87,37 @@ public class RetrievalCommand extends Command {
 		public Value retvalue = null;
 
 		public void exec(byte[] res) throws IOException {
-			ByteArrayInputStream stream = new ByteArrayInputStream(res);
-			StringBuilder sb = new StringBuilder();
-			byte[] end = new byte[5];
-			byte next;
-			int length = 0;
+			exec(new AscIIResponseParser().reset(res));
+		}
 
+		public void exec(AscIIResponseParser parser) throws IOException {
 			// check if it is the end.
-			stream.mark(0);
-			stream.read(end);
-			if (Arrays.equals(end, B_END)) {
+			if (!parser.readLine() || !parser.lineStartsWith(AscIIResponseParser.VALUE))
 				return;
-			}
-			stream.reset();
 
 			Value value = new Value();
-			// skip "VALUE <key> "
-			stream.skip(B_VALUE.length + key.length() + 1);
-
-			// get the length of <flags> and build it.
-			length = 0;
-			while ((next = (byte) stream.read()) != AscIIUDPClient.B_DELIMITER) {
-				length++;
-				sb.append((char) next);
-			}
-			try {
-				value.flags = Integer.valueOf(sb.toString());
-			} catch (NumberFormatException e) {
-				retvalue = null;
-				return;
-			}
-			sb.delete(0, length);
-
-			// get the length of <byte> and build it.
-			length = 0;
-			while (((next = (byte) stream.read()) != AscIIUDPClient.B_DELIMITER) && (next != B_RETURN)) {
-				length++;
-				sb.append((char) next);
-			}
-
 			try {
-				value.bytes = Integer.valueOf(sb.toString());
+				// skip "VALUE <key>"
+				parser.skipToken();
+				parser.skipToken();
+				value.flags = parser.nextInt();
+				value.bytes = parser.nextInt();
+				// if gets then get the <casUnique>.
+				if (cmd.equals("gets"))
+					value.casUnique = parser.nextLong();
 			} catch (NumberFormatException e) {
 				retvalue = null;
 				return;
 			}
-			sb.delete(0, length);
-
-			if (cmd.equals("gets")) {
-				// if gets then get the length of <casUnique> and build it.
-				length = 0;
-				while ((next = (byte) stream.read()) != B_RETURN) {
-					length++;
-					sb.append((char) next);
-				}
-				try {
-					value.casUnique = Long.valueOf(sb.toString());
-				} catch (NumberFormatException e) {
-					retvalue = null;
-					return;
-				}
-				sb.delete(0, length);
-			}
-
-			// skip "\n"
-			stream.skip(1);
 
 			// build datablock
 			value.dataBlock = new byte[value.bytes];
-			stream.read(value.dataBlock);
-
+			parser.read(value.dataBlock);
 			// skip "\r\n"
-			stream.skip(2);
+			parser.skipLine();
 
 			// check if it is the end.
-			stream.mark(0);
-			stream.read(end);
-			if (Arrays.equals(end, B_END)) {
+			if (parser.readLine() && parser.lineEquals(AscIIResponseParser.END)) {
 				retvalue = value;
 			}
 		}
@@ -180,7 +131,7 @@ public class RetrievalCommand extends Command {
 			return item;
 
 		ResponseParser parser = new ResponseParser();
-		parser.exec(res);
+		parser.exec(sock.getResponseParser(res));
 		if (parser.retvalue != null) {
 			Value value = parser.retvalue;
 			if (cmd.equals("gets")) {
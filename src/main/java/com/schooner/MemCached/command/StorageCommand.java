@@ -29,14 +29,15 @@
 package com.schooner.MemCached.command;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Date;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.schooner.MemCached.AscIIResponseParser;
 import com.schooner.MemCached.NativeHandler;
 import com.schooner.MemCached.ObjectTransCoder;
+import com.schooner.MemCached.RequestEncoder;
 import com.schooner.MemCached.SchoonerSockIO;
 import com.schooner.MemCached.SockOutputStream;
 import com.schooner.MemCached.TransCoder;
@@ -119,15 +120,10 @@ public class StorageCommand extends Command {
 			valLen = transCoder.encode(output, value);
 		}
 
-		sock.writeBuf.put(B_RETURN);
+		output.write(B_RETURN);
 
-		byte[] objectSize = new Integer(valLen).toString().getBytes();
-		int oldPosition = sock.writeBuf.position();
-		sock.writeBuf.position(offset);
 		// put real object bytes size
-		sock.writeBuf.put(objectSize);
-		// return to correct position.
-		sock.writeBuf.position(oldPosition);
+		RequestEncoder.putDecimal(sock.writeBuf, offset, valLen);
 
 		return true;
 	}
@@ -139,8 +135,10 @@ public class StorageCommand extends Command {
 		offset = sock.writeBuf.position();
 		// write blank bytes size.
 		sock.writeBuf.put(BLAND_DATA_SIZE);
-		if (casUnique != 0)
-			sock.writeBuf.put((" " + casUnique.toString()).getBytes());
+		if (casUnique != 0) {
+			sock.writeBuf.put(RequestEncoder.SPACE);
+			RequestEncoder.putDecimal(sock.writeBuf, casUnique);
+		}
 
 		sock.writeBuf.put(B_RETURN);
 
@@ -155,10 +153,9 @@ public class StorageCommand extends Command {
 	}
 
 	public boolean response(SchoonerSockIO sock, short rid) throws IOException {
-		byte[] temp = sock.getResponse(rid);// new
-		// byte[sock.readBuf.position()];
-
-		if (Arrays.equals(STORED, temp)) {
+		AscIIResponseParser parser = sock.getResponseParser(sock.getResponse(rid));
+		parser.readLine();
+		if (parser.lineEquals(AscIIResponseParser.STORED)) {
 			/*
 			 * Successfully set here.
 			 */
@@ -33,6 +33,7 @@ import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.schooner.MemCached.AscIIResponseParser;
 import com.schooner.MemCached.SchoonerSockIO;
 
 /**
@@ -59,24 +60,23 @@ public class SyncCommand extends Command {
 	}
 
 	public boolean response(SchoonerSockIO sock, short rid) throws IOException {
-		String line;
-		byte[] temp = sock.getResponse(rid);
-		line = new String(temp);
+		AscIIResponseParser parser = sock.getResponseParser(sock.getResponse(rid));
+		parser.readLine();
 
-		if (SYNCED.equals(line)) {
+		if (parser.lineEquals(AscIIResponseParser.SYNCED)) {
 			if (log.isInfoEnabled())
 				log.info(new StringBuffer().append("++++ sync of key: ").append(key)
 						.append(" from cache was a success").toString());
 
 			return true;
-		} else if (NOTFOUND.equals(line)) {
+		} else if (parser.lineEquals(AscIIResponseParser.NOT_FOUND)) {
 			if (log.isInfoEnabled())
 				log.info(new StringBuffer().append("++++ sync of key: ").append(key)
 						.append(" from cache failed as the key was not found").toString());
 		} else {
 			if (log.isErrorEnabled()) {
 				log.error(new StringBuffer().append("++++ error sync key: ").append(key).toString());
-				log.error(new StringBuffer().append("++++ server response: ").append(line).toString());
+				log.error(new StringBuffer().append("++++ server response: ").append(parser.getLine()).toString());
 			}
 		}
 
@@ -48,16 +48,29 @@
  ******************************************************************************/
 package com.whalin.MemCached;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Date;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.schooner.MemCached.AscIIClient;
 import com.schooner.MemCached.AscIIUDPClient;
+import com.schooner.MemCached.Batch;
 import com.schooner.MemCached.BinaryClient;
 import com.schooner.MemCached.MemcachedItem;
+import com.schooner.MemCached.MetaClient;
+import com.schooner.MemCached.MetaItem;
+import com.schooner.MemCached.Mutation;
+import com.schooner.MemCached.MultiGetReport;
+import com.schooner.MemCached.OperationFuture;
+import com.schooner.MemCached.RawItem;
+import com.schooner.MemCached.SchoonerSockIOPool;
 import com.schooner.MemCached.TransCoder;
 
 /**
@@ -250,9 +263,17 @@ public class MemCachedClient {
 	public static final byte OPCODE_APPEND = (byte) 0x0E;
 	public static final byte OPCODE_PREPEND = (byte) 0x0F;
 	public static final byte OPCODE_STAT = (byte) 0x10;
+	public static final byte OPCODE_SETQ = (byte) 0x11;
+	public static final byte OPCODE_ADDQ = (byte) 0x12;
+	public static final byte OPCODE_DELETEQ = (byte) 0x14;
+	public static final byte OPCODE_TOUCH = (byte) 0x1C;
+	public static final byte OPCODE_GAT = (byte) 0x1D;
+	public static final byte OPCODE_GATQ = (byte) 0x1E;
 	public static final byte OPCODE_AUTH_LIST = (byte) 0x20;
 	public static final byte OPCODE_START_AUTH = (byte) 0x21;
 	public static final byte OPCODE_AUTH_STEPS = (byte) 0x22;
+	public static final byte OPCODE_GATK = (byte) 0x23;
+	public static final byte OPCODE_GATKQ = (byte) 0x24;
 
 	public static final byte AUTH_FAILED = 0x20;
 	public static final byte FURTHER_AUTH = 0x21;
@@ -287,6 +308,24 @@ public class MemCachedClient {
 	public static final int MARKER_BYTEARR = 4096;
 	public static final int MARKER_OTHERS = 0x00;
 
+	/*
+	 * the backoff of an update is up to 2^MAX_BACKOFF_SHIFT ms.
+	 */
+	static final int MAX_BACKOFF_SHIFT = 6;
+
+	// random source of the backoffs, one per thread, not shared by them.
+	private static final ThreadLocal<Random> BACKOFF_RANDOM = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	// protocols of the client, see MemCachedClient(String, int).
+	public static final int PROTOCOL_ASCII = 0;
+	public static final int PROTOCOL_BINARY = 1;
+	public static final int PROTOCOL_META = 2;
+
 	public boolean isUseBinaryProtocol() {
 		return client.isUseBinaryProtocol();
 	}
@@ -371,6 +410,27 @@ public class MemCachedClient {
 			client = isTcp ? new AscIIClient(poolName) : new AscIIUDPClient(poolName);
 	}
 
+	/**
+	 * Create memcached client over TCP.
+	 * 
+	 * @param poolName
+	 *            name of SockIOPool
+	 * @param protocol
+	 *            {@link #PROTOCOL_ASCII}, {@link #PROTOCOL_BINARY}, or
+	 *            {@link #PROTOCOL_META} for the meta commands of memcached
+	 *            1.6+, see {@link MetaClient}
+	 */
+	public MemCachedClient(String poolName, int protocol) {
+		if (protocol == PROTOCOL_BINARY)
+			client = new BinaryClient(poolName);
+		else if (protocol == PROTOCOL_META)
+			client = new MetaClient(poolName);
+		else if (protocol == PROTOCOL_ASCII)
+			client = new AscIIClient(poolName);
+		else
+			throw new IllegalArgumentException("unknown protocol: " + protocol);
+	}
+
 	/**
 	 * create memcached client.
 	 * 
@@ -544,7 +604,60 @@ public class MemCachedClient {
 	}
 
 	/**
-	 * Checks to see if key exists in cache.
+	 * Sets how long each operation of this client may wait for the server.
+	 * When the time is up, the operation fails fast instead of blocking for
+	 * the socket timeout of the pool.<br/>
+	 * <br/>
+	 * Clients are cheap, so clients of the same pool can have different
+	 * timeouts, e.g. a few ms for hot reads and more for big multi-gets.
+	 * 
+	 * @param operationTimeout
+	 *            ms to wait, or 0 to use the socket timeout of the pool (the
+	 *            max busy time for multi-gets)
+	 */
+	public void setOperationTimeout(long operationTimeout) {
+		client.setOperationTimeout(operationTimeout);
+	}
+
+	/**
+	 * Enables/disables the fire-and-forget mode of the ascii protocol over
+	 * TCP. The mutations, i.e. set, add, replace, append, prepend, delete,
+	 * incr and decr, are sent with <code>noreply</code> and the socket is
+	 * returned to the pool without waiting for the server. They return true
+	 * as soon as the command is written. incr and decr always return -1, the
+	 * new value is not known, so their result means nothing in this mode.
+	 * cas, addOrIncr and addOrDecr always wait for the response.<br/>
+	 * <br/>
+	 * The server only answers the noreply commands which fail, so the errors
+	 * are read at sync points: every 100 noreply commands on a socket, and
+	 * before any command waiting for a response is sent on it. The errors are
+	 * logged and passed to the error handler, and the command at the sync
+	 * point returns false if any of the noreply commands before it failed.
+	 * A broken connection is dropped at the sync point at the latest.
+	 * 
+	 * @param noreply
+	 *            if true, then don't wait for the response of mutations
+	 * @throws UnsupportedOperationException
+	 *             if the client doesn't speak the ascii protocol over TCP
+	 */
+	public void setNoreply(boolean noreply) {
+		client.setNoreply(noreply);
+	}
+
+	/**
+	 * @return true if the mutations are sent with noreply.
+	 * @see #setNoreply(boolean)
+	 */
+	public boolean isNoreply() {
+		return client.isNoreply();
+	}
+
+	/**
+	 * Checks to see if key exists in cache, the value is not sent back.<br/>
+	 * <br/>
+	 * The ascii and binary protocols have no get without the value, so a get
+	 * is sent and the value of a hit is skipped in the socket instead of
+	 * decoded. The meta protocol sends mg without flags.
 	 * 
 	 * @param key
 	 *            the key to look for
@@ -554,6 +667,96 @@ public class MemCachedClient {
 		return client.keyExists(key);
 	}
 
+	/**
+	 * Checks which of the keys exist in cache, the checks are pipelined to
+	 * each server, see {@link #keyExists(String)}.
+	 * 
+	 * @param keys
+	 *            the keys to look for
+	 * @return the keys found, the keys of a server failed are not in it
+	 */
+	public Set<String> keysExist(String[] keys) {
+		return client.keysExist(keys);
+	}
+
+	/**
+	 * Retrieve an item with its cas and ttl by the meta protocol.
+	 * 
+	 * @param key
+	 *            key where data is stored
+	 * @return the item, or null if it is not found
+	 * @throws UnsupportedOperationException
+	 *             if the client doesn't use the meta protocol
+	 * @see #metaGet(String, Integer, Date, int, int)
+	 */
+	public MetaItem metaGet(String key) {
+		return metaGet(key, null, null, 0, 0);
+	}
+
+	/**
+	 * Retrieve an item by the meta protocol, touching it and leasing its
+	 * recache in the same round trip.<br/>
+	 * <br/>
+	 * With vivify, the first client missing the item wins the right to fill
+	 * it ({@link MetaItem#isWin()}), the others get an empty item with
+	 * {@link MetaItem#isWinSent()} instead of all hitting the backend. With
+	 * recache, or after {@link #invalidate(String)}, one client wins the
+	 * right to refresh the item while the others keep getting the old value.
+	 * The winner refreshes the item by a plain set.
+	 * 
+	 * @param key
+	 *            key where data is stored
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @param expiry
+	 *            if not null, the new expiration of the item
+	 * @param vivify
+	 *            if positive, a miss creates an empty item living this many
+	 *            seconds
+	 * @param recache
+	 *            if positive, the client fetching the item with less than this
+	 *            many seconds left wins the right to recache it
+	 * @return the item, or null if it is not found
+	 * @throws UnsupportedOperationException
+	 *             if the client doesn't use the meta protocol
+	 */
+	public MetaItem metaGet(String key, Integer hashCode, Date expiry, int vivify, int recache) {
+		if (!(client instanceof MetaClient))
+			throw new UnsupportedOperationException();
+		return client.metaGet(key, hashCode, expiry, vivify, recache);
+	}
+
+	/**
+	 * Marks the item stale instead of deleting it by the meta protocol.
+	 * 
+	 * @param key
+	 *            the key to be invalidated
+	 * @return true, if the item was found
+	 * @throws UnsupportedOperationException
+	 *             if the client doesn't use the meta protocol
+	 * @see #metaGet(String, Integer, Date, int, int)
+	 */
+	public boolean invalidate(String key) {
+		return invalidate(key, null);
+	}
+
+	/**
+	 * Marks the item stale instead of deleting it by the meta protocol.
+	 * 
+	 * @param key
+	 *            the key to be invalidated
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return true, if the item was found
+	 * @throws UnsupportedOperationException
+	 *             if the client doesn't use the meta protocol
+	 */
+	public boolean invalidate(String key, Integer hashCode) {
+		if (!(client instanceof MetaClient))
+			throw new UnsupportedOperationException();
+		return client.invalidate(key, hashCode);
+	}
+
 	/**
 	 * Deletes an object from cache given cache key.
 	 * 
@@ -812,6 +1015,234 @@ public class MemCachedClient {
 		return client.replace(key, value, expiry, hashCode);
 	}
 
+	/**
+	 * Stores data on the server; the value is the bytes remaining in the
+	 * buffer, stored as a byte array.<br/>
+	 * <br/>
+	 * The bytes are written to the socket as they are, so a direct buffer is
+	 * never copied into the heap. The position of the buffer is not changed.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            bytes to store
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean set(String key, ByteBuffer value) {
+		return client.set(key, value);
+	}
+
+	/**
+	 * Stores data on the server; the value is the bytes remaining in the
+	 * buffer, and an expiration time is specified.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            bytes to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @return true, if the data was successfully stored
+	 * @see #set(String, ByteBuffer)
+	 */
+	public boolean set(String key, ByteBuffer value, Date expiry) {
+		return client.set(key, value, expiry);
+	}
+
+	/**
+	 * Stores data on the server; the value is a region of the file,
+	 * stored as a byte array.<br/>
+	 * <br/>
+	 * The region is transferred from the file to the socket without being
+	 * read into the heap.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param src
+	 *            file to store bytes from
+	 * @param position
+	 *            position in the file of the first byte
+	 * @param count
+	 *            bytes to store
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean set(String key, FileChannel src, long position, long count) {
+		return client.set(key, src, position, count);
+	}
+
+	/**
+	 * Stores data on the server; the value is a region of the file, and
+	 * an expiration time is specified.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param src
+	 *            file to store bytes from
+	 * @param position
+	 *            position in the file of the first byte
+	 * @param count
+	 *            bytes to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @return true, if the data was successfully stored
+	 * @see #set(String, FileChannel, long, long)
+	 */
+	public boolean set(String key, FileChannel src, long position, long count, Date expiry) {
+		return client.set(key, src, position, count, expiry);
+	}
+
+	/**
+	 * Adds data to the server, only if the key does not exist; the value is the bytes remaining in the
+	 * buffer, stored as a byte array.<br/>
+	 * <br/>
+	 * The bytes are written to the socket as they are, so a direct buffer is
+	 * never copied into the heap. The position of the buffer is not changed.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            bytes to store
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean add(String key, ByteBuffer value) {
+		return client.add(key, value);
+	}
+
+	/**
+	 * Adds data to the server, only if the key does not exist; the value is the bytes remaining in the
+	 * buffer, and an expiration time is specified.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            bytes to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @return true, if the data was successfully stored
+	 * @see #add(String, ByteBuffer)
+	 */
+	public boolean add(String key, ByteBuffer value, Date expiry) {
+		return client.add(key, value, expiry);
+	}
+
+	/**
+	 * Adds data to the server, only if the key does not exist; the value is a region of the file,
+	 * stored as a byte array.<br/>
+	 * <br/>
+	 * The region is transferred from the file to the socket without being
+	 * read into the heap.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param src
+	 *            file to store bytes from
+	 * @param position
+	 *            position in the file of the first byte
+	 * @param count
+	 *            bytes to store
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean add(String key, FileChannel src, long position, long count) {
+		return client.add(key, src, position, count);
+	}
+
+	/**
+	 * Adds data to the server, only if the key does not exist; the value is a region of the file, and
+	 * an expiration time is specified.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param src
+	 *            file to store bytes from
+	 * @param position
+	 *            position in the file of the first byte
+	 * @param count
+	 *            bytes to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @return true, if the data was successfully stored
+	 * @see #add(String, FileChannel, long, long)
+	 */
+	public boolean add(String key, FileChannel src, long position, long count, Date expiry) {
+		return client.add(key, src, position, count, expiry);
+	}
+
+	/**
+	 * Updates data on the server, only if the key exists; the value is the bytes remaining in the
+	 * buffer, stored as a byte array.<br/>
+	 * <br/>
+	 * The bytes are written to the socket as they are, so a direct buffer is
+	 * never copied into the heap. The position of the buffer is not changed.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            bytes to store
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean replace(String key, ByteBuffer value) {
+		return client.replace(key, value);
+	}
+
+	/**
+	 * Updates data on the server, only if the key exists; the value is the bytes remaining in the
+	 * buffer, and an expiration time is specified.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            bytes to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @return true, if the data was successfully stored
+	 * @see #replace(String, ByteBuffer)
+	 */
+	public boolean replace(String key, ByteBuffer value, Date expiry) {
+		return client.replace(key, value, expiry);
+	}
+
+	/**
+	 * Updates data on the server, only if the key exists; the value is a region of the file,
+	 * stored as a byte array.<br/>
+	 * <br/>
+	 * The region is transferred from the file to the socket without being
+	 * read into the heap.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param src
+	 *            file to store bytes from
+	 * @param position
+	 *            position in the file of the first byte
+	 * @param count
+	 *            bytes to store
+	 * @return true, if the data was successfully stored
+	 */
+	public boolean replace(String key, FileChannel src, long position, long count) {
+		return client.replace(key, src, position, count);
+	}
+
+	/**
+	 * Updates data on the server, only if the key exists; the value is a region of the file, and
+	 * an expiration time is specified.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param src
+	 *            file to store bytes from
+	 * @param position
+	 *            position in the file of the first byte
+	 * @param count
+	 *            bytes to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @return true, if the data was successfully stored
+	 * @see #replace(String, FileChannel, long, long)
+	 */
+	public boolean replace(String key, FileChannel src, long position, long count, Date expiry) {
+		return client.replace(key, src, position, count, expiry);
+	}
+
 	/**
 	 * Store a counter to memcached given a key
 	 * 
@@ -1144,74 +1575,696 @@ public class MemCachedClient {
 		return client.gets(key, hashCode);
 	}
 
-	public void setTransCoder(TransCoder transCoder) {
-		client.setTransCoder(transCoder);
+	/**
+	 * Retrieve a key from the server and set its expiration in the same
+	 * command, e.g. to keep an active session alive without storing it
+	 * back.
+	 * 
+	 * @param key
+	 *            key where data is stored
+	 * @param expiry
+	 *            new expiration of the item
+	 * @return the object that was previously stored, or null if it was not
+	 *         previously stored
+	 */
+	public Object getAndTouch(String key, Date expiry) {
+		return client.getAndTouch(key, expiry);
 	}
 
 	/**
-	 * Retrieve a key from the server, using a specific hash.
-	 * 
-	 * If the data was compressed or serialized when compressed, it will
-	 * automatically<br/>
-	 * be decompressed or serialized, as appropriate. (Inclusive or)<br/>
-	 * <br/>
-	 * Non-serialized data will be returned as a string, so explicit conversion
-	 * to<br/>
-	 * numeric types will be necessary, if desired<br/>
+	 * Retrieve a key from the server and set its expiration, using a specific
+	 * hash.
 	 * 
 	 * @param key
 	 *            key where data is stored
+	 * @param expiry
+	 *            new expiration of the item
 	 * @param hashCode
 	 *            if not null, then the int hashcode to use
-	 * @param asString
-	 *            if true, then return string val
 	 * @return the object that was previously stored, or null if it was not
 	 *         previously stored
+	 * @see #getAndTouch(String, Date)
 	 */
-	public Object get(String key, Integer hashCode, boolean asString) {
-		return client.get(key, hashCode, asString);
+	public Object getAndTouch(String key, Date expiry, Integer hashCode) {
+		return client.getAndTouch(key, expiry, hashCode);
 	}
 
 	/**
-	 * Retrieve multiple objects from the memcache.
-	 * 
-	 * This is recommended over repeated calls to {@link #get(String) get()},
-	 * since it<br/>
-	 * is more efficient.<br/>
+	 * Retrieve an item with its cas unique and set its expiration in the same
+	 * command.
 	 * 
-	 * @param keys
-	 *            String array of keys to retrieve
-	 * @return Object array ordered in same order as key array containing
-	 *         results
+	 * @param key
+	 *            key where data is stored
+	 * @param expiry
+	 *            new expiration of the item
+	 * @return the item, or null if it is not found
+	 * @see #getAndTouch(String, Date)
 	 */
-	public Object[] getMultiArray(String[] keys) {
-		return client.getMultiArray(keys);
+	public MemcachedItem getsAndTouch(String key, Date expiry) {
+		return client.getsAndTouch(key, expiry);
 	}
 
 	/**
-	 * Retrieve multiple objects from the memcache.
-	 * 
-	 * This is recommended over repeated calls to {@link #get(String) get()},
-	 * since it<br/>
-	 * is more efficient.<br/>
+	 * Retrieve an item with its cas unique and set its expiration, using a
+	 * specific hash.
 	 * 
-	 * @param keys
-	 *            String array of keys to retrieve
-	 * @param hashCodes
-	 *            if not null, then the Integer array of hashCodes
-	 * @return Object array ordered in same order as key array containing
-	 *         results
+	 * @param key
+	 *            key where data is stored
+	 * @param expiry
+	 *            new expiration of the item
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return the item, or null if it is not found
+	 * @see #getAndTouch(String, Date)
 	 */
-	public Object[] getMultiArray(String[] keys, Integer[] hashCodes) {
-		return client.getMultiArray(keys, hashCodes);
+	public MemcachedItem getsAndTouch(String key, Date expiry, Integer hashCode) {
+		return client.getsAndTouch(key, expiry, hashCode);
 	}
 
 	/**
-	 * Retrieve multiple objects from the memcache.
+	 * Sets the expiration of an item without sending its value either way.
 	 * 
-	 * This is recommended over repeated calls to {@link #get(String) get()},
-	 * since it<br/>
-	 * is more efficient.<br/>
+	 * @param key
+	 *            key of the item
+	 * @param expiry
+	 *            new expiration of the item
+	 * @return true if the item is found and touched
+	 */
+	public boolean touch(String key, Date expiry) {
+		return client.touch(key, expiry);
+	}
+
+	/**
+	 * Sets the expiration of an item, using a specific hash.
+	 * 
+	 * @param key
+	 *            key of the item
+	 * @param expiry
+	 *            new expiration of the item
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return true if the item is found and touched
+	 */
+	public boolean touch(String key, Date expiry, Integer hashCode) {
+		return client.touch(key, expiry, hashCode);
+	}
+
+	/**
+	 * Retrieve an item as it is stored in the server.<br/>
+	 * <br/>
+	 * The value is neither decompressed nor decoded, the flags tell how it
+	 * was stored. It is read into a new heap buffer.
+	 * 
+	 * @param key
+	 *            key where data is stored
+	 * @return the item, or null if it is not found
+	 */
+	public RawItem getRaw(String key) {
+		return client.getRaw(key);
+	}
+
+	/**
+	 * Retrieve an item as it is stored in the server, the value is read into
+	 * the buffer supplied, which can be a direct buffer, without going through
+	 * the heap.
+	 * 
+	 * @param key
+	 *            key where data is stored
+	 * @param dst
+	 *            buffer to read the value into, its position is moved past
+	 *            the value
+	 * @return the item with the value as a slice of dst, or null if it is not
+	 *         found. If the value doesn't fit into dst, the item has a null
+	 *         value and the length of the value.
+	 */
+	public RawItem getRaw(String key, ByteBuffer dst) {
+		return client.getRaw(key, dst);
+	}
+
+	/**
+	 * Retrieve an item as it is stored in the server, using a specific hash.
+	 * 
+	 * @param key
+	 *            key where data is stored
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @param dst
+	 *            buffer to read the value into, or null to use a new heap
+	 *            buffer
+	 * @return the item, or null if it is not found
+	 * @see #getRaw(String, ByteBuffer)
+	 */
+	public RawItem getRaw(String key, Integer hashCode, ByteBuffer dst) {
+		return client.getRaw(key, hashCode, dst);
+	}
+
+	/**
+	 * Retrieve multiple items as they are stored in the server, the values
+	 * are neither decompressed nor decoded.
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @return a hashmap with entries for each key is found by the server
+	 */
+	public Map<String, RawItem> getMultiRaw(String[] keys) {
+		return client.getMultiRaw(keys);
+	}
+
+	/**
+	 * Retrieve multiple items as they are stored in the server, the values
+	 * are neither decompressed nor decoded.
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @param hashCodes
+	 *            if not null, then the Integer array of hashCodes
+	 * @return a hashmap with entries for each key is found by the server
+	 */
+	public Map<String, RawItem> getMultiRaw(String[] keys, Integer[] hashCodes) {
+		return client.getMultiRaw(keys, hashCodes);
+	}
+
+	/**
+	 * Retrieve the value of a key as a stream read right off the socket, so
+	 * big values aren't held in the heap as a whole.<br/>
+	 * <br/>
+	 * Compressed values are decompressed on the fly, other values are neither
+	 * decoded nor deserialized. The socket is returned to the pool when the
+	 * stream is fully read or closed, so the stream must always be closed.
+	 * 
+	 * @param key
+	 *            key where data is stored
+	 * @return the stream of the value, or null if it is not found
+	 */
+	public InputStream getAsStream(String key) {
+		return client.getAsStream(key);
+	}
+
+	/**
+	 * Retrieve the value of a key as a stream, using a specific hash.
+	 * 
+	 * @param key
+	 *            key where data is stored
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return the stream of the value, or null if it is not found
+	 * @see #getAsStream(String)
+	 */
+	public InputStream getAsStream(String key, Integer hashCode) {
+		return client.getAsStream(key, hashCode);
+	}
+
+	/**
+	 * Retrieve a key from the server without blocking the calling thread.<br/>
+	 * <br/>
+	 * The request is sent on a connection shared by the asynchronous
+	 * operations of the pool and the future is completed by the selector
+	 * thread when the response arrives, or failed when the operation times out
+	 * (see {@link #setOperationTimeout(long)}, the socket timeout of the pool
+	 * in default) or the connection breaks. Listeners added to the future run
+	 * on the selector thread, so they must never block.<br/>
+	 * <br/>
+	 * There is no failover, the key is always sent to its server.
+	 * 
+	 * @param key
+	 *            key where data is stored
+	 * @return future of the cached object, which is null if not found
+	 * @see SchoonerSockIOPool#setAsyncThreads(int)
+	 */
+	public OperationFuture<Object> getAsync(String key) {
+		return client.getAsync(key);
+	}
+
+	/**
+	 * Retrieve a key from the server without blocking, using a specific hash.
+	 * 
+	 * @param key
+	 *            key where data is stored
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return future of the cached object, which is null if not found
+	 * @see #getAsync(String)
+	 */
+	public OperationFuture<Object> getAsync(String key, Integer hashCode) {
+		return client.getAsync(key, hashCode);
+	}
+
+	/**
+	 * Retrieve multiple keys without blocking. The keys are sent to their
+	 * servers at once and the future is completed when all the servers have
+	 * responded. The keys of a server failed or timed out are left out of the
+	 * result, as {@link #getMulti(String[])} does.
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @return future of a map with entries for each key found
+	 * @see #getAsync(String)
+	 */
+	public OperationFuture<Map<String, Object>> getMultiAsync(String[] keys) {
+		return client.getMultiAsync(keys);
+	}
+
+	/**
+	 * Retrieve multiple keys without blocking, using specific hashes.
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @param hashCodes
+	 *            if not null, then the Integer array of hashCodes
+	 * @return future of a map with entries for each key found
+	 * @see #getMultiAsync(String[])
+	 */
+	public OperationFuture<Map<String, Object>> getMultiAsync(String[] keys, Integer[] hashCodes) {
+		return client.getMultiAsync(keys, hashCodes);
+	}
+
+	/**
+	 * Stores data on the server without blocking.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            value to store
+	 * @return future of true, if the data was successfully stored
+	 * @see #getAsync(String)
+	 */
+	public OperationFuture<Boolean> setAsync(String key, Object value) {
+		return client.setAsync(key, value);
+	}
+
+	/**
+	 * Stores data with an expiration on the server without blocking.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            value to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @return future of true, if the data was successfully stored
+	 */
+	public OperationFuture<Boolean> setAsync(String key, Object value, Date expiry) {
+		return client.setAsync(key, value, expiry);
+	}
+
+	/**
+	 * Stores data with an expiration on the server without blocking, using a
+	 * specific hash.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            value to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return future of true, if the data was successfully stored
+	 */
+	public OperationFuture<Boolean> setAsync(String key, Object value, Date expiry, Integer hashCode) {
+		return client.setAsync(key, value, expiry, hashCode);
+	}
+
+	/**
+	 * Adds data to the server without blocking, only if the key doesn't exist.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            value to store
+	 * @return future of true, if the data was successfully stored
+	 * @see #getAsync(String)
+	 */
+	public OperationFuture<Boolean> addAsync(String key, Object value) {
+		return client.addAsync(key, value);
+	}
+
+	/**
+	 * Adds data with an expiration to the server without blocking.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            value to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @return future of true, if the data was successfully stored
+	 */
+	public OperationFuture<Boolean> addAsync(String key, Object value, Date expiry) {
+		return client.addAsync(key, value, expiry);
+	}
+
+	/**
+	 * Adds data with an expiration to the server without blocking, using a
+	 * specific hash.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            value to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return future of true, if the data was successfully stored
+	 */
+	public OperationFuture<Boolean> addAsync(String key, Object value, Date expiry, Integer hashCode) {
+		return client.addAsync(key, value, expiry, hashCode);
+	}
+
+	/**
+	 * Updates data on the server without blocking, only if the key exists.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            value to store
+	 * @return future of true, if the data was successfully stored
+	 * @see #getAsync(String)
+	 */
+	public OperationFuture<Boolean> replaceAsync(String key, Object value) {
+		return client.replaceAsync(key, value);
+	}
+
+	/**
+	 * Updates data with an expiration on the server without blocking.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            value to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @return future of true, if the data was successfully stored
+	 */
+	public OperationFuture<Boolean> replaceAsync(String key, Object value, Date expiry) {
+		return client.replaceAsync(key, value, expiry);
+	}
+
+	/**
+	 * Updates data with an expiration on the server without blocking, using a
+	 * specific hash.
+	 * 
+	 * @param key
+	 *            key to store data under
+	 * @param value
+	 *            value to store
+	 * @param expiry
+	 *            when to expire the record
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return future of true, if the data was successfully stored
+	 */
+	public OperationFuture<Boolean> replaceAsync(String key, Object value, Date expiry, Integer hashCode) {
+		return client.replaceAsync(key, value, expiry, hashCode);
+	}
+
+	/**
+	 * Deletes an object from cache without blocking.
+	 * 
+	 * @param key
+	 *            the key to be removed
+	 * @return future of true, if the data was deleted successfully
+	 * @see #getAsync(String)
+	 */
+	public OperationFuture<Boolean> deleteAsync(String key) {
+		return client.deleteAsync(key);
+	}
+
+	/**
+	 * Deletes an object from cache without blocking, using a specific hash.
+	 * 
+	 * @param key
+	 *            the key to be removed
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return future of true, if the data was deleted successfully
+	 */
+	public OperationFuture<Boolean> deleteAsync(String key, Integer hashCode) {
+		return client.deleteAsync(key, hashCode);
+	}
+
+	/**
+	 * Increment the value at the specified key by passed in value without
+	 * blocking.
+	 * 
+	 * @param key
+	 *            key where the data is stored
+	 * @param inc
+	 *            how much to increment by
+	 * @return future of the new value, or -1 if not exist
+	 * @see #getAsync(String)
+	 */
+	public OperationFuture<Long> incrAsync(String key, long inc) {
+		return client.incrAsync(key, inc);
+	}
+
+	/**
+	 * Increment the value at the specified key without blocking, using a
+	 * specific hash.
+	 * 
+	 * @param key
+	 *            key where the data is stored
+	 * @param inc
+	 *            how much to increment by
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return future of the new value, or -1 if not exist
+	 */
+	public OperationFuture<Long> incrAsync(String key, long inc, Integer hashCode) {
+		return client.incrAsync(key, inc, hashCode);
+	}
+
+	/**
+	 * Decrement the value at the specified key by passed in value without
+	 * blocking.
+	 * 
+	 * @param key
+	 *            key where the data is stored
+	 * @param inc
+	 *            how much to decrement by
+	 * @return future of the new value, or -1 if not exist
+	 * @see #getAsync(String)
+	 */
+	public OperationFuture<Long> decrAsync(String key, long inc) {
+		return client.decrAsync(key, inc);
+	}
+
+	/**
+	 * Decrement the value at the specified key without blocking, using a
+	 * specific hash.
+	 * 
+	 * @param key
+	 *            key where the data is stored
+	 * @param inc
+	 *            how much to decrement by
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return future of the new value, or -1 if not exist
+	 */
+	public OperationFuture<Long> decrAsync(String key, long inc, Integer hashCode) {
+		return client.decrAsync(key, inc, hashCode);
+	}
+
+	/**
+	 * Stores multiple items at once. The items are grouped by server and
+	 * pipelined to all the servers in parallel, so the whole batch costs about
+	 * one round trip instead of one per key. The binary protocol sends quiet
+	 * commands, which are only answered on failure.<br/>
+	 * <br/>
+	 * There is no failover, each key is always sent to its server. The batch
+	 * waits for the operation timeout, or the max busy time of the pool.
+	 * 
+	 * @param items
+	 *            values to store by their keys
+	 * @return keys failed to be stored, empty if all succeeded
+	 * @see #setOperationTimeout(long)
+	 */
+	public Set<String> setMulti(Map<String, Object> items) {
+		return client.setMulti(items);
+	}
+
+	/**
+	 * Stores multiple items with an expiration at once.
+	 * 
+	 * @param items
+	 *            values to store by their keys
+	 * @param expiry
+	 *            when to expire the records
+	 * @return keys failed to be stored, empty if all succeeded
+	 * @see #setMulti(Map)
+	 */
+	public Set<String> setMulti(Map<String, Object> items, Date expiry) {
+		return client.setMulti(items, expiry);
+	}
+
+	/**
+	 * Adds multiple items at once, each of them is only stored if the key
+	 * doesn't exist.
+	 * 
+	 * @param items
+	 *            values to store by their keys
+	 * @return keys not stored, empty if all succeeded
+	 * @see #setMulti(Map)
+	 */
+	public Set<String> addMulti(Map<String, Object> items) {
+		return client.addMulti(items);
+	}
+
+	/**
+	 * Adds multiple items with an expiration at once.
+	 * 
+	 * @param items
+	 *            values to store by their keys
+	 * @param expiry
+	 *            when to expire the records
+	 * @return keys not stored, empty if all succeeded
+	 * @see #setMulti(Map)
+	 */
+	public Set<String> addMulti(Map<String, Object> items, Date expiry) {
+		return client.addMulti(items, expiry);
+	}
+
+	/**
+	 * Deletes multiple keys at once.
+	 * 
+	 * @param keys
+	 *            keys to delete
+	 * @return keys not deleted, including the ones not found, empty if all
+	 *         succeeded
+	 * @see #setMulti(Map)
+	 */
+	public Set<String> deleteMulti(String[] keys) {
+		return client.deleteMulti(keys);
+	}
+
+	/**
+	 * Starts a batch of unrelated operations, e.g. some gets, sets, a delete
+	 * and an incr for one request. The operations return futures of their
+	 * results and are sent by {@link Batch#execute()}, one pipelined request
+	 * per host with the hosts served in parallel, see
+	 * {@link #getAsync(String)}.
+	 * 
+	 * @return an empty batch
+	 */
+	public Batch batch() {
+		return client.batch();
+	}
+
+	/**
+	 * Stores multiple items at once, each only if it has not been updated
+	 * since its cas unique was got, e.g. by {@link #getsMulti(String[])}.
+	 * 
+	 * @param items
+	 *            items by their keys, with the value to store and the cas
+	 *            unique it was got with
+	 * @return keys not stored, including the ones updated or deleted
+	 *         meanwhile, empty if all succeeded
+	 * @see #setMulti(Map)
+	 */
+	public Set<String> casMulti(Map<String, MemcachedItem> items) {
+		return client.casMulti(items);
+	}
+
+	/**
+	 * Stores multiple items with an expiration at once, each only if its cas
+	 * unique matches.
+	 * 
+	 * @param items
+	 *            items by their keys, with the value to store and the cas
+	 *            unique it was got with
+	 * @param expiry
+	 *            when to expire the records
+	 * @return keys not stored, empty if all succeeded
+	 * @see #casMulti(Map)
+	 */
+	public Set<String> casMulti(Map<String, MemcachedItem> items, Date expiry) {
+		return client.casMulti(items, expiry);
+	}
+
+	/**
+	 * Sets the expiration of multiple items at once.
+	 * 
+	 * @param keys
+	 *            keys to touch
+	 * @param expiry
+	 *            new expiration of the items
+	 * @return keys not touched, including the ones not found, empty if all
+	 *         succeeded
+	 * @see #setMulti(Map)
+	 */
+	public Set<String> touchMulti(String[] keys, Date expiry) {
+		return client.touchMulti(keys, expiry);
+	}
+
+	public void setTransCoder(TransCoder transCoder) {
+		client.setTransCoder(transCoder);
+	}
+
+	/**
+	 * Retrieve a key from the server, using a specific hash.
+	 * 
+	 * If the data was compressed or serialized when compressed, it will
+	 * automatically<br/>
+	 * be decompressed or serialized, as appropriate. (Inclusive or)<br/>
+	 * <br/>
+	 * Non-serialized data will be returned as a string, so explicit conversion
+	 * to<br/>
+	 * numeric types will be necessary, if desired<br/>
+	 * 
+	 * @param key
+	 *            key where data is stored
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @param asString
+	 *            if true, then return string val
+	 * @return the object that was previously stored, or null if it was not
+	 *         previously stored
+	 */
+	public Object get(String key, Integer hashCode, boolean asString) {
+		return client.get(key, hashCode, asString);
+	}
+
+	/**
+	 * Retrieve multiple objects from the memcache.
+	 * 
+	 * This is recommended over repeated calls to {@link #get(String) get()},
+	 * since it<br/>
+	 * is more efficient.<br/>
+	 * 
+	 * @param keys
+	 *            String array of keys to retrieve
+	 * @return Object array ordered in same order as key array containing
+	 *         results
+	 */
+	public Object[] getMultiArray(String[] keys) {
+		return client.getMultiArray(keys);
+	}
+
+	/**
+	 * Retrieve multiple objects from the memcache.
+	 * 
+	 * This is recommended over repeated calls to {@link #get(String) get()},
+	 * since it<br/>
+	 * is more efficient.<br/>
+	 * 
+	 * @param keys
+	 *            String array of keys to retrieve
+	 * @param hashCodes
+	 *            if not null, then the Integer array of hashCodes
+	 * @return Object array ordered in same order as key array containing
+	 *         results
+	 */
+	public Object[] getMultiArray(String[] keys, Integer[] hashCodes) {
+		return client.getMultiArray(keys, hashCodes);
+	}
+
+	/**
+	 * Retrieve multiple objects from the memcache.
+	 * 
+	 * This is recommended over repeated calls to {@link #get(String) get()},
+	 * since it<br/>
+	 * is more efficient.<br/>
 	 * 
 	 * @param keys
 	 *            String array of keys to retrieve
@@ -1283,6 +2336,94 @@ public class MemCachedClient {
 		return client.getMulti(keys, hashCodes, asString);
 	}
 
+	/**
+	 * Retrieve multiple keys from the memcache with the status of every host
+	 * asked. A host that can't be connected, fails or times out doesn't fail
+	 * the others, its keys are fetched from their failover host in the same
+	 * call, see {@link com.schooner.MemCached.SchoonerSockIOPool#setFailover(boolean)}.
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @return the values found, the status of each host and the keys not
+	 *         fetched from any host, or null if no keys are passed
+	 */
+	public MultiGetReport getMultiReport(String[] keys) {
+		return client.getMultiReport(keys);
+	}
+
+	/**
+	 * Retrieve multiple keys from the memcache with the status of every host
+	 * asked, using specific hashes.
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @param hashCodes
+	 *            if not null, then the Integer array of hashCodes
+	 * @return the values found, the status of each host and the keys not
+	 *         fetched from any host, or null if no keys are passed
+	 * @see #getMultiReport(String[])
+	 */
+	public MultiGetReport getMultiReport(String[] keys, Integer[] hashCodes) {
+		return client.getMultiReport(keys, hashCodes);
+	}
+
+	/**
+	 * Retrieve multiple items with their cas unique, in one pipelined request
+	 * per server, e.g. to update them by {@link #casMulti(Map)}.
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @return a hashmap with an item for each key is found by the server
+	 */
+	public Map<String, MemcachedItem> getsMulti(String[] keys) {
+		return client.getsMulti(keys);
+	}
+
+	/**
+	 * Retrieve multiple items with their cas unique, using specific hashes.
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @param hashCodes
+	 *            if not null, then the Integer array of hashCodes
+	 * @return a hashmap with an item for each key is found by the server
+	 * @see #getsMulti(String[])
+	 */
+	public Map<String, MemcachedItem> getsMulti(String[] keys, Integer[] hashCodes) {
+		return client.getsMulti(keys, hashCodes);
+	}
+
+	/**
+	 * Retrieve multiple keys from the memcache and set the expiration of the
+	 * ones found, in one pipelined request per server.
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @param expiry
+	 *            new expiration of the items
+	 * @return a hashmap with entries for each key is found by the server
+	 */
+	public Map<String, Object> getMultiAndTouch(String[] keys, Date expiry) {
+		return client.getMultiAndTouch(keys, expiry);
+	}
+
+	/**
+	 * Retrieve multiple keys from the memcache and set the expiration of the
+	 * ones found, using specific hashes.
+	 * 
+	 * @param keys
+	 *            keys to retrieve
+	 * @param hashCodes
+	 *            if not null, then the Integer array of hashCodes
+	 * @param expiry
+	 *            new expiration of the items
+	 * @return a hashmap with entries for each key is found by the server
+	 * @see #getMultiAndTouch(String[], Date)
+	 */
+	public Map<String, Object> getMultiAndTouch(String[] keys, Integer[] hashCodes, Date expiry) {
+		return client.getMultiAndTouch(keys, hashCodes, expiry);
+	}
+
 	/**
 	 * Invalidates the entire cache.
 	 * 
@@ -1462,6 +2603,95 @@ public class MemCachedClient {
 		return client.cas(key, value, casUnique);
 	}
 
+	/**
+	 * Atomically updates an item by read-modify-write: gets the item, computes
+	 * the new value and stores it by cas, or by add if the item is not found.
+	 * If another client changes the item in between, the update backs off a
+	 * random while, growing with each retry, and starts over. Each attempt
+	 * returns its connection to the pool before backing off.<br/>
+	 * <br/>
+	 * Any other failure of the store, e.g. a value too large, ends the update
+	 * at once, and an exception thrown by the mutation is thrown to the
+	 * caller.
+	 * 
+	 * @param key
+	 *            key of the item
+	 * @param mutation
+	 *            computes the new value from the current one
+	 * @param maxRetries
+	 *            how many times to start over after a conflict
+	 * @param expiry
+	 *            when to expire the record
+	 * @return the value stored, null if the mutation returned null, the
+	 *         retries are exhausted, the backoff is interrupted or an error
+	 *         occurred
+	 * @see #getUpdateRetries()
+	 */
+	public Object update(String key, Mutation mutation, int maxRetries, Date expiry) {
+		return client.update(key, mutation, maxRetries, expiry);
+	}
+
+	/**
+	 * Atomically updates an item by read-modify-write.
+	 * 
+	 * @param key
+	 *            key of the item
+	 * @param mutation
+	 *            computes the new value from the current one
+	 * @param maxRetries
+	 *            how many times to start over after a conflict
+	 * @param expiry
+	 *            when to expire the record
+	 * @param hashCode
+	 *            if not null, then the int hashcode to use
+	 * @return the value stored, null if not updated
+	 * @see #update(String, Mutation, int, Date)
+	 */
+	public Object update(String key, Mutation mutation, int maxRetries, Date expiry, Integer hashCode) {
+		return client.update(key, mutation, maxRetries, expiry, hashCode);
+	}
+
+	/**
+	 * @return how many times the updates by this client started over because
+	 *         another client changed the item in between. The contended keys
+	 *         are logged at debug level, and at warn level when an update
+	 *         gives up.
+	 * @see #update(String, Mutation, int, Date)
+	 */
+	public long getUpdateRetries() {
+		return client.getUpdateRetries();
+	}
+
+	/**
+	 * @return how many updates by this client gave up after exhausting their
+	 *         retries.
+	 * @see #update(String, Mutation, int, Date)
+	 */
+	public long getUpdateFailures() {
+		return client.getUpdateFailures();
+	}
+
+	/**
+	 * sleeps a random while before an update starts over, up to twice as long
+	 * as the retry before, so that the clients contending for a key do not
+	 * retry in lockstep.
+	 * 
+	 * @param attempt
+	 *            number of the attempt which failed, from 0
+	 * @return false if interrupted, the update gives up then, the interrupt
+	 *         flag is set again
+	 */
+	protected static boolean backoff(int attempt) {
+		int bound = 1 << Math.min(attempt, MAX_BACKOFF_SHIFT);
+		try {
+			Thread.sleep(BACKOFF_RANDOM.get().nextInt(bound));
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
 	public boolean prepend(String key, Object value, Integer hashCode) {
 		return client.prepend(key, value, hashCode);
 	}
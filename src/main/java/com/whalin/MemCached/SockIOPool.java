@@ -218,6 +218,12 @@ public class SockIOPool {
 	public static final int NEW_COMPAT_HASH = SchoonerSockIOPool.NEW_COMPAT_HASH;
 	// MD5 Based -- Stops thrashing when a server added or removed
 	public static final int CONSISTENT_HASH = SchoonerSockIOPool.CONSISTENT_HASH;
+	// MD5 ring of libmemcached and spymemcached ketama
+	public static final int KETAMA_HASH = SchoonerSockIOPool.KETAMA_HASH;
+	// murmur3 based consistent ring
+	public static final int MURMUR3_HASH = SchoonerSockIOPool.MURMUR3_HASH;
+	// jump consistent hash
+	public static final int JUMP_HASH = SchoonerSockIOPool.JUMP_HASH;
 	// max of 10 minute delay for fall off
 	public static final long MAX_RETRY_DELAY = SchoonerSockIOPool.MAX_RETRY_DELAY;
 
@@ -345,7 +351,8 @@ public class SockIOPool {
 
 	/**
 	 * Sets the maximum number of spare connections allowed in our available
-	 * pool.
+	 * pool. Each TCP connection also keeps a selector open, which takes one or
+	 * more file descriptors of its own.
 	 * 
 	 * @param maxConn
 	 *            number of connections
@@ -562,6 +569,15 @@ public class SockIOPool {
 	 * original compatibility hashing alg (works with other clients)
 	 * SockIOPool.NEW_COMPAT_HASH (2) - new CRC32 based compatibility hashing
 	 * algorithm (fast and works with other clients)
+	 * SockIOPool.CONSISTENT_HASH (3) - MD5 based consistent hashing, stops
+	 * thrashing when a server is added or removed
+	 * SockIOPool.KETAMA_HASH (4) - MD5 based consistent hashing with the ring of
+	 * libmemcached and of spymemcached in its libmemcached key format, so that
+	 * the clients share one copy of the data
+	 * SockIOPool.MURMUR3_HASH (5) - murmur3 based consistent hashing, faster
+	 * than MD5
+	 * SockIOPool.JUMP_HASH (6) - jump consistent hash, fast and without a ring,
+	 * but only servers added or removed at the end of the list move few keys
 	 * 
 	 * @param alg
 	 *            int value representing hashing algorithm
@@ -645,6 +661,55 @@ public class SockIOPool {
 		return schoonerSockIOPool.getBufferSize();
 	}
 
+	/**
+	 * Sets the multiplexed mode, only works with TCP.<br>
+	 * <br>
+	 * In multiplexed mode the threads share a few connections per host instead
+	 * of holding one for each request, the requests are pipelined and the
+	 * responses are matched back to the callers.
+	 * 
+	 * @param multiplexed
+	 *            true to share connections among threads
+	 * @see SchoonerSockIOPool#setMultiplexed(boolean)
+	 */
+	public void setMultiplexed(boolean multiplexed) {
+		schoonerSockIOPool.setMultiplexed(multiplexed);
+	}
+
+	public boolean isMultiplexed() {
+		return schoonerSockIOPool.isMultiplexed();
+	}
+
+	/**
+	 * Sets the number of physical connections per host in multiplexed mode.
+	 * 
+	 * @param multiplexedConns
+	 *            connections per host
+	 */
+	public void setMultiplexedConns(int multiplexedConns) {
+		schoonerSockIOPool.setMultiplexedConns(multiplexedConns);
+	}
+
+	public int getMultiplexedConns() {
+		return schoonerSockIOPool.getMultiplexedConns();
+	}
+
+	/**
+	 * Sets the max direct memory of the buffers shared by the sockets, default
+	 * is 64MB.
+	 *
+	 * @param maxDirectMemory
+	 *            max bytes of direct memory
+	 * @see SchoonerSockIOPool#setMaxDirectMemory(long)
+	 */
+	public void setMaxDirectMemory(long maxDirectMemory) {
+		schoonerSockIOPool.setMaxDirectMemory(maxDirectMemory);
+	}
+
+	public long getMaxDirectMemory() {
+		return schoonerSockIOPool.getMaxDirectMemory();
+	}
+
 	/**
 	 * MemCached client for Java, utility class for Socket IO.
 	 * 
@@ -0,0 +1,73 @@
+package com.schooner.MemCached;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class ByteBufferPoolTest extends TestCase {
+
+	private static final int K = 1024;
+
+	public void testSizeClasses() {
+		ByteBufferPool pool = new ByteBufferPool(100 * K, 1024 * K);
+		int[] sizes = pool.getSizeClasses();
+		assertEquals(5, sizes.length);
+		assertEquals(8 * K, sizes[0]);
+		assertEquals(64 * K, sizes[3]);
+		assertEquals(100 * K, sizes[4]);
+
+		assertEquals(8 * K, pool.borrow(1).capacity());
+		assertEquals(16 * K, pool.borrow(8 * K + 1).capacity());
+		// capped by the largest class.
+		assertEquals(100 * K, pool.borrow(200 * K).capacity());
+	}
+
+	public void testReuse() {
+		ByteBufferPool pool = new ByteBufferPool(64 * K, 1024 * K);
+		ByteBuffer buf = pool.borrow(10 * K);
+		assertTrue(buf.isDirect());
+		buf.put((byte) 1);
+		assertEquals(16 * K, pool.getDirectMemoryInUse());
+		pool.release(buf);
+		assertEquals(0, pool.getDirectMemoryInUse());
+		assertEquals(1, pool.getFreeBuffers(1));
+
+		ByteBuffer again = pool.borrow(16 * K);
+		assertSame(buf, again);
+		assertEquals(0, again.position());
+		assertEquals(2, pool.getBorrowCount());
+		assertEquals(1, pool.getAllocateCount());
+		assertEquals(16 * K, pool.getDirectMemory());
+
+		// not one of ours.
+		pool.release(ByteBuffer.allocateDirect(10 * K));
+		pool.release(ByteBuffer.allocate(16 * K));
+		assertEquals(0, pool.getFreeBuffers(1));
+	}
+
+	public void testCapAndTrim() {
+		ByteBufferPool pool = new ByteBufferPool(64 * K, 32 * K);
+		ByteBuffer a = pool.borrow(16 * K);
+		ByteBuffer b = pool.borrow(16 * K);
+		assertEquals(32 * K, pool.getDirectMemory());
+
+		// over the cap with nothing free to trim.
+		ByteBuffer c = pool.borrow(8 * K);
+		assertFalse(c.isDirect());
+		assertEquals(1, pool.getHeapAllocateCount());
+		assertEquals(32 * K, pool.getDirectMemory());
+		pool.release(c);
+		assertEquals(0, pool.getFreeBuffers(0));
+
+		// a free buffer of another class is dropped to make room.
+		pool.release(a);
+		pool.release(b);
+		ByteBuffer d = pool.borrow(8 * K);
+		assertTrue(d.isDirect());
+		assertEquals(1, pool.getFreeBuffers(1));
+		assertEquals(24 * K, pool.getDirectMemory());
+		assertEquals(8 * K, pool.getDirectMemoryInUse());
+		assertEquals(3, pool.getAllocateCount());
+		assertTrue(pool.getDirectMemory() <= pool.getMaxDirectMemory());
+	}
+}
@@ -0,0 +1,178 @@
+package com.schooner.MemCached;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+
+public class LockFreeObjectPoolTest extends TestCase {
+
+	private Factory factory;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		factory = new Factory();
+	}
+
+	private LockFreeObjectPool newPool(int maxActive, long maxWait, int maxIdle, int minIdle,
+			long minEvictableIdleTimeMillis, boolean testWhileIdle, boolean lifo) {
+		return new LockFreeObjectPool(factory, maxActive, maxWait, maxIdle, minIdle, false, false, -1, -1,
+				minEvictableIdleTimeMillis, testWhileIdle, -1, lifo);
+	}
+
+	public void testMaxIdle() throws Exception {
+		LockFreeObjectPool pool = newPool(10, 1000, 2, 0, -1, false, true);
+		Object[] objs = new Object[5];
+		for (int i = 0; i < objs.length; i++)
+			objs[i] = pool.borrowObject();
+		assertEquals(5, pool.getNumActive());
+		for (int i = 0; i < objs.length; i++)
+			pool.returnObject(objs[i]);
+
+		assertEquals(0, pool.getNumActive());
+		assertEquals(2, pool.getNumIdle());
+		assertEquals(3, factory.destroyed.get());
+		pool.close();
+		assertEquals(5, factory.destroyed.get());
+	}
+
+	public void testMinIdle() throws Exception {
+		LockFreeObjectPool pool = newPool(4, 1000, 8, 3, -1, false, false);
+		pool.evict();
+		assertEquals(3, pool.getNumIdle());
+		assertEquals(3, factory.created.get());
+
+		// the idle objects are borrowed before new ones are made.
+		Object a = pool.borrowObject();
+		Object b = pool.borrowObject();
+		assertEquals(3, factory.created.get());
+
+		// never above maxActive.
+		pool.evict();
+		assertEquals(2, pool.getNumIdle());
+		assertEquals(4, factory.created.get());
+		pool.returnObject(a);
+		pool.returnObject(b);
+		assertEquals(4, pool.getNumIdle());
+		pool.close();
+	}
+
+	public void testMaxWait() throws Exception {
+		LockFreeObjectPool pool = newPool(1, 200, 8, 0, -1, false, true);
+		Object obj = pool.borrowObject();
+		long begin = System.currentTimeMillis();
+		try {
+			pool.borrowObject();
+			fail("borrowed above maxActive");
+		} catch (NoSuchElementException e) {
+			assertTrue(System.currentTimeMillis() - begin >= 150);
+		}
+		pool.returnObject(obj);
+		assertSame(obj, pool.borrowObject());
+		pool.close();
+	}
+
+	public void testEviction() throws Exception {
+		LockFreeObjectPool pool = newPool(10, 1000, 10, 0, 50, false, true);
+		Object[] objs = new Object[3];
+		for (int i = 0; i < objs.length; i++)
+			objs[i] = pool.borrowObject();
+		for (int i = 0; i < objs.length; i++)
+			pool.returnObject(objs[i]);
+
+		pool.evict();
+		assertEquals(3, pool.getNumIdle());
+		Thread.sleep(100);
+		pool.evict();
+		assertEquals(0, pool.getNumIdle());
+		assertEquals(3, factory.destroyed.get());
+		pool.close();
+	}
+
+	public void testEvictionUnderContentionLifo() throws Exception {
+		evictionUnderContention(true);
+	}
+
+	public void testEvictionUnderContentionFifo() throws Exception {
+		evictionUnderContention(false);
+	}
+
+	private void evictionUnderContention(boolean lifo) throws Exception {
+		// every idle object is tested or evicted on each run.
+		final LockFreeObjectPool pool = newPool(16, 5000, 16, 4, 1, true, lifo);
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicReference<String> error = new AtomicReference<String>();
+		int threads = 8;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread() {
+				public void run() {
+					try {
+						while (!stop.get()) {
+							Item item = (Item) pool.borrowObject();
+							if (item.destroyed.get())
+								error.set("borrowed a destroyed object");
+							if (!item.borrowed.compareAndSet(false, true))
+								error.set("borrowed an object twice");
+							item.borrowed.set(false);
+							pool.returnObject(item);
+						}
+					} catch (Exception e) {
+						error.set(e.toString());
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		long end = System.currentTimeMillis() + 1000;
+		while (System.currentTimeMillis() < end)
+			pool.evict();
+		stop.set(true);
+		done.await();
+
+		assertNull(error.get(), error.get());
+		assertEquals(0, pool.getNumActive());
+		assertEquals(factory.created.get() - factory.destroyed.get(), pool.getNumIdle());
+		pool.close();
+		assertEquals(factory.created.get(), factory.destroyed.get());
+		assertEquals(0, factory.destroyedTwice.get());
+	}
+
+	private static class Item {
+		final AtomicBoolean borrowed = new AtomicBoolean();
+		final AtomicBoolean destroyed = new AtomicBoolean();
+	}
+
+	private static class Factory extends BasePoolableObjectFactory {
+		final AtomicInteger created = new AtomicInteger();
+		final AtomicInteger destroyed = new AtomicInteger();
+		final AtomicInteger destroyedTwice = new AtomicInteger();
+
+		@Override
+		public Object makeObject() throws Exception {
+			created.incrementAndGet();
+			return new Item();
+		}
+
+		@Override
+		public void destroyObject(Object obj) throws Exception {
+			if (((Item) obj).destroyed.compareAndSet(false, true))
+				destroyed.incrementAndGet();
+			else
+				destroyedTwice.incrementAndGet();
+		}
+
+		@Override
+		public boolean validateObject(Object obj) {
+			return !((Item) obj).borrowed.get();
+		}
+	}
+}
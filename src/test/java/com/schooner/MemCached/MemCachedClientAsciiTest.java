@@ -29,15 +29,34 @@
 package com.schooner.MemCached;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import junit.framework.TestCase;
 
@@ -101,6 +120,28 @@ public class MemCachedClientAsciiTest extends TestCase {
 		}
 	}
 
+	/**
+	 * @return true if every server is memcached major.minor or later, which
+	 *         the embedded jmemcached is not.
+	 */
+	protected boolean isServerAtLeast(int major, int minor) {
+		Map<String, Map<String, String>> stats = mc.stats();
+		if (stats.isEmpty())
+			return false;
+		for (Map<String, String> stat : stats.values()) {
+			String[] version = String.valueOf(stat.get("version")).split("\\.");
+			try {
+				int serverMajor = Integer.parseInt(version[0]);
+				int serverMinor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+				if (serverMajor < major || (serverMajor == major && serverMinor < minor))
+					return false;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public void testFlushAll() {
 		mc.set("foo1", "bar1");
 		mc.set("foo2", "bar2");
@@ -121,6 +162,20 @@ public class MemCachedClientAsciiTest extends TestCase {
 		assertEquals(expected, actual);
 	}
 
+	public void testKeysExist() {
+		mc.set("foo", "bar");
+		mc.set("obj", new Date(0));
+		assertFalse(mc.keyExists("none"));
+		Set<String> existing = mc.keysExist(new String[] { "foo", "none", "obj" });
+		assertEquals(2, existing.size());
+		assertTrue(existing.contains("foo"));
+		assertTrue(existing.contains("obj"));
+		assertEquals("bar", mc.get("foo"));
+		assertNull(mc.get("none"));
+		assertFalse(mc.keyExists("none"));
+		assertTrue(mc.keysExist(new String[] { "none" }).isEmpty());
+	}
+
 	public void testSetBoolean() {
 		assertTrue(mc.set("foo", Boolean.TRUE));
 		Boolean b = (Boolean) mc.get("foo");
@@ -264,6 +319,39 @@ public class MemCachedClientAsciiTest extends TestCase {
 		assertNull(mc.get("foo"));
 	}
 
+	public void testTouch() {
+		// jmemcached has neither touch nor gat.
+		if (!isServerAtLeast(1, 6))
+			return;
+		assertFalse(mc.touch("foo", new Date(100000)));
+		mc.set("foo", "bar", new Date(1000));
+		assertTrue(mc.touch("foo", new Date(100000)));
+		try {
+			Thread.sleep(2000);
+		} catch (Exception ex) {
+		}
+		assertEquals("bar", mc.getAndTouch("foo", new Date(100000)));
+		assertNull(mc.getAndTouch("none", new Date(100000)));
+		MemcachedItem item = mc.getsAndTouch("foo", new Date(1000));
+		assertEquals("bar", item.getValue());
+		assertEquals(mc.gets("foo").getCasUnique(), item.getCasUnique());
+
+		mc.set("obj", 5L);
+		Set<String> failed = mc.touchMulti(new String[] { "foo", "none", "obj" }, new Date(100000));
+		assertEquals(1, failed.size());
+		assertTrue(failed.contains("none"));
+		Map<String, Object> results = mc.getMultiAndTouch(new String[] { "foo", "none", "obj" }, new Date(1000));
+		assertEquals(2, results.size());
+		assertEquals("bar", results.get("foo"));
+		assertEquals(5L, results.get("obj"));
+		try {
+			Thread.sleep(2000);
+		} catch (Exception ex) {
+		}
+		assertNull(mc.get("foo"));
+		assertNull(mc.get("obj"));
+	}
+
 	public void testIncr() {
 		long i = 0;
 		long j = mc.addOrIncr("foo", i); // now == 0
@@ -326,6 +414,16 @@ public class MemCachedClientAsciiTest extends TestCase {
 		assertEquals(4, j);
 	}
 
+	public void testAddOrIncrCounter() {
+		assertEquals(5, mc.addOrIncr("cnt", 5));
+		assertEquals("5", mc.get("cnt"));
+		assertEquals(5, mc.getCounter("cnt"));
+		assertEquals(8, mc.addOrIncr("cnt", 3));
+		assertEquals(6, mc.addOrDecr("cnt", 2));
+		assertEquals("6", mc.getMulti(new String[] { "cnt" }).get("cnt"));
+		assertEquals(2, mc.addOrDecr("other", 2));
+	}
+
 	public void testAddOrDecrString() {
 
 		long expected, actual;
@@ -437,6 +535,523 @@ public class MemCachedClientAsciiTest extends TestCase {
 		assertTrue(Arrays.equals((byte[]) mc.get("foo"), b));
 	}
 
+	public void testSetLargeByteArray() {
+		byte[] b = new byte[300 * 1024];
+		for (int i = 0; i < b.length; i++)
+			b[i] = (byte) i;
+
+		assertTrue(mc.set("foo", b));
+		assertTrue(Arrays.equals((byte[]) mc.get("foo"), b));
+		assertTrue(mc.append("foo", b));
+		assertEquals(b.length * 2, ((byte[]) mc.get("foo")).length);
+	}
+
+	public void testGetRaw() {
+		assertNull(mc.getRaw("foo"));
+
+		byte[] b = new byte[64 * 1024];
+		for (int i = 0; i < b.length; i++)
+			b[i] = (byte) i;
+		assertTrue(mc.set("foo", b));
+		RawItem item = mc.getRaw("foo");
+		assertEquals(b.length, item.getLength());
+		byte[] value = new byte[item.getLength()];
+		item.getValue().get(value);
+		assertTrue(Arrays.equals(b, value));
+
+		// read into the caller's buffer
+		ByteBuffer dst = ByteBuffer.allocateDirect(b.length + 16);
+		dst.position(16);
+		item = mc.getRaw("foo", dst);
+		assertEquals(b.length + 16, dst.position());
+		assertEquals(0, item.getValue().position());
+		assertEquals(b.length, item.getValue().remaining());
+		item.getValue().get(value);
+		assertTrue(Arrays.equals(b, value));
+
+		// too small buffer, only the length is returned.
+		dst.clear();
+		dst.limit(10);
+		item = mc.getRaw("foo", dst);
+		assertEquals(b.length, item.getLength());
+		assertNull(item.getValue());
+		assertEquals(0, dst.position());
+		// the socket is still usable.
+		assertTrue(mc.set("foo", "bar"));
+		item = mc.getRaw("foo", dst);
+		assertFalse(item.isCompressed());
+		assertEquals(ByteBuffer.wrap("bar".getBytes()), item.getValue());
+	}
+
+	public void testGetMultiRaw() {
+		String[] keys = { "foo", "bar", "baz" };
+		mc.set("foo", "foo value");
+		mc.set("baz", "baz value");
+		Map<String, RawItem> items = mc.getMultiRaw(keys);
+		assertEquals(2, items.size());
+		assertNull(items.get("bar"));
+		assertEquals(ByteBuffer.wrap("foo value".getBytes()), items.get("foo").getValue());
+		assertEquals(ByteBuffer.wrap("baz value".getBytes()), items.get("baz").getValue());
+	}
+
+	public void testGetAsStream() throws IOException {
+		assertNull(mc.getAsStream("foo"));
+
+		byte[] b = new byte[64 * 1024];
+		for (int i = 0; i < b.length; i++)
+			b[i] = (byte) i;
+		assertTrue(mc.set("foo", b));
+		InputStream in = mc.getAsStream("foo");
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] tmp = new byte[1000];
+		int n;
+		while ((n = in.read(tmp)) != -1)
+			bos.write(tmp, 0, n);
+		in.close();
+		assertTrue(Arrays.equals(b, bos.toByteArray()));
+
+		// close before the value is read, the socket is still usable.
+		in = mc.getAsStream("foo");
+		assertEquals(b[0], (byte) in.read());
+		in.close();
+		assertEquals(-1, in.read());
+		assertTrue(mc.set("foo", "bar"));
+		assertEquals("bar", mc.get("foo"));
+	}
+
+	public void testSetFromBuffer() throws IOException {
+		byte[] b = new byte[64 * 1024];
+		for (int i = 0; i < b.length; i++)
+			b[i] = (byte) i;
+		ByteBuffer src = ByteBuffer.allocateDirect(b.length);
+		src.put(b);
+		src.flip();
+		assertTrue(mc.set("foo", src));
+		assertEquals(0, src.position());
+		assertTrue(Arrays.equals(b, (byte[]) mc.get("foo")));
+		assertFalse(mc.add("foo", src));
+		assertTrue(mc.replace("foo", ByteBuffer.wrap(b, 0, 10)));
+		assertTrue(Arrays.equals(Arrays.copyOf(b, 10), (byte[]) mc.get("foo")));
+	}
+
+	public void testSetFromFile() throws IOException {
+		byte[] b = new byte[64 * 1024];
+		for (int i = 0; i < b.length; i++)
+			b[i] = (byte) i;
+		File file = File.createTempFile("memcached", null);
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(b);
+			out.close();
+			FileChannel src = new FileInputStream(file).getChannel();
+			try {
+				assertTrue(mc.set("foo", src, 0, b.length));
+				assertTrue(Arrays.equals(b, (byte[]) mc.get("foo")));
+				assertTrue(mc.add("bar", src, 100, 10));
+				assertTrue(Arrays.equals(Arrays.copyOfRange(b, 100, 110), (byte[]) mc.get("bar")));
+				// the file ends before the region.
+				assertFalse(mc.set("foo", src, b.length - 10, 20));
+				assertTrue(mc.set("foo", "bar"));
+			} finally {
+				src.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testBatch() throws Exception {
+		mc.set("foo", "bar");
+		mc.set("num", "5");
+		TestClass tc = new TestClass("foo", "bar", new Integer(32));
+		Batch batch = mc.batch();
+		OperationFuture<Object> foo = batch.get("foo");
+		OperationFuture<Object> none = batch.get("none");
+		OperationFuture<MemcachedItem> item = batch.gets("foo");
+		OperationFuture<Boolean> set = batch.set("obj", tc);
+		OperationFuture<Boolean> add = batch.add("foo", "baz");
+		OperationFuture<Long> incr = batch.incr("num", 2);
+		OperationFuture<Long> missing = batch.decr("none", 1);
+		OperationFuture<Boolean> delete = batch.delete("foo");
+		OperationFuture<Object> deleted = batch.get("foo");
+		OperationFuture<Boolean> failed = batch.set(null, "bar");
+		assertEquals(9, batch.size());
+		batch.execute();
+
+		assertEquals("bar", foo.get(5, TimeUnit.SECONDS));
+		assertNull(none.get());
+		assertEquals("bar", item.get().getValue());
+		assertTrue(item.get().getCasUnique() != 0);
+		assertTrue(set.get());
+		assertFalse(add.get());
+		assertEquals(7L, incr.get().longValue());
+		assertEquals(-1L, missing.get().longValue());
+		assertTrue(delete.get());
+		assertNull(deleted.get());
+		assertTrue(failed.getCause() instanceof IllegalArgumentException);
+		assertEquals(tc, mc.get("obj"));
+
+		try {
+			batch.execute();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	public void testUpdate() {
+		Mutation append = new Mutation() {
+			public Object apply(Object value) {
+				return value == null ? "a" : value + "a";
+			}
+		};
+		assertEquals("a", mc.update("foo", append, 0, null));
+		assertEquals("aa", mc.update("foo", append, 0, null));
+		assertEquals("aa", mc.get("foo"));
+
+		// another client changes the item once in between.
+		final int[] calls = new int[1];
+		Mutation contended = new Mutation() {
+			public Object apply(Object value) {
+				if (calls[0]++ == 0)
+					mc.set("foo", "b");
+				return value + "c";
+			}
+		};
+		long retries = mc.getUpdateRetries();
+		assertNull(mc.update("foo", contended, 0, null));
+		assertEquals("b", mc.get("foo"));
+		calls[0] = 0;
+		assertEquals("bc", mc.update("foo", contended, 3, null));
+		assertEquals("bc", mc.get("foo"));
+		assertEquals(retries + 1, mc.getUpdateRetries());
+
+		assertNull(mc.update("foo", new Mutation() {
+			public Object apply(Object value) {
+				return null;
+			}
+		}, 3, null));
+		assertEquals("bc", mc.get("foo"));
+
+		// an exception of the mutation goes to the caller, the socket goes
+		// back to the pool.
+		LockFreeObjectPool sockets = SchoonerSockIOPool.getInstance("test").socketPool.get(serverlist[0]);
+		int active = sockets == null ? 0 : sockets.getNumActive();
+		try {
+			mc.update("foo", new Mutation() {
+				public Object apply(Object value) {
+					throw new IllegalStateException("mutation failed");
+				}
+			}, 3, null);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(active, sockets == null ? 0 : sockets.getNumActive());
+		assertEquals("bc", mc.get("foo"));
+	}
+
+	public void testGetsMulti() {
+		mc.set("foo", "bar");
+		mc.set("obj", 5L);
+		Map<String, MemcachedItem> items = mc.getsMulti(new String[] { "foo", "none", "obj" });
+		assertEquals(2, items.size());
+		assertEquals("bar", items.get("foo").getValue());
+		assertEquals(mc.gets("foo").getCasUnique(), items.get("foo").getCasUnique());
+		assertEquals(5L, items.get("obj").getValue());
+
+		mc.set("obj", 6L);
+		items.get("foo").value = "baz";
+		items.get("obj").value = 7L;
+		Set<String> failed = mc.casMulti(items);
+		assertEquals(1, failed.size());
+		assertTrue(failed.contains("obj"));
+		assertEquals("baz", mc.get("foo"));
+		assertEquals(6L, mc.get("obj"));
+	}
+
+	public void testSetMulti() {
+		Map<String, Object> items = new HashMap<String, Object>();
+		for (int i = 0; i < 500; i++)
+			items.put("key" + i, "value" + i);
+		items.put("obj", new TestClass("foo", "bar", new Integer(32)));
+		assertTrue(mc.setMulti(items).isEmpty());
+		assertEquals("value10", mc.get("key10"));
+		assertEquals(items.get("obj"), mc.get("obj"));
+
+		Map<String, Object> more = new HashMap<String, Object>();
+		more.put("key1", "other");
+		more.put("new", "value");
+		Set<String> failed = mc.addMulti(more);
+		assertEquals(1, failed.size());
+		assertTrue(failed.contains("key1"));
+		assertEquals("value", mc.get("new"));
+
+		failed = mc.deleteMulti(new String[] { "key1", "key2", "none" });
+		assertEquals(1, failed.size());
+		assertTrue(failed.contains("none"));
+		assertNull(mc.get("key1"));
+		assertEquals("value3", mc.get("key3"));
+	}
+
+	public void testNoreply() {
+		mc.setNoreply(true);
+		assertTrue(mc.isNoreply());
+		for (int i = 0; i < 250; i++)
+			assertTrue(mc.set("key" + i, "value" + i));
+		assertTrue(mc.add("key1", "other"));
+		assertTrue(mc.delete("key2"));
+		mc.storeCounter("counter", 5L);
+		assertEquals(-1, mc.incr("counter", 3));
+		assertEquals(10, mc.addOrIncr("counter", 2));
+		assertFalse(mc.cas("key3", "other", mc.gets("key3").getCasUnique() + 1));
+
+		// the replies are waited for again.
+		mc.setNoreply(false);
+		assertEquals("value1", mc.get("key1"));
+		assertNull(mc.get("key2"));
+		assertEquals("value249", mc.get("key249"));
+		assertFalse(mc.add("key1", "other"));
+	}
+
+	public void testAsync() throws Exception {
+		assertTrue(mc.setAsync("foo", "bar").get());
+		assertTrue(mc.setAsync("num", "5").get());
+		assertFalse(mc.addAsync("foo", "baz").get());
+		TestClass tc = new TestClass("foo", "bar", new Integer(32));
+		assertTrue(mc.setAsync("obj", tc).get(5, TimeUnit.SECONDS));
+
+		assertEquals("bar", mc.getAsync("foo").get());
+		assertEquals(tc, mc.getAsync("obj").get());
+		assertNull(mc.getAsync("none").get());
+		assertEquals(7L, mc.incrAsync("num", 2).get().longValue());
+		assertEquals(6L, mc.decrAsync("num", 1).get().longValue());
+
+		OperationFuture<Map<String, Object>> multi = mc.getMultiAsync(new String[] { "foo", "obj", "none" });
+		final CountDownLatch done = new CountDownLatch(1);
+		multi.addListener(new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, multi.get().size());
+		assertEquals("bar", multi.get().get("foo"));
+
+		assertTrue(mc.deleteAsync("foo").get());
+		assertFalse(mc.deleteAsync("foo").get());
+		assertNull(mc.get("foo"));
+	}
+
+	public void testOperationTimeout() throws Exception {
+		// accepts connections but never answers.
+		ServerSocket server = new ServerSocket(0);
+		SockIOPool pool = SockIOPool.getInstance("silent");
+		pool.setServers(new String[] { "127.0.0.1:" + server.getLocalPort() });
+		pool.setSocketTO(30000);
+		pool.initialize();
+		try {
+			MemCachedClient silent = new MemCachedClient("silent");
+			silent.setOperationTimeout(100);
+			long start = System.currentTimeMillis();
+			assertNull(silent.get("foo"));
+			assertTrue(System.currentTimeMillis() - start < 5000);
+			start = System.currentTimeMillis();
+			assertTrue(silent.getMulti(new String[] { "foo", "bar" }).isEmpty());
+			assertTrue(System.currentTimeMillis() - start < 5000);
+			try {
+				silent.getAsync("foo").get(5, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof SocketTimeoutException);
+			} catch (TimeoutException e) {
+				fail();
+			}
+		} finally {
+			pool.shutDown();
+			server.close();
+		}
+	}
+
+	public void testAsyncDeadHost() throws Exception {
+		// never accepts, the connects beyond its backlog hang.
+		ServerSocket server = new ServerSocket(0, 1);
+		List<Socket> backlog = new ArrayList<Socket>();
+		for (int i = 0; i < 4; i++) {
+			Socket s = new Socket();
+			try {
+				s.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()), 200);
+				backlog.add(s);
+			} catch (IOException e) {
+				s.close();
+			}
+		}
+		String host = "127.0.0.1:" + server.getLocalPort();
+		SockIOPool pool = SockIOPool.getInstance("unreachable");
+		pool.setServers(new String[] { host });
+		pool.setSocketConnectTO(1000);
+		pool.initialize();
+		try {
+			MemCachedClient unreachable = newClient("unreachable");
+			long start = System.currentTimeMillis();
+			Future<Object> first = unreachable.getAsync("foo");
+			assertTrue(System.currentTimeMillis() - start < 500);
+			try {
+				first.get(5, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+
+			// marked dead, fails at once.
+			start = System.currentTimeMillis();
+			try {
+				unreachable.getAsync("foo").get(5, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+			assertTrue(System.currentTimeMillis() - start < 500);
+		} finally {
+			pool.shutDown();
+			for (Socket s : backlog)
+				s.close();
+			server.close();
+		}
+	}
+
+	public void testGetMultiReport() throws Exception {
+		String[] keys = new String[20];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = "report" + i;
+			mc.set(keys[i], "value" + i);
+		}
+
+		MultiGetReport report = mc.getMultiReport(keys);
+		assertTrue(report.isComplete());
+		assertEquals(keys.length, report.getValues().size());
+		assertEquals(Integer.valueOf(MultiGetReport.OK), report.getHostStatus().get(serverlist[0]));
+
+		// the second server accepts connections but never answers, its keys
+		// are fetched from the first one after the timeout.
+		ServerSocket server = new ServerSocket(0);
+		String silentHost = "127.0.0.1:" + server.getLocalPort();
+		SockIOPool pool = SockIOPool.getInstance("half");
+		pool.setServers(new String[] { serverlist[0], silentHost });
+		pool.initialize();
+		try {
+			MemCachedClient half = newClient("half");
+			half.setOperationTimeout(200);
+			report = half.getMultiReport(keys);
+			assertTrue(report.isComplete());
+			for (int i = 0; i < keys.length; i++)
+				assertEquals("value" + i, report.getValues().get(keys[i]));
+			assertEquals(Integer.valueOf(MultiGetReport.OK), report.getHostStatus().get(serverlist[0]));
+			assertEquals(Integer.valueOf(MultiGetReport.TIMED_OUT), report.getHostStatus().get(silentHost));
+
+			// without failover the keys of the silent server are lost, but
+			// the values of the first one are still returned.
+			pool.setFailover(false);
+			report = half.getMultiReport(keys);
+			assertFalse(report.isComplete());
+			assertEquals(keys.length, report.getValues().size() + report.getFailedKeys().size());
+			assertFalse(report.getValues().isEmpty());
+			for (String key : report.getFailedKeys())
+				assertFalse(report.getValues().containsKey(key));
+		} finally {
+			pool.shutDown();
+			server.close();
+		}
+	}
+
+	public void testRouteKey() {
+		String deadHost = "127.0.0.1:1";
+		SchoonerSockIOPool pool = SchoonerSockIOPool.getInstance("route");
+		pool.setServers(new String[] { serverlist[0], deadHost });
+		pool.setFailback(false);
+		pool.initialize();
+		try {
+			String deadKey = null;
+			for (int i = 0; deadKey == null; i++) {
+				if (deadHost.equals(pool.getServer("route" + i, null)))
+					deadKey = "route" + i;
+			}
+
+			// not known to be dead before a connect fails.
+			assertEquals(deadHost, pool.routeKey(deadKey, null));
+			assertNull(pool.getConnection(deadHost));
+			assertEquals(serverlist[0], pool.routeKey(deadKey, null));
+
+			mc.set(deadKey, "bar");
+			MultiGetReport report = newClient("route").getMultiReport(new String[] { deadKey });
+			assertEquals("bar", report.getValues().get(deadKey));
+			assertEquals(Collections.singletonMap(serverlist[0], MultiGetReport.OK), report.getHostStatus());
+
+			pool.setFailover(false);
+			assertNull(pool.routeKey(deadKey, null));
+		} finally {
+			pool.shutDown();
+		}
+	}
+
+	public void testOperationDeadline() throws Exception {
+		// answers each line after 100ms.
+		final ServerSocket server = new ServerSocket(0);
+		new Thread() {
+			public void run() {
+				try {
+					while (true) {
+						final Socket s = server.accept();
+						new Thread() {
+							public void run() {
+								try {
+									InputStream in = s.getInputStream();
+									int b;
+									while ((b = in.read()) != -1) {
+										if (b == '\n') {
+											Thread.sleep(100);
+											s.getOutputStream().write("VERSION 1\r\n".getBytes());
+										}
+									}
+								} catch (Exception e) {
+									// closed by the pool.
+								}
+							}
+						}.start();
+					}
+				} catch (IOException e) {
+					// closed by the test.
+				}
+			}
+		}.start();
+
+		String host = "127.0.0.1:" + server.getLocalPort();
+		SchoonerSockIOPool pool = SchoonerSockIOPool.getInstance("deadline");
+		pool.setServers(new String[] { host });
+		pool.setSocketTO(300);
+		pool.initialize();
+		try {
+			SchoonerSockIO sock = pool.getConnection(host);
+			sock.write("version\r\n".getBytes());
+			assertEquals("VERSION 1", sock.readLine());
+
+			// the time spent between two operations is not charged to the
+			// next one.
+			Thread.sleep(500);
+			sock.write("version\r\n".getBytes());
+			assertEquals("VERSION 1", sock.readLine());
+			sock.close();
+		} finally {
+			pool.shutDown();
+			server.close();
+		}
+	}
+
+	/**
+	 * @return a client of the pool with the protocol of this test.
+	 */
+	protected MemCachedClient newClient(String poolName) {
+		return new MemCachedClient(poolName);
+	}
+
 	public void testSetObj() {
 		TestClass tc = new TestClass("foo", "bar", new Integer(32));
 		mc.set("foo", tc);
@@ -35,10 +35,14 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
@@ -136,6 +140,20 @@ public class MemCachedClientBinaryTest extends TestCase {
 		assertEquals(expected, actual);
 	}
 
+	public void testKeysExist() {
+		mc.set("foo", "bar");
+		mc.set("obj", new Date(0));
+		assertFalse(mc.keyExists("none"));
+		Set<String> existing = mc.keysExist(new String[] { "foo", "none", "obj" });
+		assertEquals(2, existing.size());
+		assertTrue(existing.contains("foo"));
+		assertTrue(existing.contains("obj"));
+		assertEquals("bar", mc.get("foo"));
+		assertNull(mc.get("none"));
+		assertFalse(mc.keyExists("none"));
+		assertTrue(mc.keysExist(new String[] { "none" }).isEmpty());
+	}
+
 	public void testSetBoolean() {
 		mc.set("foo", Boolean.TRUE);
 		Boolean b = (Boolean) mc.get("foo");
@@ -344,6 +362,36 @@ public class MemCachedClientBinaryTest extends TestCase {
 		assertNull(mc.get("foo"));
 	}
 
+	public void testTouch() {
+		assertFalse(mc.touch("foo", new Date(100000)));
+		mc.set("foo", "bar", new Date(1000));
+		assertTrue(mc.touch("foo", new Date(100000)));
+		try {
+			Thread.sleep(2000);
+		} catch (Exception ex) {
+		}
+		assertEquals("bar", mc.getAndTouch("foo", new Date(100000)));
+		assertNull(mc.getAndTouch("none", new Date(100000)));
+		MemcachedItem item = mc.getsAndTouch("foo", new Date(1000));
+		assertEquals("bar", item.getValue());
+		assertEquals(mc.gets("foo").getCasUnique(), item.getCasUnique());
+
+		mc.set("obj", 5L);
+		Set<String> failed = mc.touchMulti(new String[] { "foo", "none", "obj" }, new Date(100000));
+		assertEquals(1, failed.size());
+		assertTrue(failed.contains("none"));
+		Map<String, Object> results = mc.getMultiAndTouch(new String[] { "foo", "none", "obj" }, new Date(1000));
+		assertEquals(2, results.size());
+		assertEquals("bar", results.get("foo"));
+		assertEquals(5L, results.get("obj"));
+		try {
+			Thread.sleep(2000);
+		} catch (Exception ex) {
+		}
+		assertNull(mc.get("foo"));
+		assertNull(mc.get("obj"));
+	}
+
 	public void testIncr() {
 		assertEquals(mc.incr(null), -1);
 		long i = 0;
@@ -403,6 +451,16 @@ public class MemCachedClientBinaryTest extends TestCase {
 		assertEquals(4, j);
 	}
 
+	public void testAddOrIncrCounter() {
+		assertEquals(5, mc.addOrIncr("cnt", 5));
+		assertEquals("5", mc.get("cnt"));
+		assertEquals(5, mc.getCounter("cnt"));
+		assertEquals(8, mc.addOrIncr("cnt", 3));
+		assertEquals(6, mc.addOrDecr("cnt", 2));
+		assertEquals("6", mc.getMulti(new String[] { "cnt" }).get("cnt"));
+		assertEquals(2, mc.addOrDecr("other", 2));
+	}
+
 	public void testAddOrDecrString() {
 
 		long expected, actual;
@@ -542,6 +600,206 @@ public class MemCachedClientBinaryTest extends TestCase {
 		assertTrue(Arrays.equals((byte[]) mc.get("foo"), b));
 	}
 
+	public void testGetMultiReport() throws Exception {
+		String[] keys = new String[20];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = "report" + i;
+			mc.set(keys[i], "value" + i);
+		}
+
+		MultiGetReport report = mc.getMultiReport(keys);
+		assertTrue(report.isComplete());
+		assertEquals(keys.length, report.getValues().size());
+		assertEquals(Integer.valueOf(MultiGetReport.OK), report.getHostStatus().get(serverlist[0]));
+
+		// the second server accepts connections but never answers, its keys
+		// are fetched from the first one after the timeout.
+		ServerSocket server = new ServerSocket(0);
+		String silentHost = "127.0.0.1:" + server.getLocalPort();
+		SockIOPool pool = SockIOPool.getInstance("half");
+		pool.setServers(new String[] { serverlist[0], silentHost });
+		pool.initialize();
+		try {
+			MemCachedClient half = new MemCachedClient("half", true);
+			half.setOperationTimeout(200);
+			report = half.getMultiReport(keys);
+			assertTrue(report.isComplete());
+			for (int i = 0; i < keys.length; i++)
+				assertEquals("value" + i, report.getValues().get(keys[i]));
+			assertEquals(Integer.valueOf(MultiGetReport.OK), report.getHostStatus().get(serverlist[0]));
+			assertEquals(Integer.valueOf(MultiGetReport.TIMED_OUT), report.getHostStatus().get(silentHost));
+
+			// without failover the keys of the silent server are lost, but
+			// the values of the first one are still returned.
+			pool.setFailover(false);
+			report = half.getMultiReport(keys);
+			assertFalse(report.isComplete());
+			assertEquals(keys.length, report.getValues().size() + report.getFailedKeys().size());
+			assertFalse(report.getValues().isEmpty());
+			for (String key : report.getFailedKeys())
+				assertFalse(report.getValues().containsKey(key));
+		} finally {
+			pool.shutDown();
+			server.close();
+		}
+	}
+
+
+	public void testBatch() throws Exception {
+		mc.set("foo", "bar");
+		mc.set("num", "5");
+		TestClass tc = new TestClass("foo", "bar", new Integer(32));
+		Batch batch = mc.batch();
+		OperationFuture<Object> foo = batch.get("foo");
+		OperationFuture<Object> none = batch.get("none");
+		OperationFuture<MemcachedItem> item = batch.gets("foo");
+		OperationFuture<Boolean> set = batch.set("obj", tc);
+		OperationFuture<Boolean> add = batch.add("foo", "baz");
+		OperationFuture<Long> incr = batch.incr("num", 2);
+		OperationFuture<Long> missing = batch.decr("none", 1);
+		OperationFuture<Boolean> delete = batch.delete("foo");
+		OperationFuture<Object> deleted = batch.get("foo");
+		OperationFuture<Boolean> failed = batch.set(null, "bar");
+		assertEquals(9, batch.size());
+		batch.execute();
+
+		assertEquals("bar", foo.get(5, TimeUnit.SECONDS));
+		assertNull(none.get());
+		assertEquals("bar", item.get().getValue());
+		assertTrue(item.get().getCasUnique() != 0);
+		assertTrue(set.get());
+		assertFalse(add.get());
+		assertEquals(7L, incr.get().longValue());
+		// the missing counter is created, as by the blocking decr.
+		assertEquals(0L, missing.get().longValue());
+		assertTrue(delete.get());
+		assertNull(deleted.get());
+		assertTrue(failed.getCause() instanceof IllegalArgumentException);
+		assertEquals(tc, mc.get("obj"));
+
+		try {
+			batch.execute();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	public void testUpdate() {
+		Mutation append = new Mutation() {
+			public Object apply(Object value) {
+				return value == null ? "a" : value + "a";
+			}
+		};
+		assertEquals("a", mc.update("foo", append, 0, null));
+		assertEquals("aa", mc.update("foo", append, 0, null));
+		assertEquals("aa", mc.get("foo"));
+
+		// another client changes the item once in between.
+		final int[] calls = new int[1];
+		Mutation contended = new Mutation() {
+			public Object apply(Object value) {
+				if (calls[0]++ == 0)
+					mc.set("foo", "b");
+				return value + "c";
+			}
+		};
+		long retries = mc.getUpdateRetries();
+		assertNull(mc.update("foo", contended, 0, null));
+		assertEquals("b", mc.get("foo"));
+		calls[0] = 0;
+		assertEquals("bc", mc.update("foo", contended, 3, null));
+		assertEquals("bc", mc.get("foo"));
+		assertEquals(retries + 1, mc.getUpdateRetries());
+
+		assertNull(mc.update("foo", new Mutation() {
+			public Object apply(Object value) {
+				return null;
+			}
+		}, 3, null));
+		assertEquals("bc", mc.get("foo"));
+
+		// an exception of the mutation goes to the caller, the socket goes
+		// back to the pool.
+		LockFreeObjectPool sockets = SchoonerSockIOPool.getInstance("test").socketPool.get(serverlist[0]);
+		int active = sockets == null ? 0 : sockets.getNumActive();
+		try {
+			mc.update("foo", new Mutation() {
+				public Object apply(Object value) {
+					throw new IllegalStateException("mutation failed");
+				}
+			}, 3, null);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(active, sockets == null ? 0 : sockets.getNumActive());
+		assertEquals("bc", mc.get("foo"));
+	}
+
+	public void testGetsMulti() {
+		mc.set("foo", "bar");
+		mc.set("obj", 5L);
+		Map<String, MemcachedItem> items = mc.getsMulti(new String[] { "foo", "none", "obj" });
+		assertEquals(2, items.size());
+		assertEquals("bar", items.get("foo").getValue());
+		assertEquals(mc.gets("foo").getCasUnique(), items.get("foo").getCasUnique());
+		assertEquals(5L, items.get("obj").getValue());
+
+		mc.set("obj", 6L);
+		items.get("foo").value = "baz";
+		items.get("obj").value = 7L;
+		Set<String> failed = mc.casMulti(items);
+		assertEquals(1, failed.size());
+		assertTrue(failed.contains("obj"));
+		assertEquals("baz", mc.get("foo"));
+		assertEquals(6L, mc.get("obj"));
+	}
+
+	public void testSetMulti() {
+		Map<String, Object> items = new HashMap<String, Object>();
+		for (int i = 0; i < 500; i++)
+			items.put("key" + i, "value" + i);
+		items.put("obj", new TestClass("foo", "bar", new Integer(32)));
+		assertTrue(mc.setMulti(items).isEmpty());
+		assertEquals("value10", mc.get("key10"));
+		assertEquals(items.get("obj"), mc.get("obj"));
+
+		Map<String, Object> more = new HashMap<String, Object>();
+		more.put("key1", "other");
+		more.put("new", "value");
+		Set<String> failed = mc.addMulti(more);
+		assertEquals(1, failed.size());
+		assertTrue(failed.contains("key1"));
+		assertEquals("value", mc.get("new"));
+
+		failed = mc.deleteMulti(new String[] { "key1", "key2", "none" });
+		assertEquals(1, failed.size());
+		assertTrue(failed.contains("none"));
+		assertNull(mc.get("key1"));
+		assertEquals("value3", mc.get("key3"));
+	}
+
+	public void testAsync() throws Exception {
+		assertTrue(mc.setAsync("foo", "bar").get());
+		assertTrue(mc.setAsync("num", "5").get());
+		assertFalse(mc.addAsync("foo", "baz").get());
+		TestClass tc = new TestClass("foo", "bar", new Integer(32));
+		assertTrue(mc.setAsync("obj", tc).get(5, TimeUnit.SECONDS));
+
+		assertEquals("bar", mc.getAsync("foo").get());
+		assertEquals(tc, mc.getAsync("obj").get());
+		assertNull(mc.getAsync("none").get());
+		assertEquals(7L, mc.incrAsync("num", 2).get().longValue());
+		assertEquals(6L, mc.decrAsync("num", 1).get().longValue());
+
+		Map<String, Object> multi = mc.getMultiAsync(new String[] { "foo", "obj", "none" }).get(5, TimeUnit.SECONDS);
+		assertEquals(2, multi.size());
+		assertEquals(tc, multi.get("obj"));
+
+		assertTrue(mc.deleteAsync("foo").get());
+		assertFalse(mc.deleteAsync("foo").get());
+		assertNull(mc.get("foo"));
+	}
+
 	public void testSetObj() {
 		TestClass tc = new TestClass("foo", "bar", new Integer(32));
 		mc.set("foo", tc);
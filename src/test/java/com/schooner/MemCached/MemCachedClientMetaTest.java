@@ -0,0 +1,71 @@
+package com.schooner.MemCached;
+
+import java.util.Date;
+
+import com.whalin.MemCached.MemCachedClient;
+
+/**
+ * runs the ascii tests with the meta commands, it needs memcached 1.6+ given
+ * by -Dmemcached.host. Against an older server, or the embedded jmemcached,
+ * the tests pass without running.
+ */
+public class MemCachedClientMetaTest extends MemCachedClientAsciiTest {
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		mc = new MemCachedClient("test", MemCachedClient.PROTOCOL_META);
+	}
+
+	protected void runTest() throws Throwable {
+		if (isServerAtLeast(1, 6))
+			super.runTest();
+	}
+
+	protected MemCachedClient newClient(String poolName) {
+		return new MemCachedClient(poolName, MemCachedClient.PROTOCOL_META);
+	}
+
+	public void testMetaGet() {
+		assertNull(mc.metaGet("foo"));
+		mc.set("foo", "bar", new Date(100000));
+		MetaItem item = mc.metaGet("foo");
+		assertEquals("bar", item.getValue());
+		assertEquals(mc.gets("foo").getCasUnique(), item.getCasUnique());
+		assertTrue(item.getTtl() > 0);
+		assertFalse(item.isWin());
+
+		item = mc.metaGet("foo", null, new Date(0), 0, 0);
+		assertEquals(-1, mc.metaGet("foo").getTtl());
+	}
+
+	public void testVivify() {
+		MetaItem first = mc.metaGet("foo", null, null, 30, 0);
+		assertTrue(first.isWin());
+		assertNull(first.getValue());
+		MetaItem second = mc.metaGet("foo", null, null, 30, 0);
+		assertFalse(second.isWin());
+		assertTrue(second.isWinSent());
+
+		assertTrue(mc.set("foo", "bar"));
+		assertEquals("bar", mc.metaGet("foo").getValue());
+	}
+
+	public void testInvalidate() {
+		assertFalse(mc.invalidate("foo"));
+		mc.set("foo", "bar");
+		assertTrue(mc.invalidate("foo"));
+		MetaItem item = mc.metaGet("foo");
+		assertTrue(item.isStale());
+		assertTrue(item.isWin());
+		assertEquals("bar", item.getValue());
+		assertTrue(mc.metaGet("foo").isWinSent());
+	}
+
+	public void testUnsupported() {
+		try {
+			new MemCachedClient("test").metaGet("foo");
+			fail();
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.schooner.MemCached;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.whalin.MemCached.SockIOPool;
+
+/**
+ * Runs the ascii test cases again with all threads sharing one connection.
+ */
+public class MemCachedClientMultiplexedTest extends MemCachedClientAsciiTest {
+
+	protected void setUp() throws Exception {
+		SockIOPool.getInstance("test").setMultiplexed(true);
+		super.setUp();
+	}
+
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		SockIOPool.getInstance("test").setMultiplexed(false);
+	}
+
+	public void testIsMultiplexed() {
+		assertTrue(SockIOPool.getInstance("test").isMultiplexed());
+		SchoonerSockIO sock = SchoonerSockIOPool.getInstance("test").getSock("foo");
+		assertTrue(sock instanceof MultiplexedSockIO);
+		sock.close();
+	}
+
+	public void testConcurrentRequests() throws Exception {
+		final AtomicInteger errors = new AtomicInteger();
+		Thread[] threads = new Thread[16];
+		for (int i = 0; i < threads.length; i++) {
+			final int id = i;
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 200; j++) {
+						String key = "mux_" + id + "_" + j;
+						if (!mc.set(key, key))
+							errors.incrementAndGet();
+						if (!key.equals(mc.get(key)))
+							errors.incrementAndGet();
+						if (!mc.delete(key))
+							errors.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		assertEquals(0, errors.get());
+	}
+}
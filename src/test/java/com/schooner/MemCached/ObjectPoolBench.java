@@ -0,0 +1,73 @@
+package com.schooner.MemCached;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.ObjectPool;
+import org.apache.commons.pool.impl.GenericObjectPool;
+
+/**
+ * Compares borrow/return throughput of {@link LockFreeObjectPool} with the
+ * commons-pool {@link GenericObjectPool} it replaced.<br>
+ * <br>
+ * Command line args: args[0] = number of threads, args[1] = borrow/return
+ * pairs per thread, args[2] = max active objects of the pool.
+ */
+public class ObjectPoolBench {
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int maxActive = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+
+		for (int round = 0; round < 3; round++) {
+			GenericObjectPool gop = new GenericObjectPool(new DummyFactory(), maxActive,
+					GenericObjectPool.WHEN_EXHAUSTED_BLOCK, 1000, maxActive);
+			LockFreeObjectPool lfp = new LockFreeObjectPool(new DummyFactory(), maxActive, 1000, maxActive, 0,
+					false, false, -1, 3, 1000 * 60 * 30, false, -1, true);
+
+			System.out.println("round " + round);
+			run("GenericObjectPool", gop, threads, runs);
+			run("LockFreeObjectPool", lfp, threads, runs);
+			gop.close();
+			lfp.close();
+		}
+	}
+
+	private static void run(String name, final ObjectPool pool, int threads, final int runs) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread() {
+				public void run() {
+					try {
+						start.await();
+						for (int j = 0; j < runs; j++) {
+							Object obj = pool.borrowObject();
+							pool.returnObject(obj);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapse = (System.nanoTime() - begin) / 1000000;
+		long ops = (long) threads * runs;
+		System.out.println(name + ": " + ops + " borrow/return in " + elapse + " ms, " + (ops * 1000 / Math.max(elapse, 1))
+				+ " ops/s");
+	}
+
+	private static class DummyFactory extends BasePoolableObjectFactory {
+		@Override
+		public Object makeObject() throws Exception {
+			return new Object();
+		}
+	}
+}
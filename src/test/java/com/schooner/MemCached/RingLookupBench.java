@@ -0,0 +1,85 @@
+package com.schooner.MemCached;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Compares lookups of the consistent hash ring as the TreeMap it was with the
+ * sorted long array of {@link RoutingTable}, and the whole routing of a key
+ * by the table.<br>
+ * <br>
+ * Command line args: args[0] = number of servers, args[1] = lookups per
+ * round.
+ */
+public class RingLookupBench {
+
+	public static void main(String[] args) throws Exception {
+		int servers = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+
+		// the same number of points as the ring of the pool, 160 per server.
+		Random random = new Random(0);
+		TreeMap<Long, Integer> tree = new TreeMap<Long, Integer>();
+		while (tree.size() < servers * 160)
+			tree.put(random.nextLong() & 0xffffffffL, tree.size() % servers);
+		long[] points = new long[tree.size()];
+		int[] hosts = new int[tree.size()];
+		int n = 0;
+		for (Long point : tree.keySet()) {
+			points[n] = point;
+			hosts[n++] = tree.get(point);
+		}
+
+		String[] names = new String[servers];
+		for (int i = 0; i < servers; i++)
+			names[i] = "10.0.0." + i + ":11211";
+		RoutingTable table = new RoutingTable(names, null, SchoonerSockIOPool.CONSISTENT_HASH);
+
+		long[] hashes = new long[1024];
+		String[] keys = new String[hashes.length];
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = random.nextLong() & 0xffffffffL;
+			keys[i] = "key_" + i;
+		}
+
+		for (int round = 0; round < 3; round++) {
+			System.out.println("round " + round);
+
+			long sum = 0;
+			long begin = System.nanoTime();
+			for (int i = 0; i < runs; i++) {
+				long hv = hashes[i & 1023];
+				SortedMap<Long, Integer> tmap = tree.tailMap(hv);
+				sum += tmap.isEmpty() ? tree.get(tree.firstKey()) : tree.get(tmap.firstKey());
+			}
+			report("TreeMap.tailMap", begin, runs, sum);
+
+			sum = 0;
+			begin = System.nanoTime();
+			for (int i = 0; i < runs; i++) {
+				int p = Arrays.binarySearch(points, hashes[i & 1023]);
+				if (p < 0) {
+					p = -p - 1;
+					if (p == points.length)
+						p = 0;
+				}
+				sum += hosts[p];
+			}
+			report("long[] binarySearch", begin, runs, sum);
+
+			sum = 0;
+			begin = System.nanoTime();
+			for (int i = 0; i < runs; i++)
+				sum += table.getHostIndex(table.getSlot(keys[i & 1023], null));
+			report("RoutingTable md5 + lookup", begin, runs, sum);
+		}
+	}
+
+	private static void report(String name, long begin, int runs, long sum) {
+		long elapse = Math.max((System.nanoTime() - begin) / 1000000, 1);
+		System.out.println(name + ": " + runs + " lookups in " + elapse + " ms, " + ((long) runs * 1000 / elapse)
+				+ " ops/s (" + sum + ")");
+	}
+}
@@ -0,0 +1,123 @@
+package com.schooner.MemCached;
+
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+import junit.framework.TestCase;
+
+public class RoutingTableTest extends TestCase {
+
+	private static final String[] SERVERS = new String[] { "10.0.1.1:11211", "10.0.1.2:11212", "10.0.1.3:11213" };
+
+	private static final String[] KEYS = new String[] { "key0", "key1", "key2", "key3", "key4", "key5", "key6",
+			"key7", "key8", "key9" };
+
+	public void testRoutingTable() {
+		RoutingTable table = new RoutingTable(new String[] { "a:1", "b:1", "c:1" }, new Integer[] { 2, 1, 1 },
+				SchoonerSockIOPool.NATIVE_HASH);
+		assertEquals(4, table.getSlotCount());
+		assertEquals(0, table.getHostIndex(1));
+		// the failover order of a slot visits every other host.
+		assertEquals(2, table.nextSlot(0));
+		assertEquals(2, table.nextSlot(1));
+		assertEquals(3, table.nextSlot(2));
+		assertEquals(0, table.nextSlot(3));
+
+		table = new RoutingTable(new String[] { "a:1", "b:1", "c:1" }, null, SchoonerSockIOPool.CONSISTENT_HASH);
+		assertEquals(3 * 40 * 4, table.getSlotCount());
+		// the ring wraps around past its last point.
+		assertEquals(0, table.getSlot(null, 0));
+		assertEquals(0, table.getSlot(null, -1));
+		for (int slot = 0; slot < table.getSlotCount(); slot++) {
+			boolean[] seen = new boolean[3];
+			seen[table.getHostIndex(slot)] = true;
+			int next = slot;
+			for (int i = 0; i < table.getSlotCount(); i++) {
+				int prev = next;
+				next = table.nextSlot(next);
+				assertTrue(table.getHostIndex(next) != table.getHostIndex(prev));
+				seen[table.getHostIndex(next)] = true;
+			}
+			assertTrue(seen[0] && seen[1] && seen[2]);
+		}
+
+		assertEquals(-1, new RoutingTable(new String[] { "a:1" }, null, SchoonerSockIOPool.NATIVE_HASH).nextSlot(0));
+	}
+
+	public void testKeyHashes() throws Exception {
+		for (String key : new String[] { "foo", "", "caf\u00e9", "\u4e2d\u6587", "\ud83d\ude00" }) {
+			byte[] bytes = key.getBytes("UTF-8");
+			byte[] d = MessageDigest.getInstance("MD5").digest(bytes);
+			long md5 = ((long) (d[3] & 0xFF) << 24) | ((long) (d[2] & 0xFF) << 16) | ((long) (d[1] & 0xFF) << 8)
+					| (long) (d[0] & 0xFF);
+			assertEquals(md5, RoutingTable.md5HashingAlg(key));
+
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			assertEquals((crc.getValue() >> 16) & 0x7fff, RoutingTable.newCompatHashingAlg(key));
+		}
+	}
+
+	public void testKetamaLabel() {
+		assertEquals("10.0.1.1-0", RoutingTable.ketamaLabel(SERVERS[0], 0));
+		assertEquals("10.0.1.2:11212-39", RoutingTable.ketamaLabel(SERVERS[1], 39));
+	}
+
+	/**
+	 * Servers of the keys as the continuum of libmemcached picks them, with
+	 * MEMCACHED_BEHAVIOR_KETAMA_WEIGHTED set.
+	 */
+	public void testKetama() {
+		assertKetama(null, new int[] { 0, 0, 2, 0, 0, 2, 1, 1, 2, 2 });
+		assertKetama(new Integer[] { 1, 2, 1 }, new int[] { 2, 1, 1, 1, 0, 1, 1, 1, 1, 2 });
+	}
+
+	private void assertKetama(Integer[] weights, int[] hosts) {
+		RoutingTable table = new RoutingTable(SERVERS, weights, SchoonerSockIOPool.KETAMA_HASH);
+		assertEquals(3 * 40 * 4, table.getSlotCount());
+		for (int i = 0; i < KEYS.length; i++) {
+			assertEquals(KEYS[i], hosts[i], table.getHostIndex(table.getSlot(KEYS[i], null)));
+			assertEquals(table.getSlot(KEYS[i], null), table.getSlot(null, (int) RoutingTable.md5HashingAlg(KEYS[i])));
+		}
+	}
+
+	public void testMurmur3() {
+		assertEquals(0L, RoutingTable.murmur3HashingAlg(""));
+		assertEquals(0x248bfa47L, RoutingTable.murmur3HashingAlg("hello"));
+		assertEquals(0x2e4ff723L, RoutingTable.murmur3HashingAlg("The quick brown fox jumps over the lazy dog"));
+
+		RoutingTable table = new RoutingTable(new String[] { "a:1", "b:1", "c:1" }, null,
+				SchoonerSockIOPool.MURMUR3_HASH);
+		assertEquals(3 * 40 * 4, table.getSlotCount());
+		assertEquals(table.getSlot(null, (int) RoutingTable.murmur3HashingAlg("foo")), table.getSlot("foo", null));
+	}
+
+	public void testJumpHash() {
+		for (int n = 1; n < 20; n++)
+			assertEquals(0, RoutingTable.jumpConsistentHash(0, n));
+		// buckets of the reference code of the paper.
+		assertEquals(6, RoutingTable.jumpConsistentHash(1, 10));
+		assertEquals(6, RoutingTable.jumpConsistentHash(2, 10));
+		assertEquals(29, RoutingTable.jumpConsistentHash(12345, 100));
+		assertEquals(285, RoutingTable.jumpConsistentHash(0xdeadbeefL, 1000));
+		assertEquals(2, RoutingTable.jumpConsistentHash(-1, 7));
+
+		// a key either stays or moves to the added bucket.
+		for (long key = 1; key < 1000; key++) {
+			int bucket = RoutingTable.jumpConsistentHash(key * 0x9e3779b97f4a7c15L, 1);
+			assertEquals(0, bucket);
+			for (int n = 2; n < 50; n++) {
+				int next = RoutingTable.jumpConsistentHash(key * 0x9e3779b97f4a7c15L, n);
+				assertTrue(next == bucket || next == n - 1);
+				bucket = next;
+			}
+		}
+
+		RoutingTable table = new RoutingTable(new String[] { "a:1", "b:1", "c:1" }, new Integer[] { 2, 1, 1 },
+				SchoonerSockIOPool.JUMP_HASH);
+		assertEquals(4, table.getSlotCount());
+		assertEquals(RoutingTable.jumpConsistentHash(RoutingTable.murmur3HashingAlg("foo"), 4), table.getSlot("foo",
+				null));
+		assertEquals(RoutingTable.jumpConsistentHash(-7, 4), table.getSlot(null, -7));
+	}
+}